@@ -0,0 +1,57 @@
+package com.birbit.android.jobqueue;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Exposes the setters of {@link Constraint} so that benchmarks can query a {@link JobQueue}
+ * directly, the same way {@code JobManagerThread} does.
+ */
+public class BenchmarkConstraint extends Constraint {
+    @Override
+    public void setMaxNetworkType(int maxNetworkType) {
+        super.setMaxNetworkType(maxNetworkType);
+    }
+
+    @Override
+    public void setTagConstraint(TagConstraint tagConstraint) {
+        super.setTagConstraint(tagConstraint);
+    }
+
+    @Override
+    public void setTags(String[] tags) {
+        super.setTags(tags);
+    }
+
+    @Override
+    public void setExcludeRunning(boolean excludeRunning) {
+        super.setExcludeRunning(excludeRunning);
+    }
+
+    @Override
+    public void setExcludeGroups(Collection<String> excludeGroups) {
+        super.setExcludeGroups(excludeGroups);
+    }
+
+    @Override
+    public void setTimeLimit(Long timeLimit) {
+        super.setTimeLimit(timeLimit);
+    }
+
+    @Override
+    public void setFairShare(FairShare fairShare) {
+        super.setFairShare(fairShare);
+    }
+
+    public static FairShare createFairShare(Map<String, Integer> weights) {
+        return new FairShare(weights);
+    }
+
+    /**
+     * Charges the fairness key of the job like {@code ConsumerManager} does when it hands the job
+     * to a consumer.
+     */
+    public static void onJobStarted(FairShare fairShare, JobHolder holder) {
+        fairShare.onJobStarted(holder);
+    }
+}
@@ -0,0 +1,46 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.RetryConstraint;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A Job that does no work. Persistent instances are deserialized before they run so the signal
+ * to wait on is kept in a static field.
+ */
+public class BenchmarkJob extends Job {
+    private static final long serialVersionUID = 1L;
+
+    static volatile CountDownLatch runLatch;
+
+    public BenchmarkJob(Params params) {
+        super(params);
+    }
+
+    @Override
+    public void onAdded() {
+    }
+
+    @Override
+    public void onRun() throws Throwable {
+        CountDownLatch latch = runLatch;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    @Override
+    protected void onCancel(int cancelReason, @Nullable Throwable throwable) {
+    }
+
+    @Override
+    protected RetryConstraint shouldReRunOnThrowable(@NonNull Throwable throwable, int runCount,
+            int maxRunCount) {
+        return RetryConstraint.CANCEL;
+    }
+}
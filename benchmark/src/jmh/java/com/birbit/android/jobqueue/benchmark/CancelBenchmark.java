@@ -0,0 +1,97 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import com.birbit.android.jobqueue.CancelResult;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JobManager#cancelJobs(TagConstraint, String...)} on a persistent queue.
+ * <p>
+ * Before each call, {@link #jobCount} persistent jobs are added to a stopped JobManager, half of
+ * them with the cancelled tag. The reported time covers finding, loading and removing the tagged
+ * jobs.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CancelBenchmark {
+    private static final String TAG = "cancel";
+
+    @Param({"10000"})
+    public int jobCount;
+
+    @Param({"false", "true"})
+    public boolean storeInDatabase;
+
+    private JvmContext context;
+    private JobManager jobManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new JvmContext(new File(System.getProperty("java.io.tmpdir"),
+                "jobqueue-benchmark-" + UUID.randomUUID()));
+        Configuration.Builder builder = new Configuration.Builder(context)
+                .id("cancel-benchmark")
+                .networkUtil(new ConnectedNetworkUtil());
+        if (storeInDatabase) {
+            builder.storeJobsInDatabase();
+        }
+        jobManager = new JobManager(builder.build());
+        jobManager.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void addJobs() {
+        List<Job> jobs = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            Params params = new Params(1).persist().addTags("tag" + (i % 16));
+            if (i % 2 == 0) {
+                params.addTags(TAG);
+            }
+            jobs.add(new BenchmarkJob(params));
+        }
+        jobManager.addJobs(jobs);
+    }
+
+    @TearDown(Level.Invocation)
+    public void clear() {
+        jobManager.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jobManager.destroy();
+        context.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CancelResult cancelByTag() {
+        return jobManager.cancelJobs(TagConstraint.ANY, TAG);
+    }
+}
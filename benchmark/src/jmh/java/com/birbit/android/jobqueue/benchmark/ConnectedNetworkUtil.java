@@ -0,0 +1,21 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import android.content.Context;
+
+import com.birbit.android.jobqueue.network.NetworkEventProvider;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+/**
+ * Always reports an unmetered connection. It is an event provider so that the JobManager does
+ * not poll the network status while the benchmark runs.
+ */
+public class ConnectedNetworkUtil implements NetworkUtil, NetworkEventProvider {
+    @Override
+    public int getNetworkStatus(Context context) {
+        return NetworkUtil.UNMETERED;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+    }
+}
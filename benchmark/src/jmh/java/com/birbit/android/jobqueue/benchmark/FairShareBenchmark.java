@@ -0,0 +1,204 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import com.birbit.android.jobqueue.BenchmarkConstraint;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates a heavy tenant that adds a large backlog at once while a few light tenants add a job
+ * every few milliseconds, all with the same priority, and reports how long the jobs of each kind
+ * of tenant wait before they start.
+ * <p>
+ * Time is simulated: every tick is a millisecond in which each consumer runs one job. The score
+ * is the time it takes to drain the queue, the wait times of the last drain are reported as extra
+ * counters in simulated milliseconds. Without fair share, the light tenants wait for the whole backlog of the heavy one.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FairShareBenchmark {
+    private static final String HEAVY = "heavy";
+    private static final int HEAVY_JOBS = 1000;
+    private static final int LIGHT_TENANTS = 4;
+    // each light tenant adds a job every LIGHT_INTERVAL ticks until ADD_TICKS
+    private static final int LIGHT_INTERVAL = 10;
+    private static final int ADD_TICKS = 200;
+    private static final int CONSUMERS = 4;
+
+    @Param({"simple", "indexed", "sqlite"})
+    public String queue;
+
+    @Param({"false", "true"})
+    public boolean fairShare;
+
+    private JvmContext context;
+    private JobQueue jobQueue;
+    private SqliteJobQueue sqliteJobQueue;
+    private BenchmarkConstraint constraint;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long sessionId = 1;
+        if ("sqlite".equals(queue)) {
+            context = new JvmContext(new File(System.getProperty("java.io.tmpdir"),
+                    "jobqueue-benchmark-" + UUID.randomUUID()));
+            SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+            Configuration configuration = new Configuration.Builder(context)
+                    .id("fair-share-benchmark")
+                    .jobSerializer(serializer)
+                    .networkUtil(new ConnectedNetworkUtil())
+                    .build();
+            sqliteJobQueue = new SqliteJobQueue(configuration, sessionId, serializer);
+            jobQueue = sqliteJobQueue;
+        } else if ("indexed".equals(queue)) {
+            jobQueue = new IndexedInMemoryPriorityQueue(null, sessionId);
+        } else {
+            jobQueue = new SimpleInMemoryPriorityQueue(null, sessionId);
+        }
+        constraint = new BenchmarkConstraint();
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        constraint.setExcludeRunning(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jobQueue.clear();
+        if (sqliteJobQueue != null) {
+            sqliteJobQueue.getDb().close();
+            context.delete();
+        }
+    }
+
+    @Benchmark
+    public long drain(WaitTimes waitTimes) {
+        constraint.setFairShare(fairShare
+                ? BenchmarkConstraint.createFairShare(Collections.<String, Integer>emptyMap())
+                : null);
+        final boolean persistent = sqliteJobQueue != null;
+        for (int i = 0; i < HEAVY_JOBS; i++) {
+            jobQueue.insert(createHolder(HEAVY, 0, persistent));
+        }
+        long[] heavyWaits = new long[HEAVY_JOBS];
+        long[] lightWaits = new long[LIGHT_TENANTS * ADD_TICKS / LIGHT_INTERVAL];
+        int heavyCount = 0;
+        int lightCount = 0;
+        int pending = HEAVY_JOBS;
+        for (long tick = 0; tick < ADD_TICKS || pending > 0; tick++) {
+            if (tick < ADD_TICKS) {
+                for (int tenant = 0; tenant < LIGHT_TENANTS; tenant++) {
+                    // spread the tenants over the interval
+                    if (tick % LIGHT_INTERVAL == tenant * LIGHT_INTERVAL / LIGHT_TENANTS) {
+                        jobQueue.insert(createHolder("light" + tenant, tick, persistent));
+                        pending++;
+                    }
+                }
+            }
+            constraint.setNowInNs(tick * JobManager.NS_PER_MS);
+            for (int i = 0; i < CONSUMERS; i++) {
+                JobHolder holder = jobQueue.nextJobAndIncRunCount(constraint);
+                if (holder == null) {
+                    break;
+                }
+                if (constraint.getFairShare() != null) {
+                    BenchmarkConstraint.onJobStarted(constraint.getFairShare(), holder);
+                }
+                long waitMs = tick - holder.getCreatedNs() / JobManager.NS_PER_MS;
+                if (HEAVY.equals(holder.getFairnessKey())) {
+                    heavyWaits[heavyCount++] = waitMs;
+                } else {
+                    lightWaits[lightCount++] = waitMs;
+                }
+                // the job runs within the tick
+                jobQueue.remove(holder);
+                pending--;
+            }
+        }
+        Arrays.sort(heavyWaits, 0, heavyCount);
+        Arrays.sort(lightWaits, 0, lightCount);
+        waitTimes.heavyP50Ms = percentile(heavyWaits, heavyCount, 50);
+        waitTimes.heavyP99Ms = percentile(heavyWaits, heavyCount, 99);
+        waitTimes.lightP50Ms = percentile(lightWaits, lightCount, 50);
+        waitTimes.lightP99Ms = percentile(lightWaits, lightCount, 99);
+        return heavyCount + lightCount;
+    }
+
+    private static long percentile(long[] sorted, int count, int percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.min(count - 1, count * percentile / 100)];
+    }
+
+    private static JobHolder createHolder(String tenant, long tick, boolean persistent) {
+        Params params = new Params(1).fairnessKey(tenant);
+        if (persistent) {
+            params.persist();
+        }
+        BenchmarkJob job = new BenchmarkJob(params);
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .fairnessKey(job.getFairnessKey())
+                .id(job.getId())
+                .persistent(persistent)
+                .tags(job.getTags())
+                .requiredNetworkType(NetworkUtil.DISCONNECTED)
+                .createdNs(tick * JobManager.NS_PER_MS)
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID)
+                .build();
+    }
+
+    /**
+     * The wait times of the last run, reported next to the score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WaitTimes {
+        public long heavyP50Ms;
+        public long heavyP99Ms;
+        public long lightP50Ms;
+        public long lightP99Ms;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            heavyP50Ms = 0;
+            heavyP99Ms = 0;
+            lightP50Ms = 0;
+            lightP99Ms = 0;
+        }
+    }
+}
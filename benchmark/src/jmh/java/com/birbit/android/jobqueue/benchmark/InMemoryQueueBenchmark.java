@@ -0,0 +1,138 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import com.birbit.android.jobqueue.BenchmarkConstraint;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SimpleInMemoryPriorityQueue} with {@link IndexedInMemoryPriorityQueue} using the
+ * queries {@code JobManagerThread} makes.
+ * <p>
+ * Half of the highest priority jobs need an unmetered network while only a metered one is
+ * available, the other half belong to groups that are already running. These are the jobs a
+ * linear scan has to skip before it finds one that can run.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InMemoryQueueBenchmark {
+    private static final int RUNNING_GROUPS = 10;
+    private static final int GROUPS = 100;
+
+    @Param({"simple", "indexed"})
+    public String queue;
+
+    @Param({"1000", "50000"})
+    public int jobCount;
+
+    private JobQueue jobQueue;
+    private BenchmarkConstraint constraint;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long sessionId = 1;
+        if ("indexed".equals(queue)) {
+            jobQueue = new IndexedInMemoryPriorityQueue(null, sessionId);
+        } else {
+            jobQueue = new SimpleInMemoryPriorityQueue(null, sessionId);
+        }
+        List<String> runningGroups = new ArrayList<>();
+        for (int i = 0; i < RUNNING_GROUPS; i++) {
+            runningGroups.add("group" + i);
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < jobCount; i++) {
+            Params params;
+            switch (i % 4) {
+                case 0:
+                    params = new Params(10).requireUnmeteredNetwork();
+                    break;
+                case 1:
+                    params = new Params(10).groupBy(runningGroups.get(i % RUNNING_GROUPS));
+                    break;
+                case 2:
+                    params = new Params(i % 10).groupBy("group"
+                            + (RUNNING_GROUPS + i % (GROUPS - RUNNING_GROUPS)));
+                    break;
+                default:
+                    params = new Params(i % 10).requireNetwork();
+            }
+            jobQueue.insert(createHolder(new BenchmarkJob(params), params, now));
+        }
+        constraint = new BenchmarkConstraint();
+        constraint.setMaxNetworkType(NetworkUtil.METERED);
+        constraint.setExcludeGroups(runningGroups);
+        constraint.setExcludeRunning(true);
+        constraint.setNowInNs(now);
+        constraint.setTimeLimit(now);
+    }
+
+    private static JobHolder createHolder(BenchmarkJob job, Params params, long now) {
+        int networkType = NetworkUtil.DISCONNECTED;
+        if (params.isUnmeteredNetworkRequired()) {
+            networkType = NetworkUtil.UNMETERED;
+        } else if (params.isNetworkRequired()) {
+            networkType = NetworkUtil.METERED;
+        }
+        //noinspection WrongConstant
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .id(job.getId())
+                .persistent(false)
+                .tags(job.getTags())
+                .requiredNetworkType(networkType)
+                .createdNs(now)
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID)
+                .build();
+    }
+
+    /**
+     * Takes the next job and puts it back, like a job that fails and is re-queued.
+     */
+    @Benchmark
+    public JobHolder nextJob() {
+        JobHolder holder = jobQueue.nextJobAndIncRunCount(constraint);
+        holder.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
+        jobQueue.insertOrReplace(holder);
+        return holder;
+    }
+
+    @Benchmark
+    public int countReadyJobs() {
+        return jobQueue.countReadyJobs(constraint);
+    }
+
+    @Benchmark
+    public Long nextJobDelayUntilNs() {
+        return jobQueue.getNextJobDelayUntilNs(constraint);
+    }
+}
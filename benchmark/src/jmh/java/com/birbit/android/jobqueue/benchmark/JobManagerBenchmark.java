@@ -0,0 +1,138 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import androidx.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a real {@link JobManager} through the add, run and done pipeline on the JVM.
+ * <p>
+ * {@link #addAndRunBatch()} reports throughput in jobs per second where a job is counted once its
+ * onDone callback is dispatched. {@link #addToRun()} samples the time between adding a single job
+ * and its onRun call, JMH reports its percentiles (p0.50, p0.99 etc). Run with the {@code gc}
+ * profiler (enabled in the build) to get the allocation rate.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobManagerBenchmark {
+    static final int BATCH_SIZE = 1000;
+    private static final int GROUP_COUNT = 8;
+    private static final int TAG_COUNT = 16;
+
+    @Param({"1", "4"})
+    public int consumerCount;
+
+    @Param({"false", "true"})
+    public boolean persistent;
+
+    @Param({"false", "true"})
+    public boolean grouped;
+
+    @Param({"false", "true"})
+    public boolean tagged;
+
+    @Param({"background", "sync"})
+    public String addMode;
+
+    private JvmContext context;
+    private JobManager jobManager;
+    private volatile CountDownLatch doneLatch;
+    private int jobCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new JvmContext(new File(System.getProperty("java.io.tmpdir"),
+                "jobqueue-benchmark-" + UUID.randomUUID()));
+        Configuration configuration = new Configuration.Builder(context)
+                .id("benchmark")
+                .minConsumerCount(consumerCount)
+                .maxConsumerCount(consumerCount)
+                .networkUtil(new ConnectedNetworkUtil())
+                .build();
+        jobManager = new JobManager(configuration);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onDone(@NonNull Job job) {
+                CountDownLatch latch = doneLatch;
+                if (latch != null) {
+                    latch.countDown();
+                }
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jobManager.destroy();
+        context.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void addAndRunBatch() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        doneLatch = latch;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            add(createJob());
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addToRun() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        BenchmarkJob.runLatch = latch;
+        add(createJob());
+        latch.await();
+    }
+
+    private void add(Job job) {
+        if ("sync".equals(addMode)) {
+            jobManager.addJob(job);
+        } else {
+            jobManager.addJobInBackground(job);
+        }
+    }
+
+    private Job createJob() {
+        int id = jobCounter++;
+        Params params = new Params(1).setPersistent(persistent);
+        if (grouped) {
+            params.groupBy("group" + (id % GROUP_COUNT));
+        }
+        if (tagged) {
+            params.addTags("benchmark", "tag" + (id % TAG_COUNT));
+        }
+        return new BenchmarkJob(params);
+    }
+}
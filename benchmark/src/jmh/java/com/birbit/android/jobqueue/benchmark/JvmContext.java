@@ -0,0 +1,71 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * A {@link Context} that keeps all of its files under a single directory.
+ */
+public class JvmContext extends Context {
+    private final File root;
+
+    public JvmContext(File root) {
+        this.root = root;
+        //noinspection ResultOfMethodCallIgnored
+        root.mkdirs();
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getDir(String name, int mode) {
+        File dir = new File(root, "app_" + name);
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        File dir = new File(root, "databases");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        return new File(dir, name);
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.birbit.android.jobqueue.benchmark";
+    }
+
+    /**
+     * Deletes everything under the root directory.
+     */
+    public void delete() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
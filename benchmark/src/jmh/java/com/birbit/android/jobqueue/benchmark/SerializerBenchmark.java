@@ -0,0 +1,144 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.RetryConstraint;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SqliteJobQueue.JavaSerializer} with {@link BinaryJobSerializer} for a job that
+ * has the same fields and params as the twitter example's {@code PostTweetJob}.
+ * <p>
+ * The serialized size of the job (bytes per job) for the selected serializer is printed when the
+ * trial starts.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializerBenchmark {
+    @Param({"java", "binary"})
+    public String serializer;
+
+    private SqliteJobQueue.JobSerializer jobSerializer;
+    private PostTweetJob job;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if ("binary".equals(serializer)) {
+            jobSerializer = new BinaryJobSerializer()
+                    .register(1, PostTweetJob.class, PostTweetJob.CREATOR);
+        } else {
+            jobSerializer = new SqliteJobQueue.JavaSerializer();
+        }
+        job = new PostTweetJob("Benchmarking the job serializer, 140 characters is enough for"
+                + " anyone.");
+        // seals the job so that it can be serialized
+        new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .id(job.getId())
+                .persistent(job.isPersistent())
+                .tags(job.getTags())
+                .requiredNetworkType(NetworkUtil.METERED)
+                .createdNs(System.nanoTime())
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID)
+                .build();
+        serialized = jobSerializer.serialize(job);
+        System.out.println("\n" + serializer + " serializer: " + serialized.length
+                + " bytes per job");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return jobSerializer.serialize(job);
+    }
+
+    @Benchmark
+    public Job deserialize() throws IOException, ClassNotFoundException {
+        return jobSerializer.deserialize(serialized);
+    }
+
+    /**
+     * Same shape as the twitter example's PostTweetJob.
+     */
+    public static class PostTweetJob extends Job implements BinaryJobSerializer.BinaryJob {
+        private static final long serialVersionUID = 1L;
+        static final BinaryJobSerializer.Creator<PostTweetJob> CREATOR =
+                new BinaryJobSerializer.Creator<PostTweetJob>() {
+                    @NonNull
+                    @Override
+                    public PostTweetJob createFromInput(@NonNull DataInput in)
+                            throws IOException {
+                        return new PostTweetJob(in.readLong(), in.readUTF());
+                    }
+                };
+        private long localId;
+        private String text;
+
+        public PostTweetJob(String text) {
+            this(-System.currentTimeMillis(), text);
+        }
+
+        private PostTweetJob(long localId, String text) {
+            super(new Params(2).requireNetwork().persist().groupBy("post_tweet"));
+            this.localId = localId;
+            this.text = text;
+        }
+
+        @Override
+        public void writeTo(@NonNull DataOutput out) throws IOException {
+            out.writeLong(localId);
+            out.writeUTF(text);
+        }
+
+        @Override
+        public void onAdded() {
+        }
+
+        @Override
+        public void onRun() throws Throwable {
+        }
+
+        @Override
+        protected void onCancel(int cancelReason, @Nullable Throwable throwable) {
+        }
+
+        @Override
+        protected RetryConstraint shouldReRunOnThrowable(@NonNull Throwable throwable,
+                int runCount, int maxRunCount) {
+            return RetryConstraint.CANCEL;
+        }
+    }
+}
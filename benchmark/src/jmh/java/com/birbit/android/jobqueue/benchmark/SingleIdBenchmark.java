@@ -0,0 +1,84 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JobManager#addJob(Job)} for a job whose single instance id is already queued,
+ * like a debounced job that is added over and over. The job is dropped so the time is spent on
+ * finding the queued one.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SingleIdBenchmark {
+    private static final String SINGLE_ID = "debounce";
+
+    @Param({"10000"})
+    public int jobCount;
+
+    @Param({"false", "true"})
+    public boolean persistent;
+
+    private JvmContext context;
+    private JobManager jobManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new JvmContext(new File(System.getProperty("java.io.tmpdir"),
+                "jobqueue-benchmark-" + UUID.randomUUID()));
+        jobManager = new JobManager(new Configuration.Builder(context)
+                .id("single-id-benchmark")
+                .networkUtil(new ConnectedNetworkUtil())
+                .build());
+        jobManager.stop();
+        List<Job> jobs = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            jobs.add(new BenchmarkJob(new Params(1).setPersistent(persistent)
+                    .addTags("tag" + (i % 16)).singleInstanceBy("other" + i)));
+        }
+        jobs.add(createSingleIdJob());
+        jobManager.addJobs(jobs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jobManager.destroy();
+        context.delete();
+    }
+
+    private Job createSingleIdJob() {
+        return new BenchmarkJob(new Params(1).setPersistent(persistent)
+                .singleInstanceBy(SINGLE_ID));
+    }
+
+    @Benchmark
+    public void addQueuedSingleId() {
+        jobManager.addJob(createSingleIdJob());
+    }
+}
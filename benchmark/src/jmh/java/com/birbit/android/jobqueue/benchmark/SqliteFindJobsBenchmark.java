@@ -0,0 +1,147 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import com.birbit.android.jobqueue.BenchmarkConstraint;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SqliteJobQueue#findJobs} by tag and loading the jobs it finds, which is the
+ * read part of {@link CancelBenchmark} without the writes that follow it, finding a tag that no
+ * job has and {@link SqliteJobQueue#findJobById(String)}.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SqliteFindJobsBenchmark {
+    private static final String TAG = "cancel";
+
+    @Param({"10000"})
+    public int jobCount;
+
+    @Param({"false", "true"})
+    public boolean storeInDatabase;
+
+    private JvmContext context;
+    private SqliteJobQueue jobQueue;
+    private BenchmarkConstraint constraint;
+    private BenchmarkConstraint missingTagConstraint;
+    private String jobId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new JvmContext(new File(System.getProperty("java.io.tmpdir"),
+                "jobqueue-benchmark-" + UUID.randomUUID()));
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        Configuration.Builder builder = new Configuration.Builder(context)
+                .id("find-benchmark")
+                .jobSerializer(serializer)
+                .networkUtil(new ConnectedNetworkUtil());
+        if (storeInDatabase) {
+            builder.storeJobsInDatabase();
+        }
+        jobQueue = new SqliteJobQueue(builder.build(), 1, serializer);
+        long now = System.nanoTime();
+        List<JobHolder> holders = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            Params params = new Params(1).persist().addTags("tag" + (i % 16));
+            if (i % 2 == 0) {
+                params.addTags(TAG);
+            }
+            holders.add(createHolder(new BenchmarkJob(params), now));
+        }
+        jobQueue.insertAll(holders);
+        jobId = holders.get(jobCount / 2).getId();
+        constraint = new BenchmarkConstraint();
+        constraint.setNowInNs(now);
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        constraint.setExcludeRunning(true);
+        constraint.setTagConstraint(TagConstraint.ANY);
+        constraint.setTags(new String[]{TAG});
+        missingTagConstraint = new BenchmarkConstraint();
+        missingTagConstraint.setNowInNs(now);
+        missingTagConstraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        missingTagConstraint.setExcludeRunning(true);
+        missingTagConstraint.setTagConstraint(TagConstraint.ANY);
+        missingTagConstraint.setTags(new String[]{"missing"});
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jobQueue.clear();
+        jobQueue.getDb().close();
+        context.delete();
+    }
+
+    private static JobHolder createHolder(BenchmarkJob job, long now) {
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .id(job.getId())
+                .persistent(true)
+                .tags(job.getTags())
+                .requiredNetworkType(NetworkUtil.DISCONNECTED)
+                .createdNs(now)
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(JobManager.NOT_DELAYED_JOB_DELAY)
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID)
+                .build();
+    }
+
+    /**
+     * A metadata only lookup, like {@code JobManager#getJobStatus}.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int findById() {
+        return jobQueue.findJobById(jobId).getRequiredNetworkType();
+    }
+
+    /**
+     * A tag that no job has, like cancelling the jobs of a screen that did not add any.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Set<JobHolder> findByMissingTag() {
+        return jobQueue.findJobs(missingTagConstraint);
+    }
+
+    @Benchmark
+    public Set<JobHolder> findByTag() {
+        Set<JobHolder> holders = jobQueue.findJobs(constraint);
+        // cancelling needs every job, load them like CancelHandler does
+        for (JobHolder holder : holders) {
+            holder.loadJob();
+        }
+        return holders;
+    }
+}
@@ -0,0 +1,117 @@
+package com.birbit.android.jobqueue.benchmark;
+
+import android.content.Context;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkEventProvider;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cold start of a JobManager with {@link #jobCount} persisted jobs, some of them
+ * delayed and tagged. The jobs require a network, which is never available, so they stay queued.
+ * <p>
+ * {@link #create()} is the time the thread creating the JobManager is blocked, which is usually
+ * the application's startup path. {@link #firstQuery()} also waits until the queue is ready to
+ * answer a query.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+    private static final int JOBS_PER_ADD = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int jobCount;
+
+    private JvmContext context;
+    private JobManager jobManager;
+
+    @Setup(Level.Trial)
+    public void addJobs() {
+        context = new JvmContext(new File(System.getProperty("java.io.tmpdir"),
+                "jobqueue-benchmark-" + UUID.randomUUID()));
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        for (int added = 0; added < jobCount; added += JOBS_PER_ADD) {
+            List<Job> jobs = new ArrayList<>(JOBS_PER_ADD);
+            for (int i = added; i < added + JOBS_PER_ADD && i < jobCount; i++) {
+                Params params = new Params(i % 5).persist().requireNetwork()
+                        .addTags("tag" + (i % 16));
+                if (i % 10 == 0) {
+                    params.delayInMs(TimeUnit.HOURS.toMillis(1));
+                }
+                jobs.add(new BenchmarkJob(params));
+            }
+            jobManager.addJobs(jobs);
+        }
+        jobManager.destroy();
+    }
+
+    @TearDown(Level.Invocation)
+    public void destroyJobManager() {
+        jobManager.destroy();
+        jobManager = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.delete();
+    }
+
+    private JobManager createJobManager() {
+        return new JobManager(new Configuration.Builder(context)
+                .id("startup-benchmark")
+                .resetDelaysOnRestart()
+                .networkUtil(new OfflineNetworkUtil())
+                .build());
+    }
+
+    @Benchmark
+    public JobManager create() {
+        jobManager = createJobManager();
+        return jobManager;
+    }
+
+    @Benchmark
+    public int firstQuery() {
+        jobManager = createJobManager();
+        return jobManager.count();
+    }
+
+    private static class OfflineNetworkUtil implements NetworkUtil, NetworkEventProvider {
+        @Override
+        public int getNetworkStatus(Context context) {
+            return NetworkUtil.DISCONNECTED;
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link DelayedMessageBag} with the sorted linked list it replaced.
+ * <p>
+ * The bag is filled with {@code pending} messages. Each operation adds a message and moves the
+ * time forward so that, on average, one message becomes ready and is flushed, keeping the size of
+ * the bag stable.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DelayedMessageBagBenchmark {
+    private static final long DELAY_RANGE_NS = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({"linkedList", "heap"})
+    public String bag;
+
+    @Param({"10", "1000", "100000"})
+    public int pending;
+
+    private Bag delayedBag;
+    private RecyclingQueue queue;
+    private Random random;
+    private long now;
+    private long timeStep;
+    private Message cancelTarget;
+    private MessagePredicate cancelPredicate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MessageFactory factory = new MessageFactory();
+        if ("heap".equals(bag)) {
+            final DelayedMessageBag heap = new DelayedMessageBag(factory);
+            delayedBag = new Bag() {
+                @Override
+                public void add(Message message, long readyNs) {
+                    heap.add(message, readyNs);
+                }
+
+                @Override
+                public Long flushReadyMessages(long now, MessageQueue addInto) {
+                    return heap.flushReadyMessages(now, addInto);
+                }
+
+                @Override
+                public void removeMessages(MessagePredicate predicate) {
+                    heap.removeMessages(predicate);
+                }
+            };
+        } else {
+            delayedBag = new LinkedListBag(factory);
+        }
+        queue = new RecyclingQueue();
+        random = new Random(42);
+        now = 0;
+        timeStep = DELAY_RANGE_NS / pending;
+        long[] readyTimes = new long[pending];
+        for (int i = 0; i < pending; i++) {
+            readyTimes[i] = (long) (random.nextDouble() * DELAY_RANGE_NS);
+        }
+        // latest first so that filling the linked list does not take quadratic time
+        Arrays.sort(readyTimes);
+        for (int i = pending - 1; i >= 0; i--) {
+            delayedBag.add(new CommandMessage(), readyTimes[i]);
+        }
+        cancelTarget = new CommandMessage();
+        cancelPredicate = new MessagePredicate() {
+            @Override
+            public boolean onMessage(Message message) {
+                return message == cancelTarget;
+            }
+        };
+    }
+
+    @Benchmark
+    public Long addAndFlush() {
+        Message message = queue.obtain();
+        delayedBag.add(message, now + (long) (random.nextDouble() * DELAY_RANGE_NS));
+        now += timeStep;
+        return delayedBag.flushReadyMessages(now, queue);
+    }
+
+    /**
+     * Adds a message and cancels it, like a consumer's keep alive POKE that is replaced.
+     */
+    @Benchmark
+    public void addAndCancel() {
+        // the message is released to the factory when it is cancelled
+        cancelTarget.next = null;
+        delayedBag.add(cancelTarget, now + (long) (random.nextDouble() * DELAY_RANGE_NS));
+        delayedBag.removeMessages(cancelPredicate);
+    }
+
+    interface Bag {
+        void add(Message message, long readyNs);
+
+        Long flushReadyMessages(long now, MessageQueue addInto);
+
+        void removeMessages(MessagePredicate predicate);
+    }
+
+    /**
+     * Keeps flushed messages so that they can be added again without allocating.
+     */
+    static class RecyclingQueue implements MessageQueue {
+        private final ArrayDeque<Message> flushed = new ArrayDeque<>();
+
+        Message obtain() {
+            Message message = flushed.poll();
+            return message == null ? new CommandMessage() : message;
+        }
+
+        @Override
+        public void post(Message message) {
+            message.next = null;
+            flushed.add(message);
+        }
+
+        @Override
+        public void postAt(Message message, long readyNs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancelMessages(MessagePredicate predicate) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void consume(MessageQueueConsumer consumer) {
+        }
+
+        @Override
+        public void clear() {
+        }
+    }
+
+    /**
+     * The previous DelayedMessageBag implementation, a linked list sorted by ready time.
+     */
+    static class LinkedListBag implements Bag {
+        Message queue = null;
+        final MessageFactory factory;
+
+        LinkedListBag(MessageFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Long flushReadyMessages(long now, MessageQueue addInto) {
+            while (queue != null && queue.readyNs <= now) {
+                Message msg = queue;
+                queue = msg.next;
+                msg.next = null;
+                addInto.post(msg);
+            }
+            if (queue != null) {
+                return queue.readyNs;
+            }
+            return null;
+        }
+
+        @Override
+        public void add(Message message, long readyNs) {
+            message.readyNs = readyNs;
+            if (queue == null) {
+                queue = message;
+                return;
+            }
+            Message prev = null;
+            Message curr = queue;
+            while (curr != null && curr.readyNs <= readyNs) {
+                prev = curr;
+                curr = curr.next;
+            }
+            if (prev == null) {
+                message.next = queue;
+                queue = message;
+            } else {
+                prev.next = message;
+                message.next = curr;
+            }
+        }
+
+        @Override
+        public void removeMessages(MessagePredicate predicate) {
+            Message prev = null;
+            Message curr = queue;
+            while (curr != null) {
+                final boolean remove = predicate.onMessage(curr);
+                final Message next = curr.next;
+                if (remove) {
+                    if (prev == null) {
+                        queue = curr.next;
+                    } else {
+                        prev.next = curr.next;
+                    }
+                    factory.release(curr);
+                } else {
+                    prev = curr;
+                }
+                curr = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM replacement for the parts of {@code android.content.Context} that the job queue uses.
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+    public static final String POWER_SERVICE = "power";
+
+    public abstract Context getApplicationContext();
+
+    public abstract File getDir(String name, int mode);
+
+    public abstract File getDatabasePath(String name);
+
+    public abstract Object getSystemService(String name);
+
+    public abstract String getPackageName();
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+}
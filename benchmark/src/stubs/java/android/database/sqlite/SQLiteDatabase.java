@@ -0,0 +1,213 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JDBC backed replacement for Android's {@code SQLiteDatabase}.
+ * <p>
+ * Like the framework class, a transaction belongs to the thread that started it and other threads
+ * block until it ends. Nested transactions commit only if every level is marked successful.
+ */
+public final class SQLiteDatabase {
+    public interface CursorFactory {
+    }
+
+    private final Connection connection;
+    private final ReentrantLock lock = new ReentrantLock();
+    // one entry per nesting level, true if setTransactionSuccessful was called for that level
+    private final List<Boolean> transactionStack = new ArrayList<>();
+    private boolean transactionFailed = false;
+
+    private SQLiteDatabase(Connection connection) {
+        this.connection = connection;
+    }
+
+    static SQLiteDatabase open(String path) {
+        try {
+            return new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite:" + path));
+        } catch (SQLException e) {
+            throw new SQLiteException("cannot open database " + path, e);
+        }
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        return connection.prepareStatement(sql);
+    }
+
+    long lastInsertRowId() throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery("SELECT last_insert_rowid()");
+            return resultSet.next() ? resultSet.getLong(1) : -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    public void beginTransaction() {
+        lock.lock();
+        try {
+            if (transactionStack.isEmpty()) {
+                connection.setAutoCommit(false);
+                transactionFailed = false;
+            }
+            transactionStack.add(false);
+        } catch (SQLException e) {
+            lock.unlock();
+            throw new SQLiteException("cannot begin transaction", e);
+        }
+    }
+
+    public void beginTransactionNonExclusive() {
+        beginTransaction();
+    }
+
+    public void setTransactionSuccessful() {
+        if (!lock.isHeldByCurrentThread() || transactionStack.isEmpty()) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        transactionStack.set(transactionStack.size() - 1, true);
+    }
+
+    public boolean inTransaction() {
+        return lock.isHeldByCurrentThread() && !transactionStack.isEmpty();
+    }
+
+    public void endTransaction() {
+        if (!lock.isHeldByCurrentThread() || transactionStack.isEmpty()) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        try {
+            boolean successful = transactionStack.remove(transactionStack.size() - 1);
+            transactionFailed |= !successful;
+            if (transactionStack.isEmpty()) {
+                if (transactionFailed) {
+                    connection.rollback();
+                } else {
+                    connection.commit();
+                }
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException("cannot end transaction", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void execSQL(String sql) {
+        execSQL(sql, new Object[0]);
+    }
+
+    public void execSQL(String sql, Object[] bindArgs) {
+        lock.lock();
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                for (int i = 0; i < bindArgs.length; i++) {
+                    statement.setObject(i + 1, bindArgs[i]);
+                }
+                statement.execute();
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException("error while executing " + sql, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        lock.lock();
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                if (selectionArgs != null) {
+                    for (int i = 0; i < selectionArgs.length; i++) {
+                        statement.setString(i + 1, selectionArgs[i]);
+                    }
+                }
+                ResultSet resultSet = statement.executeQuery();
+                try {
+                    return new ResultSetCursor(resultSet);
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException("error while querying " + sql, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        return new SQLiteStatement(this, sql);
+    }
+
+    public int getVersion() {
+        Cursor cursor = rawQuery("PRAGMA user_version", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void setVersion(int version) {
+        execSQL("PRAGMA user_version = " + version);
+    }
+
+    public boolean enableWriteAheadLogging() {
+        Cursor cursor = rawQuery("PRAGMA journal_mode = WAL", null);
+        try {
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void disableWriteAheadLogging() {
+        rawQuery("PRAGMA journal_mode = DELETE", null).close();
+    }
+
+    public boolean isOpen() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new SQLiteException("cannot close database", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * JDBC backed replacement for Android's {@code SQLiteOpenHelper}. A null name creates an in-memory
+ * database.
+ */
+public abstract class SQLiteOpenHelper {
+    private final Context context;
+    private final String name;
+    private final int version;
+    private boolean writeAheadLoggingEnabled;
+    private SQLiteDatabase database;
+
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory,
+            int version) {
+        this.context = context;
+        this.name = name;
+        this.version = version;
+    }
+
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        if (database != null && database.isOpen()) {
+            return database;
+        }
+        String path = name == null ? ":memory:" : context.getDatabasePath(name).getPath();
+        SQLiteDatabase db = SQLiteDatabase.open(path);
+        onConfigure(db);
+        if (writeAheadLoggingEnabled) {
+            db.enableWriteAheadLogging();
+        }
+        int current = db.getVersion();
+        if (current != version) {
+            db.beginTransaction();
+            try {
+                if (current == 0) {
+                    onCreate(db);
+                } else if (current > version) {
+                    onDowngrade(db, current, version);
+                } else {
+                    onUpgrade(db, current, version);
+                }
+                db.setVersion(version);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        onOpen(db);
+        database = db;
+        return db;
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        return getWritableDatabase();
+    }
+
+    public synchronized void setWriteAheadLoggingEnabled(boolean enabled) {
+        writeAheadLoggingEnabled = enabled;
+        if (database != null) {
+            if (enabled) {
+                database.enableWriteAheadLogging();
+            } else {
+                database.disableWriteAheadLogging();
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+
+    public void onConfigure(SQLiteDatabase db) {
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        throw new SQLiteException("Can't downgrade database from version " + oldVersion + " to "
+                + newVersion);
+    }
+
+    public void onOpen(SQLiteDatabase db) {
+    }
+}
@@ -0,0 +1,153 @@
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * JDBC backed replacement for Android's {@code SQLiteStatement}.
+ */
+public final class SQLiteStatement {
+    private final SQLiteDatabase db;
+    private final String sql;
+    private Object[] bindArgs = new Object[8];
+    private PreparedStatement statement;
+
+    SQLiteStatement(SQLiteDatabase db, String sql) {
+        this.db = db;
+        this.sql = sql;
+    }
+
+    private void bind(int index, Object value) {
+        if (index > bindArgs.length) {
+            bindArgs = Arrays.copyOf(bindArgs, Math.max(index, bindArgs.length * 2));
+        }
+        bindArgs[index - 1] = value;
+    }
+
+    public void bindNull(int index) {
+        bind(index, null);
+    }
+
+    public void bindLong(int index, long value) {
+        bind(index, value);
+    }
+
+    public void bindString(int index, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        }
+        bind(index, value);
+    }
+
+    public void bindBlob(int index, byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        }
+        bind(index, value);
+    }
+
+    public void clearBindings() {
+        Arrays.fill(bindArgs, null);
+    }
+
+    private PreparedStatement prepared() throws SQLException {
+        if (statement == null) {
+            statement = db.prepare(sql);
+        }
+        int count = statement.getParameterMetaData().getParameterCount();
+        for (int i = 0; i < count; i++) {
+            statement.setObject(i + 1, i < bindArgs.length ? bindArgs[i] : null);
+        }
+        return statement;
+    }
+
+    public void execute() {
+        db.lock();
+        try {
+            prepared().execute();
+        } catch (SQLException e) {
+            throw new SQLiteException("error while executing " + sql, e);
+        } finally {
+            db.unlock();
+        }
+    }
+
+    public int executeUpdateDelete() {
+        db.lock();
+        try {
+            return prepared().executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLiteException("error while executing " + sql, e);
+        } finally {
+            db.unlock();
+        }
+    }
+
+    public long executeInsert() {
+        db.lock();
+        try {
+            if (prepared().executeUpdate() <= 0) {
+                return -1;
+            }
+            return db.lastInsertRowId();
+        } catch (SQLException e) {
+            throw new SQLiteException("error while executing " + sql, e);
+        } finally {
+            db.unlock();
+        }
+    }
+
+    public long simpleQueryForLong() {
+        db.lock();
+        try {
+            ResultSet resultSet = prepared().executeQuery();
+            try {
+                if (!resultSet.next()) {
+                    throw new SQLiteDoneException();
+                }
+                return resultSet.getLong(1);
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException("error while querying " + sql, e);
+        } finally {
+            db.unlock();
+        }
+    }
+
+    public String simpleQueryForString() {
+        db.lock();
+        try {
+            ResultSet resultSet = prepared().executeQuery();
+            try {
+                if (!resultSet.next()) {
+                    throw new SQLiteDoneException();
+                }
+                return resultSet.getString(1);
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException("error while querying " + sql, e);
+        } finally {
+            db.unlock();
+        }
+    }
+
+    public void close() {
+        db.lock();
+        try {
+            if (statement != null) {
+                statement.close();
+                statement = null;
+            }
+        } catch (SQLException e) {
+            throw new SQLiteException("cannot close statement", e);
+        } finally {
+            db.unlock();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package android.net;
+
+public class ConnectivityManager {
+    public static final int TYPE_WIFI = 1;
+    public static final int TYPE_ETHERNET = 9;
+    public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+
+    public NetworkInfo getActiveNetworkInfo() {
+        return null;
+    }
+
+    public void registerNetworkCallback(NetworkRequest request, NetworkCallback callback) {
+    }
+
+    public static class NetworkCallback {
+        public void onAvailable(Network network) {
+        }
+
+        public void onLost(Network network) {
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package android.net;
+
+public class NetworkCapabilities {
+    public static final int NET_CAPABILITY_INTERNET = 12;
+    public static final int NET_CAPABILITY_NOT_RESTRICTED = 13;
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.JELLY_BEAN;
+    }
+
+    public static class VERSION_CODES {
+        public static final int JELLY_BEAN = 16;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+    }
+}
@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * There is no main thread on a plain JVM. The main looper is bound to a thread that never runs so
+ * that the main thread checks in JobManager always pass.
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper(new Thread("main"));
+    private final Thread thread;
+
+    private Looper(Thread thread) {
+        this.thread = thread;
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+}
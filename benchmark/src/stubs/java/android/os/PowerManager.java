@@ -0,0 +1,14 @@
+package android.os;
+
+public class PowerManager {
+    public static final String ACTION_DEVICE_IDLE_MODE_CHANGED =
+            "android.os.action.DEVICE_IDLE_MODE_CHANGED";
+
+    public boolean isDeviceIdleMode() {
+        return false;
+    }
+
+    public boolean isIgnoringBatteryOptimizations(String packageName) {
+        return true;
+    }
+}
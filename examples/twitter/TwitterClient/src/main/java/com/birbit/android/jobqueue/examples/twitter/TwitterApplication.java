@@ -4,12 +4,14 @@ import android.app.Application;
 import android.os.Build;
 import android.util.Log;
 
+import com.birbit.android.jobqueue.examples.twitter.jobs.PostTweetJob;
 import com.birbit.android.jobqueue.examples.twitter.services.MyGcmJobService;
 import com.birbit.android.jobqueue.scheduling.FrameworkJobSchedulerService;
 import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.examples.twitter.services.MyJobService;
 import com.birbit.android.jobqueue.log.CustomLogger;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
 import com.birbit.android.jobqueue.scheduling.GcmJobSchedulerService;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -61,7 +63,9 @@ public class TwitterApplication extends Application {
         .minConsumerCount(1)//always keep at least one consumer alive
         .maxConsumerCount(3)//up to 3 consumers at a time
         .loadFactor(3)//3 jobs per consumer
-        .consumerKeepAlive(120);//wait 2 minute
+        .consumerKeepAlive(120)//wait 2 minute
+        .jobSerializer(new BinaryJobSerializer()//compact format for our jobs
+                .register(1, PostTweetJob.class, PostTweetJob.CREATOR));
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             builder.scheduler(FrameworkJobSchedulerService.createSchedulerFor(this,
                     MyJobService.class), true);
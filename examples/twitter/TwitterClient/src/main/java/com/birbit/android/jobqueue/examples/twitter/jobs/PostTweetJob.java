@@ -1,5 +1,6 @@
 package com.birbit.android.jobqueue.examples.twitter.jobs;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.birbit.android.jobqueue.CancelReason;
@@ -12,23 +13,45 @@ import com.birbit.android.jobqueue.examples.twitter.events.DeletedTweetEvent;
 import com.birbit.android.jobqueue.examples.twitter.events.PostedTweetEvent;
 import com.birbit.android.jobqueue.examples.twitter.events.PostingTweetEvent;
 import com.birbit.android.jobqueue.examples.twitter.models.TweetModel;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
 import org.greenrobot.eventbus.EventBus;
 import twitter4j.Status;
 import twitter4j.TwitterException;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Date;
 
-public class PostTweetJob extends Job {
+public class PostTweetJob extends Job implements BinaryJobSerializer.BinaryJob {
+    public static final BinaryJobSerializer.Creator<PostTweetJob> CREATOR =
+            new BinaryJobSerializer.Creator<PostTweetJob>() {
+                @NonNull
+                @Override
+                public PostTweetJob createFromInput(@NonNull DataInput in) throws IOException {
+                    return new PostTweetJob(in.readLong(), in.readUTF());
+                }
+            };
     private long localId;
     private String text;
     public PostTweetJob(String text) {
-        super(new Params(Priority.MID).requireNetwork().persist().groupBy("post_tweet"));//order of tweets matter, we don't want to send two in parallel
         //use a negative id so that it cannot collide w/ twitter ids
         //we have to set local id here so it gets serialized into job (to find tweet later on)
-        localId = -System.currentTimeMillis();
+        this(-System.currentTimeMillis(), text);
+    }
+
+    private PostTweetJob(long localId, String text) {
+        super(new Params(Priority.MID).requireNetwork().persist().groupBy("post_tweet"));//order of tweets matter, we don't want to send two in parallel
+        this.localId = localId;
         this.text = text;
     }
 
+    @Override
+    public void writeTo(@NonNull DataOutput out) throws IOException {
+        out.writeLong(localId);
+        out.writeUTF(text);
+    }
+
     @Override
     public void onAdded() {
         //job has been secured to disk, add item to database
@@ -5,6 +5,9 @@ import com.birbit.android.jobqueue.network.NetworkUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -36,33 +39,55 @@ class CancelHandler {
         queryConstraint.setTags(tags);
         queryConstraint.setExcludeRunning(true);
         queryConstraint.setMaxNetworkType(NetworkUtil.UNMETERED);
-        Set<JobHolder> nonPersistentInQueue = jobManagerThread.nonPersistentJobQueue
-                .findJobs(queryConstraint);
-        Set<JobHolder> persistentInQueue = jobManagerThread.persistentJobQueue
-                .findJobs(queryConstraint);
+        Set<JobHolder> nonPersistentInQueue = findJobs(jobManagerThread.nonPersistentJobQueue,
+                queryConstraint);
+        Set<JobHolder> persistentInQueue = findJobs(jobManagerThread.persistentJobQueue,
+                queryConstraint);
         for (JobHolder nonPersistent : nonPersistentInQueue) {
             nonPersistent.markAsCancelled();
             cancelled.add(nonPersistent);
-            jobManagerThread.nonPersistentJobQueue.onJobCancelled(nonPersistent);
         }
+        jobManagerThread.nonPersistentJobQueue.onJobsCancelled(nonPersistentInQueue);
         for (JobHolder persistent : persistentInQueue) {
             persistent.markAsCancelled();
             cancelled.add(persistent);
-            jobManagerThread.persistentJobQueue.onJobCancelled(persistent);
         }
+        jobManagerThread.persistentJobQueue.onJobsCancelled(persistentInQueue);
+    }
+
+    private Set<JobHolder> findJobs(JobQueue jobQueue, Constraint queryConstraint) {
+        // most cancel calls are for tags that no job has, skip the query for those
+        if (tags == null || !jobQueue.hasJobsWithTags(tagConstraint, tags)) {
+            return Collections.emptySet();
+        }
+        return jobQueue.findJobs(queryConstraint);
     }
 
     void commit(JobManagerThread jobManagerThread) {
-        for (JobHolder jobHolder : cancelled) {
-            try {
-                jobHolder.onCancel(CancelReason.CANCELLED_WHILE_RUNNING);
-            } catch (Throwable t) {
-                JqLog.e(t, "job's on cancel has thrown an exception. Ignoring...");
+        // added jobs should be reported before they are cancelled
+        jobManagerThread.commitPendingWrites();
+        List<JobHolder> toRemove = new ArrayList<>();
+        for (Iterator<JobHolder> iterator = cancelled.iterator(); iterator.hasNext(); ) {
+            JobHolder jobHolder = iterator.next();
+            // jobs found in the persistent queue are loaded only now. Loading them in the order
+            // they were found reads their data in batches.
+            if (!jobHolder.loadJob()) {
+                JqLog.e("cannot load cancelled job %s, removing it", jobHolder.getId());
+                iterator.remove();
+            } else {
+                try {
+                    jobHolder.onCancel(CancelReason.CANCELLED_WHILE_RUNNING);
+                } catch (Throwable t) {
+                    JqLog.e(t, "job's on cancel has thrown an exception. Ignoring...");
+                }
             }
-            if (jobHolder.getJob().isPersistent()) {
-                jobManagerThread.persistentJobQueue.remove(jobHolder);
+            if (jobHolder.persistent) {
+                toRemove.add(jobHolder);
             }
         }
+        jobManagerThread.persistentJobQueue.removeAll(toRemove);
+        // do not report a cancellation that may be lost
+        jobManagerThread.commitPendingWrites();
         if (callback != null) {
             Collection<Job> cancelledJobs = new ArrayList<>(cancelled.size());
             Collection<Job> failedToCancelJobs = new ArrayList<>(failedToCancel.size());
@@ -14,7 +14,8 @@ import java.lang.annotation.RetentionPolicy;
         CancelReason.SINGLE_INSTANCE_WHILE_RUNNING,
         CancelReason.CANCELLED_VIA_SHOULD_RE_RUN,
         CancelReason.SINGLE_INSTANCE_ID_QUEUED,
-        CancelReason.REACHED_DEADLINE})
+        CancelReason.REACHED_DEADLINE,
+        CancelReason.ADD_FAILED})
 public @interface CancelReason {
     /**
      * Used when a job was added while another job with the same single instance ID was already
@@ -62,4 +63,12 @@ public @interface CancelReason {
      */
     int REACHED_DEADLINE = JobHolder.RUN_RESULT_HIT_DEADLINE;
 
+    /**
+     * Used when a job could not be written to its queue while being added, for instance because
+     * the database write failed. The job was never added and will not run.
+     *
+     * @see JobManager#addJobsInBackground(java.util.Collection)
+     */
+    int ADD_FAILED = 8;
+
 }
@@ -1,12 +1,16 @@
 package com.birbit.android.jobqueue;
 
+import androidx.annotation.Nullable;
+
 import com.birbit.android.jobqueue.network.NetworkUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -21,6 +25,9 @@ public class Constraint {
     private final Set<String> tags = new HashSet<>();
     private final List<String> excludeGroups = new ArrayList<>();
     private final List<String> excludeJobIds = new ArrayList<>();
+    private final Set<String> excludeTags = new HashSet<>();
+    private final Map<String, Integer> groupSlots = new HashMap<>();
+    private FairShare fairShare;
     private boolean excludeRunning;
     private Long timeLimit;
     private long nowInNs;
@@ -64,6 +71,64 @@ public class Constraint {
         return excludeGroups;
     }
 
+    /**
+     * Jobs that have any of these tags should be excluded from the result, e.g. because the tag
+     * is over its rate limit.
+     *
+     * @return The set of tags to exclude
+     */
+    public Set<String> getExcludeTags() {
+        return excludeTags;
+    }
+
+    /**
+     * Returns true if a job with the given tags has one of the {@link #getExcludeTags()}.
+     *
+     * @param jobTags The tags of a job, may be null
+     * @return True if the job should be excluded because of its tags
+     */
+    public boolean isExcludedByTags(Set<String> jobTags) {
+        return !excludeTags.isEmpty() && jobTags != null
+                && !Collections.disjoint(excludeTags, jobTags);
+    }
+
+    /**
+     * Returns how many jobs of the given group can be counted as ready. It is 1 for groups that
+     * run one job at a time, which is the default.
+     * <p>
+     * Groups in {@link #getExcludeGroups()} cannot run any job.
+     *
+     * @param groupId The group id of a job. Must not be null.
+     * @return The number of jobs of the group that may run at the same time
+     */
+    public int getGroupSlots(String groupId) {
+        Integer slots = groupSlots.get(groupId);
+        return slots == null ? 1 : slots;
+    }
+
+    /**
+     * Returns true if some group can run more than one job, in which case ready jobs cannot be
+     * counted once per group.
+     *
+     * @return True if {@link #getGroupSlots(String)} is not 1 for some group
+     * @see #getGroupSlots(String)
+     */
+    public boolean hasGroupSlots() {
+        return !groupSlots.isEmpty();
+    }
+
+    /**
+     * If not null, the next job should be picked fairly between the fairness keys of the jobs
+     * with the highest priority. It is only set when querying for the next job.
+     *
+     * @return The fair share state to use or null to pick jobs by priority and creation order
+     * @see FairShare
+     */
+    @Nullable
+    public FairShare getFairShare() {
+        return fairShare;
+    }
+
     /**
      * Returns true if running jobs should be excluded from the query
      * @return True if running jobs should be excluded
@@ -118,6 +183,24 @@ public class Constraint {
         }
     }
 
+    void setExcludeTags(Collection<String> excludeTags) {
+        this.excludeTags.clear();
+        if (excludeTags != null) {
+            this.excludeTags.addAll(excludeTags);
+        }
+    }
+
+    void setFairShare(@Nullable FairShare fairShare) {
+        this.fairShare = fairShare;
+    }
+
+    void setGroupSlots(Map<String, Integer> groupSlots) {
+        this.groupSlots.clear();
+        if (groupSlots != null) {
+            this.groupSlots.putAll(groupSlots);
+        }
+    }
+
     void setExcludeJobIds(Collection<String> jobsIds) {
         this.excludeJobIds.clear();
         if (jobsIds != null) {
@@ -139,6 +222,9 @@ public class Constraint {
         tags.clear();
         excludeGroups.clear();
         excludeJobIds.clear();
+        excludeTags.clear();
+        groupSlots.clear();
+        fairShare = null;
         excludeRunning = false;
         timeLimit = null;
         nowInNs = Long.MIN_VALUE;
@@ -1,6 +1,7 @@
 package com.birbit.android.jobqueue;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.log.JqLog;
@@ -25,7 +26,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 
 /**
@@ -61,8 +66,23 @@ class ConsumerManager {
 
     final RunningJobSet runningJobGroups;
 
+    final RateLimiter rateLimiter;
+
+    @Nullable
+    final FairShare fairShare;
+
     private final ThreadFactory threadFactory;
 
+    private final Executor consumerExecutor;
+
+    // jobs fetched per consumer in work stealing mode, 0 if disabled
+    private final int workStealingPrefetch;
+
+    // the job queues of all consumers in work stealing mode. Consumers take from the head of their
+    // own queue and steal from the tail of the others.
+    private final CopyOnWriteArrayList<BlockingDeque<JobHolder>> prefetchedJobs =
+            new CopyOnWriteArrayList<>();
+
     private final CopyOnWriteArrayList<Runnable> internalZeroConsumersListeners
             = new CopyOnWriteArrayList<>();
 
@@ -78,8 +98,14 @@ class ConsumerManager {
                 * JobManagerThread.NS_PER_MS;
         this.threadPriority = configuration.getThreadPriority();
         this.threadFactory = configuration.getThreadFactory();
+        this.consumerExecutor = configuration.getConsumerExecutor();
+        this.workStealingPrefetch = configuration.getWorkStealingPrefetch();
         runningJobHolders = new HashMap<>();
-        runningJobGroups = new RunningJobSet(timer);
+        runningJobGroups = new RunningJobSet(timer, configuration.getGroupConcurrency());
+        rateLimiter = new RateLimiter(timer, configuration.getGroupRateLimits(),
+                configuration.getTagRateLimits());
+        fairShare = configuration.isFairShareEnabled()
+                ? new FairShare(configuration.getFairShareWeights()) : null;
         threadGroup = new ThreadGroup("JobConsumers");
     }
 
@@ -103,6 +129,7 @@ class ConsumerManager {
     }
 
     void handleStop() {
+        returnPrefetchedJobs();
         // poke everybody so we can kill them
         for (Consumer consumer : consumers) {
             SafeMessageQueue mq = consumer.messageQueue;
@@ -122,13 +149,18 @@ class ConsumerManager {
      * @return True if a consumer is poked or a new consumer is added
      */
     private boolean considerAddingConsumers(boolean pokeAllWaiting) {
-        JqLog.d("considering adding a new consumer. Should poke all waiting? %s isRunning? %s"
-                        + " waiting workers? %d"
-                , pokeAllWaiting, jobManagerThread.isRunning(), waitingConsumers.size());
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("considering adding a new consumer. Should poke all waiting? %s isRunning? %s"
+                            + " waiting workers? %d"
+                    , pokeAllWaiting, jobManagerThread.isRunning(), waitingConsumers.size());
+        }
         if (!jobManagerThread.isRunning()) {
             JqLog.d("jobqueue is not running, no consumers will be added");
             return false;
         }
+        if (workStealingPrefetch > 0) {
+            prefetchJobs();
+        }
         if (waitingConsumers.size() > 0) {
             JqLog.d("there are waiting workers, will poke them instead");
             for (int i = waitingConsumers.size() - 1; i >= 0; i--) {
@@ -156,6 +188,23 @@ class ConsumerManager {
         JqLog.d("adding another consumer");
         Consumer consumer = new Consumer(jobManagerThread.messageQueue,
                 new SafeMessageQueue(timer, factory, "consumer"), factory, timer);
+        if (workStealingPrefetch > 0) {
+            consumer.enableWorkStealing(new LinkedBlockingDeque<JobHolder>(), prefetchedJobs);
+            prefetchedJobs.add(consumer.prefetchedJobs);
+        }
+        if (consumerExecutor != null) {
+            consumers.add(consumer);
+            try {
+                consumerExecutor.execute(consumer);
+            } catch (RejectedExecutionException e) {
+                JqLog.e(e, "consumer executor rejected the consumer");
+                consumers.remove(consumer);
+                if (consumer.prefetchedJobs != null) {
+                    prefetchedJobs.remove(consumer.prefetchedJobs);
+                }
+            }
+            return;
+        }
         final Thread thread;
         if (threadFactory != null) {
             thread = threadFactory.newThread(consumer);
@@ -184,10 +233,12 @@ class ConsumerManager {
 
         boolean aboveLoadFactor = (workerCount * loadFactor < remainingJobs + runningHolders) ||
                 (workerCount < minConsumerCount && workerCount < remainingJobs + runningHolders);
-        JqLog.d("check above load factor: totalCons:%s minCons:%s maxConsCount: %s, loadFactor %s"
-                        + " remainingJobs: %s running holders: %s. isAbove:%s", workerCount,
-                minConsumerCount, maxConsumerCount, loadFactor, remainingJobs, runningHolders,
-                aboveLoadFactor);
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("check above load factor: totalCons:%s minCons:%s maxConsCount: %s, loadFactor"
+                            + " %s remainingJobs: %s running holders: %s. isAbove:%s", workerCount,
+                    minConsumerCount, maxConsumerCount, loadFactor, remainingJobs, runningHolders,
+                    aboveLoadFactor);
+        }
         return aboveLoadFactor;
     }
 
@@ -201,18 +252,29 @@ class ConsumerManager {
         }
         JobHolder nextJob = null;
         final boolean running = jobManagerThread.isRunning();
-        if (running) {
+        if (running && workStealingPrefetch > 0) {
+            prefetchJobs();
+            if (hasPrefetchedJobs()) {
+                // let it take or steal one
+                waitingConsumers.remove(consumer);
+                CommandMessage command = factory.obtain(CommandMessage.class);
+                command.set(CommandMessage.POKE);
+                consumer.messageQueue.post(command);
+                return true;
+            }
+        } else if (running) {
             nextJob = jobManagerThread.getNextJob(runningJobGroups.getSafe());
         }
         if (nextJob != null) {
             consumer.hasJob = true;
             runningJobGroups.add(nextJob.getGroupId());
+            rateLimiter.onJobStarted(nextJob, runningJobGroups);
+            if (fairShare != null) {
+                fairShare.onJobStarted(nextJob);
+            }
             RunJobMessage runJobMessage = factory.obtain(RunJobMessage.class);
             runJobMessage.setJobHolder(nextJob);
             runningJobHolders.put(nextJob.getJob().getId(), nextJob);
-            if (nextJob.getGroupId() != null) {
-                runningJobGroups.add(nextJob.getGroupId());
-            }
             consumer.messageQueue.post(runJobMessage);
             return true;
         } else {
@@ -220,14 +282,20 @@ class ConsumerManager {
             JqLog.v("keep alive: %s", keepAliveTimeout);
             final boolean tooMany = consumers.size() > minConsumerCount;
             boolean kill = !running || (tooMany && keepAliveTimeout < timer.nanoTime());
-            JqLog.v("Consumer idle, will kill? %s. isRunning: %s. too many? %s timeout: %s now: %s",
-                    kill, running, tooMany, keepAliveTimeout, timer.nanoTime() );
+            if (JqLog.isDebugEnabled()) {
+                JqLog.v("Consumer idle, will kill? %s. isRunning: %s. too many? %s timeout: %s"
+                        + " now: %s", kill, running, tooMany, keepAliveTimeout, timer.nanoTime());
+            }
             if (kill) {
                 CommandMessage command = factory.obtain(CommandMessage.class);
                 command.set(CommandMessage.QUIT);
                 consumer.messageQueue.post(command);
                 waitingConsumers.remove(consumer);
                 consumers.remove(consumer);
+                if (consumer.prefetchedJobs != null) {
+                    prefetchedJobs.remove(consumer.prefetchedJobs);
+                    returnPrefetchedJobs(consumer.prefetchedJobs);
+                }
                 JqLog.d("killed consumers. remaining consumers %d", consumers.size());
                 if (consumers.isEmpty() && internalZeroConsumersListeners != null) {
                     for (Runnable runnable : internalZeroConsumersListeners) {
@@ -252,6 +320,78 @@ class ConsumerManager {
         }
     }
 
+    /**
+     * Fetches ready jobs into the consumers' queues until each consumer has
+     * {@link #workStealingPrefetch} jobs on average. Fetched jobs are treated as running so that
+     * their group does not get more jobs than it may run at once. They also take their rate limit
+     * tokens and fair share, which are given back if the jobs are returned without running.
+     */
+    private void prefetchJobs() {
+        int limit = consumers.size() * workStealingPrefetch;
+        int prefetched = countPrefetchedJobs();
+        while (prefetched < limit) {
+            JobHolder jobHolder = jobManagerThread.getNextJob(runningJobGroups.getSafe());
+            if (jobHolder == null) {
+                break;
+            }
+            runningJobHolders.put(jobHolder.getJob().getId(), jobHolder);
+            runningJobGroups.add(jobHolder.getGroupId());
+            rateLimiter.onJobStarted(jobHolder, runningJobGroups);
+            if (fairShare != null) {
+                fairShare.onJobStarted(jobHolder);
+            }
+            BlockingDeque<JobHolder> target = null;
+            for (BlockingDeque<JobHolder> queue : prefetchedJobs) {
+                if (target == null || queue.size() < target.size()) {
+                    target = queue;
+                }
+            }
+            //noinspection ConstantConditions
+            target.offerLast(jobHolder);
+            prefetched++;
+        }
+    }
+
+    private int countPrefetchedJobs() {
+        int count = 0;
+        for (BlockingDeque<JobHolder> queue : prefetchedJobs) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    private boolean hasPrefetchedJobs() {
+        for (BlockingDeque<JobHolder> queue : prefetchedJobs) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts the jobs that were fetched in work stealing mode but not started yet back into the job
+     * queue.
+     */
+    void returnPrefetchedJobs() {
+        for (BlockingDeque<JobHolder> queue : prefetchedJobs) {
+            returnPrefetchedJobs(queue);
+        }
+    }
+
+    private void returnPrefetchedJobs(BlockingDeque<JobHolder> queue) {
+        JobHolder jobHolder;
+        while ((jobHolder = queue.pollLast()) != null) {
+            runningJobHolders.remove(jobHolder.getJob().getId());
+            runningJobGroups.remove(jobHolder.getGroupId());
+            rateLimiter.onJobReturned(jobHolder, runningJobGroups);
+            if (fairShare != null) {
+                fairShare.onJobReturned(jobHolder);
+            }
+            jobManagerThread.returnUnstartedJob(jobHolder);
+        }
+    }
+
     /**
      * Excludes cancelled jobs
      */
@@ -290,10 +430,12 @@ class ConsumerManager {
     void handleRunJobResult(RunJobResultMessage message, JobHolder jobHolder,
             RetryConstraint retryConstraint) {
         Consumer consumer = (Consumer) message.getWorker();
-        if (!consumer.hasJob) {
-            throw new IllegalStateException("this worker should not have a job");
+        if (workStealingPrefetch == 0) {
+            if (!consumer.hasJob) {
+                throw new IllegalStateException("this worker should not have a job");
+            }
+            consumer.hasJob = false;
         }
-        consumer.hasJob = false;
         runningJobHolders.remove(jobHolder.getJob().getId());
         if (jobHolder.getGroupId() != null) {
             runningJobGroups.remove(jobHolder.getGroupId());
@@ -304,6 +446,17 @@ class ConsumerManager {
                                 + retryConstraint.getNewDelayInMs() * JobManagerThread.NS_PER_MS);
             }
         }
+        if (workStealingPrefetch > 0 && jobManagerThread.isRunning()) {
+            prefetchJobs();
+            if (hasPrefetchedJobs()) {
+                // waiting consumers can help with the new jobs
+                for (int i = waitingConsumers.size() - 1; i >= 0; i--) {
+                    CommandMessage command = factory.obtain(CommandMessage.class);
+                    command.set(CommandMessage.POKE);
+                    waitingConsumers.remove(i).messageQueue.post(command);
+                }
+            }
+        }
     }
 
     boolean isJobRunning(String id) {
@@ -327,7 +480,7 @@ class ConsumerManager {
     }
 
     public boolean areAllConsumersIdle() {
-        return waitingConsumers.size() == consumers.size();
+        return waitingConsumers.size() == consumers.size() && !hasPrefetchedJobs();
     }
 
     static class Consumer implements Runnable {
@@ -342,6 +495,10 @@ class ConsumerManager {
 
         boolean hasJob;// controlled by the consumer controller to avoid multiple idle-job loops
 
+        // set in work stealing mode
+        BlockingDeque<JobHolder> prefetchedJobs;
+        List<BlockingDeque<JobHolder>> allPrefetchedJobs;
+
         volatile long lastJobCompleted;
 
         static final MessagePredicate pokeMessagePredicate =
@@ -369,6 +526,13 @@ class ConsumerManager {
 
             @Override
             public void onIdle() {
+                if (prefetchedJobs != null) {
+                    JobHolder jobHolder;
+                    while ((jobHolder = takePrefetchedJob()) != null) {
+                        runJob(jobHolder);
+                        removePokeMessages();
+                    }
+                }
                 JqLog.d("consumer manager on idle");
                 JobConsumerIdleMessage idle = factory.obtain(JobConsumerIdleMessage.class);
                 idle.setWorker(Consumer.this);
@@ -377,6 +541,29 @@ class ConsumerManager {
             }
         };
 
+        void enableWorkStealing(BlockingDeque<JobHolder> prefetchedJobs,
+                List<BlockingDeque<JobHolder>> allPrefetchedJobs) {
+            this.prefetchedJobs = prefetchedJobs;
+            this.allPrefetchedJobs = allPrefetchedJobs;
+        }
+
+        private JobHolder takePrefetchedJob() {
+            JobHolder jobHolder = prefetchedJobs.pollFirst();
+            if (jobHolder != null) {
+                return jobHolder;
+            }
+            for (BlockingDeque<JobHolder> queue : allPrefetchedJobs) {
+                if (queue != prefetchedJobs) {
+                    jobHolder = queue.pollLast();
+                    if (jobHolder != null) {
+                        JqLog.d("stole job %s", jobHolder.getId());
+                        return jobHolder;
+                    }
+                }
+            }
+            return null;
+        }
+
         private void removePokeMessages() {
             messageQueue.cancelMessages(pokeMessagePredicate);
         }
@@ -408,8 +595,13 @@ class ConsumerManager {
         }
 
         private void handleRunJob(RunJobMessage message) {
-            JqLog.d("running job %s", message.getJobHolder().getClass().getSimpleName());
-            JobHolder jobHolder = message.getJobHolder();
+            if (JqLog.isDebugEnabled()) {
+                JqLog.d("running job %s", message.getJobHolder().getClass().getSimpleName());
+            }
+            runJob(message.getJobHolder());
+        }
+
+        private void runJob(JobHolder jobHolder) {
             int result = jobHolder.safeRun(jobHolder.getRunCount(), timer);
             RunJobResultMessage resultMessage = factory.obtain(RunJobResultMessage.class);
             resultMessage.setJobHolder(jobHolder);
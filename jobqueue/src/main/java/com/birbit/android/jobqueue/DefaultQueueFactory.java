@@ -1,5 +1,6 @@
 package com.birbit.android.jobqueue;
 
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
 import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
 import com.birbit.android.jobqueue.*;
 import com.birbit.android.jobqueue.cachedQueue.CachedJobQueue;
@@ -9,7 +10,8 @@ import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
 /**
  * Default implementation of QueueFactory that creates one {@link SqliteJobQueue} and
  * one {@link SimpleInMemoryPriorityQueue} both are wrapped inside a {@link CachedJobQueue} to
- * improve performance
+ * improve performance. If {@link Configuration#indexInMemoryJobs()} is set, an
+ * {@link IndexedInMemoryPriorityQueue} is used instead of the {@link SimpleInMemoryPriorityQueue}.
  */
 public class DefaultQueueFactory implements QueueFactory {
     SqliteJobQueue.JobSerializer jobSerializer;
@@ -29,6 +31,9 @@ public class DefaultQueueFactory implements QueueFactory {
 
     @Override
     public JobQueue createNonPersistent(Configuration configuration, long sessionId) {
+        if (configuration.indexInMemoryJobs()) {
+            return new CachedJobQueue(new IndexedInMemoryPriorityQueue(configuration, sessionId));
+        }
         return new CachedJobQueue(new SimpleInMemoryPriorityQueue(configuration, sessionId));
     }
 }
\ No newline at end of file
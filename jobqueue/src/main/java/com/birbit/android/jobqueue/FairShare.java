@@ -0,0 +1,104 @@
+package com.birbit.android.jobqueue;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Shares the consumers between fairness keys (e.g. tenants) so that a key with a large backlog
+ * does not starve the others. Among the ready jobs with the highest priority, a {@link JobQueue}
+ * should return the one whose key has the smallest {@link #getStartTime(String)}, then the
+ * usual order.
+ * <p>
+ * This is start-time fair queuing: each key has a virtual finish time that grows by
+ * {@code 1 / weight} every time one of its jobs starts. Over time, keys with ready jobs start jobs
+ * in proportion to their weights, and a key that was idle starts at the current virtual time
+ * instead of catching up.
+ * <p>
+ * The fairness key of a job is the one set via {@link Params#fairnessKey(String)} or, if not set,
+ * its group id. Jobs with neither share the same key.
+ * <p>
+ * It is only modified on the JobManager thread, JobQueues may read it while they are queried.
+ *
+ * @see Constraint#getFairShare()
+ * @see com.birbit.android.jobqueue.config.Configuration.Builder#fairShare()
+ */
+public class FairShare {
+    // virtual time of a job with weight 1
+    private static final long SCALE = 1 << 20;
+    private static final int MIN_PRUNE_SIZE = 64;
+    private final Map<String, Integer> weights;
+    private final Map<String, Long> finishTimes = new HashMap<>();
+    private long virtualTime;
+    private int pruneAt = MIN_PRUNE_SIZE;
+
+    FairShare(Map<String, Integer> weights) {
+        this.weights = new HashMap<>(weights);
+    }
+
+    /**
+     * @return The smallest value {@link #getStartTime(String)} can return. A job with this
+     * value cannot be beaten by another job with the same priority.
+     */
+    public long getVirtualTime() {
+        return virtualTime;
+    }
+
+    /**
+     * Returns the virtual time when the next job of the given fairness key would start. Jobs
+     * with a smaller value should run first.
+     *
+     * @param key The fairness key of the job, see {@link JobHolder#getFairnessKey()}
+     * @return The virtual start time of the job
+     */
+    public long getStartTime(@Nullable String key) {
+        Long finish = finishTimes.get(key);
+        return finish == null || finish < virtualTime ? virtualTime : finish;
+    }
+
+    /**
+     * Charges the key of the job, which is about to run.
+     *
+     * @param holder The job that is about to run
+     */
+    void onJobStarted(JobHolder holder) {
+        final String key = holder.getFairnessKey();
+        final long start = getStartTime(key);
+        virtualTime = start;
+        Integer weight = weights.get(key);
+        finishTimes.put(key, start + SCALE / (weight == null ? 1 : weight));
+        if (finishTimes.size() >= pruneAt) {
+            // keys that are behind the virtual time start at it anyway
+            Iterator<Long> itr = finishTimes.values().iterator();
+            while (itr.hasNext()) {
+                if (itr.next() <= virtualTime) {
+                    itr.remove();
+                }
+            }
+            pruneAt = Math.max(MIN_PRUNE_SIZE, finishTimes.size() * 2);
+        }
+    }
+
+    /**
+     * Refunds the charge of a job that was started but returned to the queue before it ran. The
+     * virtual time does not go back.
+     *
+     * @param holder The job that was returned to the queue
+     */
+    void onJobReturned(JobHolder holder) {
+        final String key = holder.getFairnessKey();
+        Long finish = finishTimes.get(key);
+        if (finish == null) {
+            return;
+        }
+        Integer weight = weights.get(key);
+        final long refunded = finish - SCALE / (weight == null ? 1 : weight);
+        if (refunded > virtualTime) {
+            finishTimes.put(key, refunded);
+        } else {
+            finishTimes.remove(key);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.birbit.android.jobqueue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Implemented by {@link JobQueue}s that can keep their writes uncommitted to commit several of
+ * them together.
+ * <p>
+ * JobManager commits the queue when it becomes idle or when {@link #shouldCommit()} returns true
+ * and waits for the commit before calling the add callbacks of the jobs in it.
+ * <p>
+ * Queues that {@link #commitsInBackground() commit in the background} are not committed when
+ * JobManager becomes idle. Instead, they call their {@link CommitListener} after each commit.
+ *
+ * @see com.birbit.android.jobqueue.config.Durability#GROUP_COMMIT
+ * @see com.birbit.android.jobqueue.config.Durability#WRITE_BEHIND
+ */
+public interface GroupCommitJobQueue {
+    /**
+     * @return True if there are writes that are not committed yet
+     */
+    boolean hasUncommittedWrites();
+
+    /**
+     * @return True if the uncommitted writes reached the limits of a group and should be committed
+     * before handling anything else
+     */
+    boolean shouldCommit();
+
+    /**
+     * Commits the uncommitted writes, if any. Blocks until they are committed if the queue
+     * commits in the background.
+     */
+    void commit();
+
+    /**
+     * @return True if the queue commits its writes on a background thread
+     */
+    boolean commitsInBackground();
+
+    /**
+     * Sets the listener that is called after each background commit.
+     *
+     * @param listener The listener or null to remove it
+     */
+    void setCommitListener(@Nullable CommitListener listener);
+
+    /**
+     * @param jobId The id of an inserted job
+     *
+     * @return True if the insert of the job is committed
+     */
+    boolean isInsertCommitted(@NonNull String jobId);
+
+    /**
+     * Returns true if the insert of the job could not be committed. The job stays in the queue
+     * until it is removed, but it is not stored and should be reported as failed.
+     *
+     * @param jobId The id of an inserted job
+     *
+     * @return True if the insert of the job failed
+     */
+    boolean isInsertFailed(@NonNull String jobId);
+
+    /**
+     * Listener for the commits of a queue that commits in the background.
+     */
+    interface CommitListener {
+        /**
+         * Called on the thread that committed the writes.
+         */
+        void onCommitted();
+    }
+}
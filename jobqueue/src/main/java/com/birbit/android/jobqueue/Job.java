@@ -24,7 +24,12 @@ abstract public class Job implements Serializable {
     private static final long serialVersionUID = 3L;
     @SuppressWarnings("WeakerAccess")
     public static final int DEFAULT_RETRY_LIMIT = 20;
-    static final String SINGLE_ID_TAG_PREFIX = "job-single-id:";
+    /**
+     * Prefix of the tag that holds the single instance id of a job.
+     *
+     * @see #getSingleInstanceId()
+     */
+    public static final String SINGLE_ID_TAG_PREFIX = "job-single-id:";
     // set either in constructor or by the JobHolder
     /**package**/ private transient String id;
     // values set from params
@@ -32,6 +37,7 @@ abstract public class Job implements Serializable {
     transient int requiredNetworkType;
     // values set after job is covered by a JobHolder
     private transient String groupId;
+    private transient String fairnessKey;
     private transient boolean persistent;
     private transient Set<String> readonlyTags;
 
@@ -60,6 +66,7 @@ abstract public class Job implements Serializable {
         this.delayInMs = Math.max(0, params.getDelayMs());
         this.deadlineInMs = Math.max(0, params.getDeadlineMs());
         this.cancelOnDeadline = params.shouldCancelOnDeadline();
+        this.fairnessKey = params.getFairnessKey();
         final String singleId = params.getSingleId();
         if (params.getTags() != null || singleId != null) {
             final Set<String> tags = params.getTags() != null ? params.getTags() : new HashSet<String>();
@@ -132,6 +139,7 @@ abstract public class Job implements Serializable {
         }
         id = holder.id;
         groupId = holder.groupId;
+        fairnessKey = holder.getFairnessKey();
         priority = holder.getPriority();
         this.persistent = holder.persistent;
         readonlyTags = holder.tags;
@@ -251,7 +259,10 @@ abstract public class Job implements Serializable {
                 }
             }
         }
-        JqLog.d("safeRunResult for %s : %s. re run:%s. cancelled: %s", this, !failed, reRun, cancelled);
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("safeRunResult for %s : %s. re run:%s. cancelled: %s", this, !failed, reRun,
+                    cancelled);
+        }
         if (!failed) {
             return JobHolder.RUN_RESULT_SUCCESS;
         }
@@ -319,6 +330,16 @@ abstract public class Job implements Serializable {
         return null;
     }
 
+    /**
+     * The key that this job is charged to when JobManager shares the consumers fairly.
+     *
+     * @return The fairness key set via {@link Params#fairnessKey(String)} or the group id if it is
+     * not set
+     */
+    public final String getFairnessKey() {
+        return fairnessKey != null ? fairnessKey : groupId;
+    }
+
     private String createTagForSingleId(String singleId) {
         return SINGLE_ID_TAG_PREFIX + singleId;
     }
@@ -55,6 +55,10 @@ public class JobHolder {
     public final boolean persistent;
     private int priority;
     public final String groupId;
+    /**
+     * The key that the job is charged to when consumers are shared fairly
+     */
+    @Nullable private final String fairnessKey;
     private int runCount;
     /**
      * job will be delayed until this nanotime
@@ -75,7 +79,11 @@ public class JobHolder {
      * What to do when deadline is reached
      */
     private boolean cancelOnDeadline;
-    transient final Job job;
+    private Job job;
+    /**
+     * Loads {@link #job} the first time it is needed, if the holder was created without it
+     */
+    @Nullable private JobLoader jobLoader;
     protected final Set<String> tags;
     private volatile boolean cancelled;
     private volatile boolean cancelledSingleId;
@@ -94,8 +102,10 @@ public class JobHolder {
      * @param persistent       Is the job persistent
      * @param priority         Higher is better
      * @param groupId          which group does this job belong to? default null
+     * @param fairnessKey      The fairness key of the job, defaults to its group id
      * @param runCount         Incremented each time job is fetched to run, initial value should be 0
-     * @param job              Actual job to run
+     * @param job              Actual job to run, null if it should be loaded via jobLoader
+     * @param jobLoader        Loads the job when it is first needed if job is null
      * @param createdNs        System.nanotime
      * @param delayUntilNs     System.nanotime value: when job can be run the very first time
      * @param runningSessionId The running session id for the job
@@ -104,17 +114,21 @@ public class JobHolder {
      * @param deadlineNs       System.nanotime value: when the job will ignore its constraints
      * @param cancelOnDeadline true if job should be cancelled when deadline is reached, false otherwise
      */
-    private JobHolder(String id, boolean persistent, int priority, String groupId, int runCount, Job job, long createdNs,
+    private JobHolder(String id, boolean persistent, int priority, String groupId,
+                      String fairnessKey, int runCount, Job job, JobLoader jobLoader,
+                      long createdNs,
                       long delayUntilNs, long runningSessionId, Set<String> tags,
                       int requiredNetworkType, long deadlineNs, boolean cancelOnDeadline) {
         this.id = id;
         this.persistent = persistent;
         this.priority = priority;
         this.groupId = groupId;
+        this.fairnessKey = fairnessKey;
         this.runCount = runCount;
         this.createdNs = createdNs;
         this.delayUntilNs = delayUntilNs;
         this.job = job;
+        this.jobLoader = jobLoader;
         this.runningSessionId = runningSessionId;
         this.requiredNetworkType = requiredNetworkType;
         this.tags = tags;
@@ -129,7 +143,7 @@ public class JobHolder {
      * @return RUN_RESULT
      */
     int safeRun(int currentRunCount, Timer timer) {
-        return job.safeRun(this, currentRunCount, timer);
+        return getJob().safeRun(this, currentRunCount, timer);
     }
 
     @NonNull public String getId() {
@@ -147,13 +161,26 @@ public class JobHolder {
         return null;
     }
 
+    /**
+     * The key that this job is charged to when JobManager shares the consumers fairly.
+     *
+     * @return The fairness key set via {@link Params#fairnessKey(String)} or the group id if it is
+     * not set
+     */
+    @Nullable
+    public final String getFairnessKey() {
+        return fairnessKey;
+    }
+
     public int getPriority() {
         return priority;
     }
 
     public void setPriority(int priority) {
         this.priority = priority;
-        this.job.priority = this.priority;
+        if (job != null) {
+            job.priority = this.priority;
+        }
     }
 
     public Long getInsertionOrder() {
@@ -200,10 +227,55 @@ public class JobHolder {
         return delayUntilNs;
     }
 
+    /**
+     * Returns the Job of this holder, loading it if the holder was created without it.
+     *
+     * @throws IllegalStateException if the job cannot be loaded. Call {@link #loadJob()} first
+     * if the holder may belong to a job that is not valid anymore.
+     */
     public Job getJob() {
+        if (job == null && !loadJob()) {
+            throw new IllegalStateException("cannot load the job " + id);
+        }
         return job;
     }
 
+    /**
+     * Returns true if the Job of this holder is in memory. Holders returned from queries of a
+     * persistent queue may only have the metadata of the job until it is needed.
+     *
+     * @return True if the Job is loaded
+     */
+    public boolean isJobLoaded() {
+        return job != null;
+    }
+
+    /**
+     * Loads the Job of this holder if it is not loaded yet. Must be called on the thread that
+     * queries the queue the holder came from.
+     *
+     * @return False if the job cannot be loaded, true otherwise
+     */
+    public boolean loadJob() {
+        if (job != null) {
+            return true;
+        }
+        if (jobLoader == null) {
+            return false;
+        }
+        Job loaded = jobLoader.loadJob(id);
+        jobLoader = null;
+        if (loaded == null) {
+            return false;
+        }
+        loaded.updateFromJobHolder(this);
+        if (cancelled) {
+            loaded.cancelled = true;
+        }
+        job = loaded;
+        return true;
+    }
+
     public String getGroupId() {
         return groupId;
     }
@@ -214,7 +286,9 @@ public class JobHolder {
 
     public void markAsCancelled() {
         cancelled = true;
-        job.cancelled = true;
+        if (job != null) {
+            job.cancelled = true;
+        }
     }
 
     public boolean isCancelled() {
@@ -250,11 +324,11 @@ public class JobHolder {
     }
 
     public void setApplicationContext(Context applicationContext) {
-        this.job.setApplicationContext(applicationContext);
+        getJob().setApplicationContext(applicationContext);
     }
 
     public void setDeadlineIsReached(boolean didReachDeadline) {
-        this.job.setDeadlineReached(didReachDeadline);
+        getJob().setDeadlineReached(didReachDeadline);
     }
 
     public boolean hasDeadline() {
@@ -266,7 +340,7 @@ public class JobHolder {
     }
 
     public void onCancel(@CancelReason int cancelReason) {
-        job.onCancel(cancelReason, throwable);
+        getJob().onCancel(cancelReason, throwable);
     }
 
     public RetryConstraint getRetryConstraint() {
@@ -298,6 +372,19 @@ public class JobHolder {
         return requiredNetworkType;
     }
 
+    /**
+     * Loads the Job of a {@link JobHolder} that was created with only the metadata of the job.
+     */
+    public interface JobLoader {
+        /**
+         * @param id The id of the job
+         *
+         * @return The job with the given id or null if it cannot be loaded
+         */
+        @Nullable
+        Job loadJob(@NonNull String id);
+    }
+
     public static class Builder {
         private int priority;
         private static final int FLAG_PRIORITY = 1;
@@ -307,8 +394,10 @@ public class JobHolder {
         private static final int FLAG_ID = FLAG_PERSISTENT << 1;
         private String groupId;
         private static final int FLAG_GROUP_ID = FLAG_ID << 1;
+        private String fairnessKey;
         private int runCount = 0;
         private Job job;
+        private JobLoader jobLoader;
         private static final int FLAG_JOB = FLAG_GROUP_ID << 1;
         private long createdNs;
         private static final int FLAG_CREATED_NS = FLAG_JOB << 1;
@@ -340,6 +429,14 @@ public class JobHolder {
             return this;
         }
 
+        /**
+         * Sets the fairness key of the job. If it is not set, the job is charged to its group id.
+         */
+        public Builder fairnessKey(String fairnessKey) {
+            this.fairnessKey = fairnessKey;
+            return this;
+        }
+
         public Builder tags(Set<String> tags) {
             this.tags = tags;
             providedFlags |= FLAG_TAGS;
@@ -363,6 +460,16 @@ public class JobHolder {
             return this;
         }
 
+        /**
+         * Creates the holder without its Job. The job is loaded via the given loader the first
+         * time it is needed.
+         */
+        public Builder jobLoader(JobLoader jobLoader) {
+            this.jobLoader = jobLoader;
+            providedFlags |= FLAG_JOB;
+            return this;
+        }
+
         public Builder id(String id) {
             this.id = id;
             providedFlags |= FLAG_ID;
@@ -403,7 +510,7 @@ public class JobHolder {
         }
 
         public JobHolder build() {
-            if (job == null) {
+            if (job == null && jobLoader == null) {
                 throw new IllegalArgumentException("must provide a job");
             }
             int flagCheck = REQUIRED_FLAGS & providedFlags;
@@ -411,12 +518,16 @@ public class JobHolder {
                 throw new IllegalArgumentException("must provide all required fields. your result:" + Long.toBinaryString(flagCheck));
             }
 
-            JobHolder jobHolder = new JobHolder(id, persistent, priority, groupId, runCount, job, createdNs,
+            JobHolder jobHolder = new JobHolder(id, persistent, priority, groupId,
+                    fairnessKey != null ? fairnessKey : groupId, runCount, job,
+                    job == null ? jobLoader : null, createdNs,
                     delayUntilNs, runningSessionId, tags, requiredNetworkType, deadlineNs, cancelOnDeadline);
             if (insertionOrder != null) {
                 jobHolder.setInsertionOrder(insertionOrder);
             }
-            job.updateFromJobHolder(jobHolder);
+            if (job != null) {
+                job.updateFromJobHolder(jobHolder);
+            }
             return jobHolder;
         }
     }
@@ -9,11 +9,13 @@ import com.birbit.android.jobqueue.callback.JobManagerCallback;
 import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.messaging.LockFreeMessageQueue;
 import com.birbit.android.jobqueue.messaging.Message;
 import com.birbit.android.jobqueue.messaging.MessageFactory;
 import com.birbit.android.jobqueue.messaging.MessageQueue;
 import com.birbit.android.jobqueue.messaging.PriorityMessageQueue;
 import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.AddJobsMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelMessage;
 import com.birbit.android.jobqueue.messaging.message.CommandMessage;
 import com.birbit.android.jobqueue.messaging.message.PublicQueryMessage;
@@ -21,6 +23,10 @@ import com.birbit.android.jobqueue.messaging.message.SchedulerMessage;
 import com.birbit.android.jobqueue.scheduling.Scheduler;
 import com.birbit.android.jobqueue.scheduling.SchedulerConstraint;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -40,7 +46,7 @@ public class JobManager {
     public static final long MIN_DELAY_TO_USE_SCHEDULER_IN_MS = 1000 * 30;
 
     final JobManagerThread jobManagerThread;
-    private final PriorityMessageQueue messageQueue;
+    private final MessageQueue messageQueue;
     private final MessageFactory messageFactory;
     @SuppressWarnings("FieldCanBeLocal")
     private Thread chefThread;
@@ -51,6 +57,10 @@ public class JobManager {
 
     /**
      * Creates a JobManager with the given configuration
+     * <p>
+     * The persistent queue is opened on the JobManager's thread. If it cannot be opened, no Jobs
+     * are added or run: added Jobs are cancelled with {@link CancelReason#ADD_FAILED} and the
+     * methods that wait for the JobManager throw an {@link IllegalStateException}.
      *
      * @param configuration The configuration to be used for the JobManager
      *
@@ -58,7 +68,11 @@ public class JobManager {
      */
     public JobManager(Configuration configuration) {
         messageFactory = new MessageFactory();
-        messageQueue = new PriorityMessageQueue(configuration.getTimer(), messageFactory);
+        if (configuration.useLockFreeMessageQueue()) {
+            messageQueue = new LockFreeMessageQueue(configuration.getTimer(), messageFactory);
+        } else {
+            messageQueue = new PriorityMessageQueue(configuration.getTimer(), messageFactory);
+        }
         jobManagerThread = new JobManagerThread(configuration, messageQueue, messageFactory);
         chefThread = new Thread(jobManagerThread, "job-manager");
         if (configuration.getScheduler() != null) {
@@ -128,6 +142,9 @@ public class JobManager {
      * @see #stop()
      */
     public void start() {
+        if (!jobManagerThread.setRunning(true)) {
+            return;
+        }
         PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.START, null);
         messageQueue.post(message);
@@ -140,6 +157,7 @@ public class JobManager {
      * @see #start()
      */
     public void stop() {
+        jobManagerThread.setRunning(false);
         PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.STOP, null);
         messageQueue.post(message);
@@ -158,7 +176,7 @@ public class JobManager {
         assertNotInJobManagerThread("Cannot call sync methods in JobManager's callback thread.");
         PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.ACTIVE_CONSUMER_COUNT, null);
-        return new IntQueryFuture<>(messageQueue, message).getSafe();
+        return query(message);
     }
 
     /**
@@ -285,7 +303,8 @@ public class JobManager {
     }
 
     /**
-     * Adds the Job to the JobManager and waits until the add is handled.
+     * Adds the Job to the JobManager and waits until the add is handled. If the Job cannot be
+     * written to its queue, it is cancelled with {@link CancelReason#ADD_FAILED}.
      * <p>
      * You cannot call this method on the main thread because it may potentially block it for a long
      * time.
@@ -309,6 +328,19 @@ public class JobManager {
         addCallback(new JobManagerCallbackAdapter() {
             @Override
             public void onJobAdded(@NonNull Job job) {
+                onJobHandled(job);
+            }
+
+            @Override
+            public void onJobCancelled(@NonNull Job job, boolean byCancelRequest,
+                    @Nullable Throwable throwable) {
+                // jobs that could not be added are cancelled without being added
+                if (!byCancelRequest) {
+                    onJobHandled(job);
+                }
+            }
+
+            private void onJobHandled(Job job) {
                 if (uuid.equals(job.getId())) {
                     latch.countDown();
                     removeCallback(this);
@@ -321,11 +353,15 @@ public class JobManager {
         } catch (InterruptedException ignored) {
 
         }
+        assertPersistentQueueOpen();
     }
 
     /**
      * Adds a Job in a background thread and calls the provided callback once the Job is added
      * to the JobManager.
+     * <p>
+     * If the Job cannot be written to its queue, it is cancelled with
+     * {@link CancelReason#ADD_FAILED} and the callback is not called.
      *
      * @param job The Job to be added
      * @param callback The callback to be invoked once Job is saved in the JobManager's queues
@@ -347,10 +383,157 @@ public class JobManager {
                     }
                 }
             }
+
+            @Override
+            public void onJobCancelled(@NonNull Job job, boolean byCancelRequest,
+                    @Nullable Throwable throwable) {
+                // jobs that could not be added are cancelled without being added
+                if (!byCancelRequest && uuid.equals(job.getId())) {
+                    removeCallback(this);
+                }
+            }
         });
         addJobInBackground(job);
     }
 
+    /**
+     * Adds all of the given Jobs to the JobManager. This method instantly returns and does not wait
+     * until the Jobs are added.
+     * <p>
+     * All Jobs are handled together as a single request. Persistent Jobs are written to disk in a
+     * single transaction, which is much faster than adding them one by one.
+     *
+     * @param jobs The Jobs to be added
+     *
+     * @see #addJobsInBackground(Collection, AsyncAddCallback)
+     * @see #addJobs(Collection)
+     */
+    public void addJobsInBackground(Collection<? extends Job> jobs) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        AddJobsMessage message = messageFactory.obtain(AddJobsMessage.class);
+        message.setJobs(new ArrayList<Job>(jobs));
+        messageQueue.post(message);
+    }
+
+    /**
+     * Adds all of the given Jobs in a background thread and calls the provided callback once all of
+     * them are added to the JobManager.
+     * <p>
+     * If the Jobs cannot be written to their queue, they are cancelled with
+     * {@link CancelReason#ADD_FAILED} and the callback is not called.
+     *
+     * @param jobs The Jobs to be added
+     * @param callback The callback to be invoked once all Jobs are saved in the JobManager's queues
+     *
+     * @see #addJobsInBackground(Collection)
+     */
+    public void addJobsInBackground(Collection<? extends Job> jobs,
+            final AsyncAddCallback callback) {
+        if (callback == null) {
+            addJobsInBackground(jobs);
+            return;
+        }
+        if (jobs.isEmpty()) {
+            callback.onAdded();
+            return;
+        }
+        final Set<String> pendingIds = collectIds(jobs);
+        addCallback(new JobManagerCallbackAdapter() {
+            private boolean failed;
+
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                onJobHandled(job);
+            }
+
+            @Override
+            public void onJobCancelled(@NonNull Job job, boolean byCancelRequest,
+                    @Nullable Throwable throwable) {
+                // jobs that could not be added are cancelled without being added
+                if (!byCancelRequest && pendingIds.contains(job.getId())) {
+                    failed = true;
+                    onJobHandled(job);
+                }
+            }
+
+            private void onJobHandled(Job job) {
+                if (pendingIds.remove(job.getId()) && pendingIds.isEmpty()) {
+                    try {
+                        if (!failed) {
+                            callback.onAdded();
+                        }
+                    } finally {
+                        removeCallback(this);
+                    }
+                }
+            }
+        });
+        addJobsInBackground(jobs);
+    }
+
+    /**
+     * Adds all of the given Jobs to the JobManager and waits until the add is handled. Jobs that
+     * cannot be written to their queue are cancelled with {@link CancelReason#ADD_FAILED}.
+     * <p>
+     * You cannot call this method on the main thread because it may potentially block it for a long
+     * time.
+     *
+     * @param jobs The Jobs to be added
+     *
+     * @see #addJobsInBackground(Collection)
+     * @see #addJobsInBackground(Collection, AsyncAddCallback)
+     */
+    public void addJobs(Collection<? extends Job> jobs) {
+        assertNotInMainThread("Cannot call this method on main thread. Use addJobsInBackground "
+                + "instead.");
+        assertNotInJobManagerThread("Cannot call sync methods in JobManager's callback thread." +
+                "Use addJobsInBackground instead");
+        if (jobs.isEmpty()) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Set<String> pendingIds = collectIds(jobs);
+        addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                onJobHandled(job);
+            }
+
+            @Override
+            public void onJobCancelled(@NonNull Job job, boolean byCancelRequest,
+                    @Nullable Throwable throwable) {
+                // jobs that could not be added are cancelled without being added
+                if (!byCancelRequest) {
+                    onJobHandled(job);
+                }
+            }
+
+            private void onJobHandled(Job job) {
+                if (pendingIds.remove(job.getId()) && pendingIds.isEmpty()) {
+                    latch.countDown();
+                    removeCallback(this);
+                }
+            }
+        });
+        addJobsInBackground(jobs);
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {
+
+        }
+        assertPersistentQueueOpen();
+    }
+
+    private static Set<String> collectIds(Collection<? extends Job> jobs) {
+        Set<String> ids = new HashSet<>(jobs.size());
+        for (Job job : jobs) {
+            ids.add(job.getId());
+        }
+        return ids;
+    }
+
     /**
      * Cancels jobs that match the given criteria. This method blocks until the cancellation is
      * handled, which might be a long time if a Job that matches the given criteria is currently
@@ -393,6 +576,7 @@ public class JobManager {
             latch.await();
         } catch (InterruptedException ignored) {
         }
+        assertPersistentQueueOpen();
         return result[0];
     }
 
@@ -410,7 +594,7 @@ public class JobManager {
         assertNotInJobManagerThread("Cannot call count sync method in JobManager's thread");
         PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.COUNT, null);
-        return new IntQueryFuture<>(messageQueue, message).getSafe();
+        return query(message);
     }
 
     /**
@@ -425,7 +609,7 @@ public class JobManager {
         assertNotInJobManagerThread("Cannot call countReadyJobs sync method on JobManager's thread");
         PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.COUNT_READY, null);
-        return new IntQueryFuture<>(messageQueue, message).getSafe();
+        return query(message);
     }
 
     /**
@@ -442,7 +626,7 @@ public class JobManager {
         assertNotInJobManagerThread("Cannot call getJobStatus on JobManager's thread");
         PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.JOB_STATUS, id, null);
-        Integer status = new IntQueryFuture<>(messageQueue, message).getSafe();
+        int status = query(message);
         return JobStatus.values()[status];
     }
 
@@ -458,7 +642,7 @@ public class JobManager {
         assertNotInJobManagerThread("Cannot call clear on JobManager's thread");
         final PublicQueryMessage message = messageFactory.obtain(PublicQueryMessage.class);
         message.set(PublicQueryMessage.CLEAR, null);
-        new IntQueryFuture<>(messageQueue, message).getSafe();
+        query(message);
     }
 
     void internalRunInJobManagerThread(final Runnable runnable) throws Throwable {
@@ -497,6 +681,19 @@ public class JobManager {
         }
     }
 
+    private void assertPersistentQueueOpen() {
+        Throwable openFailure = jobManagerThread.getOpenFailure();
+        if (openFailure != null) {
+            throw new IllegalStateException("cannot open the persistent job queue", openFailure);
+        }
+    }
+
+    private int query(PublicQueryMessage message) {
+        Integer result = new IntQueryFuture<>(messageQueue, message).getSafe();
+        assertPersistentQueueOpen();
+        return result;
+    }
+
     @SuppressWarnings("WeakerAccess")
     static class IntQueryFuture<T extends Message & IntCallback.MessageWithCallback>
             implements Future<Integer>,IntCallback {
@@ -9,9 +9,10 @@ import com.birbit.android.jobqueue.di.DependencyInjector;
 import com.birbit.android.jobqueue.log.JqLog;
 import com.birbit.android.jobqueue.messaging.Message;
 import com.birbit.android.jobqueue.messaging.MessageFactory;
+import com.birbit.android.jobqueue.messaging.MessageQueue;
 import com.birbit.android.jobqueue.messaging.MessageQueueConsumer;
-import com.birbit.android.jobqueue.messaging.PriorityMessageQueue;
 import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.AddJobsMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelMessage;
 import com.birbit.android.jobqueue.messaging.message.CommandMessage;
 import com.birbit.android.jobqueue.messaging.message.ConstraintChangeMessage;
@@ -27,10 +28,17 @@ import com.birbit.android.jobqueue.timer.Timer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     public static final long NS_PER_MS = 1000000;
@@ -42,9 +50,18 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     private final Context appContext;
     @SuppressWarnings("FieldCanBeLocal")
     private final long sessionId;
-    final JobQueue persistentJobQueue;
+    private final Configuration config;
+    // opened on this thread when it starts so that loading it does not block JobManager's creator
+    JobQueue persistentJobQueue;
     final JobQueue nonPersistentJobQueue;
+    // set if the persistent queue can group its writes
+    @Nullable private GroupCommitJobQueue groupCommitQueue;
+    // persistent jobs whose add callbacks wait for the commit of their insert
+    private final Map<String, JobHolder> uncommittedAdds = new LinkedHashMap<>();
+    // set while a WRITES_COMMITTED command is waiting in the message queue
+    private final AtomicBoolean writesCommittedPosted = new AtomicBoolean(false);
     private final NetworkUtil networkUtil;
+    final NetworkStatusCache networkStatusCache;
     private final DependencyInjector dependencyInjector;
     private final MessageFactory messageFactory;
     final ConsumerManager consumerManager;
@@ -54,7 +71,12 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
 
     final CallbackManager callbackManager;
 
-    private boolean running = true;
+    // set on this thread if the persistent queue cannot be opened, before any message is handled
+    @Nullable
+    private volatile Throwable openFailure;
+    // set by JobManager#start and #stop on the caller's thread so that adds posted after a stop
+    // cannot overtake it while this thread is busy, e.g. opening the persistent queue
+    private volatile boolean running = true;
     /**
      * We set this to true whenever we schedule a wake up and set to false whenever we call
      * cancelAll. It is not precise, does not cover scheduling across reboots but a fair compromise
@@ -64,11 +86,11 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     // see https://github.com/yigit/android-priority-jobqueue/issues/262
     private boolean canScheduleConstraintChangeOnIdle = true;
 
-    final PriorityMessageQueue messageQueue;
+    final MessageQueue messageQueue;
     @Nullable
     Scheduler scheduler;
 
-    JobManagerThread(Configuration config, PriorityMessageQueue messageQueue,
+    JobManagerThread(Configuration config, MessageQueue messageQueue,
             MessageFactory messageFactory) {
         this.messageQueue = messageQueue;
         if(config.getCustomLogger() != null) {
@@ -83,11 +105,12 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                 !(scheduler instanceof BatchingScheduler)) {
             scheduler = new BatchingScheduler(scheduler, timer);
         }
-        this.persistentJobQueue = config.getQueueFactory()
-                .createPersistentQueue(config, sessionId);
+        this.config = config;
         this.nonPersistentJobQueue = config.getQueueFactory()
                 .createNonPersistent(config, sessionId);
         networkUtil = config.getNetworkUtil();
+        networkStatusCache = new NetworkStatusCache(networkUtil, appContext, timer,
+                config.getNetworkStatusTtlMs() * JobManager.NS_PER_MS);
         dependencyInjector = config.getDependencyInjector();
         if(networkUtil instanceof NetworkEventProvider) {
             ((NetworkEventProvider) networkUtil).setListener(this);
@@ -96,6 +119,27 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         callbackManager = new CallbackManager(messageFactory, timer);
     }
 
+    /**
+     * Creates the persistent queue. Called on this thread before handling any messages.
+     */
+    private void openPersistentQueue() {
+        persistentJobQueue = config.getQueueFactory().createPersistentQueue(config, sessionId);
+        groupCommitQueue = persistentJobQueue instanceof GroupCommitJobQueue
+                ? (GroupCommitJobQueue) persistentJobQueue : null;
+        if (groupCommitQueue != null && groupCommitQueue.commitsInBackground()) {
+            groupCommitQueue.setCommitListener(new GroupCommitJobQueue.CommitListener() {
+                @Override
+                public void onCommitted() {
+                    if (writesCommittedPosted.compareAndSet(false, true)) {
+                        CommandMessage command = messageFactory.obtain(CommandMessage.class);
+                        command.set(CommandMessage.WRITES_COMMITTED);
+                        messageQueue.post(command);
+                    }
+                }
+            });
+        }
+    }
+
     void addCallback(JobManagerCallback callback) {
         callbackManager.addCallback(callback);
     }
@@ -112,16 +156,113 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         Job job = message.getJob();
         //noinspection deprecation
         long now = timer.nanoTime();
+        JobHolder jobHolder = createJobHolder(job, now);
+
+        JobHolder oldJob = findJobBySingleId(job.getSingleInstanceId());
+        final boolean insert = oldJob == null || consumerManager.isJobRunning(oldJob.getId());
+        if (insert) {
+            JobQueue queue = job.isPersistent() ? persistentJobQueue : nonPersistentJobQueue;
+            if (oldJob != null) { //the other job was running, will be cancelled if it fails
+                consumerManager.markJobsCancelledSingleId(TagConstraint.ANY, new String[]{job.getSingleInstanceId()});
+                queue.substitute(jobHolder, oldJob);
+            } else {
+                queue.insert(jobHolder);
+            }
+            logAddedJob(job);
+        } else {
+            JqLog.d("another job with same singleId: %s was already queued", job.getSingleInstanceId());
+        }
+        dispatchAdded(jobHolder, insert, now);
+        if (insert) {
+            consumerManager.onJobAdded();
+        }
+    }
+
+    /**
+     * Adds all jobs in the message at once. Single instance ids are resolved with one query per
+     * queue and new jobs are written via {@link JobQueue#insertAll(Collection)} so that a
+     * persistent batch is written in a single transaction.
+     */
+    private void handleAddJobs(AddJobsMessage message) {
+        List<Job> jobs = message.getJobs();
+        //noinspection deprecation
+        long now = timer.nanoTime();
+        Map<String, JobHolder> singleIdJobs = findJobsBySingleIds(jobs);
+        List<JobHolder> holders = new ArrayList<>(jobs.size());
+        boolean[] inserted = new boolean[jobs.size()];
+        // the queued job with the same single id, for jobs that are not inserted
+        JobHolder[] queuedSingleIdJobs = new JobHolder[jobs.size()];
+        List<JobHolder> persistentInserts = new ArrayList<>();
+        List<JobHolder> nonPersistentInserts = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            JobHolder jobHolder = createJobHolder(job, now);
+            holders.add(jobHolder);
+            String singleId = job.getSingleInstanceId();
+            JobHolder oldJob = singleId == null ? null : singleIdJobs.get(singleId);
+            final boolean insert = oldJob == null || consumerManager.isJobRunning(oldJob.getId());
+            inserted[i] = insert;
+            if (!insert) {
+                queuedSingleIdJobs[i] = oldJob;
+                JqLog.d("another job with same singleId: %s was already queued", singleId);
+                continue;
+            }
+            if (oldJob != null) { //the other job was running, will be cancelled if it fails
+                consumerManager.markJobsCancelledSingleId(TagConstraint.ANY, new String[]{singleId});
+                JobQueue queue = job.isPersistent() ? persistentJobQueue : nonPersistentJobQueue;
+                queue.substitute(jobHolder, oldJob);
+            } else if (job.isPersistent()) {
+                persistentInserts.add(jobHolder);
+            } else {
+                nonPersistentInserts.add(jobHolder);
+            }
+            if (singleId != null) {
+                // following jobs in the batch with the same single id should see this one
+                singleIdJobs.put(singleId, jobHolder);
+            }
+            logAddedJob(job);
+        }
+        Set<JobHolder> failed = null;
+        if (!nonPersistentInserts.isEmpty()
+                && !nonPersistentJobQueue.insertAll(nonPersistentInserts)) {
+            failed = new HashSet<>(nonPersistentInserts);
+        }
+        if (!persistentInserts.isEmpty() && !persistentJobQueue.insertAll(persistentInserts)) {
+            if (failed == null) {
+                failed = new HashSet<>(persistentInserts);
+            } else {
+                failed.addAll(persistentInserts);
+            }
+        }
+        boolean addedAny = false;
+        for (int i = 0; i < holders.size(); i++) {
+            JobHolder jobHolder = holders.get(i);
+            // a job with the same single id earlier in the batch may not have been inserted
+            if (failed != null && (failed.contains(jobHolder)
+                    || failed.contains(queuedSingleIdJobs[i]))) {
+                notifyAddFailed(jobHolder);
+                continue;
+            }
+            dispatchAdded(jobHolder, inserted[i], now);
+            addedAny |= inserted[i];
+        }
+        if (addedAny) {
+            consumerManager.onJobAdded();
+        }
+    }
+
+    private JobHolder createJobHolder(Job job, long now) {
         long delayUntilNs = job.getDelayInMs() > 0
                 ? now + job.getDelayInMs() * NS_PER_MS
                 : NOT_DELAYED_JOB_DELAY;
         long deadline = job.getDeadlineInMs() > 0
                 ? now + job.getDeadlineInMs() * NS_PER_MS
                 : Params.FOREVER;
-        JobHolder jobHolder = new JobHolder.Builder()
+        return new JobHolder.Builder()
                 .priority(job.getPriority())
                 .job(job)
                 .groupId(job.getRunGroupId())
+                .fairnessKey(job.getFairnessKey())
                 .createdNs(now)
                 .delayUntilNs(delayUntilNs)
                 .id(job.getId())
@@ -131,40 +272,120 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                 .deadline(deadline, job.shouldCancelOnDeadline())
                 .requiredNetworkType(job.requiredNetworkType)
                 .runningSessionId(NOT_RUNNING_SESSION_ID).build();
+    }
 
-        JobHolder oldJob = findJobBySingleId(job.getSingleInstanceId());
-        final boolean insert = oldJob == null || consumerManager.isJobRunning(oldJob.getId());
-        if (insert) {
-            JobQueue queue = job.isPersistent() ? persistentJobQueue : nonPersistentJobQueue;
-            if (oldJob != null) { //the other job was running, will be cancelled if it fails
-                consumerManager.markJobsCancelledSingleId(TagConstraint.ANY, new String[]{job.getSingleInstanceId()});
-                queue.substitute(jobHolder, oldJob);
-            } else {
-                queue.insert(jobHolder);
-            }
-            if (JqLog.isDebugEnabled()) {
-                JqLog.d("added job class: %s priority: %d delay: %d group : %s persistent: %s"
-                        , job.getClass().getSimpleName(), job.getPriority(), job.getDelayInMs()
-                        , job.getRunGroupId(), job.isPersistent());
-            }
-        } else {
-            JqLog.d("another job with same singleId: %s was already queued", job.getSingleInstanceId());
+    private void logAddedJob(Job job) {
+        if (JqLog.isDebugEnabled()) {
+            JqLog.d("added job class: %s priority: %d delay: %d group : %s persistent: %s"
+                    , job.getClass().getSimpleName(), job.getPriority(), job.getDelayInMs()
+                    , job.getRunGroupId(), job.isPersistent());
+        }
+    }
+
+    /**
+     * Calls the job's onAdded and notifies callbacks after the job is handled. If the job was not
+     * inserted because of its single instance id, it is cancelled.
+     */
+    private void dispatchAdded(JobHolder jobHolder, boolean inserted, long now) {
+        if (inserted && jobHolder.getJob().isPersistent() && groupCommitQueue != null
+                && !groupCommitQueue.isInsertCommitted(jobHolder.getId())) {
+            uncommittedAdds.put(jobHolder.getId(), jobHolder);
+            return;
         }
+        notifyAdded(jobHolder, inserted, now);
+    }
+
+    private void notifyAdded(JobHolder jobHolder, boolean inserted, long now) {
+        Job job = jobHolder.getJob();
         if(dependencyInjector != null) {
             //inject members b4 calling onAdded
             dependencyInjector.inject(job);
         }
         jobHolder.setApplicationContext(appContext);
-        jobHolder.getJob().onAdded();
-        callbackManager.notifyOnAdded(jobHolder.getJob());
-        if (insert) {
-            consumerManager.onJobAdded();
+        job.onAdded();
+        callbackManager.notifyOnAdded(job);
+        if (inserted) {
             if (job.isPersistent()) {
                 scheduleWakeUpFor(jobHolder, now);
             }
         } else {
             cancelSafely(jobHolder, CancelReason.SINGLE_INSTANCE_ID_QUEUED);
-            callbackManager.notifyOnDone(jobHolder.getJob());
+            callbackManager.notifyOnDone(job);
+        }
+    }
+
+    /**
+     * Cancels a job that could not be written to its queue. Its onAdded is never called.
+     */
+    private void notifyAddFailed(JobHolder jobHolder) {
+        JqLog.e("could not add job %s", jobHolder.getId());
+        jobHolder.markAsCancelled();
+        cancelSafely(jobHolder, CancelReason.ADD_FAILED);
+        callbackManager.notifyOnDone(jobHolder.getJob());
+    }
+
+    /**
+     * Removes a job whose insert failed to commit in the background from the queue and cancels it.
+     */
+    private void handleFailedInsert(JobHolder jobHolder) {
+        persistentJobQueue.remove(jobHolder);
+        notifyAddFailed(jobHolder);
+    }
+
+    /**
+     * Commits the writes of the persistent queue that are waiting for their group and calls the
+     * add callbacks of the jobs that are now committed.
+     */
+    void commitPendingWrites() {
+        if (groupCommitQueue == null) {
+            return;
+        }
+        groupCommitQueue.commit();
+        if (uncommittedAdds.isEmpty()) {
+            return;
+        }
+        List<JobHolder> committed = new ArrayList<>(uncommittedAdds.values());
+        uncommittedAdds.clear();
+        for (JobHolder jobHolder : committed) {
+            if (groupCommitQueue.isInsertFailed(jobHolder.getId())) {
+                handleFailedInsert(jobHolder);
+                continue;
+            }
+            // created time is the time the job was added
+            notifyAdded(jobHolder, true, jobHolder.getCreatedNs());
+        }
+    }
+
+    /**
+     * Calls the add callbacks of the jobs whose inserts were committed in the background, in the
+     * order they were added, and cancels the jobs whose inserts failed.
+     */
+    private void notifyCommittedAdds() {
+        writesCommittedPosted.set(false);
+        Iterator<JobHolder> itr = uncommittedAdds.values().iterator();
+        List<JobHolder> committed = null;
+        while (itr.hasNext()) {
+            JobHolder jobHolder = itr.next();
+            //noinspection ConstantConditions
+            if (!groupCommitQueue.isInsertFailed(jobHolder.getId())
+                    && !groupCommitQueue.isInsertCommitted(jobHolder.getId())) {
+                // inserts are committed in order
+                break;
+            }
+            itr.remove();
+            if (committed == null) {
+                committed = new ArrayList<>();
+            }
+            committed.add(jobHolder);
+        }
+        if (committed != null) {
+            for (JobHolder jobHolder : committed) {
+                if (groupCommitQueue.isInsertFailed(jobHolder.getId())) {
+                    handleFailedInsert(jobHolder);
+                } else {
+                    notifyAdded(jobHolder, true, jobHolder.getCreatedNs());
+                }
+            }
         }
     }
 
@@ -196,37 +417,73 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     /**
      * Returns a queued job with the same single id. If any matching non-running job is found,
      * that one is returned. Otherwise any matching running job will be returned.
+     * <p>
+     * Queues answer this from their single id indexes so debounce style workloads that add the
+     * same single id over and over do not query tags or load jobs.
      */
     private JobHolder findJobBySingleId(/*Nullable*/String singleIdTag) {
-        if (singleIdTag != null) {
-            queryConstraint.clear();
-            queryConstraint.setTags(new String[]{singleIdTag});
-            queryConstraint.setTagConstraint(TagConstraint.ANY);
-            queryConstraint.setMaxNetworkType(NetworkUtil.UNMETERED);
-            Set<JobHolder> jobs = nonPersistentJobQueue.findJobs(queryConstraint);
-            jobs.addAll(persistentJobQueue.findJobs(queryConstraint));
-            if (!jobs.isEmpty()) {
-                for (JobHolder job : jobs) {
-                    if (!consumerManager.isJobRunning(job.getId())) {
-                        return job;
-                    }
+        if (singleIdTag == null) {
+            return null;
+        }
+        JobHolder found = nonPersistentJobQueue.findJobBySingleId(singleIdTag);
+        if (found == null || consumerManager.isJobRunning(found.getId())) {
+            JobHolder persistent = persistentJobQueue.findJobBySingleId(singleIdTag);
+            if (persistent != null
+                    && (found == null || !consumerManager.isJobRunning(persistent.getId()))) {
+                found = persistent;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Batched version of {@link #findJobBySingleId(String)} that looks up the single ids of all
+     * given jobs.
+     *
+     * @return A map from single id to the queued job which owns it.
+     */
+    private Map<String, JobHolder> findJobsBySingleIds(List<Job> jobs) {
+        Map<String, JobHolder> result = new HashMap<>();
+        for (Job job : jobs) {
+            String singleId = job.getSingleInstanceId();
+            if (singleId != null && !result.containsKey(singleId)) {
+                JobHolder holder = findJobBySingleId(singleId);
+                if (holder != null) {
+                    result.put(singleId, holder);
                 }
-                return jobs.iterator().next();
             }
         }
-        return null;
+        return result;
     }
 
     @Override
     public void run() {
+        try {
+            openPersistentQueue();
+        } catch (Throwable t) {
+            JqLog.e(t, "cannot open the persistent job queue, no jobs will be added or run");
+            openFailure = t;
+            consumeAfterOpenFailure();
+            return;
+        }
         messageQueue.consume(new MessageQueueConsumer() {
             @Override
             public void handleMessage(Message message) {
+                handleMessageInternal(message);
+                if (groupCommitQueue != null && groupCommitQueue.shouldCommit()) {
+                    commitPendingWrites();
+                }
+            }
+
+            private void handleMessageInternal(Message message) {
                 canScheduleConstraintChangeOnIdle = true;
                 switch (message.type) {
                     case ADD_JOB:
                         handleAddJob((AddJobMessage) message);
                         break;
+                    case ADD_JOBS:
+                        handleAddJobs((AddJobsMessage) message);
+                        break;
                     case JOB_CONSUMER_IDLE:
                         boolean busy = consumerManager.handleIdle((JobConsumerIdleMessage) message);
                         if (!busy) {
@@ -261,6 +518,9 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
             @Override
             public void onIdle() {
                 JqLog.v("joq idle. running:? %s", running);
+                if (groupCommitQueue == null || !groupCommitQueue.commitsInBackground()) {
+                    commitPendingWrites();
+                }
                 if (!running) {
                     return;
                 }
@@ -289,6 +549,76 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         });
     }
 
+    /**
+     * @return The error that kept the persistent queue from opening or null if it is open or not
+     * opened yet
+     */
+    @Nullable
+    Throwable getOpenFailure() {
+        return openFailure;
+    }
+
+    /**
+     * Handles the messages when the persistent queue could not be opened. Added jobs are cancelled
+     * and blocking calls are released so that JobManager can report the failure to the callers
+     * instead of waiting forever.
+     */
+    private void consumeAfterOpenFailure() {
+        messageQueue.consume(new MessageQueueConsumer() {
+            @Override
+            public void handleMessage(Message message) {
+                switch (message.type) {
+                    case ADD_JOB:
+                        failAdd(((AddJobMessage) message).getJob());
+                        break;
+                    case ADD_JOBS:
+                        for (Job job : ((AddJobsMessage) message).getJobs()) {
+                            failAdd(job);
+                        }
+                        break;
+                    case CANCEL:
+                        CancelResult.AsyncCancelCallback callback =
+                                ((CancelMessage) message).getCallback();
+                        if (callback != null) {
+                            callbackManager.notifyCancelResult(new CancelResult(
+                                    Collections.<Job>emptyList(), Collections.<Job>emptyList()),
+                                    callback);
+                        }
+                        break;
+                    case PUBLIC_QUERY:
+                        IntCallback queryCallback = ((PublicQueryMessage) message).getCallback();
+                        if (queryCallback != null) {
+                            queryCallback.onResult(0);
+                        }
+                        break;
+                    case COMMAND:
+                        if (((CommandMessage) message).getWhat() == CommandMessage.QUIT) {
+                            messageQueue.stop();
+                            messageQueue.clear();
+                        }
+                        break;
+                    case SCHEDULER:
+                        SchedulerMessage schedulerMessage = (SchedulerMessage) message;
+                        if (scheduler != null
+                                && schedulerMessage.getWhat() == SchedulerMessage.START) {
+                            scheduler.onFinished(schedulerMessage.getConstraint(), false);
+                        }
+                        break;
+                }
+            }
+
+            @Override
+            public void onIdle() {
+            }
+        });
+    }
+
+    private void failAdd(Job job) {
+        JobHolder jobHolder = createJobHolder(job, timer.nanoTime());
+        jobHolder.setThrowable(openFailure);
+        notifyAddFailed(jobHolder);
+    }
+
     private void invokeSchedulersIfIdle() {
         if (scheduler == null || pendingSchedulerCallbacks == null
                 || pendingSchedulerCallbacks.isEmpty() || !consumerManager.areAllConsumersIdle()) {
@@ -368,8 +698,11 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
 
     private void handleCommand(CommandMessage message) {
         if (message.getWhat() == CommandMessage.QUIT) {
+            commitPendingWrites();
             messageQueue.stop();
             messageQueue.clear();
+        } else if (message.getWhat() == CommandMessage.WRITES_COMMITTED) {
+            notifyCommittedAdds();
         }
     }
 
@@ -387,15 +720,16 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                 break;
             case PublicQueryMessage.START:
                 JqLog.d("handling start request...");
-                if (running) {
-                    return;
+                if (!running) {
+                    return;// stopped again before this message arrived
                 }
-                running = true;
                 consumerManager.handleConstraintChange();
                 break;
             case PublicQueryMessage.STOP:
                 JqLog.d("handling stop request...");
-                running = false;
+                if (running) {
+                    return;// started again before this message arrived
+                }
                 consumerManager.handleStop();
                 break;
             case PublicQueryMessage.JOB_STATUS:
@@ -403,6 +737,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                 message.getCallback().onResult(status.ordinal());
                 break;
             case PublicQueryMessage.CLEAR:
+                consumerManager.returnPrefetchedJobs();
                 clear();
                 if (message.getCallback() != null) {
                     message.getCallback().onResult(0);
@@ -421,6 +756,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     }
 
     private void clear() {
+        commitPendingWrites();
         nonPersistentJobQueue.clear();
         persistentJobQueue.clear();
     }
@@ -449,6 +785,8 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
     }
 
     private void handleCancel(CancelMessage message) {
+        // jobs that are waiting in consumers' queues must be cancelled as if they never left
+        consumerManager.returnPrefetchedJobs();
         CancelHandler handler = new CancelHandler(message.getConstraint(), message.getTags(),
                 message.getCallback());
         handler.query(this, consumerManager);
@@ -544,6 +882,22 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         reAddJob(jobHolder);
     }
 
+    /**
+     * Puts back a job that was returned by {@link #getNextJob(Collection)} but did not run. Only
+     * its run count and running session are reverted, the job is not written again.
+     */
+    void returnUnstartedJob(JobHolder jobHolder) {
+        jobHolder.setRunCount(jobHolder.getRunCount() - 1);
+        jobHolder.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
+        if (jobHolder.isCancelled()) {
+            JqLog.d("not returning cancelled job %s", jobHolder);
+        } else if (jobHolder.getJob().isPersistent()) {
+            persistentJobQueue.onJobReturned(jobHolder);
+        } else {
+            nonPersistentJobQueue.onJobReturned(jobHolder);
+        }
+    }
+
     private void reAddJob(JobHolder jobHolder) {
         if (!jobHolder.isCancelled()) {
             if (jobHolder.getJob().isPersistent()) {
@@ -552,7 +906,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
                 nonPersistentJobQueue.insertOrReplace(jobHolder);
             }
         } else {
-            JqLog.d("not re-adding cancelled job " + jobHolder);
+            JqLog.d("not re-adding cancelled job %s", jobHolder);
         }
     }
 
@@ -567,6 +921,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
 
     @Override
     public void onNetworkChange(@NetworkUtil.NetworkStatus int networkStatus) {
+        networkStatusCache.invalidate();
         ConstraintChangeMessage constraint = messageFactory.obtain(ConstraintChangeMessage.class);
         messageQueue.post(constraint);
     }
@@ -575,6 +930,20 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         return running;
     }
 
+    /**
+     * Changes the running state right away. The caller should post a START or STOP message for the
+     * consumers if the state changed.
+     *
+     * @return True if the running state changed
+     */
+    synchronized boolean setRunning(boolean running) {
+        if (this.running == running) {
+            return false;
+        }
+        this.running = running;
+        return true;
+    }
+
     int countRemainingReadyJobs() {
         return countReadyJobs(getNetworkStatus());
     }
@@ -585,6 +954,8 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         queryConstraint.setNowInNs(timer.nanoTime());
         queryConstraint.setMaxNetworkType(networkStatus);
         queryConstraint.setExcludeGroups(runningJobs);
+        queryConstraint.setExcludeTags(consumerManager.rateLimiter.getThrottledTags());
+        queryConstraint.setGroupSlots(consumerManager.runningJobGroups.getSlotsSafe());
         queryConstraint.setExcludeRunning(true);
         queryConstraint.setTimeLimit(timer.nanoTime());
         //TODO we can cache this
@@ -596,7 +967,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
 
     @NetworkUtil.NetworkStatus
     private int getNetworkStatus() {
-        return networkUtil == null ? NetworkUtil.UNMETERED : networkUtil.getNetworkStatus(appContext);
+        return networkStatusCache.get();
     }
 
     Long getNextWakeUpNs(boolean includeNetworkWatch) {
@@ -607,13 +978,18 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         queryConstraint.setNowInNs(timer.nanoTime());
         queryConstraint.setMaxNetworkType(networkStatus);
         queryConstraint.setExcludeGroups(groups);
+        queryConstraint.setExcludeTags(consumerManager.rateLimiter.getThrottledTags());
         queryConstraint.setExcludeRunning(true);
         final Long nonPersistent = nonPersistentJobQueue.getNextJobDelayUntilNs(queryConstraint);
         final Long persistent = persistentJobQueue.getNextJobDelayUntilNs(queryConstraint);
+        final Long throttledTag = consumerManager.rateLimiter.getNextWakeUpNs();
         Long delay = null;
         if (groupDelay != null) {
             delay = groupDelay;
         }
+        if (throttledTag != null) {
+            delay = delay == null ? throttledTag : Math.min(throttledTag, delay);
+        }
         if (nonPersistent != null) {
             delay = delay == null ? nonPersistent : Math.min(nonPersistent, delay);
         }
@@ -622,7 +998,7 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
         }
         if (includeNetworkWatch && !(networkUtil instanceof NetworkEventProvider)) {
             // if network cannot provide events, we need to wake up :/
-            long checkNetworkAt = timer.nanoTime() + JobManager.NETWORK_CHECK_INTERVAL;
+            long checkNetworkAt = timer.nanoTime() + networkStatusCache.getCheckIntervalNs();
             delay = delay == null ? checkNetworkAt : Math.min(checkNetworkAt, delay);
         }
         return delay;
@@ -656,6 +1032,8 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
             queryConstraint.setNowInNs(now);
             queryConstraint.setMaxNetworkType(networkStatus);
             queryConstraint.setExcludeGroups(runningJobGroups);
+            queryConstraint.setExcludeTags(consumerManager.rateLimiter.getThrottledTags());
+            queryConstraint.setFairShare(consumerManager.fairShare);
             queryConstraint.setExcludeRunning(true);
             queryConstraint.setTimeLimit(now);
             jobHolder = nonPersistentJobQueue.nextJobAndIncRunCount(queryConstraint);
@@ -669,6 +1047,16 @@ class JobManagerThread implements Runnable, NetworkEventProvider.Listener {
             if (jobHolder == null) {
                 return null;
             }
+            JobHolder uncommitted = persistent ? uncommittedAdds.get(jobHolder.getId()) : null;
+            if (uncommitted != null) {
+                // the job must not run before its onAdded
+                commitPendingWrites();
+                if (uncommitted.isCancelled()) {
+                    // its insert failed and it is not in the queue anymore
+                    jobHolder = null;
+                    continue;
+                }
+            }
             if (persistent && dependencyInjector != null) {
                 dependencyInjector.inject(jobHolder.getJob());
             }
@@ -3,6 +3,7 @@ package com.birbit.android.jobqueue;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -19,6 +20,19 @@ public interface JobQueue {
      */
     boolean insert(@NonNull JobHolder jobHolder);
 
+    /**
+     * Inserts all of the given JobHolders.
+     * <p>
+     * Implementations should write the jobs as a single unit (e.g. a single database transaction)
+     * so that adding many jobs at once does not pay the cost of a separate write for each of
+     * them. Either all jobs are added or none of them is.
+     *
+     * @param jobHolders The JobHolders to be inserted
+     *
+     * @return True if all jobs are added, false otherwise
+     */
+    boolean insertAll(@NonNull Collection<JobHolder> jobHolders);
+
     /**
      * Does the same thing with insert but the only difference is that
      * if job has an insertion ID, it should replace the existing one
@@ -46,6 +60,16 @@ public interface JobQueue {
      */
     void remove(@NonNull JobHolder jobHolder);
 
+    /**
+     * Removes all of the given jobs from the data store.
+     * <p>
+     * Implementations should remove the jobs in a single write (e.g. a single database
+     * transaction), like {@link #insertAll(Collection)}.
+     *
+     * @param jobHolders The JobHolders to be removed
+     */
+    void removeAll(@NonNull Collection<JobHolder> jobHolders);
+
     /**
      * Returns the # of jobs that are waiting to be run
      * @return The number of jobs that are waiting in the queue
@@ -68,6 +92,14 @@ public interface JobQueue {
      * Returns the next available job in the data set
      * It should also assign the sessionId as the RunningSessionId and persist that data if necessary.
      * It should filter out all running jobs and exclude groups are guaranteed to be ordered in natural order
+     * <p>
+     * If {@link Constraint#getFairShare()} is not null, the queue should return, among the matching
+     * jobs with the highest priority, one with the smallest
+     * {@link FairShare#getStartTime(String)}. Queues that ignore it pick jobs in
+     * priority and creation order.
+     * <p>
+     * If {@link com.birbit.android.jobqueue.config.Configuration#getPriorityAgingMs()} is set,
+     * the priority of a job is its effective priority (see {@link PriorityAging}).
      *
      * @param constraint The constraint to match the job.
      * @return The next job to be run that matches the constraint or null if there is no such job
@@ -110,6 +142,35 @@ public interface JobQueue {
     @NonNull
     Set<JobHolder> findJobs(@NonNull Constraint constraint);
 
+    /**
+     * Checks whether the queue has jobs with the given tags before running a tag query.
+     * <p>
+     * This is called before {@link #findJobs(Constraint)} queries with tags so implementations
+     * should answer it without going through the jobs. The answer is only about tags; jobs that
+     * have them may still not match other parts of a query.
+     *
+     * @param tagConstraint How the tags should match
+     * @param tags The tags to check
+     *
+     * @return False if no job in the queue can match the tags, true otherwise
+     */
+    boolean hasJobsWithTags(@NonNull TagConstraint tagConstraint, @NonNull String[] tags);
+
+    /**
+     * Returns a job with the given single instance id that is not cancelled, preferring one that
+     * is not running.
+     * <p>
+     * This is called for every job with a single instance id that is added so implementations
+     * should answer it from an index instead of a tag query.
+     *
+     * @param singleId The single instance id, as returned from
+     *                 {@link JobHolder#getSingleInstanceId()}
+     *
+     * @return A JobHolder with the given single instance id or null if there is no such job
+     */
+    @Nullable
+    JobHolder findJobBySingleId(@NonNull String singleId);
+
     /**
      * Called when a job is cancelled by the user.
      * <p>
@@ -118,4 +179,26 @@ public interface JobQueue {
      * @param holder The JobHolder that is being cancelled
      */
     void onJobCancelled(JobHolder holder);
+
+    /**
+     * Bulk version of {@link #onJobCancelled(JobHolder)}.
+     * <p>
+     * Implementations should mark all jobs in a single write so that cancelling many jobs at once
+     * does not pay the cost of a separate write for each of them.
+     *
+     * @param holders The JobHolders that are being cancelled
+     */
+    void onJobsCancelled(@NonNull Collection<JobHolder> holders);
+
+    /**
+     * Called when a job that was returned by {@link #nextJobAndIncRunCount(Constraint)} is put
+     * back before it runs, e.g. a job that was prefetched for a consumer.
+     * <p>
+     * The holder already has its previous run count and is not running anymore. Nothing else about
+     * the job changed so persistent queues should only update these two values instead of writing
+     * the whole job again.
+     *
+     * @param holder The JobHolder that is returned to the queue
+     */
+    void onJobReturned(@NonNull JobHolder holder);
 }
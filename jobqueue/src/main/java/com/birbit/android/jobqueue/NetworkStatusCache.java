@@ -0,0 +1,98 @@
+package com.birbit.android.jobqueue;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.network.NetworkEventProvider;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.timer.Timer;
+
+/**
+ * Keeps the last network status for the JobManager thread so that selecting jobs does not query
+ * the {@link NetworkUtil} for every job.
+ * <p>
+ * If the NetworkUtil is a {@link NetworkEventProvider}, the status is kept until it reports a
+ * change. Otherwise, it is kept for the configured TTL, which is 0 (no caching) by default.
+ * <p>
+ * Except {@link #invalidate()}, methods must be called on the JobManager thread.
+ */
+class NetworkStatusCache {
+    @Nullable
+    private final NetworkUtil networkUtil;
+    private final Context context;
+    private final Timer timer;
+    private final boolean hasEvents;
+    private final long ttlNs;
+    // set when the NetworkUtil reports a change, cleared before the status is queried again
+    private volatile boolean stale = true;
+    @NetworkUtil.NetworkStatus
+    private int status;
+    private long queriedAtNs;
+    private long queryCount;
+    private long hitCount;
+
+    NetworkStatusCache(@Nullable NetworkUtil networkUtil, Context context, Timer timer,
+            long ttlNs) {
+        this.networkUtil = networkUtil;
+        this.context = context;
+        this.timer = timer;
+        this.hasEvents = networkUtil instanceof NetworkEventProvider;
+        this.ttlNs = ttlNs;
+    }
+
+    @NetworkUtil.NetworkStatus
+    int get() {
+        if (networkUtil == null) {
+            return NetworkUtil.UNMETERED;
+        }
+        if (isFresh()) {
+            hitCount++;
+            return status;
+        }
+        // clear before the query so that a change reported during the query is not lost
+        stale = false;
+        status = networkUtil.getNetworkStatus(context);
+        queriedAtNs = timer.nanoTime();
+        queryCount++;
+        return status;
+    }
+
+    private boolean isFresh() {
+        if (stale) {
+            return false;
+        }
+        if (hasEvents) {
+            return true;
+        }
+        return ttlNs > 0 && timer.nanoTime() - queriedAtNs < ttlNs;
+    }
+
+    /**
+     * Called when the NetworkUtil reports a change. Can be called on any thread.
+     */
+    void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @return How often JobManager should check the network while jobs wait for it, if the
+     * NetworkUtil does not report changes
+     */
+    long getCheckIntervalNs() {
+        return ttlNs > 0 ? ttlNs : JobManager.NETWORK_CHECK_INTERVAL;
+    }
+
+    /**
+     * @return The number of times the NetworkUtil is queried
+     */
+    long getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * @return The number of times the status is served from the cache
+     */
+    long getHitCount() {
+        return hitCount;
+    }
+}
@@ -26,6 +26,7 @@ public class Params {
     /* package */int requiredNetworkType = NetworkUtil.DISCONNECTED;
     private String groupId = null;
     private String singleId = null;
+    private String fairnessKey = null;
     private boolean persistent = false;
     private int priority;
     private long delayMs;
@@ -87,6 +88,21 @@ public class Params {
         return this;
     }
 
+    /**
+     * Sets the key that the job is charged to when JobManager shares the consumers fairly, e.g.
+     * the id of the account or tenant the job works for. Defaults to the group id.
+     * <p>
+     * It has no effect unless fair sharing is enabled via
+     * {@link com.birbit.android.jobqueue.config.Configuration.Builder#fairShare()}.
+     * @param fairnessKey The fairness key of the job (can be null)
+     * @return this
+     * @see FairShare
+     */
+    public Params fairnessKey(String fairnessKey) {
+        this.fairnessKey = fairnessKey;
+        return this;
+    }
+
     /**
      * Marks the job as persistent. Make sure your job is serializable.
      * @return this
@@ -291,6 +307,10 @@ public class Params {
         return singleId;
     }
 
+    public String getFairnessKey() {
+        return fairnessKey;
+    }
+
     public boolean isPersistent() {
         return persistent;
     }
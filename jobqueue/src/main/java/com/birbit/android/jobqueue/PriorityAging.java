@@ -0,0 +1,80 @@
+package com.birbit.android.jobqueue;
+
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.config.Configuration;
+
+/**
+ * Lets the priority of a job grow with the time it waits in the queue so that jobs with a low
+ * priority eventually run under a steady stream of jobs with a higher priority.
+ * <p>
+ * The effective priority of a job is {@code priority + (now - createdNs) / agingNs}. Since every
+ * job ages at the same rate, comparing two jobs does not depend on now: the one with the larger
+ * {@code priority * agingNs - createdNs} runs first. {@link JobQueue}s can keep jobs sorted by
+ * that value and never rewrite them as time passes.
+ * <p>
+ * So a job with priority {@code p} runs before the jobs with priority {@code q} that are created
+ * more than {@code (q - p) * agingNs} after it.
+ *
+ * @see com.birbit.android.jobqueue.config.Configuration.Builder#priorityAging(long)
+ */
+public final class PriorityAging {
+    private PriorityAging() {
+    }
+
+    /**
+     * @param configuration The configuration of the JobManager
+     * @return The time it takes a job to gain one priority in nanoseconds or 0 if jobs do not age
+     */
+    public static long getAgingNs(@Nullable Configuration configuration) {
+        return configuration == null ? 0
+                : configuration.getPriorityAgingMs() * JobManager.NS_PER_MS;
+    }
+
+    /**
+     * Compares two jobs in the order they should run: the higher effective priority first, then
+     * the older one.
+     *
+     * @param priority1 The priority of the first job
+     * @param createdNs1 The created time of the first job
+     * @param priority2 The priority of the second job
+     * @param createdNs2 The created time of the second job
+     * @param agingNs The value of {@link #getAgingNs(Configuration)}
+     * @return A negative number if the first job should run first, a positive number if the
+     * second one should and 0 if they are equal.
+     */
+    public static int compare(int priority1, long createdNs1, int priority2, long createdNs2,
+            long agingNs) {
+        if (agingNs > 0) {
+            long rank1 = priority1 * agingNs - createdNs1;
+            long rank2 = priority2 * agingNs - createdNs2;
+            if (rank1 != rank2) {
+                return rank1 > rank2 ? -1 : 1;
+            }
+        } else if (priority1 != priority2) {
+            return priority1 > priority2 ? -1 : 1;
+        }
+        return createdNs1 < createdNs2 ? -1 : (createdNs1 == createdNs2 ? 0 : 1);
+    }
+
+    /**
+     * Returns the priority of a job after it waited in the queue. A job that
+     * {@link #compare(int, long, int, long, long)} puts first never has a lower effective priority
+     * than the jobs after it.
+     *
+     * @param priority The priority of the job
+     * @param createdNs The created time of the job
+     * @param agingNs The value of {@link #getAgingNs(Configuration)}
+     * @param nowNs The current time
+     * @return The effective priority of the job
+     */
+    public static long getEffectivePriority(int priority, long createdNs, long agingNs,
+            long nowNs) {
+        if (agingNs <= 0) {
+            return priority;
+        }
+        final long age = nowNs - createdNs;
+        // round down for jobs that seem to be created in the future too
+        return priority + (age >= 0 ? age / agingNs : -((agingNs - 1 - age) / agingNs));
+    }
+}
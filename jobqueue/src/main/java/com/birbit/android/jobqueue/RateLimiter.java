@@ -0,0 +1,198 @@
+package com.birbit.android.jobqueue;
+
+import com.birbit.android.jobqueue.config.RateLimit;
+import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a token bucket for each group and tag that has a {@link RateLimit}. A job takes a token
+ * from the buckets of its group and tags when it starts.
+ * <p>
+ * When a bucket runs out, its key is throttled until the next token arrives. A throttled group is
+ * delayed in the {@link RunningJobSet} like the group of a job that asked for a retry delay.
+ * Throttled tags are kept here and excluded from queries. Either way, JobManager wakes up when
+ * the throttle ends.
+ * <p>
+ * Each bucket is stored as the time its next token is due, so it does not need to be refilled.
+ * <p>
+ * Must be called on the JobManager thread.
+ */
+class RateLimiter {
+    private final Timer timer;
+    private final Map<String, Bucket> groupBuckets;
+    private final Map<String, Bucket> tagBuckets;
+    private final Map<String, Long> throttledTags = new HashMap<>();
+
+    RateLimiter(Timer timer, Map<String, RateLimit> groupLimits,
+            Map<String, RateLimit> tagLimits) {
+        this.timer = timer;
+        this.groupBuckets = createBuckets(groupLimits);
+        this.tagBuckets = createBuckets(tagLimits);
+    }
+
+    private static Map<String, Bucket> createBuckets(Map<String, RateLimit> limits) {
+        if (limits.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Bucket> buckets = new HashMap<>();
+        for (Map.Entry<String, RateLimit> entry : limits.entrySet()) {
+            buckets.put(entry.getKey(), new Bucket(entry.getValue()));
+        }
+        return buckets;
+    }
+
+    /**
+     * Takes a token for the group and tags of the job, which is about to run, and throttles the
+     * ones that run out of tokens.
+     *
+     * @param holder The job that is about to run
+     * @param runningJobGroups The groups to delay if the job's group is throttled
+     */
+    void onJobStarted(JobHolder holder, RunningJobSet runningJobGroups) {
+        if (groupBuckets.isEmpty() && tagBuckets.isEmpty()) {
+            return;
+        }
+        final long now = timer.nanoTime();
+        final String groupId = holder.getGroupId();
+        if (groupId != null) {
+            Bucket bucket = groupBuckets.get(groupId);
+            if (bucket != null) {
+                long until = bucket.take(now);
+                if (until > now) {
+                    JqLog.d("group %s is throttled", groupId);
+                    runningJobGroups.addGroupUntil(groupId, until);
+                }
+            }
+        }
+        final Set<String> tags = holder.getTags();
+        if (tags == null || tagBuckets.isEmpty()) {
+            return;
+        }
+        for (String tag : tags) {
+            Bucket bucket = tagBuckets.get(tag);
+            if (bucket != null) {
+                long until = bucket.take(now);
+                if (until > now) {
+                    JqLog.d("tag %s is throttled", tag);
+                    throttledTags.put(tag, until);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives back the tokens that {@link #onJobStarted(JobHolder, RunningJobSet)} took for a job
+     * that did not run after all and lifts the throttles that they caused.
+     *
+     * @param holder The job that was returned to the queue
+     * @param runningJobGroups The groups that were delayed when the job started
+     */
+    void onJobReturned(JobHolder holder, RunningJobSet runningJobGroups) {
+        if (groupBuckets.isEmpty() && tagBuckets.isEmpty()) {
+            return;
+        }
+        final long now = timer.nanoTime();
+        final String groupId = holder.getGroupId();
+        if (groupId != null) {
+            Bucket bucket = groupBuckets.get(groupId);
+            if (bucket != null) {
+                long throttledUntil = bucket.getAvailableNs();
+                bucket.giveBack(now);
+                runningJobGroups.replaceGroupUntil(groupId, throttledUntil,
+                        bucket.getAvailableNs());
+            }
+        }
+        final Set<String> tags = holder.getTags();
+        if (tags == null || tagBuckets.isEmpty()) {
+            return;
+        }
+        for (String tag : tags) {
+            Bucket bucket = tagBuckets.get(tag);
+            if (bucket != null) {
+                bucket.giveBack(now);
+                long until = bucket.getAvailableNs();
+                if (until > now) {
+                    throttledTags.put(tag, until);
+                } else {
+                    throttledTags.remove(tag);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The tags whose jobs cannot start now
+     */
+    Collection<String> getThrottledTags() {
+        if (throttledTags.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final long now = timer.nanoTime();
+        Iterator<Long> itr = throttledTags.values().iterator();
+        while (itr.hasNext()) {
+            if (itr.next() <= now) {
+                itr.remove();
+            }
+        }
+        return throttledTags.keySet();
+    }
+
+    /**
+     * @return The time when the next throttled tag can run a job again or null if no tag is
+     * throttled. Throttled groups are reported by the {@link RunningJobSet}.
+     */
+    Long getNextWakeUpNs() {
+        Long result = null;
+        for (Long until : throttledTags.values()) {
+            if (result == null || until < result) {
+                result = until;
+            }
+        }
+        return result;
+    }
+
+    private static class Bucket {
+        // time to earn a token
+        final long intervalNs;
+        // how far the next token may be ahead of now while the bucket still has a token
+        final long burstNs;
+        long nextTokenNs = Long.MIN_VALUE;
+
+        Bucket(RateLimit limit) {
+            intervalNs = Math.max(1,
+                    limit.getWindowMs() * JobManagerThread.NS_PER_MS / limit.getRuns());
+            burstNs = (limit.getBurst() - 1) * intervalNs;
+        }
+
+        /**
+         * @return The time when the bucket has a token again
+         */
+        long take(long now) {
+            nextTokenNs = Math.max(nextTokenNs, now) + intervalNs;
+            return getAvailableNs();
+        }
+
+        /**
+         * Undoes the last {@link #take(long)} unless the bucket filled up since then.
+         */
+        void giveBack(long now) {
+            if (nextTokenNs > now) {
+                nextTokenNs = Math.max(now, nextTokenNs - intervalNs);
+            }
+        }
+
+        /**
+         * @return The time when the bucket has a token again
+         */
+        long getAvailableNs() {
+            return nextTokenNs - burstNs;
+        }
+    }
+}
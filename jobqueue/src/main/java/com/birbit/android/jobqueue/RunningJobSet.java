@@ -5,26 +5,44 @@ import com.birbit.android.jobqueue.timer.Timer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeSet;
 
 /**
- * a util class that holds running jobs sorted by name and unique.
+ * a util class that holds the groups that cannot run another job, sorted by name and unique.
  * it behaves like CopyOnWriteLists
+ * <p>
+ * A group runs one job at a time unless it has a concurrency limit, in which case it is full when
+ * that many of its jobs are running.
  */
 public class RunningJobSet {
     private ArrayList<String> publicClone;
+    private Map<String, Integer> publicSlots;
     private final TreeSet<String> internalSet;
+    private final Map<String, Integer> runningCounts;
+    private final Map<String, Integer> concurrencyLimits;
     private final Map<String, Long> groupDelays;
     private long groupDelayTimeout;
     private final Timer timer;
 
     public RunningJobSet(Timer timer) {
+        this(timer, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * @param timer The timer to check group delays
+     * @param concurrencyLimits The max number of running jobs of the groups that may run more than
+     *                          one job at a time
+     */
+    public RunningJobSet(Timer timer, Map<String, Integer> concurrencyLimits) {
         internalSet = new TreeSet<>();
+        runningCounts = new HashMap<>();
         groupDelays = new HashMap<>();
         groupDelayTimeout = Long.MAX_VALUE;
+        this.concurrencyLimits = concurrencyLimits;
         this.timer = timer;
     }
 
@@ -41,9 +59,32 @@ public class RunningJobSet {
         publicClone = null;
     }
 
+    /**
+     * Moves the delay of the group to a new time if it is still the given one. A delay that ends
+     * by now is removed.
+     *
+     * @param group The group id
+     * @param expected The delay that the caller set
+     * @param until The new end of the delay
+     */
+    public synchronized void replaceGroupUntil(String group, long expected, long until) {
+        Long current = groupDelays.get(group);
+        if (current == null || current != expected) {
+            return;
+        }
+        JqLog.d("move group delay of %s to %s", group, until);
+        if (until > timer.nanoTime()) {
+            groupDelays.put(group, until);
+        } else {
+            groupDelays.remove(group);
+        }
+        groupDelayTimeout = calculateNextDelayForGroups();
+        publicClone = null;
+    }
+
     public synchronized Collection<String> getSafe() {
         final long now = timer.nanoTime();
-        if(publicClone == null || now > groupDelayTimeout) {
+        if(publicClone == null || now >= groupDelayTimeout) {
             if (groupDelays.isEmpty()) {
                 publicClone = new ArrayList<>(internalSet);
                 groupDelayTimeout = Long.MAX_VALUE;
@@ -82,11 +123,48 @@ public class RunningJobSet {
         return result;
     }
 
+    /**
+     * Returns how many more jobs the groups with a concurrency limit can run. Groups that are full
+     * are not included.
+     *
+     * @return A map from group id to the number of jobs it can start
+     */
+    public synchronized Map<String, Integer> getSlotsSafe() {
+        if (publicSlots == null) {
+            if (concurrencyLimits.isEmpty()) {
+                publicSlots = Collections.emptyMap();
+            } else {
+                Map<String, Integer> slots = new HashMap<>();
+                for (Map.Entry<String, Integer> entry : concurrencyLimits.entrySet()) {
+                    int free = entry.getValue() - getRunningCount(entry.getKey());
+                    if (free > 0) {
+                        slots.put(entry.getKey(), free);
+                    }
+                }
+                publicSlots = slots;
+            }
+        }
+        return publicSlots;
+    }
+
+    private int getRunningCount(String group) {
+        Integer count = runningCounts.get(group);
+        return count == null ? 0 : count;
+    }
+
+    private int getLimit(String group) {
+        Integer limit = concurrencyLimits.get(group);
+        return limit == null ? 1 : limit;
+    }
+
     public synchronized void add(String group) {
         if (group == null) {
             return;
         }
-        if(internalSet.add(group)) {
+        final int count = getRunningCount(group) + 1;
+        runningCounts.put(group, count);
+        publicSlots = null;
+        if (count >= getLimit(group) && internalSet.add(group)) {
             publicClone = null;//invalidate
         }
     }
@@ -95,14 +173,23 @@ public class RunningJobSet {
         if (group == null) {
             return;
         }
-        if(internalSet.remove(group)) {
+        final int count = getRunningCount(group) - 1;
+        if (count > 0) {
+            runningCounts.put(group, count);
+        } else {
+            runningCounts.remove(group);
+        }
+        publicSlots = null;
+        if (count < getLimit(group) && internalSet.remove(group)) {
             publicClone = null;
         }
     }
 
     public synchronized void clear() {
         internalSet.clear();
+        runningCounts.clear();
         groupDelays.clear();
         publicClone = null;
+        publicSlots = null;
     }
 }
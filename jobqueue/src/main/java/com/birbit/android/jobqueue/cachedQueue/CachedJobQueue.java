@@ -4,9 +4,12 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.GroupCommitJobQueue;
 import com.birbit.android.jobqueue.JobHolder;
 import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.TagConstraint;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -14,8 +17,10 @@ import java.util.Set;
  * results to avoid unnecessary queries to wrapped JobQueue.
  * does very basic caching but should be sufficient for most of the repeated cases
  * element
+ * <p>
+ * If the wrapped queue is a {@link GroupCommitJobQueue}, commit calls are forwarded to it.
  */
-public class CachedJobQueue implements JobQueue {
+public class CachedJobQueue implements JobQueue, GroupCommitJobQueue {
     private JobQueue delegate;
     private Integer cachedCount;
 
@@ -29,6 +34,12 @@ public class CachedJobQueue implements JobQueue {
         return delegate.insert(jobHolder);
     }
 
+    @Override
+    public boolean insertAll(@NonNull Collection<JobHolder> jobHolders) {
+        invalidateCache();
+        return delegate.insertAll(jobHolders);
+    }
+
     private void invalidateCache() {
         cachedCount = null;
     }
@@ -51,6 +62,12 @@ public class CachedJobQueue implements JobQueue {
         delegate.remove(jobHolder);
     }
 
+    @Override
+    public void removeAll(@NonNull Collection<JobHolder> jobHolders) {
+        invalidateCache();
+        delegate.removeAll(jobHolders);
+    }
+
     @Override
     public int count() {
         if(cachedCount == null) {
@@ -106,9 +123,75 @@ public class CachedJobQueue implements JobQueue {
         delegate.onJobCancelled(holder);
     }
 
+    @Override
+    public void onJobsCancelled(@NonNull Collection<JobHolder> holders) {
+        invalidateCache();
+        delegate.onJobsCancelled(holders);
+    }
+
+    @Override
+    public void onJobReturned(@NonNull JobHolder holder) {
+        invalidateCache();
+        delegate.onJobReturned(holder);
+    }
+
     @Override
     @Nullable
     public JobHolder findJobById(@NonNull String id) {
         return delegate.findJobById(id);
     }
+
+    @Override
+    public boolean hasJobsWithTags(@NonNull TagConstraint tagConstraint, @NonNull String[] tags) {
+        return delegate.hasJobsWithTags(tagConstraint, tags);
+    }
+
+    @Override
+    public JobHolder findJobBySingleId(@NonNull String singleId) {
+        return delegate.findJobBySingleId(singleId);
+    }
+
+    @Override
+    public boolean hasUncommittedWrites() {
+        return delegate instanceof GroupCommitJobQueue
+                && ((GroupCommitJobQueue) delegate).hasUncommittedWrites();
+    }
+
+    @Override
+    public boolean shouldCommit() {
+        return delegate instanceof GroupCommitJobQueue
+                && ((GroupCommitJobQueue) delegate).shouldCommit();
+    }
+
+    @Override
+    public void commit() {
+        if (delegate instanceof GroupCommitJobQueue) {
+            ((GroupCommitJobQueue) delegate).commit();
+        }
+    }
+
+    @Override
+    public boolean commitsInBackground() {
+        return delegate instanceof GroupCommitJobQueue
+                && ((GroupCommitJobQueue) delegate).commitsInBackground();
+    }
+
+    @Override
+    public void setCommitListener(@Nullable CommitListener listener) {
+        if (delegate instanceof GroupCommitJobQueue) {
+            ((GroupCommitJobQueue) delegate).setCommitListener(listener);
+        }
+    }
+
+    @Override
+    public boolean isInsertCommitted(@NonNull String jobId) {
+        return !(delegate instanceof GroupCommitJobQueue)
+                || ((GroupCommitJobQueue) delegate).isInsertCommitted(jobId);
+    }
+
+    @Override
+    public boolean isInsertFailed(@NonNull String jobId) {
+        return delegate instanceof GroupCommitJobQueue
+                && ((GroupCommitJobQueue) delegate).isInsertFailed(jobId);
+    }
 }
@@ -18,6 +18,10 @@ import com.birbit.android.jobqueue.scheduling.Scheduler;
 import com.birbit.android.jobqueue.timer.SystemTimer;
 import com.birbit.android.jobqueue.timer.Timer;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
@@ -51,6 +55,16 @@ public class Configuration {
      * The default priority for new job consumers ({@code Thread.NORM_PRIORITY}).
      */
     public static final int DEFAULT_THREAD_PRIORITY = Thread.NORM_PRIORITY;
+    /**
+     * The default time a write may wait for its group to be committed in
+     * {@link Durability#GROUP_COMMIT} mode
+     */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_MS = 50;
+    /**
+     * The default max number of writes in a group in {@link Durability#GROUP_COMMIT} mode or in a
+     * background commit in {@link Durability#WRITE_BEHIND} mode
+     */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_WRITES = 100;
 
     String id = DEFAULT_ID;
     int maxConsumerCount = MAX_CONSUMER_COUNT;
@@ -61,14 +75,29 @@ public class Configuration {
     QueueFactory queueFactory;
     DependencyInjector dependencyInjector;
     NetworkUtil networkUtil;
+    long networkStatusTtlMs = 0;
     CustomLogger customLogger = new JqLog.ErrorLogger();
     Timer timer;
     Scheduler scheduler;
     boolean inTestMode = false;
     boolean resetDelaysOnRestart = false;
+    boolean storeJobsInDatabase = false;
+    boolean lockFreeMessageQueue = false;
+    boolean indexInMemoryJobs = false;
+    Durability durability = Durability.STRICT;
+    long groupCommitWindowMs = DEFAULT_GROUP_COMMIT_WINDOW_MS;
+    int groupCommitMaxWrites = DEFAULT_GROUP_COMMIT_MAX_WRITES;
+    int workStealingPrefetch = 0;
+    final Map<String, Integer> groupConcurrency = new HashMap<>();
+    final Map<String, RateLimit> groupRateLimits = new HashMap<>();
+    final Map<String, RateLimit> tagRateLimits = new HashMap<>();
+    boolean fairShare = false;
+    final Map<String, Integer> fairShareWeights = new HashMap<>();
+    long priorityAgingMs = 0;
     int threadPriority = DEFAULT_THREAD_PRIORITY;
     boolean batchSchedulerRequests = true;
     ThreadFactory threadFactory = null;
+    Executor consumerExecutor = null;
 
     private Configuration(){
         //use builder instead
@@ -137,6 +166,95 @@ public class Configuration {
         return resetDelaysOnRestart;
     }
 
+    public boolean storeJobsInDatabase() {
+        return storeJobsInDatabase;
+    }
+
+    public boolean useLockFreeMessageQueue() {
+        return lockFreeMessageQueue;
+    }
+
+    public boolean indexInMemoryJobs() {
+        return indexInMemoryJobs;
+    }
+
+    @NonNull
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getGroupCommitWindowMs() {
+        return groupCommitWindowMs;
+    }
+
+    public int getGroupCommitMaxWrites() {
+        return groupCommitMaxWrites;
+    }
+
+    /**
+     * @return How long JobManager reuses the status of a {@link NetworkUtil} that does not report
+     * changes
+     */
+    public long getNetworkStatusTtlMs() {
+        return networkStatusTtlMs;
+    }
+
+    /**
+     * @return The number of jobs JobManager hands to each consumer in advance or 0 if work stealing
+     * is disabled.
+     */
+    public int getWorkStealingPrefetch() {
+        return workStealingPrefetch;
+    }
+
+    /**
+     * @return The max number of running jobs of the groups that may run more than one job at a
+     * time. Other groups run one job at a time.
+     */
+    @NonNull
+    public Map<String, Integer> getGroupConcurrency() {
+        return Collections.unmodifiableMap(groupConcurrency);
+    }
+
+    /**
+     * @return The rate limits of groups by group id
+     */
+    @NonNull
+    public Map<String, RateLimit> getGroupRateLimits() {
+        return Collections.unmodifiableMap(groupRateLimits);
+    }
+
+    /**
+     * @return The rate limits of tags by tag
+     */
+    @NonNull
+    public Map<String, RateLimit> getTagRateLimits() {
+        return Collections.unmodifiableMap(tagRateLimits);
+    }
+
+    /**
+     * @return True if consumers are shared fairly between the fairness keys of jobs
+     */
+    public boolean isFairShareEnabled() {
+        return fairShare;
+    }
+
+    /**
+     * @return The weights of fairness keys. Other keys have a weight of 1.
+     */
+    @NonNull
+    public Map<String, Integer> getFairShareWeights() {
+        return Collections.unmodifiableMap(fairShareWeights);
+    }
+
+    /**
+     * @return The time it takes a waiting job to gain one priority or 0 if priorities do not
+     * change
+     */
+    public long getPriorityAgingMs() {
+        return priorityAgingMs;
+    }
+
     @Nullable
     public Scheduler getScheduler() {
         return scheduler;
@@ -151,6 +269,11 @@ public class Configuration {
         return threadFactory;
     }
 
+    @Nullable
+    public Executor getConsumerExecutor() {
+        return consumerExecutor;
+    }
+
     @SuppressWarnings("unused")
     public static final class Builder {
         private Pattern idRegex = Pattern.compile("^([A-Za-z]|[0-9]|_|-)+$");
@@ -218,6 +341,96 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * By default, {@link SqliteJobQueue} saves each serialized job into its own file. When
+         * this option is set, serialized jobs are kept in a table inside JobManager's database
+         * instead. Jobs are then added, loaded and removed without any file operations and a job's
+         * data is written in the same transaction as the job itself.
+         * <p>
+         * Jobs persisted by the other storage are moved over the first time the queue is opened,
+         * so this option can be turned on or off between releases of your application.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder storeJobsInDatabase() {
+            configuration.storeJobsInDatabase = true;
+            return this;
+        }
+
+        /**
+         * By default, all threads that talk to the JobManager (e.g. the threads calling
+         * {@link com.birbit.android.jobqueue.JobManager#addJobInBackground(
+         * com.birbit.android.jobqueue.Job)} and the consumer threads reporting results) post their
+         * messages under a single lock. When this option is set, JobManager uses a
+         * {@link com.birbit.android.jobqueue.messaging.LockFreeMessageQueue} instead, which lets
+         * these threads post without blocking each other.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder useLockFreeMessageQueue() {
+            configuration.lockFreeMessageQueue = true;
+            return this;
+        }
+
+        /**
+         * By default, {@link DefaultQueueFactory} keeps non-persistent jobs in a
+         * {@link com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue} which goes
+         * through all jobs to find the next one to run. When this option is set, it uses an
+         * {@link com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue} instead,
+         * which is faster when there are many non-persistent jobs waiting for a group, the network
+         * or a delay.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder indexInMemoryJobs() {
+            configuration.indexInMemoryJobs = true;
+            return this;
+        }
+
+        /**
+         * Sets how the persistent queue commits its writes. By default, each write is committed
+         * separately ({@link Durability#STRICT}).
+         *
+         * @param durability The durability mode for the persistent queue
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder durability(@NonNull Durability durability) {
+            configuration.durability = durability;
+            return this;
+        }
+
+        /**
+         * Sets the limits of a group in {@link Durability#GROUP_COMMIT} mode. A group is committed
+         * when JobManager becomes idle, when its first write is older than {@code windowMs} or
+         * when it has {@code maxWrites} writes, whichever comes first.
+         * <p>
+         * In {@link Durability#WRITE_BEHIND} mode, {@code maxWrites} limits the number of writes
+         * in a single background commit and {@code windowMs} is not used.
+         * <p>
+         * Defaults to {@link #DEFAULT_GROUP_COMMIT_WINDOW_MS} and
+         * {@link #DEFAULT_GROUP_COMMIT_MAX_WRITES}.
+         *
+         * @param windowMs The max time a write waits for its commit while JobManager is busy
+         * @param maxWrites The max number of writes in a group
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder groupCommitLimits(long windowMs, int maxWrites) {
+            if (windowMs < 0 || maxWrites < 1) {
+                throw new IllegalArgumentException("window cannot be negative and a group must"
+                        + " allow at least 1 write");
+            }
+            configuration.groupCommitWindowMs = windowMs;
+            configuration.groupCommitMaxWrites = maxWrites;
+            return this;
+        }
+
         /**
          * JobManager needs one persistent and one non-persistent {@link JobQueue} to function.
          * By default, it will use {@link SqliteJobQueue} and
@@ -268,6 +481,30 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * If the {@link NetworkUtil} is a
+         * {@link com.birbit.android.jobqueue.network.NetworkEventProvider}, JobManager reuses the
+         * network status until the NetworkUtil reports a change. Otherwise, JobManager queries the
+         * NetworkUtil every time it needs the status and checks it every
+         * {@link com.birbit.android.jobqueue.JobManager#NETWORK_CHECK_INTERVAL} while jobs wait
+         * for a network.
+         * <p>
+         * Set a TTL to reuse the status of such a NetworkUtil for that long instead. JobManager
+         * then checks the network at that interval while jobs wait for it.
+         *
+         * @param ttlMs How long the status is reused, 0 to query it every time
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder networkStatusTtl(long ttlMs) {
+            if (ttlMs < 0) {
+                throw new IllegalArgumentException("network status ttl cannot be negative");
+            }
+            configuration.networkStatusTtlMs = ttlMs;
+            return this;
+        }
+
         /**
          * JobManager is suitable for DependencyInjection. Just provide your DependencyInjector and it will call it
          * before {Job#onAdded} method is called.
@@ -283,6 +520,176 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * By default, each time a consumer finishes a job, it asks the JobManager thread for the next
+         * one and waits for the answer. For many short jobs, this round trip can cost more than the
+         * jobs themselves.
+         * <p>
+         * When work stealing is enabled, JobManager fetches up to {@code jobsPerConsumer} ready
+         * jobs per consumer in advance and puts them into per-consumer queues. A consumer that
+         * finishes a job picks the next one from its own queue or steals one from another consumer
+         * without waiting for the JobManager thread.
+         * <p>
+         * A group never has more jobs fetched or running than it may run at once (see
+         * {@link #groupConcurrency(String, int)}), so jobs in a group that runs one job at a time
+         * still run one after the other and in order. Jobs that are fetched but not started yet are put back into
+         * the job queue when jobs are cancelled, JobManager is stopped or cleared, so cancelled jobs
+         * are never run. While they wait in a consumer's queue, these jobs are reported as
+         * {@link com.birbit.android.jobqueue.JobStatus#RUNNING}.
+         *
+         * @param jobsPerConsumer The number of jobs to fetch in advance for each consumer. Must be
+         *                        positive.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder workStealing(int jobsPerConsumer) {
+            if (jobsPerConsumer < 1) {
+                throw new IllegalArgumentException("jobsPerConsumer must be positive");
+            }
+            configuration.workStealingPrefetch = jobsPerConsumer;
+            return this;
+        }
+
+        /**
+         * By default, jobs in the same group run one at a time, in the order they were added. This
+         * allows up to {@code maxConcurrent} jobs of the given group to run at the same time,
+         * e.g. to download several files of an album while the other groups keep their order.
+         * <p>
+         * Jobs of the group are still started in priority and creation order, but a job may start
+         * before the previous ones in its group finish.
+         *
+         * @param groupId The group id, as passed to
+         *                {@link com.birbit.android.jobqueue.Params#groupBy(String)}
+         * @param maxConcurrent The max number of jobs of the group that can run at the same time.
+         *                      Must be positive.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder groupConcurrency(@NonNull String groupId, int maxConcurrent) {
+            if (maxConcurrent < 1) {
+                throw new IllegalArgumentException("maxConcurrent must be positive");
+            }
+            configuration.groupConcurrency.put(groupId, maxConcurrent);
+            return this;
+        }
+
+        /**
+         * Limits how often the jobs of the given group can start, e.g. to stay within the quota
+         * of a server endpoint. Up to {@code burst} jobs can start at once, then one more job can
+         * start every {@code windowMs / runs} milliseconds.
+         * <p>
+         * Jobs that would exceed the limit wait in the queue and are not counted as ready. Every
+         * start counts against the limit, including retries.
+         *
+         * @param groupId The group id, as passed to
+         *                {@link com.birbit.android.jobqueue.Params#groupBy(String)}
+         * @param runs The number of jobs that can start in each window. Must be positive.
+         * @param windowMs The length of the window in milliseconds. Must be positive.
+         * @param burst The max number of jobs that can start at once. Must be positive.
+         *
+         * @return This Configuration for easy chaining
+         * @see RateLimit
+         */
+        @NonNull
+        public Builder rateLimitGroup(@NonNull String groupId, int runs, long windowMs,
+                int burst) {
+            configuration.groupRateLimits.put(groupId, new RateLimit(runs, windowMs, burst));
+            return this;
+        }
+
+        /**
+         * Limits how often the jobs with the given tag can start. A job with several limited tags
+         * starts only when none of them is over its limit and counts against all of them.
+         *
+         * @param tag The tag, as passed to
+         *            {@link com.birbit.android.jobqueue.Params#addTags(String...)}
+         * @param runs The number of jobs that can start in each window. Must be positive.
+         * @param windowMs The length of the window in milliseconds. Must be positive.
+         * @param burst The max number of jobs that can start at once. Must be positive.
+         *
+         * @return This Configuration for easy chaining
+         * @see #rateLimitGroup(String, int, long, int)
+         */
+        @NonNull
+        public Builder rateLimitTag(@NonNull String tag, int runs, long windowMs, int burst) {
+            configuration.tagRateLimits.put(tag, new RateLimit(runs, windowMs, burst));
+            return this;
+        }
+
+        /**
+         * By default, JobManager runs the ready job with the highest priority and, among those,
+         * the oldest one. So a tenant that adds many jobs at once delays the jobs of every other
+         * tenant with the same priority until its jobs are done.
+         * <p>
+         * When fair sharing is enabled, JobManager rotates between the fairness keys of the jobs
+         * with the highest priority, so each key with ready jobs gets its share of the runs (see
+         * {@link #fairShareWeight(String, int)}). Jobs with the same key keep their order. The
+         * fairness key of a job is set via
+         * {@link com.birbit.android.jobqueue.Params#fairnessKey(String)} and defaults to its group
+         * id.
+         * <p>
+         * Picking a job scans the ready jobs with the highest priority, so it is slower than the
+         * default order when there are many of them.
+         *
+         * @return This Configuration for easy chaining
+         * @see com.birbit.android.jobqueue.FairShare
+         */
+        @NonNull
+        public Builder fairShare() {
+            configuration.fairShare = true;
+            return this;
+        }
+
+        /**
+         * Enables fair sharing (see {@link #fairShare()}) and gives the jobs with the given
+         * fairness key {@code weight} times the share of a key with the default weight of 1.
+         *
+         * @param key The fairness key or group id
+         * @param weight The weight of the key. Must be positive.
+         *
+         * @return This Configuration for easy chaining
+         */
+        @NonNull
+        public Builder fairShareWeight(@NonNull String key, int weight) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("weight must be positive");
+            }
+            configuration.fairShare = true;
+            configuration.fairShareWeights.put(key, weight);
+            return this;
+        }
+
+        /**
+         * By default, a job runs only after every ready job with a higher priority, so it may
+         * wait forever under a steady stream of jobs with a higher priority.
+         * <p>
+         * When priority aging is enabled, the priority of a job grows by one for every
+         * {@code msPerPriority} it waits in the queue and jobs run in the order of this effective
+         * priority. So a job runs before the jobs with a priority that is {@code n} higher than
+         * its own if they are created more than {@code n * msPerPriority} after it. Jobs of the
+         * same effective priority still run oldest first.
+         * <p>
+         * The order only depends on the priority and the created time of the jobs, so queues do
+         * not update jobs as they age. Each queue orders its own jobs: JobManager still looks for
+         * non persistent jobs before persistent ones.
+         *
+         * @param msPerPriority The time it takes a waiting job to gain one priority or 0 to
+         *                      disable priority aging
+         *
+         * @return This Configuration for easy chaining
+         * @see com.birbit.android.jobqueue.PriorityAging
+         */
+        @NonNull
+        public Builder priorityAging(long msPerPriority) {
+            if (msPerPriority < 0) {
+                throw new IllegalArgumentException("priority aging interval cannot be negative");
+            }
+            configuration.priorityAgingMs = msPerPriority;
+            return this;
+        }
+
         /**
          * # of max consumers to run concurrently. defaults to {@link #MAX_CONSUMER_COUNT}
          * @param count The max number of threads that JobManager can create to run jobs
@@ -453,8 +860,40 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * Runs the consumers on the given {@link Executor} instead of creating a {@link Thread} for
+         * each of them.
+         * <p>
+         * Each consumer occupies one task of the executor until it is stopped, either because it
+         * was idle longer than the {@link #consumerKeepAlive(int) keep alive} or because the
+         * JobManager is stopped. {@link #maxConsumerCount(int)}, {@link #loadFactor(int)} and the
+         * keep alive work the same way as they do with threads. An executor that cannot run
+         * {@link #maxConsumerCount(int)} tasks at the same time delays the extra consumers until a
+         * running one stops.
+         * <p>
+         * On a JVM that supports virtual threads, a virtual thread per task executor lets a large
+         * number of consumers block on I/O without using a platform thread each.
+         * <p>
+         * This cannot be combined with a {@link #threadFactory(ThreadFactory)} and
+         * {@link #consumerThreadPriority(int)} is ignored. JobManager does not shut the executor
+         * down.
+         *
+         * @param executor The executor that runs the consumers
+         *
+         * @return This Configuration.Builder for easy chaining
+         */
+        @NonNull
+        public Builder consumerExecutor(@Nullable Executor executor) {
+            configuration.consumerExecutor = executor;
+            return this;
+        }
+
         @NonNull
         public Configuration build() {
+            if (configuration.consumerExecutor != null && configuration.threadFactory != null) {
+                throw new IllegalArgumentException("cannot use both a thread factory and a"
+                        + " consumer executor");
+            }
             if(configuration.queueFactory == null) {
                 configuration.queueFactory = new DefaultQueueFactory();
             }
@@ -0,0 +1,43 @@
+package com.birbit.android.jobqueue.config;
+
+/**
+ * Controls how the persistent job queue writes to its database.
+ *
+ * @see Configuration.Builder#durability(Durability)
+ */
+public enum Durability {
+    /**
+     * Each write is committed in its own transaction before JobManager moves on. This is the
+     * default.
+     */
+    STRICT,
+    /**
+     * Writes are collected in a single transaction that is committed when JobManager has no more
+     * messages to handle or when the group reaches the limits set via
+     * {@link Configuration.Builder#groupCommitLimits(long, int)}.
+     * <p>
+     * {@link com.birbit.android.jobqueue.Job#onAdded()} and the add callbacks of a persistent job
+     * are called after the commit that includes it. If the application is killed before a
+     * commit, the writes in that group are lost; a job may run again if its removal was not
+     * committed.
+     */
+    GROUP_COMMIT,
+    /**
+     * Each write is committed in its own transaction but the database uses write ahead logging
+     * with {@code synchronous=NORMAL}, so commits do not wait for the disk. The database stays
+     * consistent but the last commits may be lost if the device loses power.
+     */
+    RELAXED,
+    /**
+     * Writes are applied to the in memory view of the queue right away and committed to the
+     * database by a background thread, so JobManager does not wait for the disk. Writes that are
+     * queued while a commit is running are committed together, up to the max writes set via
+     * {@link Configuration.Builder#groupCommitLimits(long, int)}.
+     * <p>
+     * Like {@link #GROUP_COMMIT}, {@link com.birbit.android.jobqueue.Job#onAdded()} and the add
+     * callbacks of a persistent job are called after the commit that includes it, so a job that
+     * was reported as added is never lost. If the application is killed before a commit, a job
+     * may run again if its removal was not committed.
+     */
+    WRITE_BEHIND
+}
@@ -0,0 +1,47 @@
+package com.birbit.android.jobqueue.config;
+
+/**
+ * Limits how often the jobs of a group or with a tag can start: {@link #getRuns()} runs per
+ * {@link #getWindowMs()}, with up to {@link #getBurst()} runs back to back after an idle period.
+ * <p>
+ * Jobs that would exceed the limit stay in the queue and are not counted as ready until they can
+ * run.
+ *
+ * @see Configuration.Builder#rateLimitGroup(String, int, long, int)
+ * @see Configuration.Builder#rateLimitTag(String, int, long, int)
+ */
+public final class RateLimit {
+    private final int runs;
+    private final long windowMs;
+    private final int burst;
+
+    RateLimit(int runs, long windowMs, int burst) {
+        if (runs < 1 || windowMs < 1 || burst < 1) {
+            throw new IllegalArgumentException("runs, window and burst must be positive");
+        }
+        this.runs = runs;
+        this.windowMs = windowMs;
+        this.burst = burst;
+    }
+
+    /**
+     * @return The number of runs allowed in each window
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return The length of the window in milliseconds
+     */
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * @return The max number of runs that can start at once
+     */
+    public int getBurst() {
+        return burst;
+    }
+}
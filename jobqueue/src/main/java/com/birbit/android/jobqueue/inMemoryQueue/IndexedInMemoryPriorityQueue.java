@@ -0,0 +1,738 @@
+package com.birbit.android.jobqueue.inMemoryQueue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.FairShare;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.PriorityAging;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in memory {@link JobQueue} that keeps secondary indexes so that picking the next job does not
+ * need to go through every job in the queue.
+ * <p>
+ * Jobs whose delay has passed are kept in a "ready" structure, one per network type. Ungrouped jobs
+ * are in it directly while each group only adds its best job for that network type, so a running
+ * group is skipped in one step no matter how many jobs it has. Delayed jobs and jobs with deadlines
+ * are also kept in time ordered sets and tags have an inverted index.
+ * <p>
+ * Results are the same as {@link SimpleInMemoryPriorityQueue}; the indexes only decide which jobs
+ * are checked.
+ */
+public class IndexedInMemoryPriorityQueue implements JobQueue {
+    private static final int NETWORK_TYPE_COUNT = NetworkUtil.UNMETERED + 1;
+    private static final Comparator<JobHolder> DELAY_COMPARATOR = new Comparator<JobHolder>() {
+        @Override
+        public int compare(JobHolder holder1, JobHolder holder2) {
+            int cmp = compareLong(holder1.getDelayUntilNs(), holder2.getDelayUntilNs());
+            return cmp != 0 ? cmp : compareInsertionOrder(holder1, holder2);
+        }
+    };
+    private static final Comparator<JobHolder> DEADLINE_COMPARATOR = new Comparator<JobHolder>() {
+        @Override
+        public int compare(JobHolder holder1, JobHolder holder2) {
+            int cmp = compareLong(holder1.getDeadlineNs(), holder2.getDeadlineNs());
+            return cmp != 0 ? cmp : compareInsertionOrder(holder1, holder2);
+        }
+    };
+
+    private final Comparator<JobHolder> priorityComparator = new Comparator<JobHolder>() {
+        @Override
+        public int compare(JobHolder holder1, JobHolder holder2) {
+            // higher effective priority first, then older jobs, then insertion order
+            int cmp = PriorityAging.compare(holder1.getPriority(), holder1.getCreatedNs(),
+                    holder2.getPriority(), holder2.getCreatedNs(), priorityAgingNs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return compareInsertionOrder(holder1, holder2);
+        }
+    };
+
+    private final Map<String, JobHolder> idCache = new HashMap<>();
+    /**
+     * Per network type, ready jobs without a group and the best ready job of each group.
+     */
+    private final List<TreeSet<JobHolder>> readyHeads;
+    private final int[] readyUngroupedCount = new int[NETWORK_TYPE_COUNT];
+    private final Map<String, Group> groups = new HashMap<>();
+    /**
+     * Number of groups by the smallest network type of their ready jobs.
+     */
+    private final int[] groupCountByMinNetworkType = new int[NETWORK_TYPE_COUNT];
+    private final TreeSet<JobHolder> delayed = new TreeSet<>(DELAY_COMPARATOR);
+    /**
+     * Delayed jobs that are not in the ready structures yet.
+     */
+    private final TreeSet<JobHolder> pending = new TreeSet<>(DELAY_COMPARATOR);
+    private final TreeSet<JobHolder> withDeadline = new TreeSet<>(DEADLINE_COMPARATOR);
+    private final Map<String, Set<JobHolder>> tagIndex = new HashMap<>();
+    /**
+     * Jobs that are delayed until this time (inclusive) are in the ready structures.
+     */
+    private long readyUntilNs = Long.MIN_VALUE;
+
+    private final AtomicLong insertionOrderCounter = new AtomicLong(0);
+    private final Set<String> reusedGroupSet = new HashSet<>();
+    private final Map<String, Integer> reusedGroupCounts = new HashMap<>();
+    private final Set<String> reusedGroupSet2 = new HashSet<>();
+    private final Set<String> reusedIdSet = new HashSet<>();
+    private final long sessionId;
+    private final long priorityAgingNs;
+
+    public IndexedInMemoryPriorityQueue(Configuration configuration, long sessionId) {
+        this.sessionId = sessionId;
+        this.priorityAgingNs = PriorityAging.getAgingNs(configuration);
+        readyHeads = new ArrayList<>(NETWORK_TYPE_COUNT);
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            readyHeads.add(new TreeSet<>(priorityComparator));
+        }
+    }
+
+    @Override
+    public boolean insert(@NonNull JobHolder jobHolder) {
+        jobHolder.setInsertionOrder(insertionOrderCounter.incrementAndGet());
+        JobHolder existing = idCache.get(jobHolder.getId());
+        if (existing != null) {
+            throw new IllegalArgumentException("cannot add a job with the same id twice");
+        }
+        add(jobHolder);
+        return true;
+    }
+
+    @Override
+    public boolean insertAll(@NonNull Collection<JobHolder> jobHolders) {
+        for (JobHolder jobHolder : jobHolders) {
+            if (idCache.containsKey(jobHolder.getId())) {
+                throw new IllegalArgumentException("cannot add a job with the same id twice");
+            }
+        }
+        for (JobHolder jobHolder : jobHolders) {
+            insert(jobHolder);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean insertOrReplace(@NonNull JobHolder jobHolder) {
+        if (jobHolder.getInsertionOrder() == null) {
+            return insert(jobHolder);
+        }
+        JobHolder existing = idCache.get(jobHolder.getId());
+        if (existing != null) {
+            remove(existing);
+        }
+        add(jobHolder);
+        return true;
+    }
+
+    @Override
+    public void substitute(@NonNull JobHolder newJob, @NonNull JobHolder oldJob) {
+        remove(oldJob);
+        insert(newJob);
+    }
+
+    @Override
+    public void removeAll(@NonNull Collection<JobHolder> jobHolders) {
+        for (JobHolder jobHolder : jobHolders) {
+            remove(jobHolder);
+        }
+    }
+
+    @Override
+    public void remove(@NonNull JobHolder jobHolder) {
+        JobHolder existing = idCache.remove(jobHolder.getId());
+        if (existing == null) {
+            return;
+        }
+        if (isReady(existing)) {
+            removeFromReady(existing);
+        } else {
+            pending.remove(existing);
+        }
+        if (existing.hasDelay()) {
+            delayed.remove(existing);
+        }
+        if (existing.hasDeadline()) {
+            withDeadline.remove(existing);
+        }
+        if (existing.hasTags()) {
+            for (String tag : existing.getTags()) {
+                Set<JobHolder> tagged = tagIndex.get(tag);
+                if (tagged != null) {
+                    tagged.remove(existing);
+                    if (tagged.isEmpty()) {
+                        tagIndex.remove(tag);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int count() {
+        return idCache.size();
+    }
+
+    @Override
+    public int countReadyJobs(@NonNull Constraint constraint) {
+        // the group counts assume that a group runs one job at a time and do not know tags
+        if (constraint.getTagConstraint() != null || constraint.getTimeLimit() == null
+                || constraint.getTimeLimit() < readyUntilNs || constraint.hasGroupSlots()
+                || !constraint.getExcludeTags().isEmpty()) {
+            return countReadyJobsByScan(constraint);
+        }
+        makeReady(constraint.getTimeLimit());
+        final int maxNetworkType = maxNetworkType(constraint);
+        int count = 0;
+        for (int i = 0; i <= maxNetworkType; i++) {
+            count += readyUngroupedCount[i] + groupCountByMinNetworkType[i];
+        }
+        // groups that are counted above but don't match
+        final Set<String> droppedGroups = reusedGroupSet;
+        droppedGroups.clear();
+        for (String groupId : constraint.getExcludeGroups()) {
+            Group group = groups.get(groupId);
+            if (group != null && group.minNetworkType() <= maxNetworkType
+                    && droppedGroups.add(groupId)) {
+                count--;
+            }
+        }
+        final Set<String> excludedIds = reusedIdSet;
+        excludedIds.clear();
+        for (String jobId : constraint.getExcludeJobIds()) {
+            JobHolder holder = idCache.get(jobId);
+            if (holder == null || !isReady(holder)
+                    || holder.getRequiredNetworkType() > maxNetworkType
+                    || !excludedIds.add(jobId)) {
+                continue;
+            }
+            String groupId = holder.getGroupId();
+            if (groupId == null) {
+                count--;
+            } else if (!droppedGroups.contains(groupId)
+                    && !groups.get(groupId).hasReadyJob(constraint, maxNetworkType)) {
+                droppedGroups.add(groupId);
+                count--;
+            }
+        }
+        // jobs that can run without their network requirements because of their deadline
+        final Set<String> addedGroups = reusedGroupSet2;
+        addedGroups.clear();
+        for (JobHolder holder : withDeadline) {
+            if (holder.getDeadlineNs() > constraint.getNowInNs()) {
+                break;
+            }
+            if (holder.getRequiredNetworkType() <= maxNetworkType
+                    || !matches(holder, constraint, false)) {
+                continue;
+            }
+            String groupId = holder.getGroupId();
+            if (groupId == null) {
+                count++;
+            } else if (!addedGroups.contains(groupId)
+                    && (groups.get(groupId).minNetworkType() > maxNetworkType
+                    || droppedGroups.contains(groupId))) {
+                addedGroups.add(groupId);
+                count++;
+            }
+        }
+        droppedGroups.clear();
+        addedGroups.clear();
+        excludedIds.clear();
+        return count;
+    }
+
+    private int countReadyJobsByScan(Constraint constraint) {
+        int count = 0;
+        final Map<String, Integer> countedGroups = reusedGroupCounts;
+        countedGroups.clear();
+        for (JobHolder holder : candidates(constraint)) {
+            String groupId = holder.getGroupId();
+            Integer counted = groupId == null ? null : countedGroups.get(groupId);
+            if ((counted == null || counted < constraint.getGroupSlots(groupId))
+                    && matches(holder, constraint, false)) {
+                count++;
+                if (groupId != null) {
+                    countedGroups.put(groupId, counted == null ? 1 : counted + 1);
+                }
+            }
+        }
+        countedGroups.clear();
+        return count;
+    }
+
+    @Override
+    public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
+        final FairShare fairShare = constraint.getFairShare();
+        JobHolder best = fairShare == null ? findNextJob(constraint)
+                : findNextFairJob(constraint, fairShare);
+        if (best != null) {
+            remove(best);
+            best.setRunCount(best.getRunCount() + 1);
+            best.setRunningSessionId(sessionId);
+        }
+        return best;
+    }
+
+    @Nullable
+    private JobHolder findNextJob(Constraint constraint) {
+        JobHolder best = null;
+        if (constraint.getTimeLimit() != null) {
+            makeReady(constraint.getTimeLimit());
+        } else {
+            // delayed jobs are not in the ready structures
+            for (JobHolder holder : pending) {
+                if (isBetter(holder, best) && matches(holder, constraint, false)) {
+                    best = holder;
+                }
+            }
+        }
+        final int maxNetworkType = maxNetworkType(constraint);
+        for (int i = 0; i <= maxNetworkType; i++) {
+            for (JobHolder head : readyHeads.get(i)) {
+                if (!isBetter(head, best)) {
+                    break;
+                }
+                if (matches(head, constraint, false)) {
+                    best = head;
+                    break;
+                }
+                JobHolder inGroup = nextInGroup(head, constraint);
+                if (inGroup != null && isBetter(inGroup, best)) {
+                    best = inGroup;
+                }
+            }
+        }
+        for (JobHolder holder : withDeadline) {
+            if (holder.getDeadlineNs() > constraint.getNowInNs()) {
+                break;
+            }
+            if (isBetter(holder, best) && matches(holder, constraint, false)) {
+                best = holder;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Picks the job with the smallest fair share start time among the matching jobs with the
+     * highest effective priority. The indexes do not know the start times, so this scans all
+     * jobs.
+     */
+    @Nullable
+    private JobHolder findNextFairJob(Constraint constraint, FairShare fairShare) {
+        JobHolder best = null;
+        long bestPriority = 0;
+        long bestStart = 0;
+        for (JobHolder holder : idCache.values()) {
+            final long priority = getEffectivePriority(holder, constraint);
+            if (best != null && priority < bestPriority) {
+                continue;
+            }
+            if (!matches(holder, constraint, false)) {
+                continue;
+            }
+            long start = fairShare.getStartTime(holder.getFairnessKey());
+            if (best == null || priority > bestPriority || start < bestStart
+                    || (start == bestStart && isBetter(holder, best))) {
+                best = holder;
+                bestPriority = priority;
+                bestStart = start;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
+        // see SimpleInMemoryPriorityQueue#getNextJobDelayUntilNs for the per job value
+        if (hasReadyJobWithoutDelayOrDeadline(constraint)) {
+            // jobs without a delay or deadline have the smallest possible value
+            return JobManager.NOT_DELAYED_JOB_DELAY;
+        }
+        Long min = null;
+        for (JobHolder holder : withDeadline) {
+            if (matches(holder, constraint, true)) {
+                min = holder.getDeadlineNs();
+                break;
+            }
+        }
+        for (JobHolder holder : delayed) {
+            if (min != null && holder.getDelayUntilNs() >= min) {
+                break;
+            }
+            if (matches(holder, constraint, false)) {
+                min = holder.getDelayUntilNs();
+                break;
+            }
+        }
+        return min;
+    }
+
+    private boolean hasReadyJobWithoutDelayOrDeadline(Constraint constraint) {
+        final int maxNetworkType = maxNetworkType(constraint);
+        for (int i = 0; i <= maxNetworkType; i++) {
+            for (JobHolder head : readyHeads.get(i)) {
+                if (hasNoDelayOrDeadline(head) && matches(head, constraint, false)) {
+                    return true;
+                }
+                Group group = head.getGroupId() == null ? null : groups.get(head.getGroupId());
+                if (group == null || constraint.getExcludeGroups().contains(head.getGroupId())) {
+                    continue;
+                }
+                for (JobHolder holder : group.ready.get(i).tailSet(head, false)) {
+                    if (hasNoDelayOrDeadline(holder) && matches(holder, constraint, false)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasNoDelayOrDeadline(JobHolder holder) {
+        return !holder.hasDelay() && !holder.hasDeadline();
+    }
+
+    @Override
+    public void clear() {
+        idCache.clear();
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            readyHeads.get(i).clear();
+            readyUngroupedCount[i] = 0;
+            groupCountByMinNetworkType[i] = 0;
+        }
+        groups.clear();
+        delayed.clear();
+        pending.clear();
+        withDeadline.clear();
+        tagIndex.clear();
+    }
+
+    @Override
+    public JobHolder findJobById(@NonNull String id) {
+        return idCache.get(id);
+    }
+
+    @Override
+    public boolean hasJobsWithTags(@NonNull TagConstraint tagConstraint, @NonNull String[] tags) {
+        return tags.length > 0 && tagConstraint.matches(tags, tagIndex.keySet());
+    }
+
+    @Override
+    public JobHolder findJobBySingleId(@NonNull String singleId) {
+        if (!singleId.startsWith(Job.SINGLE_ID_TAG_PREFIX)) {
+            return null;
+        }
+        // single instance ids are tags, running jobs are not in the queue
+        Set<JobHolder> tagged = tagIndex.get(singleId);
+        return tagged == null || tagged.isEmpty() ? null : tagged.iterator().next();
+    }
+
+    @NonNull
+    @Override
+    public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
+        Set<JobHolder> result = new HashSet<>();
+        for (JobHolder holder : candidates(constraint)) {
+            if (matches(holder, constraint, false)) {
+                result.add(holder);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void onJobCancelled(JobHolder holder) {
+        remove(holder);
+    }
+
+    @Override
+    public void onJobsCancelled(@NonNull Collection<JobHolder> holders) {
+        removeAll(holders);
+    }
+
+    @Override
+    public void onJobReturned(@NonNull JobHolder holder) {
+        // jobs are removed when they are fetched
+        insertOrReplace(holder);
+    }
+
+    /**
+     * Returns the jobs that may match the constraint, using the tag index if the constraint has
+     * tags.
+     */
+    private Collection<JobHolder> candidates(Constraint constraint) {
+        final TagConstraint tagConstraint = constraint.getTagConstraint();
+        if (tagConstraint == null) {
+            return idCache.values();
+        }
+        if (tagConstraint == TagConstraint.ALL) {
+            Set<JobHolder> smallest = null;
+            for (String tag : constraint.getTags()) {
+                Set<JobHolder> tagged = tagIndex.get(tag);
+                if (tagged == null) {
+                    return new HashSet<>();
+                }
+                if (smallest == null || tagged.size() < smallest.size()) {
+                    smallest = tagged;
+                }
+            }
+            return smallest == null ? new HashSet<JobHolder>() : smallest;
+        }
+        Set<JobHolder> result = new HashSet<>();
+        for (String tag : constraint.getTags()) {
+            Set<JobHolder> tagged = tagIndex.get(tag);
+            if (tagged != null) {
+                result.addAll(tagged);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the best matching job in the group of the given head, for jobs that do not match due
+     * to a reason other than their group or network.
+     */
+    @Nullable
+    private JobHolder nextInGroup(JobHolder head, Constraint constraint) {
+        String groupId = head.getGroupId();
+        if (groupId == null || constraint.getExcludeGroups().contains(groupId)) {
+            return null;
+        }
+        Group group = groups.get(groupId);
+        for (JobHolder holder : group.ready.get(networkType(head)).tailSet(head, false)) {
+            if (matches(holder, constraint, false)) {
+                return holder;
+            }
+        }
+        return null;
+    }
+
+    private void add(JobHolder jobHolder) {
+        idCache.put(jobHolder.getId(), jobHolder);
+        if (jobHolder.hasDelay()) {
+            delayed.add(jobHolder);
+        }
+        if (jobHolder.hasDeadline()) {
+            withDeadline.add(jobHolder);
+        }
+        if (jobHolder.hasTags()) {
+            for (String tag : jobHolder.getTags()) {
+                Set<JobHolder> tagged = tagIndex.get(tag);
+                if (tagged == null) {
+                    tagged = new HashSet<>();
+                    tagIndex.put(tag, tagged);
+                }
+                tagged.add(jobHolder);
+            }
+        }
+        if (isReady(jobHolder)) {
+            addToReady(jobHolder);
+        } else {
+            pending.add(jobHolder);
+        }
+    }
+
+    /**
+     * Moves delayed jobs whose delay is until the given time into the ready structures.
+     */
+    private void makeReady(long untilNs) {
+        if (untilNs <= readyUntilNs) {
+            return;
+        }
+        readyUntilNs = untilNs;
+        while (!pending.isEmpty() && pending.first().getDelayUntilNs() <= untilNs) {
+            addToReady(pending.pollFirst());
+        }
+    }
+
+    private boolean isReady(JobHolder holder) {
+        return holder.getDelayUntilNs() <= readyUntilNs;
+    }
+
+    private void addToReady(JobHolder holder) {
+        final int networkType = networkType(holder);
+        final String groupId = holder.getGroupId();
+        if (groupId == null) {
+            readyHeads.get(networkType).add(holder);
+            readyUngroupedCount[networkType]++;
+            return;
+        }
+        Group group = groups.get(groupId);
+        if (group == null) {
+            group = new Group(priorityComparator);
+            groups.put(groupId, group);
+        }
+        int oldMinNetworkType = group.minNetworkType();
+        TreeSet<JobHolder> jobs = group.ready.get(networkType);
+        JobHolder oldHead = jobs.isEmpty() ? null : jobs.first();
+        jobs.add(holder);
+        if (oldHead == null) {
+            readyHeads.get(networkType).add(holder);
+        } else if (jobs.first() == holder) {
+            readyHeads.get(networkType).remove(oldHead);
+            readyHeads.get(networkType).add(holder);
+        }
+        onMinNetworkTypeChanged(oldMinNetworkType, group.minNetworkType());
+    }
+
+    private void removeFromReady(JobHolder holder) {
+        final int networkType = networkType(holder);
+        final String groupId = holder.getGroupId();
+        if (groupId == null) {
+            if (readyHeads.get(networkType).remove(holder)) {
+                readyUngroupedCount[networkType]--;
+            }
+            return;
+        }
+        Group group = groups.get(groupId);
+        if (group == null) {
+            return;
+        }
+        int oldMinNetworkType = group.minNetworkType();
+        TreeSet<JobHolder> jobs = group.ready.get(networkType);
+        boolean wasHead = !jobs.isEmpty() && jobs.first() == holder;
+        if (!jobs.remove(holder)) {
+            return;
+        }
+        if (wasHead) {
+            readyHeads.get(networkType).remove(holder);
+            if (!jobs.isEmpty()) {
+                readyHeads.get(networkType).add(jobs.first());
+            }
+        }
+        int newMinNetworkType = group.minNetworkType();
+        onMinNetworkTypeChanged(oldMinNetworkType, newMinNetworkType);
+        if (newMinNetworkType == NETWORK_TYPE_COUNT) {
+            groups.remove(groupId);
+        }
+    }
+
+    private void onMinNetworkTypeChanged(int oldMinNetworkType, int newMinNetworkType) {
+        if (oldMinNetworkType == newMinNetworkType) {
+            return;
+        }
+        if (oldMinNetworkType < NETWORK_TYPE_COUNT) {
+            groupCountByMinNetworkType[oldMinNetworkType]--;
+        }
+        if (newMinNetworkType < NETWORK_TYPE_COUNT) {
+            groupCountByMinNetworkType[newMinNetworkType]++;
+        }
+    }
+
+    private static int networkType(JobHolder holder) {
+        return Math.min(Math.max(holder.getRequiredNetworkType(), 0), NETWORK_TYPE_COUNT - 1);
+    }
+
+    private static int maxNetworkType(Constraint constraint) {
+        return Math.min(constraint.getMaxNetworkType(), NETWORK_TYPE_COUNT - 1);
+    }
+
+    private boolean isBetter(JobHolder holder, JobHolder best) {
+        return best == null || priorityComparator.compare(holder, best) < 0;
+    }
+
+    private long getEffectivePriority(JobHolder holder, Constraint constraint) {
+        return PriorityAging.getEffectivePriority(holder.getPriority(), holder.getCreatedNs(),
+                priorityAgingNs, constraint.getNowInNs());
+    }
+
+    private static int compareLong(long l1, long l2) {
+        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+
+    private static int compareInsertionOrder(JobHolder holder1, JobHolder holder2) {
+        //noinspection ConstantConditions
+        return compareLong(holder1.getInsertionOrder(), holder2.getInsertionOrder());
+    }
+
+    private static boolean matches(JobHolder holder, Constraint constraint,
+            boolean acceptAnyDeadline) {
+        boolean hitDeadline = constraint.getNowInNs() >= holder.getDeadlineNs()
+                || (acceptAnyDeadline && holder.hasDeadline());
+        if (!hitDeadline) {
+            if (constraint.getMaxNetworkType() < holder.getRequiredNetworkType()) {
+                return false;
+            }
+        }
+        if (constraint.getTimeLimit() != null
+                && holder.getDelayUntilNs() > constraint.getTimeLimit()) {
+            return false;
+        }
+        if (holder.getGroupId() != null
+                && constraint.getExcludeGroups().contains(holder.getGroupId())) {
+            return false;
+        }
+        if (constraint.isExcludedByTags(holder.getTags())) {
+            return false;
+        }
+        if (constraint.getExcludeJobIds().contains(holder.getId())) {
+            return false;
+        }
+        //noinspection RedundantIfStatement
+        if (constraint.getTagConstraint() != null &&
+                (holder.getTags() == null || constraint.getTags().isEmpty() ||
+                        !constraint.getTagConstraint().matches(constraint.getTags(),
+                                holder.getTags()))) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ready jobs of a group, by network type.
+     */
+    private static class Group {
+        final List<TreeSet<JobHolder>> ready;
+
+        Group(Comparator<JobHolder> priorityComparator) {
+            ready = new ArrayList<>(NETWORK_TYPE_COUNT);
+            for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+                ready.add(new TreeSet<>(priorityComparator));
+            }
+        }
+
+        /**
+         * @return The smallest network type of the ready jobs or {@link #NETWORK_TYPE_COUNT} if
+         * there are none.
+         */
+        int minNetworkType() {
+            for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+                if (!ready.get(i).isEmpty()) {
+                    return i;
+                }
+            }
+            return NETWORK_TYPE_COUNT;
+        }
+
+        boolean hasReadyJob(Constraint constraint, int maxNetworkType) {
+            for (int i = 0; i <= maxNetworkType; i++) {
+                for (JobHolder holder : ready.get(i)) {
+                    if (!constraint.getExcludeJobIds().contains(holder.getId())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -3,11 +3,16 @@ package com.birbit.android.jobqueue.inMemoryQueue;
 import androidx.annotation.NonNull;
 
 import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.FairShare;
 import com.birbit.android.jobqueue.JobHolder;
 import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.PriorityAging;
+import com.birbit.android.jobqueue.TagConstraint;
 import com.birbit.android.jobqueue.config.Configuration;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,12 +32,9 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
             if (holder1.getJob().getId().equals(holder2.getJob().getId())) {
                 return 0;
             }
-            int cmp = compareInt(holder1.getPriority(), holder2.getPriority());
-            if (cmp != 0) {
-                return cmp;
-            }
-
-            cmp = -compareLong(holder1.getCreatedNs(), holder2.getCreatedNs());
+            // effective priority, then created time
+            int cmp = PriorityAging.compare(holder1.getPriority(), holder1.getCreatedNs(),
+                    holder2.getPriority(), holder2.getCreatedNs(), priorityAgingNs);
             if (cmp != 0) {
                 return cmp;
             }
@@ -40,16 +42,6 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
             return -compareLong(holder1.getInsertionOrder(), holder2.getInsertionOrder());
         }
 
-        private int compareInt(int i1, int i2) {
-            if (i1 > i2) {
-                return -1;
-            }
-            if (i2 > i1) {
-                return 1;
-            }
-            return 0;
-        }
-
         private int compareLong(long l1, long l2) {
             if (l1 > l2) {
                 return -1;
@@ -61,14 +53,17 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         }
     });
     private final Map<String, JobHolder> idCache = new HashMap<>();
+    // number of jobs with each tag so that tags that are not used are not looked for in jobs
+    private final Map<String, Integer> tagCounts = new HashMap<>();
 
     private final AtomicLong insertionOrderCounter = new AtomicLong(0);
     private final List<String> reusedList = new ArrayList<>();
     private final long sessionId;
+    private final long priorityAgingNs;
 
-    public SimpleInMemoryPriorityQueue(
-            @SuppressWarnings("UnusedParameters") Configuration configuration, long sessionId) {
+    public SimpleInMemoryPriorityQueue(Configuration configuration, long sessionId) {
         this.sessionId = sessionId;
+        this.priorityAgingNs = PriorityAging.getAgingNs(configuration);
     }
 
     @Override
@@ -78,8 +73,31 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         if (existing != null) {
             throw new IllegalArgumentException("cannot add a job with the same id twice");
         }
+        add(jobHolder);
+        return true;
+    }
+
+    private void add(JobHolder jobHolder) {
         idCache.put(jobHolder.getId(), jobHolder);
         jobs.add(jobHolder);
+        if (jobHolder.hasTags()) {
+            for (String tag : jobHolder.getTags()) {
+                Integer count = tagCounts.get(tag);
+                tagCounts.put(tag, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean insertAll(@NonNull Collection<JobHolder> jobHolders) {
+        for (JobHolder jobHolder : jobHolders) {
+            if (idCache.containsKey(jobHolder.getId())) {
+                throw new IllegalArgumentException("cannot add a job with the same id twice");
+            }
+        }
+        for (JobHolder jobHolder : jobHolders) {
+            insert(jobHolder);
+        }
         return true;
     }
 
@@ -92,8 +110,7 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         if (existing != null) {
             remove(existing);
         }
-        idCache.put(jobHolder.getId(), jobHolder);
-        jobs.add(jobHolder);
+        add(jobHolder);
         return true;
     }
 
@@ -105,8 +122,25 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
 
     @Override
     public void remove(@NonNull JobHolder jobHolder) {
-        idCache.remove(jobHolder.getId());
+        JobHolder existing = idCache.remove(jobHolder.getId());
         jobs.remove(jobHolder);
+        if (existing != null && existing.hasTags()) {
+            for (String tag : existing.getTags()) {
+                int count = tagCounts.get(tag);
+                if (count == 1) {
+                    tagCounts.remove(tag);
+                } else {
+                    tagCounts.put(tag, count - 1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(@NonNull Collection<JobHolder> jobHolders) {
+        for (JobHolder jobHolder : jobHolders) {
+            remove(jobHolder);
+        }
     }
 
     @Override
@@ -120,7 +154,9 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         reusedList.clear();
         for (JobHolder holder : jobs) {
             String groupId = holder.getGroupId();
-            if ((groupId == null || !reusedList.contains(groupId)) && matches(holder, constraint, false)) {
+            if ((groupId == null
+                    || Collections.frequency(reusedList, groupId) < constraint.getGroupSlots(groupId))
+                    && matches(holder, constraint, false)) {
                 count++;
                 if (groupId != null) {
                     reusedList.add(groupId);
@@ -133,15 +169,38 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
 
     @Override
     public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
+        final FairShare fairShare = constraint.getFairShare();
+        JobHolder best = null;
+        long bestPriority = 0;
+        long bestStart = 0;
         for (JobHolder holder : jobs) {
-            if (matches(holder, constraint, false)) {
-                remove(holder);
-                holder.setRunCount(holder.getRunCount() + 1);
-                holder.setRunningSessionId(sessionId);
-                return holder;
+            if (best != null && getEffectivePriority(holder, constraint) < bestPriority) {
+                break;
+            }
+            if (!matches(holder, constraint, false)) {
+                continue;
+            }
+            if (fairShare == null) {
+                best = holder;
+                break;
+            }
+            // pick the key with the smallest start time within the highest priority
+            long start = fairShare.getStartTime(holder.getFairnessKey());
+            if (best == null || start < bestStart) {
+                best = holder;
+                bestPriority = getEffectivePriority(holder, constraint);
+                bestStart = start;
+                if (start == fairShare.getVirtualTime()) {
+                    break;
+                }
             }
         }
-        return null;
+        if (best != null) {
+            remove(best);
+            best.setRunCount(best.getRunCount() + 1);
+            best.setRunningSessionId(sessionId);
+        }
+        return best;
     }
 
     @Override
@@ -173,6 +232,7 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
     public void clear() {
         jobs.clear();
         idCache.clear();
+        tagCounts.clear();
     }
 
     @Override
@@ -180,6 +240,22 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         return idCache.get(id);
     }
 
+    @Override
+    public boolean hasJobsWithTags(@NonNull TagConstraint tagConstraint, @NonNull String[] tags) {
+        return tags.length > 0 && tagConstraint.matches(tags, tagCounts.keySet());
+    }
+
+    @Override
+    public JobHolder findJobBySingleId(@NonNull String singleId) {
+        // running jobs are not in the queue
+        for (JobHolder holder : jobs) {
+            if (singleId.equals(holder.getSingleInstanceId())) {
+                return holder;
+            }
+        }
+        return null;
+    }
+
     @NonNull
     @Override
     public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
@@ -197,6 +273,22 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         remove(holder);
     }
 
+    @Override
+    public void onJobsCancelled(@NonNull Collection<JobHolder> holders) {
+        removeAll(holders);
+    }
+
+    @Override
+    public void onJobReturned(@NonNull JobHolder holder) {
+        // jobs are removed when they are fetched
+        insertOrReplace(holder);
+    }
+
+    private long getEffectivePriority(JobHolder holder, Constraint constraint) {
+        return PriorityAging.getEffectivePriority(holder.getPriority(), holder.getCreatedNs(),
+                priorityAgingNs, constraint.getNowInNs());
+    }
+
     private static boolean matches(JobHolder holder, Constraint constraint, boolean acceptAnyDeadline) {
         boolean hitDeadline = constraint.getNowInNs() >= holder.getDeadlineNs()
                 || (acceptAnyDeadline && holder.hasDeadline());
@@ -211,6 +303,9 @@ public class SimpleInMemoryPriorityQueue implements JobQueue {
         if (holder.getGroupId() != null && constraint.getExcludeGroups().contains(holder.getGroupId())) {
             return false;
         }
+        if (constraint.isExcludedByTags(holder.getTags())) {
+            return false;
+        }
         if (constraint.getExcludeJobIds().contains(holder.getId())) {
             return false;
         }
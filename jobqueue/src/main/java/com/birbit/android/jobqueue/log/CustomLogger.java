@@ -6,7 +6,8 @@ package com.birbit.android.jobqueue.log;
  */
 public interface CustomLogger {
     /**
-     * JobManager may call this before logging something that is (relatively) expensive to calculate
+     * Read once when the logger is set. If it returns false, {@link #d(String, Object...)} and
+     * {@link #v(String, Object...)} are not called.
      * @return True if debug logs are enabled
      */
     boolean isDebugEnabled();
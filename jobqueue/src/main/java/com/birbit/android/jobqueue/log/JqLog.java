@@ -4,9 +4,16 @@ import android.util.Log;
 
 /**
  * Wrapper around {@link CustomLogger}. by default, logs to nowhere
+ * <p>
+ * Debug and verbose logs are dropped before they reach the logger if
+ * {@link CustomLogger#isDebugEnabled()} is false. The overloads with one or two arguments do not
+ * create an argument array or box primitives in that case, so they are safe to call on hot paths.
+ * Calls with more arguments should be wrapped in an {@link #isDebugEnabled()} check.
  */
 public class JqLog {
     private static CustomLogger customLogger;
+    // cached so that disabled logs cost a field read, see setCustomLogger
+    private static boolean debugEnabled;
     static {
         clearLogger();
     }
@@ -40,16 +47,55 @@ public class JqLog {
         });
     }
 
+    /**
+     * Sets the logger. {@link CustomLogger#isDebugEnabled()} is read once here, set the logger
+     * again to change it.
+     *
+     * @param customLogger The logger that receives the logs
+     */
     public static void setCustomLogger(CustomLogger customLogger) {
         JqLog.customLogger = customLogger;
+        debugEnabled = customLogger.isDebugEnabled();
     }
 
     public static boolean isDebugEnabled() {
-        return customLogger.isDebugEnabled();
+        return debugEnabled;
+    }
+
+    public static void d(String text) {
+        if (debugEnabled) {
+            customLogger.d(text);
+        }
+    }
+
+    public static void d(String text, Object arg) {
+        if (debugEnabled) {
+            customLogger.d(text, arg);
+        }
+    }
+
+    public static void d(String text, long arg) {
+        if (debugEnabled) {
+            customLogger.d(text, arg);
+        }
+    }
+
+    public static void d(String text, Object arg1, Object arg2) {
+        if (debugEnabled) {
+            customLogger.d(text, arg1, arg2);
+        }
+    }
+
+    public static void d(String text, Object arg1, long arg2) {
+        if (debugEnabled) {
+            customLogger.d(text, arg1, arg2);
+        }
     }
 
     public static void d(String text, Object... args) {
-        customLogger.d(text, args);
+        if (debugEnabled) {
+            customLogger.d(text, args);
+        }
     }
 
     public static void e(Throwable t, String text, Object... args) {
@@ -60,8 +106,40 @@ public class JqLog {
         customLogger.e(text, args);
     }
 
+    public static void v(String text) {
+        if (debugEnabled) {
+            customLogger.v(text);
+        }
+    }
+
+    public static void v(String text, Object arg) {
+        if (debugEnabled) {
+            customLogger.v(text, arg);
+        }
+    }
+
+    public static void v(String text, long arg) {
+        if (debugEnabled) {
+            customLogger.v(text, arg);
+        }
+    }
+
+    public static void v(String text, Object arg1, Object arg2) {
+        if (debugEnabled) {
+            customLogger.v(text, arg1, arg2);
+        }
+    }
+
+    public static void v(String text, Object arg1, long arg2) {
+        if (debugEnabled) {
+            customLogger.v(text, arg1, arg2);
+        }
+    }
+
     public static void v(String text, Object... args) {
-        customLogger.v(text, args);
+        if (debugEnabled) {
+            customLogger.v(text, args);
+        }
     }
 
     public static class ErrorLogger implements CustomLogger {
@@ -2,8 +2,26 @@ package com.birbit.android.jobqueue.messaging;
 
 import com.birbit.android.jobqueue.log.JqLog;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps messages until their ready time.
+ * <p>
+ * Messages are kept in a 4-ary min heap ordered by ready time. Messages with the same ready time
+ * are flushed in the order they were added. Each message knows its position in the heap so that
+ * cancelled messages are removed without rebuilding the heap.
+ */
 class DelayedMessageBag {
-    Message queue = null;
+    private static final int ARITY = 4;
+    private static final int INITIAL_CAPACITY = 16;
+    private Message[] heap = new Message[INITIAL_CAPACITY];
+    // the order each message was added in, parallel to heap
+    private long[] addOrder = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private long addCounter = 0;
+    private final List<Message> removed = new ArrayList<>();
     final MessageFactory factory;
 
     DelayedMessageBag(MessageFactory factory) {
@@ -12,66 +30,116 @@ class DelayedMessageBag {
 
     Long flushReadyMessages(long now, MessageQueue addInto) {
         JqLog.d("flushing messages at time %s", now);
-        while (queue != null && queue.readyNs <= now) {
-            Message msg = queue;
-            queue = msg.next;
-            msg.next = null;
+        while (size > 0 && heap[0].readyNs <= now) {
+            Message msg = heap[0];
+            removeAt(0);
             addInto.post(msg);
         }
-        if (queue != null) {
-            JqLog.d("returning next ready at %d ns", (queue.readyNs - now));
-            return queue.readyNs;
+        if (size > 0) {
+            JqLog.d("returning next ready at %d ns", (heap[0].readyNs - now));
+            return heap[0].readyNs;
         }
         return null;
     }
+
     void add(Message message, long readyNs) {
         JqLog.d("add delayed message %s at time %s", message, readyNs);
         message.readyNs = readyNs;
-        if (queue == null) {
-            queue = message;
-            return;
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            addOrder = Arrays.copyOf(addOrder, size * 2);
         }
-        Message prev = null;
-        Message curr = queue;
-        while (curr != null && curr.readyNs <= readyNs) {
-            prev = curr;
-            curr = curr.next;
+        set(size, message, addCounter++);
+        siftUp(size++);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            Message message = heap[i];
+            heap[i] = null;
+            factory.release(message);
         }
-        if (prev == null) {
-            message.next = queue;
-            queue = message;
+        size = 0;
+    }
+
+    public void removeMessages(MessagePredicate predicate) {
+        for (int i = 0; i < size; i++) {
+            if (predicate.onMessage(heap[i])) {
+                removed.add(heap[i]);
+            }
+        }
+        for (int i = 0; i < removed.size(); i++) {
+            Message message = removed.get(i);
+            removeAt(message.delayedIndex);
+            factory.release(message);
+        }
+        removed.clear();
+    }
+
+    private void removeAt(int index) {
+        heap[index].delayedIndex = -1;
+        size--;
+        if (index != size) {
+            set(index, heap[size], addOrder[size]);
+            heap[size] = null;
+            siftDown(index);
+            siftUp(index);
         } else {
-            prev.next = message;
-            message.next = curr;
+            heap[size] = null;
         }
     }
 
-    public void clear() {
-        while (queue != null) {
-            Message curr = queue;
-            queue = curr.next;
-            factory.release(curr);
+    private void set(int index, Message message, long order) {
+        heap[index] = message;
+        addOrder[index] = order;
+        message.delayedIndex = index;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / ARITY;
+            if (!isBefore(index, parent)) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
         }
-        queue = null;
     }
 
-    public void removeMessages(MessagePredicate predicate) {
-        Message prev = null;
-        Message curr = queue;
-        while (curr != null) {
-            final boolean remove = predicate.onMessage(curr);
-            final Message next = curr.next;
-            if (remove) {
-                if (prev == null) {
-                    queue = curr.next;
-                } else {
-                    prev.next = curr.next;
+    private void siftDown(int index) {
+        while (true) {
+            int first = index * ARITY + 1;
+            if (first >= size) {
+                return;
+            }
+            int min = first;
+            int last = Math.min(first + ARITY, size);
+            for (int child = first + 1; child < last; child++) {
+                if (isBefore(child, min)) {
+                    min = child;
                 }
-                factory.release(curr);
-            } else {
-                prev = curr;
             }
-            curr = next;
+            if (!isBefore(min, index)) {
+                return;
+            }
+            swap(index, min);
+            index = min;
+        }
+    }
+
+    private boolean isBefore(int i, int j) {
+        long readyI = heap[i].readyNs;
+        long readyJ = heap[j].readyNs;
+        if (readyI != readyJ) {
+            return readyI < readyJ;
         }
+        return addOrder[i] < addOrder[j];
+    }
+
+    private void swap(int i, int j) {
+        Message message = heap[i];
+        long order = addOrder[i];
+        set(i, heap[j], addOrder[j]);
+        set(j, message, order);
     }
 }
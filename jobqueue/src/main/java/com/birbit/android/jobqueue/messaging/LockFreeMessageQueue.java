@@ -0,0 +1,232 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link MessageQueue} that keeps the same ordering as {@link PriorityMessageQueue} without
+ * making the posting threads take a lock.
+ * <p>
+ * Each {@link Type} priority has its own lock-free multi-producer / single-consumer queue and
+ * delayed messages are handed to the consumer through another one. Posting a message never
+ * blocks; the consumer is woken up with {@link LockSupport#unpark(Thread)} only if it is idle.
+ * <p>
+ * When the consumer is waiting for a delayed message, it waits via the {@link Timer} so that the
+ * Timer remains the only source of time.
+ * <p>
+ * {@link #cancelMessages(MessagePredicate)} and {@link #clear()} must be called either from the
+ * consumer thread or while there is no consumer.
+ */
+public class LockFreeMessageQueue implements MessageQueue {
+    private static final String LOG_TAG = "lock_free_mq";
+    private static final int STATE_RUNNING = 0;
+    private static final int STATE_PARKED = 1;
+    private static final int STATE_WAITING_ON_TIMER = 2;
+    private final Object LOCK = new Object();
+    private final MpscMessageQueue[] queues;
+    // messages moved out of the lock-free queues so that they can be removed
+    private final UnsafeMessageQueue[] drained;
+    private final MpscMessageQueue delayedQueue = new MpscMessageQueue();
+    private final DelayedMessageBag delayedBag;
+    private final Timer timer;
+    private final MessageFactory factory;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Thread consumerThread;
+    private volatile int consumerState = STATE_RUNNING;
+
+    public LockFreeMessageQueue(Timer timer, MessageFactory factory) {
+        this.timer = timer;
+        this.factory = factory;
+        delayedBag = new DelayedMessageBag(factory);
+        queues = new MpscMessageQueue[Type.MAX_PRIORITY + 1];
+        drained = new UnsafeMessageQueue[Type.MAX_PRIORITY + 1];
+        for (int i = 0; i <= Type.MAX_PRIORITY; i++) {
+            queues[i] = new MpscMessageQueue();
+        }
+    }
+
+    @Override
+    public void consume(MessageQueueConsumer consumer) {
+        if (running.getAndSet(true)) {
+            throw new IllegalStateException("only 1 consumer per MQ");
+        }
+        consumerThread = Thread.currentThread();
+        while (running.get()) {
+            Message message = next(consumer);
+            if (message != null) {
+                JqLog.d("[%s] consuming message of type %s", LOG_TAG, message.type);
+                consumer.handleMessage(message);
+                factory.release(message);
+            }
+        }
+    }
+
+    Message next(MessageQueueConsumer consumer) {
+        boolean calledOnIdle = false;
+        while (running.get()) {
+            final long now = timer.nanoTime();
+            drainDelayedQueue();
+            final Long nextDelayedReadyAt = delayedBag.flushReadyMessages(now, this);
+            Message message = poll();
+            if (message != null) {
+                return message;
+            }
+            if (!calledOnIdle) {
+                consumer.onIdle();
+                calledOnIdle = true;
+                continue; // callback may add new messages
+            }
+            if (nextDelayedReadyAt != null && nextDelayedReadyAt <= timer.nanoTime()) {
+                continue;
+            }
+            if (nextDelayedReadyAt == null) {
+                park();
+            } else {
+                waitOnTimer(nextDelayedReadyAt);
+            }
+        }
+        return null;
+    }
+
+    private Message poll() {
+        for (int i = Type.MAX_PRIORITY; i >= 0; i--) {
+            UnsafeMessageQueue mq = drained[i];
+            Message message = mq == null ? null : mq.next();
+            if (message == null) {
+                message = queues[i].poll();
+            }
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasMessages() {
+        if (!delayedQueue.isEmpty()) {
+            return true;
+        }
+        for (MpscMessageQueue queue : queues) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void park() {
+        consumerState = STATE_PARKED;
+        // check again after publishing the state, posts that missed it are visible now
+        if (running.get() && !hasMessages()) {
+            JqLog.d("[%s] will park until a message is posted", LOG_TAG);
+            LockSupport.park(this);
+        }
+        consumerState = STATE_RUNNING;
+    }
+
+    private void waitOnTimer(long untilNs) {
+        synchronized (LOCK) {
+            consumerState = STATE_WAITING_ON_TIMER;
+            try {
+                if (running.get() && !hasMessages()) {
+                    JqLog.d("[%s] will wait on the lock until %d", LOG_TAG, untilNs);
+                    timer.waitOnObjectUntilNs(LOCK, untilNs);
+                }
+            } catch (InterruptedException ignored) {
+            } finally {
+                consumerState = STATE_RUNNING;
+            }
+        }
+    }
+
+    private void wakeUpConsumer() {
+        switch (consumerState) {
+            case STATE_PARKED:
+                Thread thread = consumerThread;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+                break;
+            case STATE_WAITING_ON_TIMER:
+                synchronized (LOCK) {
+                    timer.notifyObject(LOCK);
+                }
+                break;
+        }
+    }
+
+    private void drainDelayedQueue() {
+        Message message;
+        while ((message = delayedQueue.poll()) != null) {
+            delayedBag.add(message, message.readyNs);
+        }
+    }
+
+    private void drainQueues() {
+        drainDelayedQueue();
+        for (int i = 0; i <= Type.MAX_PRIORITY; i++) {
+            Message message = queues[i].poll();
+            if (message == null) {
+                continue;
+            }
+            if (drained[i] == null) {
+                drained[i] = new UnsafeMessageQueue(factory, "drained_" + i);
+            }
+            while (message != null) {
+                message.next = null;
+                drained[i].post(message);
+                message = queues[i].poll();
+            }
+        }
+    }
+
+    @Override
+    public void post(Message message) {
+        queues[message.type.priority].offer(message);
+        wakeUpConsumer();
+    }
+
+    @Override
+    public void postAt(Message message, long readyNs) {
+        message.readyNs = readyNs;
+        delayedQueue.offer(message);
+        wakeUpConsumer();
+    }
+
+    @Override
+    public void cancelMessages(MessagePredicate predicate) {
+        drainQueues();
+        for (UnsafeMessageQueue mq : drained) {
+            if (mq != null) {
+                mq.removeMessages(predicate);
+            }
+        }
+        delayedBag.removeMessages(predicate);
+    }
+
+    @Override
+    public void stop() {
+        running.set(false);
+        Thread thread = consumerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        synchronized (LOCK) {
+            timer.notifyObject(LOCK);
+        }
+    }
+
+    @Override
+    public void clear() {
+        drainQueues();
+        for (UnsafeMessageQueue mq : drained) {
+            if (mq != null) {
+                mq.clear();
+            }
+        }
+        delayedBag.clear();
+    }
+}
@@ -4,6 +4,8 @@ abstract public class Message {
     public final Type type;
     // used by the pool
     Message next;
+    // position in DelayedMessageBag's heap
+    int delayedIndex = -1;
     public long readyNs = Long.MIN_VALUE;
 
     protected Message(Type type) {
@@ -14,6 +16,7 @@ abstract public class Message {
 
     final void recycle() {
         next = null;
+        delayedIndex = -1;
         readyNs = Long.MIN_VALUE;
         onRecycled();
     }
@@ -0,0 +1,55 @@
+package com.birbit.android.jobqueue.messaging;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free, multi-producer / single-consumer queue of messages.
+ * <p>
+ * {@link #offer(Message)} can be called from any thread. {@link #poll()} and {@link #isEmpty()}
+ * must only be called by the consumer thread.
+ */
+class MpscMessageQueue {
+    // producers swap the tail then link the previous tail to the new node. The consumer owns the
+    // head, which is always a node whose message was already taken.
+    private final AtomicReference<Node> tail;
+    private Node head;
+
+    MpscMessageQueue() {
+        head = new Node(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    void offer(Message message) {
+        Node node = new Node(message);
+        Node prev = tail.getAndSet(node);
+        prev.next = node;
+    }
+
+    Message poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        Message message = next.message;
+        next.message = null;
+        head = next;
+        return message;
+    }
+
+    /**
+     * @return True if no message was offered since the last poll. A message whose producer did
+     * not finish {@link #offer(Message)} yet counts as a message.
+     */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    private static class Node {
+        Message message;
+        volatile Node next;
+
+        Node(Message message) {
+            this.message = message;
+        }
+    }
+}
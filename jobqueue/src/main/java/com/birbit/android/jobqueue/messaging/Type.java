@@ -1,6 +1,7 @@
 package com.birbit.android.jobqueue.messaging;
 
 import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.AddJobsMessage;
 import com.birbit.android.jobqueue.messaging.message.CallbackMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelMessage;
 import com.birbit.android.jobqueue.messaging.message.CancelResultMessage;
@@ -26,6 +27,7 @@ public enum Type {
     PUBLIC_QUERY(PublicQueryMessage.class, 0),
     JOB_CONSUMER_IDLE(JobConsumerIdleMessage.class, 0), // MUST ARRIVE AFTER JOB RESULT
     ADD_JOB(AddJobMessage.class, 1),
+    ADD_JOBS(AddJobsMessage.class, 1),
     CANCEL(CancelMessage.class, 1),
     CONSTRAINT_CHANGE(ConstraintChangeMessage.class, 2),
     RUN_JOB_RESULT(RunJobResultMessage.class, 3),
@@ -7,6 +7,7 @@ public class CommandMessage extends Message {
     public static final int QUIT = 1;
     public static final int POKE = 2; // simple message to wake it up
     public static final int RUNNABLE = 3; // only used in tests
+    public static final int WRITES_COMMITTED = 4; // persistent queue committed in the background
     private int what;
 
     private Runnable runnable;
@@ -49,6 +49,12 @@ public class NetworkUtilImpl implements NetworkUtil, NetworkEventProvider {
             public void onAvailable(Network network) {
                 dispatchNetworkChange(context);
             }
+
+            @Override
+            public void onLost(Network network) {
+                // JobManager keeps the last status until a change is reported
+                dispatchNetworkChange(context);
+            }
         });
     }
 
@@ -0,0 +1,183 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.GroupCommitJobQueue;
+import com.birbit.android.jobqueue.config.Durability;
+import com.birbit.android.jobqueue.log.JqLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the database writes of a {@link SqliteJobQueue} in {@link Durability#WRITE_BEHIND} mode on
+ * a background thread.
+ * <p>
+ * Writes that are queued while the writer is busy are committed together in a single transaction,
+ * up to a maximum number of writes. Each write has its own savepoint so a write that fails is
+ * rolled back without affecting the rest of the transaction. The thread stops when there is nothing
+ * to write for a while.
+ */
+class BackgroundWriter {
+    private static final long KEEP_ALIVE_SECONDS = 10;
+    private static final String WRITE_SAVEPOINT = "background_write";
+
+    /**
+     * A database write. {@link #write()} is called on the writer thread in a transaction and
+     * {@link #onCommitted()} after the transaction is committed. If the write throws or the
+     * transaction cannot be committed, {@link #onFailed()} is called instead.
+     */
+    abstract static class Write {
+        abstract void write();
+
+        void onCommitted() {
+        }
+
+        void onFailed() {
+        }
+    }
+
+    private final SQLiteDatabase db;
+    private final int maxWritesPerTransaction;
+    private final ThreadPoolExecutor executor;
+    private final ArrayDeque<Write> queue = new ArrayDeque<>();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    // guarded by queue
+    private long queuedCount = 0;
+    private long committedCount = 0;
+    private boolean draining = false;
+    @Nullable
+    private volatile GroupCommitJobQueue.CommitListener commitListener;
+
+    BackgroundWriter(SQLiteDatabase db, final String name, int maxWritesPerTransaction) {
+        this.db = db;
+        this.maxWritesPerTransaction = maxWritesPerTransaction;
+        executor = new ThreadPoolExecutor(0, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "jq-writer-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    void setCommitListener(@Nullable GroupCommitJobQueue.CommitListener commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    void enqueue(Write write) {
+        synchronized (queue) {
+            queue.add(write);
+            queuedCount++;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        executor.execute(drain);
+    }
+
+    /**
+     * @return True if there are writes that are not committed yet
+     */
+    boolean hasPendingWrites() {
+        synchronized (queue) {
+            return committedCount < queuedCount;
+        }
+    }
+
+    /**
+     * Blocks until all writes that are queued so far are committed.
+     */
+    void flush() {
+        boolean interrupted = false;
+        synchronized (queue) {
+            final long target = queuedCount;
+            while (committedCount < target) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            synchronized (queue) {
+                while (batch.size() < maxWritesPerTransaction && !queue.isEmpty()) {
+                    batch.add(queue.poll());
+                }
+                if (batch.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+            }
+            commit(batch);
+            synchronized (queue) {
+                committedCount += batch.size();
+                queue.notifyAll();
+            }
+            batch.clear();
+            GroupCommitJobQueue.CommitListener listener = commitListener;
+            if (listener != null) {
+                listener.onCommitted();
+            }
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        JqLog.d("committing %d writes in the background", batch.size());
+        final boolean[] failed = new boolean[batch.size()];
+        boolean committed = false;
+        try {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    db.execSQL("SAVEPOINT " + WRITE_SAVEPOINT);
+                    try {
+                        batch.get(i).write();
+                    } catch (Throwable t) {
+                        JqLog.e(t, "error while writing to the job database");
+                        // a leading ';' keeps SQLiteDatabase from ending the transaction
+                        db.execSQL(";ROLLBACK TO " + WRITE_SAVEPOINT);
+                        failed[i] = true;
+                    }
+                    db.execSQL("RELEASE " + WRITE_SAVEPOINT);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            committed = true;
+        } catch (Throwable t) {
+            JqLog.e(t, "cannot commit %d writes to the job database", batch.size());
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (committed && !failed[i]) {
+                batch.get(i).onCommitted();
+            } else {
+                batch.get(i).onFailed();
+            }
+        }
+    }
+}
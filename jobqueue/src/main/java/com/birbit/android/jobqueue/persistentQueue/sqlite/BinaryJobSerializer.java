@@ -0,0 +1,146 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import androidx.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SqliteJobQueue.JobSerializer} that writes jobs in a compact binary format.
+ * <p>
+ * Jobs opt in by implementing {@link BinaryJob} and being registered with a class id and a
+ * {@link Creator} via {@link #register(int, Class, Creator)}. Only the class id and the fields the
+ * job writes are saved, no class names or reflection is involved.
+ * <p>
+ * Jobs that are not registered are written with Java serialization, same as
+ * {@link SqliteJobQueue.JavaSerializer}. Data written by {@code JavaSerializer} can also be read
+ * back so you can switch to this serializer without losing existing jobs.
+ * <p>
+ * Class ids are persisted with the jobs; once a job class is registered with an id, you should
+ * never re-use that id for a different class.
+ */
+public class BinaryJobSerializer implements SqliteJobQueue.JobSerializer {
+    /**
+     * Marks the data as written by this serializer. Java serialization streams always start with
+     * 0xACED so they never conflict with this value.
+     */
+    private static final int BINARY_FORMAT = 1;
+    private static final int MAX_CLASS_ID = 0xFFFF;
+    private final Map<Class<? extends Job>, Integer> classIds = new HashMap<>();
+    private final Map<Integer, Creator<? extends Job>> creators = new HashMap<>();
+    private final SqliteJobQueue.JobSerializer fallback;
+
+    public BinaryJobSerializer() {
+        this(new SqliteJobQueue.JavaSerializer());
+    }
+
+    /**
+     * Creates a BinaryJobSerializer that uses the given serializer for jobs which are not
+     * registered.
+     *
+     * @param fallback The serializer for jobs that are not registered. It must not produce data
+     *                 that starts with a byte of value 1.
+     */
+    public BinaryJobSerializer(@NonNull SqliteJobQueue.JobSerializer fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * Registers a job class to be written in the binary format.
+     *
+     * @param classId The id that is written instead of the class name. Must be between 0 and
+     *                65535 and must never be re-used for a different class.
+     * @param klass The job class
+     * @param creator The creator that will re-create the job from the data written by
+     *                {@link BinaryJob#writeTo(DataOutput)}
+     * @param <T> The type of the job
+     *
+     * @return This BinaryJobSerializer for easy chaining
+     */
+    @NonNull
+    public <T extends Job & BinaryJob> BinaryJobSerializer register(int classId,
+            @NonNull Class<T> klass, @NonNull Creator<T> creator) {
+        if (classId < 0 || classId > MAX_CLASS_ID) {
+            throw new IllegalArgumentException("class id must be between 0 and " + MAX_CLASS_ID);
+        }
+        if (creators.containsKey(classId)) {
+            throw new IllegalArgumentException("class id " + classId + " is already registered");
+        }
+        if (classIds.containsKey(klass)) {
+            throw new IllegalArgumentException(klass + " is already registered");
+        }
+        classIds.put(klass, classId);
+        creators.put(classId, creator);
+        return this;
+    }
+
+    @Override
+    public byte[] serialize(Object object) throws IOException {
+        if (object == null) {
+            return null;
+        }
+        Integer classId = classIds.get(object.getClass());
+        if (classId == null) {
+            return fallback.serialize(object);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(BINARY_FORMAT);
+        out.writeShort(classId);
+        ((BinaryJob) object).writeTo(out);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Job> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != BINARY_FORMAT) {
+            return fallback.deserialize(bytes);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        //noinspection ResultOfMethodCallIgnored
+        in.readByte();
+        int classId = in.readUnsignedShort();
+        Creator<? extends Job> creator = creators.get(classId);
+        if (creator == null) {
+            throw new ClassNotFoundException("no job class is registered for class id "
+                    + classId);
+        }
+        //noinspection unchecked
+        return (T) creator.createFromInput(in);
+    }
+
+    /**
+     * Interface for jobs that can be written by {@link BinaryJobSerializer}.
+     * <p>
+     * Only the fields of your job should be written. Values that are set via {@link
+     * com.birbit.android.jobqueue.Params} (priority, group, tags etc) are kept by the
+     * {@link SqliteJobQueue} and are put back into the job after it is created.
+     */
+    public interface BinaryJob {
+        void writeTo(@NonNull DataOutput out) throws IOException;
+    }
+
+    /**
+     * Re-creates a job from the data written by its {@link BinaryJob#writeTo(DataOutput)} method.
+     *
+     * @param <T> The type of the job
+     */
+    public interface Creator<T extends Job> {
+        @NonNull
+        T createFromInput(@NonNull DataInput in) throws IOException;
+    }
+}
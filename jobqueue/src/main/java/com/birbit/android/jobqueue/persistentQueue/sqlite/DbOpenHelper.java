@@ -4,13 +4,17 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.config.Durability;
+
 /**
  * Helper class for {@link SqliteJobQueue} to handle database connection
  */
 public class DbOpenHelper extends SQLiteOpenHelper {
-    private static final int DB_VERSION = 12;
+    private static final int DB_VERSION = 16;
     /*package*/ static final String JOB_HOLDER_TABLE_NAME = "job_holder";
     /*package*/ static final String JOB_TAGS_TABLE_NAME = "job_holder_tags";
+    /*package*/ static final String JOB_BLOBS_TABLE_NAME = "job_holder_blobs";
     /*package*/ static final SqlHelper.Property INSERTION_ORDER_COLUMN = new SqlHelper.Property("insertionOrder", "integer", 0);
     /*package*/ static final SqlHelper.Property ID_COLUMN = new SqlHelper.Property("_id", "text", 1, null, true);
     /*package*/ static final SqlHelper.Property PRIORITY_COLUMN = new SqlHelper.Property("priority", "integer", 2);
@@ -23,20 +27,48 @@ public class DbOpenHelper extends SQLiteOpenHelper {
     /*package*/ static final SqlHelper.Property DEADLINE_COLUMN = new SqlHelper.Property("deadline", "integer", 9);
     /*package*/ static final SqlHelper.Property CANCEL_ON_DEADLINE_COLUMN = new SqlHelper.Property("cancel_on_deadline", "integer", 10);
     /*package*/ static final SqlHelper.Property CANCELLED_COLUMN = new SqlHelper.Property("cancelled", "integer", 11);
+    /*package*/ static final SqlHelper.Property SINGLE_ID_COLUMN = new SqlHelper.Property("single_id", "text", 12);
+    /*package*/ static final SqlHelper.Property FAIRNESS_KEY_COLUMN = new SqlHelper.Property("fairness_key", "text", 13);
 
     /*package*/ static final SqlHelper.Property TAGS_ID_COLUMN = new SqlHelper.Property("_id", "integer", 0);
     /*package*/ static final SqlHelper.Property TAGS_JOB_ID_COLUMN = new SqlHelper.Property("job_id", "text", 1, new SqlHelper.ForeignKey(JOB_HOLDER_TABLE_NAME, ID_COLUMN.columnName));
     /*package*/ static final SqlHelper.Property TAGS_NAME_COLUMN = new SqlHelper.Property("tag_name", "text", 2);
 
+    /*package*/ static final SqlHelper.Property BLOBS_JOB_ID_COLUMN = new SqlHelper.Property("_id", "text", 0);
+    /*package*/ static final SqlHelper.Property BLOBS_DATA_COLUMN = new SqlHelper.Property("data", "blob", 1);
+
 
 
-    /*package*/ static final int COLUMN_COUNT = 12;
+    /*package*/ static final int COLUMN_COUNT = 14;
     /*package*/ static final int TAGS_COLUMN_COUNT = 3;
 
     static final String TAG_INDEX_NAME = "TAG_NAME_INDEX";
+    static final String TAG_JOB_ID_INDEX_NAME = "TAG_JOB_ID_INDEX";
+    static final String SINGLE_ID_INDEX_NAME = "SINGLE_ID_INDEX";
+
+    private final Durability durability;
 
     public DbOpenHelper(Context context, String name) {
+        this(context, name, Durability.STRICT);
+    }
+
+    public DbOpenHelper(Context context, String name, Durability durability) {
         super(context, name, null, DB_VERSION);
+        this.durability = durability;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (durability == Durability.RELAXED) {
+            // commits only sync the WAL file at checkpoints. in memory databases cannot use WAL
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA synchronous=NORMAL");
+        } else if (durability == Durability.WRITE_BEHIND) {
+            // reads of job data do not wait for the commits of the background writer
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA synchronous=FULL");
+        }
     }
 
     @Override
@@ -53,7 +85,9 @@ public class DbOpenHelper extends SQLiteOpenHelper {
                 REQUIRED_NETWORK_TYPE_COLUMN,
                 DEADLINE_COLUMN,
                 CANCEL_ON_DEADLINE_COLUMN,
-                CANCELLED_COLUMN
+                CANCELLED_COLUMN,
+                SINGLE_ID_COLUMN,
+                FAIRNESS_KEY_COLUMN
         );
         sqLiteDatabase.execSQL(createQuery);
         String createTagsQuery = SqlHelper.create(JOB_TAGS_TABLE_NAME,
@@ -64,16 +98,54 @@ public class DbOpenHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + TAG_INDEX_NAME + " ON "
                 + JOB_TAGS_TABLE_NAME + "(" + DbOpenHelper.TAGS_NAME_COLUMN.columnName + ")");
+        createTagJobIdIndex(sqLiteDatabase);
+        createSingleIdIndex(sqLiteDatabase);
+        createBlobsTable(sqLiteDatabase);
+    }
+
+    /**
+     * Tags are deleted by job id each time a job is removed. Without this index, each delete
+     * scans the whole tags table.
+     */
+    private void createTagJobIdIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + TAG_JOB_ID_INDEX_NAME + " ON "
+                + JOB_TAGS_TABLE_NAME + "(" + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + ")");
+    }
+
+    private void createSingleIdIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + SINGLE_ID_INDEX_NAME + " ON "
+                + JOB_HOLDER_TABLE_NAME + "(" + SINGLE_ID_COLUMN.columnName + ")");
+    }
+
+    private void createBlobsTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(SqlHelper.create(JOB_BLOBS_TABLE_NAME,
+                BLOBS_JOB_ID_COLUMN,
+                BLOBS_DATA_COLUMN));
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        if (oldVersion == 11) {
-            addCancelColumn(sqLiteDatabase);
+        if (oldVersion >= 11 && oldVersion <= 15) {
+            if (oldVersion == 11) {
+                addCancelColumn(sqLiteDatabase);
+            }
+            if (oldVersion <= 12) {
+                createBlobsTable(sqLiteDatabase);
+            }
+            if (oldVersion <= 13) {
+                createTagJobIdIndex(sqLiteDatabase);
+            }
+            if (oldVersion <= 14) {
+                addSingleIdColumn(sqLiteDatabase);
+            }
+            addFairnessKeyColumn(sqLiteDatabase);
         } else {
             sqLiteDatabase.execSQL(SqlHelper.drop(JOB_HOLDER_TABLE_NAME));
             sqLiteDatabase.execSQL(SqlHelper.drop(JOB_TAGS_TABLE_NAME));
+            sqLiteDatabase.execSQL(SqlHelper.drop(JOB_BLOBS_TABLE_NAME));
             sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + TAG_INDEX_NAME);
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + TAG_JOB_ID_INDEX_NAME);
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + SINGLE_ID_INDEX_NAME);
             onCreate(sqLiteDatabase);
         }
     }
@@ -84,6 +156,33 @@ public class DbOpenHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(query);
     }
 
+    /**
+     * Adds the single id column and fills it from the single id tags of existing jobs. The tags
+     * are kept since jobs can still be cancelled by them.
+     */
+    private void addSingleIdColumn(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + JOB_HOLDER_TABLE_NAME + " ADD COLUMN "
+                + SINGLE_ID_COLUMN.columnName + " " + SINGLE_ID_COLUMN.type);
+        sqLiteDatabase.execSQL("UPDATE " + JOB_HOLDER_TABLE_NAME + " SET "
+                + SINGLE_ID_COLUMN.columnName + " = (SELECT " + TAGS_NAME_COLUMN.columnName
+                + " FROM " + JOB_TAGS_TABLE_NAME + " WHERE "
+                + TAGS_JOB_ID_COLUMN.columnName + " = " + JOB_HOLDER_TABLE_NAME + "."
+                + ID_COLUMN.columnName + " AND substr(" + TAGS_NAME_COLUMN.columnName + ", 1, "
+                + Job.SINGLE_ID_TAG_PREFIX.length() + ") = ? LIMIT 1)",
+                new Object[]{Job.SINGLE_ID_TAG_PREFIX});
+        createSingleIdIndex(sqLiteDatabase);
+    }
+
+    /**
+     * Adds the fairness key column. Jobs that are already queued are charged to their group id.
+     */
+    private void addFairnessKeyColumn(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + JOB_HOLDER_TABLE_NAME + " ADD COLUMN "
+                + FAIRNESS_KEY_COLUMN.columnName + " " + FAIRNESS_KEY_COLUMN.type);
+        sqLiteDatabase.execSQL("UPDATE " + JOB_HOLDER_TABLE_NAME + " SET "
+                + FAIRNESS_KEY_COLUMN.columnName + " = " + GROUP_ID_COLUMN.columnName);
+    }
+
     @Override
     public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
         onUpgrade(sqLiteDatabase, oldVersion, newVersion);
@@ -0,0 +1,125 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps serialized jobs in a table next to the job table so that a job and its data are written in
+ * the same transaction, without any file operations.
+ * This class is NOT thread safe and re-uses statements.
+ */
+class DbStorage implements JobStorage {
+    private final SQLiteDatabase db;
+    private final SqlHelper sqlHelper;
+    final String loadQuery;
+    final String deleteQuery;
+    // query for a full batch of loadAll, smaller batches create their own
+    private final String loadBatchQuery;
+    private SQLiteStatement saveStatement;
+    private SQLiteStatement deleteStatement;
+
+    DbStorage(SqlHelper sqlHelper) {
+        this.sqlHelper = sqlHelper;
+        this.db = sqlHelper.db;
+        loadQuery = "SELECT " + DbOpenHelper.BLOBS_DATA_COLUMN.columnName + " FROM "
+                + DbOpenHelper.JOB_BLOBS_TABLE_NAME + " WHERE "
+                + DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnName + " = ?";
+        loadBatchQuery = createLoadBatchQuery(SqlHelper.MAX_IDS_PER_STATEMENT);
+        deleteQuery = "DELETE FROM " + DbOpenHelper.JOB_BLOBS_TABLE_NAME + " WHERE "
+                + DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnName + " = ?";
+    }
+
+    @Override
+    public void save(String id, byte[] data) {
+        if (saveStatement == null) {
+            saveStatement = db.compileStatement("INSERT OR REPLACE INTO "
+                    + DbOpenHelper.JOB_BLOBS_TABLE_NAME + " VALUES (?,?)");
+        }
+        saveStatement.clearBindings();
+        saveStatement.bindString(DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnIndex + 1, id);
+        saveStatement.bindBlob(DbOpenHelper.BLOBS_DATA_COLUMN.columnIndex + 1, data);
+        saveStatement.execute();
+    }
+
+    @Nullable
+    @Override
+    public byte[] load(String id) {
+        Cursor cursor = db.rawQuery(loadQuery, new String[]{id});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return cursor.getBlob(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void loadAll(Collection<String> ids, Map<String, byte[]> into) {
+        Iterator<String> iterator = ids.iterator();
+        int remaining = ids.size();
+        while (remaining > 0) {
+            int batchSize = Math.min(remaining, SqlHelper.MAX_IDS_PER_STATEMENT);
+            String[] args = new String[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                args[i] = iterator.next();
+            }
+            remaining -= batchSize;
+            String query = batchSize == SqlHelper.MAX_IDS_PER_STATEMENT ? loadBatchQuery
+                    : createLoadBatchQuery(batchSize);
+            Cursor cursor = db.rawQuery(query, args);
+            try {
+                while (cursor.moveToNext()) {
+                    into.put(cursor.getString(0), cursor.getBlob(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    static String createLoadBatchQuery(int count) {
+        return SqlHelper.createInQuery("SELECT " + DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnName
+                + ", " + DbOpenHelper.BLOBS_DATA_COLUMN.columnName + " FROM "
+                + DbOpenHelper.JOB_BLOBS_TABLE_NAME + " WHERE "
+                + DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnName + " IN (", count);
+    }
+
+    @Override
+    public void delete(String id) {
+        if (deleteStatement == null) {
+            deleteStatement = db.compileStatement(deleteQuery);
+        }
+        deleteStatement.clearBindings();
+        deleteStatement.bindString(1, id);
+        deleteStatement.execute();
+    }
+
+    @Override
+    public void deleteAll(List<String> ids) {
+        sqlHelper.executeForIds(sqlHelper.DELETE_ALL_BLOBS_QUERY_PREFIX, ids);
+    }
+
+    @Override
+    public void truncateExcept(Set<String> ids) {
+        // ids are always the ids in the job table so there is no need to bind them
+        db.execSQL("DELETE FROM " + DbOpenHelper.JOB_BLOBS_TABLE_NAME + " WHERE "
+                + DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnName + " NOT IN (SELECT "
+                + DbOpenHelper.ID_COLUMN.columnName + " FROM "
+                + DbOpenHelper.JOB_HOLDER_TABLE_NAME + ")");
+    }
+
+    @Override
+    public boolean isInDatabase() {
+        return true;
+    }
+}
@@ -9,6 +9,12 @@ import com.birbit.android.jobqueue.log.JqLog;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import okio.BufferedSink;
@@ -17,19 +23,53 @@ import okio.Okio;
 
 /**
  * Provides a toFile based storage to keep jobs.
- * This class is NOT thread safe and re-uses Buffers
+ * This class is NOT thread safe and re-uses Buffers, except for {@link #truncateExcept(Set)} which
+ * may run on another thread while jobs are saved.
+ * <p>
+ * All storages with the same id share a folder, and a truncate running in the background may
+ * outlive the storage that started it. The jobs saved while a truncate runs are therefore tracked
+ * per folder rather than per storage.
  */
-class FileStorage {
+class FileStorage implements JobStorage {
     private static final String EXT = ".jobs";
+    // guarded by itself
+    private static final Map<String, TruncateState> TRUNCATE_STATES = new HashMap<>();
     private final File folder;
+    // shared with the other storages of the same folder, guarded by itself
+    private final TruncateState truncateState;
     FileStorage(Context appContext, String id) {
-        this.folder = new File(appContext.getDir("com_birbit_jobqueue_jobs", Context.MODE_PRIVATE),
-                "files_" + id);
+        this.folder = folderFor(appContext, id);
         //noinspection ResultOfMethodCallIgnored
         this.folder.mkdirs();
+        this.truncateState = truncateStateFor(folder);
+    }
+
+    private static TruncateState truncateStateFor(File folder) {
+        final String path = folder.getAbsolutePath();
+        synchronized (TRUNCATE_STATES) {
+            TruncateState state = TRUNCATE_STATES.get(path);
+            if (state == null) {
+                state = new TruncateState();
+                TRUNCATE_STATES.put(path, state);
+            }
+            return state;
+        }
     }
 
-    void delete(String id) {
+    private static File folderFor(Context appContext, String id) {
+        return new File(appContext.getDir("com_birbit_jobqueue_jobs", Context.MODE_PRIVATE),
+                "files_" + id);
+    }
+
+    /**
+     * Returns true if there is a file storage folder for the given id, without creating it.
+     */
+    static boolean exists(Context appContext, String id) {
+        return folderFor(appContext, id).exists();
+    }
+
+    @Override
+    public void delete(String id) {
         final File file = toFile(id);
         if (file.exists()) {
             //noinspection ResultOfMethodCallIgnored
@@ -37,8 +77,16 @@ class FileStorage {
         }
     }
 
+    @Override
+    public void deleteAll(List<String> ids) {
+        for (String id : ids) {
+            delete(id);
+        }
+    }
+
     @Nullable
-    byte[] load(String id) throws IOException {
+    @Override
+    public byte[] load(String id) throws IOException {
         final File file = toFile(id);
         if (file.exists() && file.canRead()) {
             BufferedSource source = Okio.buffer(Okio.source(file));
@@ -52,7 +100,23 @@ class FileStorage {
         return null;
     }
 
-    void save(String id, byte[] data) throws IOException {
+    @Override
+    public void loadAll(Collection<String> ids, Map<String, byte[]> into) throws IOException {
+        for (String id : ids) {
+            byte[] data = load(id);
+            if (data != null) {
+                into.put(id, data);
+            }
+        }
+    }
+
+    @Override
+    public void save(String id, byte[] data) throws IOException {
+        synchronized (truncateState) {
+            if (truncateState.runningTruncates > 0) {
+                truncateState.savedWhileTruncating.add(id);
+            }
+        }
         final File file = toFile(id);
         BufferedSink sink = Okio.buffer(Okio.sink(file));
         try {
@@ -78,21 +142,95 @@ class FileStorage {
         return filename.substring(0, filename.length() - EXT.length());
     }
 
-    void truncateExcept(Set<String> ids) {
-        for (String filename : folder.list()) {
-            if (!filename.endsWith(EXT)) {
-                continue;
+    @Override
+    public void truncateExcept(Set<String> ids) {
+        synchronized (truncateState) {
+            truncateState.runningTruncates++;
+        }
+        truncateStarted(ids);
+    }
+
+    /**
+     * Runs {@link #truncateExcept(Set)} on a new thread. Jobs saved after this call returns are
+     * kept even if they are not in {@code ids}, including the ones saved by other storages of the
+     * same folder.
+     *
+     * @param ids The ids of the jobs to keep
+     * @param threadName The name of the thread
+     *
+     * @return The thread that deletes the files
+     */
+    Thread truncateExceptInBackground(final Set<String> ids, String threadName) {
+        synchronized (truncateState) {
+            truncateState.runningTruncates++;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                truncateStarted(ids);
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void truncateStarted(Set<String> ids) {
+        try {
+            String[] filenames = folder.list();
+            if (filenames == null) {
+                return;
             }
-            String id = filenameToId(filename);
-            if (!ids.contains(id)) {
-                File file = new File(folder, filename);
-                if (!file.delete()) {
-                    JqLog.d("cannot delete unused job toFile " + file.getAbsolutePath());
+            for (String filename : filenames) {
+                if (!filename.endsWith(EXT)) {
+                    continue;
+                }
+                String id = filenameToId(filename);
+                if (!ids.contains(id)) {
+                    deleteUnlessSaved(id, new File(folder, filename));
+                }
+            }
+        } finally {
+            synchronized (truncateState) {
+                if (--truncateState.runningTruncates == 0) {
+                    truncateState.savedWhileTruncating.clear();
                 }
             }
         }
     }
 
+    private void deleteUnlessSaved(String id, File file) {
+        synchronized (truncateState) {
+            if (truncateState.savedWhileTruncating.contains(id)) {
+                return;
+            }
+            if (!file.delete()) {
+                JqLog.d("cannot delete unused job toFile " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    @Override
+    public boolean isInDatabase() {
+        return false;
+    }
+
+    /**
+     * Deletes all files and the folder of this storage.
+     */
+    void destroy() {
+        truncateExcept(Collections.<String>emptySet());
+        if (!folder.delete()) {
+            JqLog.d("cannot delete job folder " + folder.getAbsolutePath());
+        }
+    }
+
+    private static class TruncateState {
+        // ids of the jobs saved while a truncate is running, which it must not delete
+        final Set<String> savedWhileTruncating = new HashSet<>();
+        int runningTruncates = 0;
+    }
+
     private static void closeQuitely(Closeable closeable) {
         try {
             closeable.close();
@@ -0,0 +1,1128 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.FairShare;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.PriorityAging;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the columns of the job table (everything but the serialized job) in memory so that
+ * {@link SqliteJobQueue} can answer queries without going to the database.
+ * <p>
+ * The cache is write-through: {@link SqliteJobQueue} updates it after each successful write so it
+ * always reflects what is written. In write behind mode, it is updated when a write is queued and
+ * reflects what will be written. Queries apply the {@link Constraint} to each job the same way
+ * the job table used to be queried: jobs are ordered by priority, then by created time and
+ * insertion order. With {@link PriorityAging}, they are ordered by their effective priority
+ * instead of their priority.
+ * <p>
+ * The jobs that are neither running in this session nor cancelled, the only ones that queries
+ * excluding running jobs can return, are also kept in the indexes that
+ * {@link com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue} uses: per
+ * network type, a set with the ready jobs without a group and the best ready job of each group,
+ * and sets of the delayed jobs and the jobs with a deadline ordered by time. Tags have an
+ * inverted index. Queries that include running jobs go through all jobs, or the jobs with the
+ * given tags, instead.
+ */
+class JobMetadataCache {
+    private static final int NETWORK_TYPE_COUNT = NetworkUtil.UNMETERED + 1;
+    private final Comparator<Entry> priorityComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            // effective priority DESC, created ASC, insertion order ASC
+            int cmp = PriorityAging.compare(e1.priority, e1.createdNs, e2.priority, e2.createdNs,
+                    priorityAgingNs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            if (e1.insertionOrder != e2.insertionOrder) {
+                return e1.insertionOrder < e2.insertionOrder ? -1 : 1;
+            }
+            return e1.id.compareTo(e2.id);
+        }
+    };
+    private final Comparator<Entry> delayComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int cmp = compareLong(e1.delayUntilNs, e2.delayUntilNs);
+            return cmp != 0 ? cmp : priorityComparator.compare(e1, e2);
+        }
+    };
+    private final Comparator<Entry> deadlineComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int cmp = compareLong(e1.deadlineNs, e2.deadlineNs);
+            return cmp != 0 ? cmp : priorityComparator.compare(e1, e2);
+        }
+    };
+    private final TreeSet<Entry> entries = new TreeSet<>(priorityComparator);
+    private final Map<String, Entry> byId = new HashMap<>();
+    /**
+     * Jobs by their single instance id. There is usually one job per id, or two if a new one was
+     * added while the old one was running.
+     */
+    private final Map<String, List<Entry>> bySingleId = new HashMap<>();
+    /**
+     * Jobs by tag, so that queries for tags that no job has return right away and queries for
+     * tags only check the jobs that have them.
+     */
+    private final Map<String, Set<Entry>> tagIndex = new HashMap<>();
+    /**
+     * Per network type, idle ready jobs without a group and the best idle ready job of each group.
+     */
+    private final List<TreeSet<Entry>> readyHeads = new ArrayList<>(NETWORK_TYPE_COUNT);
+    private final int[] readyUngroupedCount = new int[NETWORK_TYPE_COUNT];
+    private final Map<String, Group> groups = new HashMap<>();
+    /**
+     * Number of groups by the smallest network type of their idle ready jobs.
+     */
+    private final int[] groupCountByMinNetworkType = new int[NETWORK_TYPE_COUNT];
+    private final TreeSet<Entry> delayed = new TreeSet<>(delayComparator);
+    /**
+     * Idle delayed jobs that are not in the ready structures yet.
+     */
+    private final TreeSet<Entry> pending = new TreeSet<>(delayComparator);
+    private final TreeSet<Entry> withDeadline = new TreeSet<>(deadlineComparator);
+    /**
+     * Jobs that are delayed until this time (inclusive) are in the ready structures.
+     */
+    private long readyUntilNs = Long.MIN_VALUE;
+    private final Map<String, Integer> reusedGroupCounts = new HashMap<>();
+    private final Set<String> reusedGroupSet = new HashSet<>();
+    private final Set<String> reusedGroupSet2 = new HashSet<>();
+    private final Set<String> reusedIdSet = new HashSet<>();
+    private final FairChoice fairChoice = new FairChoice();
+    private final long sessionId;
+    private final long priorityAgingNs;
+    private final boolean useIndexes;
+    private int runningCount;
+
+    JobMetadataCache(long sessionId, long priorityAgingNs) {
+        this(sessionId, priorityAgingNs, true);
+    }
+
+    /**
+     * @param useIndexes False to answer every query by going through the jobs, to check the
+     *                   indexes against
+     */
+    @VisibleForTesting
+    JobMetadataCache(long sessionId, long priorityAgingNs, boolean useIndexes) {
+        this.sessionId = sessionId;
+        this.priorityAgingNs = priorityAgingNs;
+        this.useIndexes = useIndexes;
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            readyHeads.add(new TreeSet<>(priorityComparator));
+        }
+    }
+
+    /**
+     * Reads all jobs and tags from the database.
+     */
+    void load(Cursor jobsCursor, Cursor tagsCursor) {
+        clear();
+        Map<String, Set<String>> tags = new HashMap<>();
+        while (tagsCursor.moveToNext()) {
+            String jobId = tagsCursor.getString(DbOpenHelper.TAGS_JOB_ID_COLUMN.columnIndex);
+            Set<String> jobTags = tags.get(jobId);
+            if (jobTags == null) {
+                jobTags = new HashSet<>();
+                tags.put(jobId, jobTags);
+            }
+            jobTags.add(tagsCursor.getString(DbOpenHelper.TAGS_NAME_COLUMN.columnIndex));
+        }
+        while (jobsCursor.moveToNext()) {
+            Entry entry = new Entry(jobsCursor, tags);
+            add(entry);
+        }
+    }
+
+    /**
+     * Adds the job or replaces the existing entry with the same id.
+     */
+    void put(JobHolder jobHolder) {
+        remove(jobHolder.getId());
+        add(new Entry(jobHolder));
+    }
+
+    private void add(Entry entry) {
+        byId.put(entry.id, entry);
+        entries.add(entry);
+        if (entry.singleId != null) {
+            List<Entry> sameSingleId = bySingleId.get(entry.singleId);
+            if (sameSingleId == null) {
+                sameSingleId = new ArrayList<>(2);
+                bySingleId.put(entry.singleId, sameSingleId);
+            }
+            sameSingleId.add(entry);
+        }
+        for (String tag : entry.tags) {
+            Set<Entry> tagged = tagIndex.get(tag);
+            if (tagged == null) {
+                tagged = new HashSet<>();
+                tagIndex.put(tag, tagged);
+            }
+            tagged.add(entry);
+        }
+        if (entry.runningSessionId == sessionId) {
+            runningCount++;
+        }
+        if (isIdle(entry)) {
+            index(entry);
+        }
+    }
+
+    void remove(String id) {
+        Entry entry = byId.remove(id);
+        if (entry != null) {
+            if (isIdle(entry)) {
+                unindex(entry);
+            }
+            entries.remove(entry);
+            if (entry.runningSessionId == sessionId) {
+                runningCount--;
+            }
+            if (entry.singleId != null) {
+                List<Entry> sameSingleId = bySingleId.get(entry.singleId);
+                sameSingleId.remove(entry);
+                if (sameSingleId.isEmpty()) {
+                    bySingleId.remove(entry.singleId);
+                }
+            }
+            for (String tag : entry.tags) {
+                Set<Entry> tagged = tagIndex.get(tag);
+                tagged.remove(entry);
+                if (tagged.isEmpty()) {
+                    tagIndex.remove(tag);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        byId.clear();
+        bySingleId.clear();
+        tagIndex.clear();
+        for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+            readyHeads.get(i).clear();
+            readyUngroupedCount[i] = 0;
+            groupCountByMinNetworkType[i] = 0;
+        }
+        groups.clear();
+        delayed.clear();
+        pending.clear();
+        withDeadline.clear();
+        runningCount = 0;
+    }
+
+    @Nullable
+    Entry get(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * @return False if no job can match the given tags
+     */
+    boolean hasTags(TagConstraint tagConstraint, String[] tags) {
+        return tags.length > 0 && tagConstraint.matches(tags, tagIndex.keySet());
+    }
+
+    /**
+     * Returns a job with the given single instance id that is not cancelled, preferring one that
+     * is not running in this session.
+     */
+    @Nullable
+    Entry findBySingleId(String singleId) {
+        List<Entry> sameSingleId = bySingleId.get(singleId);
+        if (sameSingleId == null) {
+            return null;
+        }
+        Entry running = null;
+        for (int i = 0; i < sameSingleId.size(); i++) {
+            Entry entry = sameSingleId.get(i);
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.runningSessionId != sessionId) {
+                return entry;
+            }
+            running = entry;
+        }
+        return running;
+    }
+
+    /**
+     * Re-enables the jobs whose cancellation did not complete in a previous session.
+     *
+     * @return True if any job was cancelled
+     */
+    boolean reEnableCancelled() {
+        boolean found = false;
+        for (Entry entry : entries) {
+            if (entry.cancelled) {
+                entry.cancelled = false;
+                if (isIdle(entry)) {
+                    index(entry);
+                }
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Sets the delay of all jobs to the given value.
+     *
+     * @return True if any job had a different delay
+     */
+    boolean resetDelays(long delayUntilNs) {
+        boolean found = false;
+        for (Entry entry : entries) {
+            if (entry.delayUntilNs != delayUntilNs) {
+                final boolean idle = isIdle(entry);
+                if (idle) {
+                    unindex(entry);
+                }
+                entry.delayUntilNs = delayUntilNs;
+                if (idle) {
+                    index(entry);
+                }
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return A copy of the ids of all jobs
+     */
+    Set<String> ids() {
+        return new HashSet<>(byId.keySet());
+    }
+
+    void markCancelled(String id) {
+        Entry entry = byId.get(id);
+        if (entry != null) {
+            if (isIdle(entry)) {
+                unindex(entry);
+            }
+            entry.cancelled = true;
+        }
+    }
+
+    void markRunning(String id, int runCount) {
+        Entry entry = byId.get(id);
+        if (entry == null) {
+            return;
+        }
+        if (entry.runningSessionId != sessionId) {
+            runningCount++;
+        }
+        if (isIdle(entry)) {
+            unindex(entry);
+        }
+        entry.runCount = runCount;
+        entry.runningSessionId = sessionId;
+    }
+
+    void markNotRunning(String id, int runCount) {
+        Entry entry = byId.get(id);
+        if (entry == null) {
+            return;
+        }
+        final boolean wasIdle = isIdle(entry);
+        if (entry.runningSessionId == sessionId) {
+            runningCount--;
+        }
+        entry.runCount = runCount;
+        entry.runningSessionId = JobManager.NOT_RUNNING_SESSION_ID;
+        if (!wasIdle && isIdle(entry)) {
+            index(entry);
+        }
+    }
+
+    /**
+     * @return The number of jobs that are not running in this session, cancelled jobs included.
+     */
+    int count() {
+        return entries.size() - runningCount;
+    }
+
+    int countReady(Constraint constraint) {
+        if (!mayMatchTags(constraint)) {
+            return 0;
+        }
+        // the group counts assume that a group runs one job at a time and do not know tags
+        if (canUseIndexes(constraint) && constraint.getTimeLimit() != null
+                && constraint.getTimeLimit() >= readyUntilNs && !constraint.hasGroupSlots()
+                && constraint.getExcludeTags().isEmpty()) {
+            return countReadyFromIndexes(constraint);
+        }
+        int count = 0;
+        reusedGroupCounts.clear();
+        for (Entry entry : candidates(constraint)) {
+            if (matches(entry, constraint, constraint.getNowInNs())
+                    && (entry.groupId == null || takeGroupSlot(entry.groupId, constraint))) {
+                count++;
+            }
+        }
+        reusedGroupCounts.clear();
+        return count;
+    }
+
+    /**
+     * Counts the ungrouped jobs and the groups in the ready structures, then corrects the count
+     * for the groups and jobs the constraint excludes and for the jobs that can run on any network
+     * because of their deadline.
+     */
+    private int countReadyFromIndexes(Constraint constraint) {
+        //noinspection ConstantConditions
+        makeReady(constraint.getTimeLimit());
+        final int maxNetworkType = maxNetworkType(constraint);
+        int count = 0;
+        for (int i = 0; i <= maxNetworkType; i++) {
+            count += readyUngroupedCount[i] + groupCountByMinNetworkType[i];
+        }
+        // groups that are counted above but don't match
+        final Set<String> droppedGroups = reusedGroupSet;
+        droppedGroups.clear();
+        for (String groupId : constraint.getExcludeGroups()) {
+            Group group = groups.get(groupId);
+            if (group != null && group.minNetworkType() <= maxNetworkType
+                    && droppedGroups.add(groupId)) {
+                count--;
+            }
+        }
+        final Set<String> excludedIds = reusedIdSet;
+        excludedIds.clear();
+        for (String jobId : constraint.getExcludeJobIds()) {
+            Entry entry = byId.get(jobId);
+            if (entry == null || !isIdle(entry) || !isReady(entry)
+                    || networkType(entry) > maxNetworkType || !excludedIds.add(jobId)) {
+                continue;
+            }
+            if (entry.groupId == null) {
+                count--;
+            } else if (!droppedGroups.contains(entry.groupId)
+                    && !groups.get(entry.groupId).hasReadyJob(constraint, maxNetworkType)) {
+                droppedGroups.add(entry.groupId);
+                count--;
+            }
+        }
+        // jobs that can run without their network requirements because of their deadline
+        final Set<String> addedGroups = reusedGroupSet2;
+        addedGroups.clear();
+        final long now = constraint.getNowInNs();
+        for (Entry entry : withDeadline) {
+            if (entry.deadlineNs > now) {
+                break;
+            }
+            if (networkType(entry) <= maxNetworkType || !matches(entry, constraint, now)) {
+                continue;
+            }
+            if (entry.groupId == null) {
+                count++;
+            } else if (!addedGroups.contains(entry.groupId)
+                    && (groups.get(entry.groupId).minNetworkType() > maxNetworkType
+                    || droppedGroups.contains(entry.groupId))) {
+                addedGroups.add(entry.groupId);
+                count++;
+            }
+        }
+        droppedGroups.clear();
+        addedGroups.clear();
+        excludedIds.clear();
+        return count;
+    }
+
+    /**
+     * @return True if the group can run one more job besides the ones counted so far
+     */
+    private boolean takeGroupSlot(String groupId, Constraint constraint) {
+        Integer counted = reusedGroupCounts.get(groupId);
+        int next = counted == null ? 1 : counted + 1;
+        if (next > constraint.getGroupSlots(groupId)) {
+            return false;
+        }
+        reusedGroupCounts.put(groupId, next);
+        return true;
+    }
+
+    @Nullable
+    Entry next(Constraint constraint) {
+        final FairShare fairShare = constraint.getFairShare();
+        if (!canUseIndexes(constraint)) {
+            return fairShare == null ? nextByScan(constraint)
+                    : nextFairByScan(constraint, fairShare);
+        }
+        return fairShare == null ? nextFromIndexes(constraint)
+                : nextFairFromIndexes(constraint, fairShare);
+    }
+
+    @Nullable
+    private Entry nextByScan(Constraint constraint) {
+        for (Entry entry : entries) {
+            if (matches(entry, constraint, constraint.getNowInNs())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private Entry nextFromIndexes(Constraint constraint) {
+        final long now = constraint.getNowInNs();
+        Entry best = null;
+        if (constraint.getTimeLimit() != null) {
+            makeReady(constraint.getTimeLimit());
+        } else {
+            // delayed jobs are not in the ready structures
+            for (Entry entry : pending) {
+                if (isBetter(entry, best) && matches(entry, constraint, now)) {
+                    best = entry;
+                }
+            }
+        }
+        final int maxNetworkType = maxNetworkType(constraint);
+        for (int i = 0; i <= maxNetworkType; i++) {
+            for (Entry head : readyHeads.get(i)) {
+                if (!isBetter(head, best)) {
+                    break;
+                }
+                if (matches(head, constraint, now)) {
+                    best = head;
+                    break;
+                }
+                Entry inGroup = nextInGroup(head, i, constraint);
+                if (inGroup != null && isBetter(inGroup, best)) {
+                    best = inGroup;
+                }
+            }
+        }
+        for (Entry entry : withDeadline) {
+            if (entry.deadlineNs > now) {
+                break;
+            }
+            if (isBetter(entry, best) && matches(entry, constraint, now)) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the best matching job in the group of the given head, for jobs that do not match due
+     * to a reason other than their group or network.
+     */
+    @Nullable
+    private Entry nextInGroup(Entry head, int networkType, Constraint constraint) {
+        Group group = unlessExcluded(head, constraint);
+        if (group == null) {
+            return null;
+        }
+        for (Entry entry : group.ready.get(networkType).tailSet(head, false)) {
+            if (matches(entry, constraint, constraint.getNowInNs())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The group of the job unless it has no group or the constraint excludes it
+     */
+    @Nullable
+    private Group unlessExcluded(Entry entry, Constraint constraint) {
+        if (entry.groupId == null || constraint.getExcludeGroups().contains(entry.groupId)) {
+            return null;
+        }
+        return groups.get(entry.groupId);
+    }
+
+    /**
+     * Picks the job with the smallest fair share start time among the matching jobs with the
+     * highest effective priority.
+     */
+    @Nullable
+    private Entry nextFairByScan(Constraint constraint, FairShare fairShare) {
+        final FairChoice choice = fairChoice;
+        choice.reset(fairShare, constraint.getNowInNs());
+        for (Entry entry : entries) {
+            if (choice.isBelow(entry)) {
+                break;
+            }
+            if (matches(entry, constraint, constraint.getNowInNs())) {
+                choice.offer(entry);
+            }
+        }
+        return choice.take();
+    }
+
+    /**
+     * Same as {@link #nextFairByScan(Constraint, FairShare)} but only checks, in each group, the
+     * ready jobs that are not below the highest effective priority found so far.
+     */
+    @Nullable
+    private Entry nextFairFromIndexes(Constraint constraint, FairShare fairShare) {
+        final long now = constraint.getNowInNs();
+        final FairChoice choice = fairChoice;
+        choice.reset(fairShare, now);
+        if (constraint.getTimeLimit() != null) {
+            makeReady(constraint.getTimeLimit());
+        } else {
+            for (Entry entry : pending) {
+                if (!choice.isBelow(entry) && matches(entry, constraint, now)) {
+                    choice.offer(entry);
+                }
+            }
+        }
+        final int maxNetworkType = maxNetworkType(constraint);
+        for (int i = 0; i <= maxNetworkType; i++) {
+            for (Entry head : readyHeads.get(i)) {
+                if (choice.isBelow(head)) {
+                    break;
+                }
+                if (matches(head, constraint, now)) {
+                    choice.offer(head);
+                }
+                // other jobs of the group may have a smaller start time
+                Group group = unlessExcluded(head, constraint);
+                if (group == null) {
+                    continue;
+                }
+                for (Entry entry : group.ready.get(i).tailSet(head, false)) {
+                    if (choice.isBelow(entry)) {
+                        break;
+                    }
+                    if (matches(entry, constraint, now)) {
+                        choice.offer(entry);
+                    }
+                }
+            }
+        }
+        for (Entry entry : withDeadline) {
+            if (entry.deadlineNs > now) {
+                break;
+            }
+            if (!choice.isBelow(entry) && matches(entry, constraint, now)) {
+                choice.offer(entry);
+            }
+        }
+        return choice.take();
+    }
+
+    @NonNull
+    List<Entry> find(Constraint constraint) {
+        List<Entry> result = new ArrayList<>();
+        if (!mayMatchTags(constraint)) {
+            return result;
+        }
+        for (Entry entry : candidates(constraint)) {
+            if (matches(entry, constraint, constraint.getNowInNs())) {
+                result.add(entry);
+            }
+        }
+        if (constraint.getTagConstraint() != null) {
+            // the tag index is not ordered
+            Collections.sort(result, priorityComparator);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the min deadline of jobs that would match if their deadline was reached and the min
+     * delay of jobs that match without their deadline.
+     */
+    @Nullable
+    Long nextDelayUntilNs(Constraint constraint) {
+        if (!canUseIndexes(constraint)) {
+            return nextDelayUntilNsByScan(constraint);
+        }
+        if (hasReadyJobWithoutDelay(constraint)) {
+            return JobManager.NOT_DELAYED_JOB_DELAY;
+        }
+        long min = Params.FOREVER;
+        for (Entry entry : withDeadline) {
+            if (matches(entry, constraint, Params.FOREVER)) {
+                min = entry.deadlineNs;
+                break;
+            }
+        }
+        for (Entry entry : delayed) {
+            if (entry.delayUntilNs >= min) {
+                break;
+            }
+            if (matches(entry, constraint, Params.NEVER)) {
+                min = entry.delayUntilNs;
+                break;
+            }
+        }
+        return min == Params.FOREVER ? null : min;
+    }
+
+    @Nullable
+    private Long nextDelayUntilNsByScan(Constraint constraint) {
+        long min = Params.FOREVER;
+        for (Entry entry : candidates(constraint)) {
+            if (entry.deadlineNs < min && matches(entry, constraint, Params.FOREVER)) {
+                min = entry.deadlineNs;
+            }
+            if (entry.delayUntilNs < min && matches(entry, constraint, Params.NEVER)) {
+                min = entry.delayUntilNs;
+            }
+        }
+        return min == Params.FOREVER ? null : min;
+    }
+
+    /**
+     * @return True if a job without a delay matches before its deadline. Such a job has the
+     * smallest possible delay.
+     */
+    private boolean hasReadyJobWithoutDelay(Constraint constraint) {
+        final int maxNetworkType = maxNetworkType(constraint);
+        for (int i = 0; i <= maxNetworkType; i++) {
+            for (Entry head : readyHeads.get(i)) {
+                if (!head.hasDelay() && matches(head, constraint, Params.NEVER)) {
+                    return true;
+                }
+                Group group = unlessExcluded(head, constraint);
+                if (group == null) {
+                    continue;
+                }
+                for (Entry entry : group.ready.get(i).tailSet(head, false)) {
+                    if (!entry.hasDelay() && matches(entry, constraint, Params.NEVER)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the jobs that may match the constraint, using the tag index if the constraint has
+     * tags. Only the jobs of all jobs are in priority order.
+     */
+    private Collection<Entry> candidates(Constraint constraint) {
+        final TagConstraint tagConstraint = constraint.getTagConstraint();
+        if (tagConstraint == null) {
+            return entries;
+        }
+        if (tagConstraint == TagConstraint.ALL || constraint.getTags().size() == 1) {
+            Set<Entry> smallest = null;
+            for (String tag : constraint.getTags()) {
+                Set<Entry> tagged = tagIndex.get(tag);
+                if (tagged == null) {
+                    return Collections.emptySet();
+                }
+                if (smallest == null || tagged.size() < smallest.size()) {
+                    smallest = tagged;
+                }
+            }
+            return smallest == null ? Collections.<Entry>emptySet() : smallest;
+        }
+        Set<Entry> result = new HashSet<>();
+        for (String tag : constraint.getTags()) {
+            Set<Entry> tagged = tagIndex.get(tag);
+            if (tagged != null) {
+                result.addAll(tagged);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return True if the constraint only matches jobs that are in the indexes
+     */
+    private boolean canUseIndexes(Constraint constraint) {
+        return useIndexes && constraint.excludeRunning() && constraint.getTagConstraint() == null;
+    }
+
+    /**
+     * @return True if the job is neither running in this session nor cancelled
+     */
+    private boolean isIdle(Entry entry) {
+        return !entry.cancelled && entry.runningSessionId != sessionId;
+    }
+
+    private void index(Entry entry) {
+        if (entry.hasDelay()) {
+            delayed.add(entry);
+        }
+        if (entry.hasDeadline()) {
+            withDeadline.add(entry);
+        }
+        if (isReady(entry)) {
+            addToReady(entry);
+        } else {
+            pending.add(entry);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        if (isReady(entry)) {
+            removeFromReady(entry);
+        } else {
+            pending.remove(entry);
+        }
+        if (entry.hasDelay()) {
+            delayed.remove(entry);
+        }
+        if (entry.hasDeadline()) {
+            withDeadline.remove(entry);
+        }
+    }
+
+    /**
+     * Moves delayed jobs whose delay is until the given time into the ready structures.
+     */
+    private void makeReady(long untilNs) {
+        if (untilNs <= readyUntilNs) {
+            return;
+        }
+        readyUntilNs = untilNs;
+        while (!pending.isEmpty() && pending.first().delayUntilNs <= untilNs) {
+            addToReady(pending.pollFirst());
+        }
+    }
+
+    private boolean isReady(Entry entry) {
+        return entry.delayUntilNs <= readyUntilNs;
+    }
+
+    private void addToReady(Entry entry) {
+        final int networkType = networkType(entry);
+        final TreeSet<Entry> heads = readyHeads.get(networkType);
+        if (entry.groupId == null) {
+            heads.add(entry);
+            readyUngroupedCount[networkType]++;
+            return;
+        }
+        Group group = groups.get(entry.groupId);
+        if (group == null) {
+            group = new Group(priorityComparator);
+            groups.put(entry.groupId, group);
+        }
+        int oldMinNetworkType = group.minNetworkType();
+        TreeSet<Entry> jobs = group.ready.get(networkType);
+        Entry oldHead = jobs.isEmpty() ? null : jobs.first();
+        jobs.add(entry);
+        if (oldHead == null) {
+            heads.add(entry);
+        } else if (jobs.first() == entry) {
+            heads.remove(oldHead);
+            heads.add(entry);
+        }
+        onMinNetworkTypeChanged(oldMinNetworkType, group.minNetworkType());
+    }
+
+    private void removeFromReady(Entry entry) {
+        final int networkType = networkType(entry);
+        final TreeSet<Entry> heads = readyHeads.get(networkType);
+        if (entry.groupId == null) {
+            if (heads.remove(entry)) {
+                readyUngroupedCount[networkType]--;
+            }
+            return;
+        }
+        Group group = groups.get(entry.groupId);
+        if (group == null) {
+            return;
+        }
+        int oldMinNetworkType = group.minNetworkType();
+        TreeSet<Entry> jobs = group.ready.get(networkType);
+        boolean wasHead = !jobs.isEmpty() && jobs.first() == entry;
+        if (!jobs.remove(entry)) {
+            return;
+        }
+        if (wasHead) {
+            heads.remove(entry);
+            if (!jobs.isEmpty()) {
+                heads.add(jobs.first());
+            }
+        }
+        int newMinNetworkType = group.minNetworkType();
+        onMinNetworkTypeChanged(oldMinNetworkType, newMinNetworkType);
+        if (newMinNetworkType == NETWORK_TYPE_COUNT) {
+            groups.remove(entry.groupId);
+        }
+    }
+
+    private void onMinNetworkTypeChanged(int oldMinNetworkType, int newMinNetworkType) {
+        if (oldMinNetworkType == newMinNetworkType) {
+            return;
+        }
+        if (oldMinNetworkType < NETWORK_TYPE_COUNT) {
+            groupCountByMinNetworkType[oldMinNetworkType]--;
+        }
+        if (newMinNetworkType < NETWORK_TYPE_COUNT) {
+            groupCountByMinNetworkType[newMinNetworkType]++;
+        }
+    }
+
+    private static int networkType(Entry entry) {
+        return Math.min(Math.max(entry.requiredNetworkType, 0), NETWORK_TYPE_COUNT - 1);
+    }
+
+    private static int maxNetworkType(Constraint constraint) {
+        return Math.min(constraint.getMaxNetworkType(), NETWORK_TYPE_COUNT - 1);
+    }
+
+    private boolean isBetter(Entry entry, @Nullable Entry best) {
+        return best == null || priorityComparator.compare(entry, best) < 0;
+    }
+
+    private static int compareLong(long l1, long l2) {
+        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+
+    private boolean mayMatchTags(Constraint constraint) {
+        return constraint.getTagConstraint() == null || (!constraint.getTags().isEmpty()
+                && constraint.getTagConstraint().matches(constraint.getTags(), tagIndex.keySet()));
+    }
+
+    private boolean matches(Entry entry, Constraint constraint, long nowInNs) {
+        boolean hitDeadline = entry.deadlineNs != Params.FOREVER && entry.deadlineNs <= nowInNs;
+        if (!hitDeadline && entry.requiredNetworkType > constraint.getMaxNetworkType()) {
+            return false;
+        }
+        if (entry.cancelled) {
+            return false;
+        }
+        if (constraint.getTimeLimit() != null
+                && entry.delayUntilNs > constraint.getTimeLimit()) {
+            return false;
+        }
+        if (constraint.getTagConstraint() != null && (constraint.getTags().isEmpty()
+                || !constraint.getTagConstraint().matches(constraint.getTags(), entry.tags))) {
+            return false;
+        }
+        if (entry.groupId != null && constraint.getExcludeGroups().contains(entry.groupId)) {
+            return false;
+        }
+        if (constraint.isExcludedByTags(entry.tags)) {
+            return false;
+        }
+        if (constraint.getExcludeJobIds().contains(entry.id)) {
+            return false;
+        }
+        //noinspection RedundantIfStatement
+        if (constraint.excludeRunning() && entry.runningSessionId == sessionId) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The best job for fair share among the ones offered so far: the one with the smallest start
+     * time among the jobs with the highest effective priority, then the first one in priority
+     * order.
+     */
+    private class FairChoice {
+        private FairShare fairShare;
+        private long nowNs;
+        @Nullable
+        private Entry best;
+        private long bestPriority;
+        private long bestStart;
+
+        void reset(FairShare fairShare, long nowNs) {
+            this.fairShare = fairShare;
+            this.nowNs = nowNs;
+            best = null;
+        }
+
+        /**
+         * @return True if the job cannot be chosen because its effective priority is lower than
+         * the one of the best job. Neither can the ones after it in priority order.
+         */
+        boolean isBelow(Entry entry) {
+            return best != null && getEffectivePriority(entry) < bestPriority;
+        }
+
+        void offer(Entry entry) {
+            final long priority = getEffectivePriority(entry);
+            final long start = fairShare.getStartTime(entry.fairnessKey);
+            if (best != null && (priority < bestPriority || (priority == bestPriority
+                    && (start > bestStart || (start == bestStart && !isBetter(entry, best)))))) {
+                return;
+            }
+            best = entry;
+            bestPriority = priority;
+            bestStart = start;
+        }
+
+        @Nullable
+        Entry take() {
+            Entry result = best;
+            best = null;
+            fairShare = null;
+            return result;
+        }
+
+        private long getEffectivePriority(Entry entry) {
+            return PriorityAging.getEffectivePriority(entry.priority, entry.createdNs,
+                    priorityAgingNs, nowNs);
+        }
+    }
+
+    /**
+     * Idle ready jobs of a group, by network type.
+     */
+    private static class Group {
+        final List<TreeSet<Entry>> ready = new ArrayList<>(NETWORK_TYPE_COUNT);
+
+        Group(Comparator<Entry> priorityComparator) {
+            for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+                ready.add(new TreeSet<>(priorityComparator));
+            }
+        }
+
+        /**
+         * @return The smallest network type of the ready jobs or {@link #NETWORK_TYPE_COUNT} if
+         * there are none.
+         */
+        int minNetworkType() {
+            for (int i = 0; i < NETWORK_TYPE_COUNT; i++) {
+                if (!ready.get(i).isEmpty()) {
+                    return i;
+                }
+            }
+            return NETWORK_TYPE_COUNT;
+        }
+
+        boolean hasReadyJob(Constraint constraint, int maxNetworkType) {
+            for (int i = 0; i <= maxNetworkType; i++) {
+                for (Entry entry : ready.get(i)) {
+                    if (!constraint.getExcludeJobIds().contains(entry.id)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A row of the job table along with its tags.
+     */
+    static class Entry {
+        final String id;
+        final int priority;
+        final String groupId;
+        final long createdNs;
+        final long insertionOrder;
+        final long deadlineNs;
+        final boolean cancelOnDeadline;
+        final int requiredNetworkType;
+        final Set<String> tags;
+        @Nullable
+        final String singleId;
+        @Nullable
+        final String fairnessKey;
+        long delayUntilNs;
+        int runCount;
+        long runningSessionId;
+        boolean cancelled;
+
+        Entry(JobHolder holder) {
+            id = holder.getId();
+            priority = holder.getPriority();
+            groupId = holder.getGroupId();
+            createdNs = holder.getCreatedNs();
+            //noinspection ConstantConditions
+            insertionOrder = holder.getInsertionOrder();
+            delayUntilNs = holder.getDelayUntilNs();
+            deadlineNs = holder.getDeadlineNs();
+            cancelOnDeadline = holder.shouldCancelOnDeadline();
+            requiredNetworkType = holder.getRequiredNetworkType();
+            tags = holder.hasTags() ? new HashSet<>(holder.getTags())
+                    : Collections.<String>emptySet();
+            singleId = holder.getSingleInstanceId();
+            fairnessKey = holder.getFairnessKey();
+            runCount = holder.getRunCount();
+            runningSessionId = holder.getRunningSessionId();
+            cancelled = holder.isCancelled();
+        }
+
+        Entry(Cursor cursor, Map<String, Set<String>> allTags) {
+            id = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
+            priority = cursor.getInt(DbOpenHelper.PRIORITY_COLUMN.columnIndex);
+            groupId = cursor.getString(DbOpenHelper.GROUP_ID_COLUMN.columnIndex);
+            createdNs = cursor.getLong(DbOpenHelper.CREATED_NS_COLUMN.columnIndex);
+            insertionOrder = cursor.getLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex);
+            delayUntilNs = cursor.getLong(DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnIndex);
+            deadlineNs = cursor.getLong(DbOpenHelper.DEADLINE_COLUMN.columnIndex);
+            cancelOnDeadline = cursor.getInt(DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN.columnIndex)
+                    == 1;
+            requiredNetworkType = cursor.getInt(
+                    DbOpenHelper.REQUIRED_NETWORK_TYPE_COLUMN.columnIndex);
+            Set<String> jobTags = allTags.get(id);
+            tags = jobTags == null ? Collections.<String>emptySet() : jobTags;
+            singleId = cursor.getString(DbOpenHelper.SINGLE_ID_COLUMN.columnIndex);
+            fairnessKey = cursor.getString(DbOpenHelper.FAIRNESS_KEY_COLUMN.columnIndex);
+            runCount = cursor.getInt(DbOpenHelper.RUN_COUNT_COLUMN.columnIndex);
+            runningSessionId = cursor.getLong(DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnIndex);
+            cancelled = cursor.getInt(DbOpenHelper.CANCELLED_COLUMN.columnIndex) == 1;
+        }
+
+        boolean hasDelay() {
+            return delayUntilNs != JobManager.NOT_DELAYED_JOB_DELAY;
+        }
+
+        boolean hasDeadline() {
+            return deadlineNs != Params.FOREVER;
+        }
+
+        JobHolder createJobHolder(Job job) {
+            return newBuilder().job(job).build();
+        }
+
+        /**
+         * Creates a holder with the metadata of the job that loads the job itself when needed.
+         */
+        JobHolder createJobHolder(JobHolder.JobLoader jobLoader) {
+            return newBuilder().jobLoader(jobLoader).build();
+        }
+
+        private JobHolder.Builder newBuilder() {
+            //noinspection WrongConstant
+            return new JobHolder.Builder()
+                    .insertionOrder(insertionOrder)
+                    .priority(priority)
+                    .groupId(groupId)
+                    .fairnessKey(fairnessKey)
+                    .runCount(runCount)
+                    .id(id)
+                    .tags(tags.isEmpty() ? Collections.<String>emptySet()
+                            : new HashSet<>(tags))
+                    .persistent(true)
+                    .deadline(deadlineNs, cancelOnDeadline)
+                    .createdNs(createdNs)
+                    .delayUntilNs(delayUntilNs)
+                    .runningSessionId(runningSessionId)
+                    .requiredNetworkType(requiredNetworkType);
+        }
+    }
+}
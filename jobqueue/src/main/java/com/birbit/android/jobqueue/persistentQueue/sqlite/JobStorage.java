@@ -0,0 +1,53 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the serialized jobs of a {@link SqliteJobQueue}.
+ */
+interface JobStorage {
+    void save(String id, byte[] data) throws IOException;
+
+    @Nullable
+    byte[] load(String id) throws IOException;
+
+    /**
+     * Loads the data of several jobs at once. Jobs that do not have any data are not put into the
+     * map.
+     *
+     * @param ids The ids of the jobs to load
+     * @param into The map to put the data of each job into, keyed by job id
+     */
+    void loadAll(Collection<String> ids, Map<String, byte[]> into) throws IOException;
+
+    void delete(String id);
+
+    /**
+     * Deletes the data of all given jobs. Storages in the job database delete them in a single
+     * write so that it is part of the transaction that removes the jobs.
+     *
+     * @param ids The ids of the jobs to delete
+     */
+    void deleteAll(List<String> ids);
+
+    /**
+     * Deletes the data of all jobs except the given ones.
+     *
+     * @param ids The ids of the jobs to keep
+     */
+    void truncateExcept(Set<String> ids);
+
+    /**
+     * Returns true if this storage writes into the job database, in which case its writes are part
+     * of the transaction of the job they belong to and it never needs to be truncated.
+     *
+     * @return True if the storage is backed by the job database
+     */
+    boolean isInDatabase();
+}
@@ -5,16 +5,34 @@ import com.birbit.android.jobqueue.log.JqLog;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Helper class for {@link SqliteJobQueue} to generate sql queries and statements.
  */
 public class SqlHelper {
+    /**
+     * The maximum number of ids bound to a statement with an IN (...) list. SQLite does not accept
+     * more than 999 arguments in a statement before 3.32.
+     */
+    static final int MAX_IDS_PER_STATEMENT = 500;
 
-    /**package**/ String FIND_BY_ID_QUERY;
-    /**package**/ String FIND_BY_TAG_QUERY;
     /**package**/ String LOAD_ALL_IDS_QUERY;
-    /**package**/ String LOAD_TAGS_QUERY;
+    /**package**/ String LOAD_ALL_BLOBS_QUERY;
+    /**package**/ String LOAD_ALL_JOBS_QUERY;
+    /**package**/ String LOAD_ALL_TAGS_QUERY;
     /**package**/ String RE_ENABLE_PENDING_CANCELLATIONS_QUERY;
+    /**package**/ String DELETE_QUERY;
+    /**package**/ String DELETE_JOB_TAGS_QUERY;
+    /**package**/ String ON_JOB_FETCHED_FOR_RUNNING_QUERY;
+    /**package**/ String MARK_AS_CANCELLED_QUERY;
+    // prefixes of the bulk versions of the statements above, followed by an IN (...) list
+    /**package**/ String DELETE_ALL_QUERY_PREFIX;
+    /**package**/ String DELETE_ALL_JOB_TAGS_QUERY_PREFIX;
+    /**package**/ String MARK_ALL_AS_CANCELLED_QUERY_PREFIX;
+    /**package**/ String DELETE_ALL_BLOBS_QUERY_PREFIX;
 
     private SQLiteStatement insertStatement;
     private SQLiteStatement insertTagsStatement;
@@ -22,8 +40,9 @@ public class SqlHelper {
     private SQLiteStatement deleteStatement;
     private SQLiteStatement deleteJobTagsStatement;
     private SQLiteStatement onJobFetchedForRunningStatement;
-    private SQLiteStatement countStatement;
     private SQLiteStatement markAsCancelledStatement;
+    // statements for full batches of executeForIds, keyed by query prefix
+    private final Map<String, SQLiteStatement> bulkStatements = new HashMap<>();
     final StringBuilder reusedStringBuilder = new StringBuilder();
 
 
@@ -44,16 +63,32 @@ public class SqlHelper {
         this.sessionId = sessionId;
         this.tagsColumnCount = tagsColumnCount;
         this.tagsTableName = tagsTableName;
-        FIND_BY_ID_QUERY = "SELECT * FROM " + tableName + " WHERE " + DbOpenHelper.ID_COLUMN.columnName + " = ?";
-        FIND_BY_TAG_QUERY = "SELECT * FROM " + tableName + " WHERE " + DbOpenHelper.ID_COLUMN.columnName
-                + " IN ( SELECT " + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + " FROM " + tagsTableName
-                + " WHERE " + DbOpenHelper.TAGS_NAME_COLUMN.columnName + " = ?)";
         LOAD_ALL_IDS_QUERY = "SELECT " + DbOpenHelper.ID_COLUMN.columnName + " FROM " + tableName;
-        LOAD_TAGS_QUERY = "SELECT " + DbOpenHelper.TAGS_NAME_COLUMN.columnName + " FROM "
-                + DbOpenHelper.JOB_TAGS_TABLE_NAME + " WHERE "
-                + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + " = ?";
+        LOAD_ALL_BLOBS_QUERY = "SELECT * FROM " + DbOpenHelper.JOB_BLOBS_TABLE_NAME;
+        LOAD_ALL_JOBS_QUERY = "SELECT * FROM " + tableName;
+        LOAD_ALL_TAGS_QUERY = "SELECT * FROM " + tagsTableName;
         RE_ENABLE_PENDING_CANCELLATIONS_QUERY = "UPDATE " + tableName + " SET "
-                + DbOpenHelper.CANCELLED_COLUMN.columnName + " = 0";
+                + DbOpenHelper.CANCELLED_COLUMN.columnName + " = 0 WHERE "
+                + DbOpenHelper.CANCELLED_COLUMN.columnName + " = 1";
+        DELETE_QUERY = "DELETE FROM " + tableName + " WHERE " + primaryKeyColumnName + " = ?";
+        DELETE_JOB_TAGS_QUERY = "DELETE FROM " + tagsTableName + " WHERE "
+                + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + "= ?";
+        ON_JOB_FETCHED_FOR_RUNNING_QUERY = "UPDATE " + tableName + " SET "
+                + DbOpenHelper.RUN_COUNT_COLUMN.columnName + " = ? , "
+                + DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnName + " = ? "
+                + " WHERE " + primaryKeyColumnName + " = ? ";
+        MARK_AS_CANCELLED_QUERY = "UPDATE " + tableName + " SET "
+                + DbOpenHelper.CANCELLED_COLUMN.columnName + " = 1 "
+                + " WHERE " + primaryKeyColumnName + " = ? ";
+        DELETE_ALL_QUERY_PREFIX = "DELETE FROM " + tableName + " WHERE "
+                + primaryKeyColumnName + " IN (";
+        DELETE_ALL_JOB_TAGS_QUERY_PREFIX = "DELETE FROM " + tagsTableName + " WHERE "
+                + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + " IN (";
+        MARK_ALL_AS_CANCELLED_QUERY_PREFIX = "UPDATE " + tableName + " SET "
+                + DbOpenHelper.CANCELLED_COLUMN.columnName + " = 1 "
+                + " WHERE " + primaryKeyColumnName + " IN (";
+        DELETE_ALL_BLOBS_QUERY_PREFIX = "DELETE FROM " + DbOpenHelper.JOB_BLOBS_TABLE_NAME
+                + " WHERE " + DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnName + " IN (";
     }
 
     public static String create(String tableName, Property primaryKey, Property... properties) {
@@ -120,14 +155,6 @@ public class SqlHelper {
         return insertTagsStatement;
     }
 
-    public SQLiteStatement getCountStatement() {
-        if (countStatement == null) {
-            countStatement = db.compileStatement("SELECT COUNT(*) FROM " + tableName + " WHERE " +
-                    DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnName + " != ?");
-        }
-        return countStatement;
-    }
-
     public SQLiteStatement getInsertOrReplaceStatement() {
         if (insertOrReplaceStatement == null) {
             reusedStringBuilder.setLength(0);
@@ -147,37 +174,29 @@ public class SqlHelper {
 
     public SQLiteStatement getDeleteStatement() {
         if (deleteStatement == null) {
-            deleteStatement = db.compileStatement("DELETE FROM " + tableName + " WHERE "
-                    + primaryKeyColumnName + " = ?");
+            deleteStatement = db.compileStatement(DELETE_QUERY);
         }
         return deleteStatement;
     }
 
     public SQLiteStatement getDeleteJobTagsStatement() {
         if (deleteJobTagsStatement == null) {
-            deleteJobTagsStatement = db.compileStatement("DELETE FROM " + tagsTableName
-                    + " WHERE " + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + "= ?");
+            deleteJobTagsStatement = db.compileStatement(DELETE_JOB_TAGS_QUERY);
         }
         return deleteJobTagsStatement;
     }
 
     public SQLiteStatement getOnJobFetchedForRunningStatement() {
         if (onJobFetchedForRunningStatement == null) {
-            String sql = "UPDATE " + tableName + " SET "
-                    + DbOpenHelper.RUN_COUNT_COLUMN.columnName + " = ? , "
-                    + DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnName + " = ? "
-                    + " WHERE " + primaryKeyColumnName + " = ? ";
-            onJobFetchedForRunningStatement = db.compileStatement(sql);
+            onJobFetchedForRunningStatement = db.compileStatement(
+                    ON_JOB_FETCHED_FOR_RUNNING_QUERY);
         }
         return onJobFetchedForRunningStatement;
     }
 
     public SQLiteStatement getMarkAsCancelledStatement() {
         if (markAsCancelledStatement == null) {
-            String sql = "UPDATE " + tableName + " SET "
-                    + DbOpenHelper.CANCELLED_COLUMN.columnName + " = 1 "
-                    + " WHERE " + primaryKeyColumnName + " = ? ";
-            markAsCancelledStatement = db.compileStatement(sql);
+            markAsCancelledStatement = db.compileStatement(MARK_AS_CANCELLED_QUERY);
         }
         return markAsCancelledStatement;
     }
@@ -231,6 +250,46 @@ public class SqlHelper {
         return reusedStringBuilder.toString();
     }
 
+    /**
+     * Runs the statement with the given prefix for all ids, binding up to
+     * {@link #MAX_IDS_PER_STATEMENT} ids at a time. Statements for full batches are re-used.
+     *
+     * @param queryPrefix A query that ends with an open IN list, e.g. {@link #DELETE_ALL_QUERY_PREFIX}
+     * @param ids The ids to bind into the IN list
+     */
+    void executeForIds(String queryPrefix, List<String> ids) {
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_STATEMENT) {
+            int count = Math.min(MAX_IDS_PER_STATEMENT, ids.size() - start);
+            SQLiteStatement stmt;
+            if (count == MAX_IDS_PER_STATEMENT) {
+                stmt = bulkStatements.get(queryPrefix);
+                if (stmt == null) {
+                    stmt = db.compileStatement(createInQuery(queryPrefix, count));
+                    bulkStatements.put(queryPrefix, stmt);
+                }
+                stmt.clearBindings();
+            } else {
+                stmt = db.compileStatement(createInQuery(queryPrefix, count));
+            }
+            try {
+                for (int i = 0; i < count; i++) {
+                    stmt.bindString(i + 1, ids.get(start + i));
+                }
+                stmt.execute();
+            } finally {
+                if (count != MAX_IDS_PER_STATEMENT) {
+                    stmt.close();
+                }
+            }
+        }
+    }
+
+    static String createInQuery(String queryPrefix, int count) {
+        StringBuilder sb = new StringBuilder(queryPrefix);
+        addPlaceholdersInto(sb, count);
+        return sb.append(")").toString();
+    }
+
     static void addPlaceholdersInto(StringBuilder stringBuilder, int count) {
         if (count == 0) {
             throw new IllegalArgumentException("cannot create placeholders for 0 items");
@@ -244,6 +303,7 @@ public class SqlHelper {
     public void truncate() {
         db.execSQL("DELETE FROM " + DbOpenHelper.JOB_HOLDER_TABLE_NAME);
         db.execSQL("DELETE FROM " + DbOpenHelper.JOB_TAGS_TABLE_NAME);
+        db.execSQL("DELETE FROM " + DbOpenHelper.JOB_BLOBS_TABLE_NAME);
         vacuum();
     }
 
@@ -252,9 +312,11 @@ public class SqlHelper {
     }
 
     public void resetDelayTimesTo(long newDelayTime) {
+        // only rewrite the rows that change
         db.execSQL("UPDATE " + DbOpenHelper.JOB_HOLDER_TABLE_NAME + " SET "
-                + DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnName + "=?"
-            , new Object[]{newDelayTime});
+                + DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnName + "=? WHERE "
+                + DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnName + "!=?"
+            , new Object[]{newDelayTime, newDelayTime});
     }
 
     public static class Property {
@@ -1,19 +1,24 @@
 package com.birbit.android.jobqueue.persistentQueue.sqlite;
 
 import com.birbit.android.jobqueue.Constraint;
+import com.birbit.android.jobqueue.GroupCommitJobQueue;
 import com.birbit.android.jobqueue.Job;
 import com.birbit.android.jobqueue.JobHolder;
 import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.JobQueue;
-import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.PriorityAging;
+import com.birbit.android.jobqueue.TagConstraint;
 import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.config.Durability;
 import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.timer.Timer;
 
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteStatement;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import java.io.ByteArrayInputStream;
@@ -22,40 +27,138 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Persistent Job Queue that keeps its data in an sqlite database.
+ * <p>
+ * Columns of the job table are mirrored in a {@link JobMetadataCache} so that queries are answered
+ * from memory; the database is only read to load the serialized jobs.
+ * <p>
+ * In {@link Durability#GROUP_COMMIT} mode, writes are kept in a single transaction until
+ * {@link #commit()} is called.
+ * <p>
+ * In {@link Durability#WRITE_BEHIND} mode, the {@link #metadataCache} is updated right away and
+ * writes are committed by a {@link BackgroundWriter}. Jobs are serialized on the calling thread and
+ * their data is kept in memory until their insert is committed.
  */
-public class SqliteJobQueue implements JobQueue {
+public class SqliteJobQueue implements JobQueue, GroupCommitJobQueue {
+    private static final String WRITE_SAVEPOINT = "group_write";
     @SuppressWarnings("FieldCanBeLocal")
     private DbOpenHelper dbOpenHelper;
     private final long sessionId;
     private SQLiteDatabase db;
     private SqlHelper sqlHelper;
     private JobSerializer jobSerializer;
-    private FileStorage jobStorage;
-    private final StringBuilder reusedStringBuilder = new StringBuilder();
-    private final WhereQueryCache whereQueryCache;
+    private JobStorage jobStorage;
+    private final JobMetadataCache metadataCache;
+    private final Timer timer;
+    private final boolean groupCommit;
+    private final long groupCommitWindowNs;
+    private final int groupCommitMaxWrites;
+    // group commit state
+    private boolean inGroup = false;
+    private long groupStartNs;
+    private int uncommittedWrites = 0;
+    private int writeDepth = 0;
+    private boolean writeMarkedSuccessful = false;
+    private boolean writeFailed = false;
+    // write behind state
+    @Nullable
+    private final BackgroundWriter backgroundWriter;
+    private long lastInsertionOrder;
+    // data of the jobs whose insert or replace is not committed yet
+    private final Map<String, byte[]> uncommittedData = new ConcurrentHashMap<>();
+    private final Set<String> uncommittedInserts =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // inserts that could not be committed, until their job is removed
+    private final Set<String> failedInserts =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final JobHolder.JobLoader singleJobLoader = new SingleJobLoader();
+    @Nullable
+    private Thread cleanupThread;
+    // holders returned with only the metadata of their job and how many of those were loaded
+    private final AtomicLong lazyJobCount = new AtomicLong(0);
+    private final AtomicLong loadedLazyJobCount = new AtomicLong(0);
 
     public SqliteJobQueue(Configuration configuration, long sessionId, JobSerializer serializer) {
         this.sessionId = sessionId;
-        jobStorage = new FileStorage(configuration.getAppContext(), "jobs_" + configuration.getId());
-        whereQueryCache = new WhereQueryCache(sessionId);
+        this.timer = configuration.getTimer();
+        groupCommit = configuration.getDurability() == Durability.GROUP_COMMIT;
+        groupCommitWindowNs = configuration.getGroupCommitWindowMs() * JobManager.NS_PER_MS;
+        groupCommitMaxWrites = configuration.getGroupCommitMaxWrites();
+        metadataCache = new JobMetadataCache(sessionId,
+                PriorityAging.getAgingNs(configuration));
         dbOpenHelper = new DbOpenHelper(configuration.getAppContext(),
-                configuration.isInTestMode() ? null : ("db_" + configuration.getId()));
+                configuration.isInTestMode() ? null : ("db_" + configuration.getId()),
+                configuration.getDurability());
         db = dbOpenHelper.getWritableDatabase();
         sqlHelper = new SqlHelper(db, DbOpenHelper.JOB_HOLDER_TABLE_NAME,
                 DbOpenHelper.ID_COLUMN.columnName, DbOpenHelper.COLUMN_COUNT,
                 DbOpenHelper.JOB_TAGS_TABLE_NAME, DbOpenHelper.TAGS_COLUMN_COUNT, sessionId);
         this.jobSerializer = serializer;
-        if (configuration.resetDelaysOnRestart()) {
+        final String storageId = "jobs_" + configuration.getId();
+        FileStorage fileStorage = null;
+        if (configuration.storeJobsInDatabase()) {
+            jobStorage = new DbStorage(sqlHelper);
+            migrateFromFileStorage(configuration.getAppContext(), storageId);
+        } else {
+            fileStorage = new FileStorage(configuration.getAppContext(), storageId);
+            jobStorage = fileStorage;
+            migrateFromDbStorage();
+        }
+        // the rows are read once into the cache and only the ones that change are written back
+        loadMetadataCache();
+        if (configuration.resetDelaysOnRestart()
+                && metadataCache.resetDelays(JobManager.NOT_DELAYED_JOB_DELAY)) {
             sqlHelper.resetDelayTimesTo(JobManager.NOT_DELAYED_JOB_DELAY);
         }
-        reEnablePendingCancellations();
-        cleanupFiles();
+        if (metadataCache.reEnableCancelled()) {
+            reEnablePendingCancellations();
+        }
+        if (fileStorage != null) {
+            // listing the folder does not delay the first query
+            cleanupThread = fileStorage.truncateExceptInBackground(metadataCache.ids(),
+                    "jq-cleanup-" + configuration.getId());
+        }
+        if (configuration.getDurability() == Durability.WRITE_BEHIND) {
+            backgroundWriter = new BackgroundWriter(db, configuration.getId(),
+                    groupCommitMaxWrites);
+            lastInsertionOrder = loadLastInsertionOrder();
+        } else {
+            backgroundWriter = null;
+        }
+    }
+
+    private void loadMetadataCache() {
+        Cursor jobsCursor = db.rawQuery(sqlHelper.LOAD_ALL_JOBS_QUERY, null);
+        Cursor tagsCursor = db.rawQuery(sqlHelper.LOAD_ALL_TAGS_QUERY, null);
+        try {
+            metadataCache.load(jobsCursor, tagsCursor);
+        } finally {
+            jobsCursor.close();
+            tagsCursor.close();
+        }
+    }
+
+    private long loadLastInsertionOrder() {
+        Cursor cursor = db.rawQuery("SELECT MAX(" + DbOpenHelper.INSERTION_ORDER_COLUMN.columnName
+                + ") FROM " + DbOpenHelper.JOB_HOLDER_TABLE_NAME, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     private void reEnablePendingCancellations() {
@@ -64,7 +167,74 @@ public class SqliteJobQueue implements JobQueue {
         db.execSQL(sqlHelper.RE_ENABLE_PENDING_CANCELLATIONS_QUERY);
     }
 
+    /**
+     * Moves the data of jobs that were saved into files to the database. Files are only deleted
+     * after the data is committed so that an interrupted migration is retried on the next start.
+     */
+    private void migrateFromFileStorage(Context appContext, String storageId) {
+        if (!FileStorage.exists(appContext, storageId)) {
+            return;
+        }
+        FileStorage fileStorage = new FileStorage(appContext, storageId);
+        Cursor cursor = db.rawQuery(sqlHelper.LOAD_ALL_IDS_QUERY, null);
+        db.beginTransaction();
+        try {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                byte[] data = fileStorage.load(id);
+                if (data != null) {
+                    jobStorage.save(id, data);
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            JqLog.e(e, "cannot migrate jobs from files, will retry on next start");
+            return;
+        } finally {
+            cursor.close();
+            db.endTransaction();
+        }
+        fileStorage.destroy();
+    }
+
+    /**
+     * Moves the data of jobs that were saved into the database to files, in case database storage
+     * is turned off.
+     */
+    private void migrateFromDbStorage() {
+        Cursor cursor = db.rawQuery(sqlHelper.LOAD_ALL_BLOBS_QUERY, null);
+        try {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                jobStorage.save(cursor.getString(DbOpenHelper.BLOBS_JOB_ID_COLUMN.columnIndex),
+                        cursor.getBlob(DbOpenHelper.BLOBS_DATA_COLUMN.columnIndex));
+            }
+        } catch (IOException e) {
+            JqLog.e(e, "cannot migrate jobs from database, will retry on next start");
+            return;
+        } finally {
+            cursor.close();
+        }
+        db.execSQL("DELETE FROM " + DbOpenHelper.JOB_BLOBS_TABLE_NAME);
+    }
+
+    /**
+     * Waits until the files of the jobs that were removed in a previous session are deleted.
+     */
+    @VisibleForTesting
+    public void awaitFileCleanup() throws InterruptedException {
+        if (cleanupThread != null) {
+            cleanupThread.join();
+        }
+    }
+
     private void cleanupFiles() {
+        if (jobStorage.isInDatabase()) {
+            // job data is written and deleted in the same transaction as the job
+            return;
+        }
         Cursor cursor = db.rawQuery(sqlHelper.LOAD_ALL_IDS_QUERY, null);
         Set<String> jobIds = new HashSet<>();
         try {
@@ -82,11 +252,202 @@ public class SqliteJobQueue implements JobQueue {
         return db;
     }
 
+    /**
+     * Starts a write. Writes can be nested, like transactions.
+     * <p>
+     * In group commit mode, the write becomes a part of the group transaction instead of having
+     * its own. Each outermost write is wrapped in a savepoint so that a write that fails, or any
+     * of its nested writes, is rolled back without affecting the rest of the group.
+     */
+    private void beginWrite() {
+        if (!groupCommit) {
+            db.beginTransaction();
+            return;
+        }
+        if (!inGroup) {
+            db.beginTransaction();
+            inGroup = true;
+            groupStartNs = timer.nanoTime();
+        }
+        if (writeDepth == 0) {
+            db.execSQL("SAVEPOINT " + WRITE_SAVEPOINT);
+            writeFailed = false;
+        }
+        writeMarkedSuccessful = false;
+        writeDepth++;
+    }
+
+    private void setWriteSuccessful() {
+        if (!groupCommit) {
+            db.setTransactionSuccessful();
+            return;
+        }
+        writeMarkedSuccessful = true;
+    }
+
+    private void endWrite() {
+        if (!groupCommit) {
+            db.endTransaction();
+            return;
+        }
+        // like transactions, a write fails if any of its nested writes did
+        writeFailed |= !writeMarkedSuccessful;
+        writeMarkedSuccessful = false;
+        writeDepth--;
+        if (writeDepth != 0) {
+            return;
+        }
+        if (writeFailed) {
+            // a leading ';' keeps SQLiteDatabase from treating this as the end of the transaction
+            db.execSQL(";ROLLBACK TO " + WRITE_SAVEPOINT);
+        } else {
+            uncommittedWrites++;
+        }
+        db.execSQL("RELEASE " + WRITE_SAVEPOINT);
+    }
+
+    @Override
+    public boolean hasUncommittedWrites() {
+        if (backgroundWriter != null) {
+            return backgroundWriter.hasPendingWrites();
+        }
+        return inGroup;
+    }
+
+    @Override
+    public boolean shouldCommit() {
+        // background commits do not need JobManager
+        return inGroup && (uncommittedWrites >= groupCommitMaxWrites
+                || timer.nanoTime() - groupStartNs >= groupCommitWindowNs);
+    }
+
+    @Override
+    public void commit() {
+        if (backgroundWriter != null) {
+            backgroundWriter.flush();
+            return;
+        }
+        if (!inGroup) {
+            return;
+        }
+        JqLog.d("committing %d writes", uncommittedWrites);
+        inGroup = false;
+        uncommittedWrites = 0;
+        try {
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean commitsInBackground() {
+        return backgroundWriter != null;
+    }
+
+    @Override
+    public void setCommitListener(@Nullable CommitListener listener) {
+        if (backgroundWriter != null) {
+            backgroundWriter.setCommitListener(listener);
+        }
+    }
+
+    @Override
+    public boolean isInsertCommitted(@NonNull String jobId) {
+        if (backgroundWriter != null) {
+            return !uncommittedInserts.contains(jobId) && !failedInserts.contains(jobId);
+        }
+        return !inGroup;
+    }
+
+    @Override
+    public boolean isInsertFailed(@NonNull String jobId) {
+        return failedInserts.contains(jobId);
+    }
+
+    /**
+     * Queues the insert of a job for the {@link #backgroundWriter} and adds it to the
+     * {@link #metadataCache}. The columns are copied so later changes to the holder are not
+     * written.
+     */
+    private void insertInBackground(@NonNull JobHolder jobHolder, @Nullable final String replacedId) {
+        final byte[] data = serialize(jobHolder);
+        if (jobHolder.getInsertionOrder() == null) {
+            jobHolder.setInsertionOrder(++lastInsertionOrder);
+        } else {
+            lastInsertionOrder = Math.max(lastInsertionOrder, jobHolder.getInsertionOrder());
+        }
+        final JobMetadataCache.Entry row = new JobMetadataCache.Entry(jobHolder);
+        uncommittedData.put(row.id, data);
+        uncommittedInserts.add(row.id);
+        backgroundWriter.enqueue(new BackgroundWriter.Write() {
+            @Override
+            void write() {
+                if (replacedId != null) {
+                    deleteJobAndData(replacedId);
+                }
+                saveData(row.id, data);
+                final SQLiteStatement stmt = sqlHelper.getInsertStatement();
+                stmt.clearBindings();
+                bindValues(stmt, row);
+                stmt.executeInsert();
+                final SQLiteStatement tagsStmt = sqlHelper.getInsertTagsStatement();
+                for (String tag : row.tags) {
+                    tagsStmt.clearBindings();
+                    bindTag(tagsStmt, row.id, tag);
+                    tagsStmt.executeInsert();
+                }
+            }
+
+            @Override
+            void onCommitted() {
+                uncommittedData.remove(row.id, data);
+                uncommittedInserts.remove(row.id);
+            }
+
+            @Override
+            void onFailed() {
+                // the data is kept until the job is removed
+                failedInserts.add(row.id);
+                uncommittedInserts.remove(row.id);
+            }
+        });
+        if (replacedId != null) {
+            metadataCache.remove(replacedId);
+        }
+        metadataCache.put(jobHolder);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean insert(@NonNull JobHolder jobHolder) {
+        if (backgroundWriter != null) {
+            insertInBackground(jobHolder, null);
+            return true;
+        }
+        // keep the job and its data in the same transaction when data is in the database
+        boolean inserted = false;
+        beginWrite();
+        try {
+            inserted = insertJobAndData(jobHolder);
+            if (inserted) {
+                setWriteSuccessful();
+            }
+        } finally {
+            endWrite();
+        }
+        if (inserted) {
+            metadataCache.put(jobHolder);
+        }
+        return inserted;
+    }
+
+    /**
+     * Inserts the job without updating the {@link #metadataCache}. Must be called in a transaction.
+     */
+    private boolean insertJobAndData(@NonNull JobHolder jobHolder) {
         persistJobToDisk(jobHolder);
         if (jobHolder.hasTags()) {
             return insertWithTags(jobHolder);
@@ -100,9 +461,82 @@ public class SqliteJobQueue implements JobQueue {
         return insertId != -1;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean insertAll(@NonNull Collection<JobHolder> jobHolders) {
+        if (backgroundWriter != null) {
+            for (JobHolder jobHolder : jobHolders) {
+                insertInBackground(jobHolder, null);
+            }
+            return true;
+        }
+        final SQLiteStatement stmt = sqlHelper.getInsertStatement();
+        final SQLiteStatement tagsStmt = sqlHelper.getInsertTagsStatement();
+        // only assign insertion orders once the transaction is committed
+        final long[] insertIds = new long[jobHolders.size()];
+        // data files are not part of the transaction, they are deleted if it fails
+        final List<String> savedIds = new ArrayList<>(jobHolders.size());
+        boolean inserted = false;
+        beginWrite();
+        try {
+            int index = 0;
+            for (JobHolder jobHolder : jobHolders) {
+                if (metadataCache.get(jobHolder.getId()) == null) {
+                    savedIds.add(jobHolder.getId());
+                }
+                persistJobToDisk(jobHolder);
+                stmt.clearBindings();
+                bindValues(stmt, jobHolder);
+                long insertId = stmt.executeInsert();
+                if (insertId == -1) {
+                    return false;
+                }
+                insertIds[index++] = insertId;
+                if (jobHolder.hasTags()) {
+                    for (String tag : jobHolder.getTags()) {
+                        tagsStmt.clearBindings();
+                        bindTag(tagsStmt, jobHolder.getId(), tag);
+                        tagsStmt.executeInsert();
+                    }
+                }
+            }
+            setWriteSuccessful();
+            inserted = true;
+        } catch (Throwable t) {
+            JqLog.e(t, "error while inserting jobs");
+            return false;
+        } finally {
+            endWrite();
+            if (!inserted && !jobStorage.isInDatabase()) {
+                jobStorage.deleteAll(savedIds);
+            }
+        }
+        int index = 0;
+        for (JobHolder jobHolder : jobHolders) {
+            // insert id is a alias to row_id
+            jobHolder.setInsertionOrder(insertIds[index++]);
+            metadataCache.put(jobHolder);
+        }
+        return true;
+    }
+
     private void persistJobToDisk(@NonNull JobHolder jobHolder) {
+        saveData(jobHolder.getId(), serialize(jobHolder));
+    }
+
+    private byte[] serialize(@NonNull JobHolder jobHolder) {
         try {
-            jobStorage.save(jobHolder.getId(), jobSerializer.serialize(jobHolder.getJob()));
+            return jobSerializer.serialize(jobHolder.getJob());
+        } catch (IOException e) {
+            throw new RuntimeException("cannot serialize job", e);
+        }
+    }
+
+    private void saveData(String id, byte[] data) {
+        try {
+            jobStorage.save(id, data);
         } catch (IOException e) {
             throw new RuntimeException("cannot save job to disk", e);
         }
@@ -110,25 +544,36 @@ public class SqliteJobQueue implements JobQueue {
 
     @Override
     public void substitute(@NonNull JobHolder newJob, @NonNull JobHolder oldJob) {
-        db.beginTransaction();
+        if (backgroundWriter != null) {
+            insertInBackground(newJob, oldJob.getId());
+            return;
+        }
+        boolean inserted = false;
+        beginWrite();
         try {
-            remove(oldJob);
-            insert(newJob);
-            db.setTransactionSuccessful();
+            deleteJobAndData(oldJob.getId());
+            inserted = insertJobAndData(newJob);
+            if (inserted) {
+                setWriteSuccessful();
+            }
         } finally {
-            db.endTransaction();
+            endWrite();
+        }
+        if (inserted) {
+            metadataCache.remove(oldJob.getId());
+            metadataCache.put(newJob);
         }
     }
 
     private boolean insertWithTags(JobHolder jobHolder) {
         final SQLiteStatement stmt = sqlHelper.getInsertStatement();
         final SQLiteStatement tagsStmt = sqlHelper.getInsertTagsStatement();
-        db.beginTransaction();
+        beginWrite();
         try {
             stmt.clearBindings();
             bindValues(stmt, jobHolder);
-            boolean insertResult = stmt.executeInsert() != -1;
-            if (!insertResult) {
+            long insertId = stmt.executeInsert();
+            if (insertId == -1) {
                 return false;
             }
             for (String tag : jobHolder.getTags()) {
@@ -136,14 +581,16 @@ public class SqliteJobQueue implements JobQueue {
                 bindTag(tagsStmt, jobHolder.getId(), tag);
                 tagsStmt.executeInsert();
             }
-            db.setTransactionSuccessful();
+            setWriteSuccessful();
+            // insert id is a alias to row_id
+            jobHolder.setInsertionOrder(insertId);
             return true;
         } catch (Throwable t) {
             JqLog.e(t, "error while inserting job with tags");
             return false;
         }
         finally {
-            db.endTransaction();
+            endWrite();
         }
     }
 
@@ -152,6 +599,32 @@ public class SqliteJobQueue implements JobQueue {
         stmt.bindString(DbOpenHelper.TAGS_NAME_COLUMN.columnIndex + 1, tag);
     }
 
+    private void bindValues(SQLiteStatement stmt, JobMetadataCache.Entry row) {
+        stmt.bindLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex + 1, row.insertionOrder);
+        stmt.bindString(DbOpenHelper.ID_COLUMN.columnIndex + 1, row.id);
+        stmt.bindLong(DbOpenHelper.PRIORITY_COLUMN.columnIndex + 1, row.priority);
+        if (row.groupId != null) {
+            stmt.bindString(DbOpenHelper.GROUP_ID_COLUMN.columnIndex + 1, row.groupId);
+        }
+        stmt.bindLong(DbOpenHelper.RUN_COUNT_COLUMN.columnIndex + 1, row.runCount);
+        stmt.bindLong(DbOpenHelper.CREATED_NS_COLUMN.columnIndex + 1, row.createdNs);
+        stmt.bindLong(DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnIndex + 1, row.delayUntilNs);
+        stmt.bindLong(DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnIndex + 1,
+                row.runningSessionId);
+        stmt.bindLong(DbOpenHelper.REQUIRED_NETWORK_TYPE_COLUMN.columnIndex + 1,
+                row.requiredNetworkType);
+        stmt.bindLong(DbOpenHelper.DEADLINE_COLUMN.columnIndex + 1, row.deadlineNs);
+        stmt.bindLong(DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN.columnIndex + 1,
+                row.cancelOnDeadline ? 1 : 0);
+        stmt.bindLong(DbOpenHelper.CANCELLED_COLUMN.columnIndex + 1, row.cancelled ? 1 : 0);
+        if (row.singleId != null) {
+            stmt.bindString(DbOpenHelper.SINGLE_ID_COLUMN.columnIndex + 1, row.singleId);
+        }
+        if (row.fairnessKey != null) {
+            stmt.bindString(DbOpenHelper.FAIRNESS_KEY_COLUMN.columnIndex + 1, row.fairnessKey);
+        }
+    }
+
     private void bindValues(SQLiteStatement stmt, JobHolder jobHolder) {
         if (jobHolder.getInsertionOrder() != null) {
             stmt.bindLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex + 1, jobHolder.getInsertionOrder());
@@ -173,6 +646,14 @@ public class SqliteJobQueue implements JobQueue {
         stmt.bindLong(DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN.columnIndex + 1,
                 jobHolder.shouldCancelOnDeadline() ? 1 : 0);
         stmt.bindLong(DbOpenHelper.CANCELLED_COLUMN.columnIndex + 1, jobHolder.isCancelled() ? 1 : 0);
+        String singleId = jobHolder.getSingleInstanceId();
+        if (singleId != null) {
+            stmt.bindString(DbOpenHelper.SINGLE_ID_COLUMN.columnIndex + 1, singleId);
+        }
+        String fairnessKey = jobHolder.getFairnessKey();
+        if (fairnessKey != null) {
+            stmt.bindString(DbOpenHelper.FAIRNESS_KEY_COLUMN.columnIndex + 1, fairnessKey);
+        }
     }
 
     /**
@@ -183,14 +664,50 @@ public class SqliteJobQueue implements JobQueue {
         if (jobHolder.getInsertionOrder() == null) {
             return insert(jobHolder);
         }
-        persistJobToDisk(jobHolder);
+        if (backgroundWriter != null) {
+            replaceInBackground(jobHolder);
+            return true;
+        }
+        beginWrite();
+        try {
+            persistJobToDisk(jobHolder);
+            jobHolder.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
+            SQLiteStatement stmt = sqlHelper.getInsertOrReplaceStatement();
+            stmt.clearBindings();
+            bindValues(stmt, jobHolder);
+            boolean result = stmt.executeInsert() != -1;
+            JqLog.d("reinsert job result %s", result);
+            if (result) {
+                setWriteSuccessful();
+                metadataCache.put(jobHolder);
+            }
+            return result;
+        } finally {
+            endWrite();
+        }
+    }
+
+    private void replaceInBackground(@NonNull JobHolder jobHolder) {
+        final byte[] data = serialize(jobHolder);
         jobHolder.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
-        SQLiteStatement stmt = sqlHelper.getInsertOrReplaceStatement();
-        stmt.clearBindings();
-        bindValues(stmt, jobHolder);
-        boolean result = stmt.executeInsert() != -1;
-        JqLog.d("reinsert job result %s", result);
-        return result;
+        final JobMetadataCache.Entry row = new JobMetadataCache.Entry(jobHolder);
+        uncommittedData.put(row.id, data);
+        backgroundWriter.enqueue(new BackgroundWriter.Write() {
+            @Override
+            void write() {
+                saveData(row.id, data);
+                SQLiteStatement stmt = sqlHelper.getInsertOrReplaceStatement();
+                stmt.clearBindings();
+                bindValues(stmt, row);
+                stmt.executeInsert();
+            }
+
+            @Override
+            void onCommitted() {
+                uncommittedData.remove(row.id, data);
+            }
+        });
+        metadataCache.put(jobHolder);
     }
 
     /**
@@ -201,39 +718,111 @@ public class SqliteJobQueue implements JobQueue {
         delete(jobHolder.getId());
     }
 
-    private void delete(String id) {
-        db.beginTransaction();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll(@NonNull Collection<JobHolder> jobHolders) {
+        if (jobHolders.isEmpty()) {
+            return;
+        }
+        final List<String> ids = idsOf(jobHolders);
+        if (backgroundWriter != null) {
+            backgroundWriter.enqueue(new BackgroundWriter.Write() {
+                @Override
+                void write() {
+                    deleteAll(ids);
+                }
+            });
+            for (String id : ids) {
+                removeFailedInsert(id);
+                metadataCache.remove(id);
+            }
+            return;
+        }
+        beginWrite();
         try {
-            SQLiteStatement stmt = sqlHelper.getDeleteStatement();
-            stmt.clearBindings();
-            stmt.bindString(1, id);
-            stmt.execute();
-            SQLiteStatement deleteTagsStmt = sqlHelper.getDeleteJobTagsStatement();
-            deleteTagsStmt.bindString(1, id);
-            deleteTagsStmt.execute();
-            db.setTransactionSuccessful();
-            jobStorage.delete(id);
+            deleteAll(ids);
+            setWriteSuccessful();
         } finally {
-            db.endTransaction();
+            endWrite();
+        }
+        for (String id : ids) {
+            metadataCache.remove(id);
+        }
+    }
+
+    /**
+     * Deletes the jobs without updating the {@link #metadataCache}. Must be called in a
+     * transaction.
+     */
+    private void deleteAll(List<String> ids) {
+        sqlHelper.executeForIds(sqlHelper.DELETE_ALL_QUERY_PREFIX, ids);
+        sqlHelper.executeForIds(sqlHelper.DELETE_ALL_JOB_TAGS_QUERY_PREFIX, ids);
+        jobStorage.deleteAll(ids);
+    }
+
+    private static List<String> idsOf(Collection<JobHolder> jobHolders) {
+        List<String> ids = new ArrayList<>(jobHolders.size());
+        for (JobHolder jobHolder : jobHolders) {
+            ids.add(jobHolder.getId());
+        }
+        return ids;
+    }
+
+    private void delete(final String id) {
+        if (backgroundWriter != null) {
+            backgroundWriter.enqueue(new BackgroundWriter.Write() {
+                @Override
+                void write() {
+                    deleteJobAndData(id);
+                }
+            });
+            removeFailedInsert(id);
+            metadataCache.remove(id);
+            return;
+        }
+        beginWrite();
+        try {
+            deleteJobAndData(id);
+            setWriteSuccessful();
+        } finally {
+            endWrite();
+        }
+        metadataCache.remove(id);
+    }
+
+    private void removeFailedInsert(String id) {
+        if (failedInserts.remove(id)) {
+            uncommittedData.remove(id);
         }
     }
 
+    /**
+     * Deletes the job without updating the {@link #metadataCache}. Must be called in a transaction.
+     */
+    private void deleteJobAndData(String id) {
+        SQLiteStatement stmt = sqlHelper.getDeleteStatement();
+        stmt.clearBindings();
+        stmt.bindString(1, id);
+        stmt.execute();
+        SQLiteStatement deleteTagsStmt = sqlHelper.getDeleteJobTagsStatement();
+        deleteTagsStmt.bindString(1, id);
+        deleteTagsStmt.execute();
+        jobStorage.delete(id);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public int count() {
-        SQLiteStatement stmt = sqlHelper.getCountStatement();
-        stmt.clearBindings();
-        stmt.bindLong(1, sessionId);
-        return (int) stmt.simpleQueryForLong();
+        return metadataCache.count();
     }
 
     @Override
     public int countReadyJobs(@NonNull Constraint constraint) {
-        final Where where = createWhere(constraint);
-        final long result = where.countReady(db, reusedStringBuilder).simpleQueryForLong();
-        return (int) result;
+        return metadataCache.countReady(constraint);
     }
 
     /**
@@ -241,95 +830,142 @@ public class SqliteJobQueue implements JobQueue {
      */
     @Override
     public JobHolder findJobById(@NonNull String id) {
-        Cursor cursor = db.rawQuery(sqlHelper.FIND_BY_ID_QUERY, new String[]{id});
-        try {
-            if(!cursor.moveToFirst()) {
-                return null;
-            }
-            return createJobHolderFromCursor(cursor);
-        } catch (InvalidJobException e) {
-            JqLog.e(e, "invalid job on findJobById");
+        JobMetadataCache.Entry entry = metadataCache.get(id);
+        if (entry == null) {
             return null;
-        } finally {
-            cursor.close();
         }
+        lazyJobCount.incrementAndGet();
+        return entry.createJobHolder(singleJobLoader);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasJobsWithTags(@NonNull TagConstraint tagConstraint, @NonNull String[] tags) {
+        return metadataCache.hasTags(tagConstraint, tags);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JobHolder findJobBySingleId(@NonNull String singleId) {
+        JobMetadataCache.Entry entry = metadataCache.findBySingleId(singleId);
+        if (entry == null) {
+            return null;
+        }
+        lazyJobCount.incrementAndGet();
+        return entry.createJobHolder(singleJobLoader);
     }
 
     @NonNull
     @Override
     public Set<JobHolder> findJobs(@NonNull Constraint constraint) {
-        final Where where = createWhere(constraint);
-        String selectQuery = where.findJobs(sqlHelper);
-        Cursor cursor = db.rawQuery(selectQuery, where.args);
-        Set<JobHolder> jobs = new HashSet<>();
-        try {
-            while (cursor.moveToNext()) {
-                jobs.add(createJobHolderFromCursor(cursor));
-            }
-        } catch (InvalidJobException e) {
-            JqLog.e(e, "invalid job found by tags.");
-        } finally {
-            cursor.close();
+        // keep the query order so that holders loaded in order read their data in batches
+        Set<JobHolder> jobs = new LinkedHashSet<>();
+        List<JobMetadataCache.Entry> entries = metadataCache.find(constraint);
+        if (entries.isEmpty()) {
+            return jobs;
         }
-
+        List<String> ids = new ArrayList<>(entries.size());
+        for (JobMetadataCache.Entry entry : entries) {
+            ids.add(entry.id);
+        }
+        BatchJobLoader loader = new BatchJobLoader(ids);
+        for (JobMetadataCache.Entry entry : entries) {
+            jobs.add(entry.createJobHolder(loader));
+        }
+        lazyJobCount.addAndGet(entries.size());
         return jobs;
     }
 
     @Override
     public void onJobCancelled(JobHolder jobHolder) {
+        final String id = jobHolder.getId();
+        if (backgroundWriter != null) {
+            backgroundWriter.enqueue(new BackgroundWriter.Write() {
+                @Override
+                void write() {
+                    markAsCancelled(id);
+                }
+            });
+            metadataCache.markCancelled(id);
+            return;
+        }
+        beginWrite();
+        try {
+            markAsCancelled(id);
+            setWriteSuccessful();
+        } finally {
+            endWrite();
+        }
+        metadataCache.markCancelled(id);
+    }
+
+    private void markAsCancelled(String id) {
         SQLiteStatement stmt = sqlHelper.getMarkAsCancelledStatement();
         stmt.clearBindings();
-        stmt.bindString(1, jobHolder.getId());
+        stmt.bindString(1, id);
         stmt.execute();
     }
 
+    @Override
+    public void onJobsCancelled(@NonNull Collection<JobHolder> holders) {
+        if (holders.isEmpty()) {
+            return;
+        }
+        final List<String> ids = idsOf(holders);
+        if (backgroundWriter != null) {
+            backgroundWriter.enqueue(new BackgroundWriter.Write() {
+                @Override
+                void write() {
+                    sqlHelper.executeForIds(sqlHelper.MARK_ALL_AS_CANCELLED_QUERY_PREFIX, ids);
+                }
+            });
+            for (String id : ids) {
+                metadataCache.markCancelled(id);
+            }
+            return;
+        }
+        beginWrite();
+        try {
+            sqlHelper.executeForIds(sqlHelper.MARK_ALL_AS_CANCELLED_QUERY_PREFIX, ids);
+            setWriteSuccessful();
+        } finally {
+            endWrite();
+        }
+        for (String id : ids) {
+            metadataCache.markCancelled(id);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public JobHolder nextJobAndIncRunCount(@NonNull Constraint constraint) {
-        final Where where = createWhere(constraint);
-        //we can even keep these prepared but not sure the cost of them in db layer
-        final String selectQuery = where.nextJob(sqlHelper);
         while (true) {
-            Cursor cursor = db.rawQuery(selectQuery, where.args);
+            JobMetadataCache.Entry entry = metadataCache.next(constraint);
+            if (entry == null) {
+                return null;
+            }
             try {
-                if (!cursor.moveToNext()) {
-                    return null;
-                }
-                JobHolder holder = createJobHolderFromCursor(cursor);
+                JobHolder holder = createJobHolder(entry);
                 setSessionIdOnJob(holder);
                 return holder;
             } catch (InvalidJobException e) {
-                //delete
-                String jobId = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
-                if (jobId == null) {
-                    JqLog.e("cannot find job id on a retrieved job");
-                } else {
-                    delete(jobId);
-                }
-            } finally {
-                cursor.close();
+                delete(entry.id);
             }
         }
     }
 
-    private Where createWhere(Constraint constraint) {
-        return whereQueryCache.build(constraint, reusedStringBuilder);
-    }
-
     /**
      * {@inheritDoc}
      */
     @Override
     public Long getNextJobDelayUntilNs(@NonNull Constraint constraint) {
-        final Where where = createWhere(constraint);
-        try {
-            long result = where.nextJobDelayUntil(db, sqlHelper).simpleQueryForLong();
-            return result == Params.FOREVER ? null : result;
-        } catch (SQLiteDoneException empty) {
-            return null;
-        }
+        return metadataCache.nextDelayUntilNs(constraint);
     }
 
     /**
@@ -337,7 +973,13 @@ public class SqliteJobQueue implements JobQueue {
      */
     @Override
     public void clear() {
+        // VACUUM cannot run in a transaction
+        commit();
         sqlHelper.truncate();
+        metadataCache.clear();
+        uncommittedData.clear();
+        uncommittedInserts.clear();
+        failedInserts.clear();
         cleanupFiles();
     }
 
@@ -350,13 +992,53 @@ public class SqliteJobQueue implements JobQueue {
      * @param jobHolder The job holder to update session id
      */
     private void setSessionIdOnJob(JobHolder jobHolder) {
-        SQLiteStatement stmt = sqlHelper.getOnJobFetchedForRunningStatement();
-        jobHolder.setRunCount(jobHolder.getRunCount() + 1);
+        final String id = jobHolder.getId();
+        final int runCount = jobHolder.getRunCount() + 1;
+        jobHolder.setRunCount(runCount);
         jobHolder.setRunningSessionId(sessionId);
+        writeRunState(id, runCount, sessionId);
+        metadataCache.markRunning(id, runCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onJobReturned(@NonNull JobHolder holder) {
+        final String id = holder.getId();
+        if (metadataCache.get(id) == null) {
+            return;
+        }
+        writeRunState(id, holder.getRunCount(), JobManager.NOT_RUNNING_SESSION_ID);
+        metadataCache.markNotRunning(id, holder.getRunCount());
+    }
+
+    private void writeRunState(final String id, final int runCount,
+            final long runningSessionId) {
+        if (backgroundWriter != null) {
+            backgroundWriter.enqueue(new BackgroundWriter.Write() {
+                @Override
+                void write() {
+                    updateRunState(id, runCount, runningSessionId);
+                }
+            });
+            return;
+        }
+        beginWrite();
+        try {
+            updateRunState(id, runCount, runningSessionId);
+            setWriteSuccessful();
+        } finally {
+            endWrite();
+        }
+    }
+
+    private void updateRunState(String id, int runCount, long runningSessionId) {
+        SQLiteStatement stmt = sqlHelper.getOnJobFetchedForRunningStatement();
         stmt.clearBindings();
-        stmt.bindLong(1, jobHolder.getRunCount());
-        stmt.bindLong(2, sessionId);
-        stmt.bindString(3, jobHolder.getId());
+        stmt.bindLong(1, runCount);
+        stmt.bindLong(2, runningSessionId);
+        stmt.bindString(3, id);
         stmt.execute();
     }
 
@@ -390,15 +1072,11 @@ public class SqliteJobQueue implements JobQueue {
                         .append(cursor.getLong(DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnIndex))
                         .append(" reqNetworkType:")
                         .append(cursor.getLong(DbOpenHelper.REQUIRED_NETWORK_TYPE_COLUMN.columnIndex));
-                Cursor tags = db.rawQuery("SELECT " + DbOpenHelper.TAGS_NAME_COLUMN.columnName
-                        + " FROM " + DbOpenHelper.JOB_TAGS_TABLE_NAME + " WHERE "
-                        + DbOpenHelper.TAGS_JOB_ID_COLUMN.columnName + " = ?", new String[]{id});
-                try {
-                    while (tags.moveToNext()) {
-                        sb.append(", ").append(tags.getString(0));
+                JobMetadataCache.Entry entry = metadataCache.get(id);
+                if (entry != null && entry.tags != null) {
+                    for (String tag : entry.tags) {
+                        sb.append(", ").append(tag);
                     }
-                } finally {
-                    tags.close();
                 }
                 sb.append("\n");
 
@@ -409,54 +1087,36 @@ public class SqliteJobQueue implements JobQueue {
         return sb.toString();
     }
 
-    private JobHolder createJobHolderFromCursor(Cursor cursor) throws InvalidJobException {
-        String jobId = cursor.getString(DbOpenHelper.ID_COLUMN.columnIndex);
+    /**
+     * Returns the number of jobs that were returned from {@link #findJobById(String)} or
+     * {@link #findJobs(Constraint)} without being deserialized and that were not needed so far.
+     *
+     * @return The number of deserializations that were avoided
+     */
+    public long getAvoidedDeserializationCount() {
+        return lazyJobCount.get() - loadedLazyJobCount.get();
+    }
+
+    private JobHolder createJobHolder(JobMetadataCache.Entry entry) throws InvalidJobException {
         Job job;
         try {
-            job = safeDeserialize(jobStorage.load(jobId));
+            job = safeDeserialize(loadData(entry.id));
         } catch (IOException e) {
             throw new InvalidJobException("cannot load job from disk", e);
         }
         if (job == null) {
             throw new InvalidJobException("null job");
         }
-        // load tags
-        Set<String> tags = loadTags(jobId);
-        //noinspection WrongConstant,UnnecessaryLocalVariable
-        JobHolder holder = new JobHolder.Builder()
-                .insertionOrder(cursor.getLong(DbOpenHelper.INSERTION_ORDER_COLUMN.columnIndex))
-                .priority(cursor.getInt(DbOpenHelper.PRIORITY_COLUMN.columnIndex))
-                .groupId(cursor.getString(DbOpenHelper.GROUP_ID_COLUMN.columnIndex))
-                .runCount(cursor.getInt(DbOpenHelper.RUN_COUNT_COLUMN.columnIndex))
-                .job(job)
-                .id(jobId)
-                .tags(tags)
-                .persistent(true)
-                .deadline(cursor.getLong(DbOpenHelper.DEADLINE_COLUMN.columnIndex),
-                        cursor.getInt(DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN.columnIndex) == 1)
-                .createdNs(cursor.getLong(DbOpenHelper.CREATED_NS_COLUMN.columnIndex))
-                .delayUntilNs(cursor.getLong(DbOpenHelper.DELAY_UNTIL_NS_COLUMN.columnIndex))
-                .runningSessionId(cursor.getLong(DbOpenHelper.RUNNING_SESSION_ID_COLUMN.columnIndex))
-                .requiredNetworkType(cursor.getInt(DbOpenHelper.REQUIRED_NETWORK_TYPE_COLUMN.columnIndex))
-                .build();
-        return holder;
-    }
-
-    private Set<String> loadTags(String jobId) {
-        Cursor cursor = db.rawQuery(sqlHelper.LOAD_TAGS_QUERY, new String[]{jobId});
-        try {
-            if (cursor.getCount() == 0) {
-                //noinspection unchecked
-                return Collections.EMPTY_SET;
-            }
-            final Set<String> tags = new HashSet<>();
-            while (cursor.moveToNext()) {
-                tags.add(cursor.getString(0));
-            }
-            return tags;
-        } finally {
-            cursor.close();
-        }
+        return entry.createJobHolder(job);
+    }
+
+    /**
+     * Returns the data of the job, which is kept in memory until its write is committed in write
+     * behind mode.
+     */
+    private byte[] loadData(String id) throws IOException {
+        byte[] data = uncommittedData.get(id);
+        return data != null ? data : jobStorage.load(id);
     }
 
     private Job safeDeserialize(byte[] bytes) {
@@ -468,6 +1128,71 @@ public class SqliteJobQueue implements JobQueue {
         return null;
     }
 
+    /**
+     * Loads the job of a holder returned from {@link #findJobById(String)}.
+     */
+    private class SingleJobLoader implements JobHolder.JobLoader {
+        @Nullable
+        @Override
+        public Job loadJob(@NonNull String id) {
+            loadedLazyJobCount.incrementAndGet();
+            try {
+                return safeDeserialize(loadData(id));
+            } catch (IOException e) {
+                JqLog.e(e, "cannot load job %s from disk", id);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Loads the jobs of the holders returned from a {@link #findJobs(Constraint)} call. Those
+     * are usually needed together (e.g. when they are cancelled) so when a job is needed, the
+     * data of the jobs that follow it in the query order is read with it, up to
+     * {@link SqlHelper#MAX_IDS_PER_STATEMENT} jobs at a time.
+     */
+    private class BatchJobLoader implements JobHolder.JobLoader {
+        private final List<String> ids;
+        private int nextIndex = 0;
+        private final Map<String, byte[]> data = new HashMap<>();
+
+        BatchJobLoader(List<String> ids) {
+            this.ids = ids;
+        }
+
+        @Nullable
+        @Override
+        public Job loadJob(@NonNull String id) {
+            loadedLazyJobCount.incrementAndGet();
+            byte[] bytes = uncommittedData.get(id);
+            if (bytes == null) {
+                bytes = data.remove(id);
+            }
+            if (bytes == null) {
+                loadBatchStartingWith(id);
+                bytes = data.remove(id);
+            }
+            return safeDeserialize(bytes);
+        }
+
+        private void loadBatchStartingWith(String id) {
+            List<String> batch = new ArrayList<>(
+                    Math.min(SqlHelper.MAX_IDS_PER_STATEMENT, ids.size() - nextIndex + 1));
+            batch.add(id);
+            while (batch.size() < SqlHelper.MAX_IDS_PER_STATEMENT && nextIndex < ids.size()) {
+                String next = ids.get(nextIndex++);
+                if (!next.equals(id)) {
+                    batch.add(next);
+                }
+            }
+            try {
+                jobStorage.loadAll(batch, data);
+            } catch (IOException e) {
+                JqLog.e(e, "cannot load jobs from disk");
+            }
+        }
+    }
+
     @SuppressWarnings("WeakerAccess")
     static class InvalidJobException extends Exception {
         InvalidJobException(String detailMessage) {
@@ -43,6 +43,16 @@ public abstract class JobManagerThreadRunnable<T> {
         return jobManager.jobManagerThread.persistentJobQueue.findJobById(id);
     }
 
+    protected long getNetworkStatusQueryCount() {
+        assertRunning();
+        return jobManager.jobManagerThread.networkStatusCache.getQueryCount();
+    }
+
+    protected long getNetworkStatusHitCount() {
+        assertRunning();
+        return jobManager.jobManagerThread.networkStatusCache.getHitCount();
+    }
+
     public T run() throws Throwable {
         final Object[] result = new Object[1];
         jobManager.internalRunInJobManagerThread(new Runnable() {
@@ -0,0 +1,150 @@
+package com.birbit.android.jobqueue;
+
+import com.birbit.android.jobqueue.ConsumerManager.Consumer;
+import com.birbit.android.jobqueue.log.JqLog;
+import com.birbit.android.jobqueue.messaging.Message;
+import com.birbit.android.jobqueue.messaging.MessageFactory;
+import com.birbit.android.jobqueue.messaging.MessageQueueConsumer;
+import com.birbit.android.jobqueue.messaging.PriorityMessageQueue;
+import com.birbit.android.jobqueue.messaging.SafeMessageQueue;
+import com.birbit.android.jobqueue.messaging.message.RunJobMessage;
+import com.birbit.android.jobqueue.messaging.message.RunJobResultMessage;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.timer.SystemTimer;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.fest.reflect.core.Reflection;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that the default logger does not create garbage on the hot paths. Allocations are
+ * counted with the allocated bytes counter of the current thread, so the test is skipped on JVMs
+ * that do not support it.
+ */
+@RunWith(JUnit4.class)
+public class LoggingAllocationTest {
+    private static final int WARM_UP = 20000;
+    private static final int ITERATIONS = 10000;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+
+    private final MessageQueueConsumer dummyConsumer = new MessageQueueConsumer() {
+        @Override
+        public void handleMessage(Message message) {
+
+        }
+
+        @Override
+        public void onIdle() {
+
+        }
+    };
+
+    @Before
+    public void init() {
+        JqLog.clearLogger();
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void disabledLogsDoNotAllocate() {
+        final Object arg = new Object();
+        assertThat(allocatedBytesPerRun(new Runnable() {
+            @Override
+            public void run() {
+                // outside of the Long cache
+                long value = System.nanoTime() | (1L << 40);
+                JqLog.d("no args");
+                JqLog.d("object %s", arg);
+                JqLog.d("long %d", value);
+                JqLog.d("int %d", (int) value);
+                JqLog.d("boolean %s", value > 0);
+                JqLog.d("objects %s %s", arg, arg);
+                JqLog.d("object and long %s %d", arg, value);
+                JqLog.v("no args");
+                JqLog.v("object %s", arg);
+                JqLog.v("long %d", value);
+                JqLog.v("objects %s %s", arg, arg);
+                JqLog.v("object and long %s %d", arg, value);
+            }
+        }), is(0L));
+    }
+
+    @Test
+    public void steadyStateJobRunDoesNotAllocate() {
+        // MockTimer allocates when it notifies waiters
+        final Timer timer = new SystemTimer();
+        final MessageFactory factory = new MessageFactory();
+        final PriorityMessageQueue pmq = new PriorityMessageQueue(timer, factory);
+        SafeMessageQueue mq = new SafeMessageQueue(timer, factory, "test");
+        setRunning(pmq);
+        setRunning(mq);
+        final Consumer consumer = new Consumer(pmq, mq, factory, timer);
+        final JobHolder holder = new JobHolder.Builder()
+                .priority(0)
+                .job(new DummyJob(new Params(0)))
+                .id("job")
+                .groupId(null)
+                .tags(null)
+                .persistent(false)
+                .requiredNetworkType(0)
+                .createdNs(timer.nanoTime())
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(Params.NEVER)
+                .runningSessionId(1)
+                .build();
+        assertThat(allocatedBytesPerRun(new Runnable() {
+            @Override
+            public void run() {
+                RunJobMessage runJobMessage = factory.obtain(RunJobMessage.class);
+                runJobMessage.setJobHolder(holder);
+                consumer.queueConsumer.handleMessage(runJobMessage);
+                factory.release(runJobMessage);
+                Message result = pmq.next(dummyConsumer);
+                if (!(result instanceof RunJobResultMessage)) {
+                    throw new AssertionError("unexpected message " + result);
+                }
+                factory.release(result);
+                consumer.queueConsumer.onIdle();
+                factory.release(pmq.next(dummyConsumer));
+            }
+        }), is(0L));
+    }
+
+    /**
+     * @return The average number of bytes allocated by one run. Any object takes at least 16
+     * bytes, the few bytes the JVM allocates on its own during the measurement round down to 0.
+     */
+    private long allocatedBytesPerRun(Runnable runnable) {
+        for (int i = 0; i < WARM_UP; i++) {
+            runnable.run();
+        }
+        long start = allocatedBytesOfCurrentThread();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runnable.run();
+        }
+        return (allocatedBytesOfCurrentThread() - start) / ITERATIONS;
+    }
+
+    private long allocatedBytesOfCurrentThread() {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void setRunning(Object mq) {
+        Reflection.field("running").ofType(AtomicBoolean.class).in(mq).get().set(true);
+    }
+}
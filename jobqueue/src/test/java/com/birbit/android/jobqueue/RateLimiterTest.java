@@ -0,0 +1,158 @@
+package com.birbit.android.jobqueue;
+
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import android.content.Context;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class RateLimiterTest {
+    private static final long MS = JobManager.NS_PER_MS;
+    private MockTimer timer;
+    private RunningJobSet runningJobGroups;
+    private Configuration.Builder builder;
+
+    @Before
+    public void init() {
+        timer = new MockTimer();
+        runningJobGroups = new RunningJobSet(timer);
+        Context context = Mockito.mock(Context.class);
+        Mockito.when(context.getApplicationContext()).thenReturn(context);
+        builder = new Configuration.Builder(context);
+    }
+
+    @Test
+    public void groupIsThrottledAfterBurst() {
+        RateLimiter rateLimiter = create(builder.rateLimitGroup("g", 2, 1000, 2));
+        rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+        assertThat(runningJobGroups.getSafe().isEmpty(), is(true));
+        rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+        assertThat(runningJobGroups.getSafe().contains("g"), is(true));
+        assertThat(runningJobGroups.getNextDelayForGroups(), is(500 * MS));
+        timer.setNow(500 * MS);
+        assertThat(runningJobGroups.getSafe().isEmpty(), is(true));
+        rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+        assertThat("a token arrives every 500ms", runningJobGroups.getNextDelayForGroups(),
+                is(1000 * MS));
+    }
+
+    @Test
+    public void burstIsRefilledWhileIdle() {
+        RateLimiter rateLimiter = create(builder.rateLimitGroup("g", 1, 1000, 3));
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+        }
+        assertThat(runningJobGroups.getNextDelayForGroups(), is(1000 * MS));
+        timer.setNow(10000 * MS);
+        for (int i = 0; i < 2; i++) {
+            rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+            assertThat(runningJobGroups.getSafe().isEmpty(), is(true));
+        }
+        rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+        assertThat(runningJobGroups.getSafe().contains("g"), is(true));
+    }
+
+    @Test
+    public void tagIsThrottled() {
+        RateLimiter rateLimiter = create(builder.rateLimitTag("t", 1, 1000, 1));
+        rateLimiter.onJobStarted(createHolder(null, "other"), runningJobGroups);
+        assertThat(rateLimiter.getThrottledTags().isEmpty(), is(true));
+        assertThat(rateLimiter.getNextWakeUpNs(), nullValue());
+        rateLimiter.onJobStarted(createHolder(null, "t", "other"), runningJobGroups);
+        assertThat(rateLimiter.getThrottledTags().contains("t"), is(true));
+        assertThat(rateLimiter.getThrottledTags().size(), is(1));
+        assertThat(rateLimiter.getNextWakeUpNs(), is(1000 * MS));
+        timer.setNow(1000 * MS);
+        assertThat(rateLimiter.getThrottledTags().isEmpty(), is(true));
+        assertThat(rateLimiter.getNextWakeUpNs(), nullValue());
+    }
+
+    @Test
+    public void otherGroupsAreNotThrottled() {
+        RateLimiter rateLimiter = create(builder.rateLimitGroup("g", 1, 1000, 1));
+        rateLimiter.onJobStarted(createHolder("g2"), runningJobGroups);
+        rateLimiter.onJobStarted(createHolder(null), runningJobGroups);
+        assertThat(runningJobGroups.getSafe().isEmpty(), is(true));
+    }
+
+    @Test
+    public void returnedJobGivesBackGroupToken() {
+        RateLimiter rateLimiter = create(builder.rateLimitGroup("g", 1, 1000, 1));
+        JobHolder holder = createHolder("g");
+        rateLimiter.onJobStarted(holder, runningJobGroups);
+        assertThat(runningJobGroups.getSafe().contains("g"), is(true));
+        rateLimiter.onJobReturned(holder, runningJobGroups);
+        assertThat(runningJobGroups.getSafe().isEmpty(), is(true));
+        assertThat(runningJobGroups.getNextDelayForGroups(), nullValue());
+        rateLimiter.onJobStarted(createHolder("g"), runningJobGroups);
+        assertThat("the token is taken again", runningJobGroups.getNextDelayForGroups(),
+                is(1000 * MS));
+    }
+
+    @Test
+    public void returnedJobDoesNotShortenRetryDelay() {
+        RateLimiter rateLimiter = create(builder.rateLimitGroup("g", 1, 1000, 1));
+        JobHolder holder = createHolder("g");
+        rateLimiter.onJobStarted(holder, runningJobGroups);
+        runningJobGroups.addGroupUntil("g", 5000 * MS);
+        rateLimiter.onJobReturned(holder, runningJobGroups);
+        assertThat(runningJobGroups.getSafe().contains("g"), is(true));
+        assertThat(runningJobGroups.getNextDelayForGroups(), is(5000 * MS));
+    }
+
+    @Test
+    public void returnedJobGivesBackTagToken() {
+        RateLimiter rateLimiter = create(builder.rateLimitTag("t", 1, 1000, 1));
+        JobHolder holder = createHolder(null, "t");
+        rateLimiter.onJobStarted(holder, runningJobGroups);
+        rateLimiter.onJobStarted(createHolder(null, "t"), runningJobGroups);
+        assertThat(rateLimiter.getNextWakeUpNs(), is(2000 * MS));
+        rateLimiter.onJobReturned(holder, runningJobGroups);
+        assertThat(rateLimiter.getNextWakeUpNs(), is(1000 * MS));
+        timer.setNow(500 * MS);
+        rateLimiter.onJobReturned(holder, runningJobGroups);
+        assertThat(rateLimiter.getThrottledTags().isEmpty(), is(true));
+        assertThat(rateLimiter.getNextWakeUpNs(), nullValue());
+    }
+
+    private RateLimiter create(Configuration.Builder builder) {
+        Configuration configuration = builder.timer(timer).build();
+        return new RateLimiter(timer, configuration.getGroupRateLimits(),
+                configuration.getTagRateLimits());
+    }
+
+    private JobHolder createHolder(String groupId, String... tags) {
+        Set<String> tagSet = tags.length == 0 ? null : new HashSet<String>();
+        if (tagSet != null) {
+            Collections.addAll(tagSet, tags);
+        }
+        return new JobHolder.Builder()
+                .priority(0)
+                .job(new DummyJob(new Params(0).groupBy(groupId).addTags(tags)))
+                .id("job")
+                .groupId(groupId)
+                .tags(tagSet)
+                .persistent(false)
+                .requiredNetworkType(0)
+                .createdNs(timer.nanoTime())
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(Params.NEVER)
+                .runningSessionId(1)
+                .build();
+    }
+}
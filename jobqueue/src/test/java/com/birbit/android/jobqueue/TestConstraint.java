@@ -4,6 +4,7 @@ import com.birbit.android.jobqueue.TagConstraint;
 import com.birbit.android.jobqueue.timer.Timer;
 
 import java.util.Collection;
+import java.util.Map;
 
 public class TestConstraint extends Constraint {
     Timer timer;
@@ -56,6 +57,19 @@ public class TestConstraint extends Constraint {
         super.setTimeLimit(timeLimit);
     }
 
+    @Override
+    public void setFairShare(FairShare fairShare) {
+        super.setFairShare(fairShare);
+    }
+
+    public static FairShare createFairShare(Map<String, Integer> weights) {
+        return new FairShare(weights);
+    }
+
+    public static void onJobStarted(FairShare fairShare, JobHolder holder) {
+        fairShare.onJobStarted(holder);
+    }
+
     public static TestConstraint forTags(Timer timer, TagConstraint tagConstraint,
             Collection<String> excludeIds, String... tags) {
         TestConstraint constraint = new TestConstraint(timer);
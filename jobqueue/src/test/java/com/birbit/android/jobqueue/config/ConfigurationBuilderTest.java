@@ -73,4 +73,24 @@ public class ConfigurationBuilderTest {
     private void testId(String id) {
         builder.id(id).build();
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateLimitWithoutRuns() {
+        builder.rateLimitGroup("group", 0, 1000, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateLimitWithoutBurst() {
+        builder.rateLimitTag("tag", 1, 1000, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fairShareWeightZero() {
+        builder.fairShareWeight("tenant", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePriorityAging() {
+        builder.priorityAging(-1);
+    }
 }
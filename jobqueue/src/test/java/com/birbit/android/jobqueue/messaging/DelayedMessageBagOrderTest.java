@@ -0,0 +1,108 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnit4.class)
+public class DelayedMessageBagOrderTest {
+    MessageFactory factory = new MessageFactory();
+    DelayedMessageBag bag = new DelayedMessageBag(factory);
+
+    @Test
+    public void sameReadyTimeKeepsAddOrder() {
+        List<Message> added = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            CommandMessage cm = new CommandMessage();
+            cm.set(i);
+            bag.add(cm, 1000);
+            added.add(cm);
+        }
+        CollectingQueue mq = new CollectingQueue();
+        assertThat(bag.flushReadyMessages(1000, mq), nullValue());
+        assertThat(mq.posted, is(added));
+    }
+
+    @Test
+    public void randomAddRemoveAndFlush() {
+        long seed = System.nanoTime();
+        Random random = new Random(seed);
+        // sorted by ready time, then add order
+        final List<Message> expected = new ArrayList<>();
+        CollectingQueue mq = new CollectingQueue();
+        long now = 0;
+        for (int step = 0; step < 5000; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int action = random.nextInt(10);
+            if (action < 6) {
+                CommandMessage cm = new CommandMessage();
+                long readyNs = now + random.nextInt(100);
+                bag.add(cm, readyNs);
+                int index = expected.size();
+                while (index > 0 && expected.get(index - 1).readyNs > readyNs) {
+                    index--;
+                }
+                expected.add(index, cm);
+            } else if (action < 7 && !expected.isEmpty()) {
+                final Message toRemove = expected.remove(random.nextInt(expected.size()));
+                bag.removeMessages(new MessagePredicate() {
+                    @Override
+                    public boolean onMessage(Message message) {
+                        return message == toRemove;
+                    }
+                });
+            } else {
+                now += random.nextInt(20);
+                mq.posted.clear();
+                Long next = bag.flushReadyMessages(now, mq);
+                List<Message> ready = new ArrayList<>();
+                while (!expected.isEmpty() && expected.get(0).readyNs <= now) {
+                    ready.add(expected.remove(0));
+                }
+                assertThat(message, mq.posted, is(ready));
+                assertThat(message, next, is(expected.isEmpty() ? null
+                        : expected.get(0).readyNs));
+            }
+        }
+    }
+
+    private static class CollectingQueue implements MessageQueue {
+        final List<Message> posted = new ArrayList<>();
+
+        @Override
+        public void post(Message message) {
+            posted.add(message);
+        }
+
+        @Override
+        public void postAt(Message message, long readyNs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancelMessages(MessagePredicate predicate) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void consume(MessageQueueConsumer consumer) {
+        }
+
+        @Override
+        public void clear() {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.birbit.android.jobqueue.messaging;
+
+import com.birbit.android.jobqueue.messaging.message.AddJobMessage;
+import com.birbit.android.jobqueue.messaging.message.CommandMessage;
+import com.birbit.android.jobqueue.messaging.message.RunJobResultMessage;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+import com.birbit.android.jobqueue.timer.Timer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+@RunWith(JUnit4.class)
+public class LockFreeMessageQueueTest extends MessageQueueTestBase<LockFreeMessageQueue> {
+    LockFreeMessageQueue mq = new LockFreeMessageQueue(new MockTimer(), new MessageFactory());
+
+    @Test
+    public void priorityOrder() {
+        CommandMessage mC1 = new CommandMessage();
+        CommandMessage mC2 = new CommandMessage();
+        AddJobMessage aj1 = new AddJobMessage();
+        AddJobMessage aj2 = new AddJobMessage();
+        RunJobResultMessage result = new RunJobResultMessage();
+        mq.post(mC1);
+        mq.post(mC2);
+        mq.post(aj1);
+        mq.post(result);
+        mq.post(aj2);
+        final List<Message> expectedOrder = Arrays.<Message>asList(result, aj1, aj2, mC1, mC2);
+        mq.consume(new MessageQueueConsumer() {
+            int index;
+            @Override
+            public void handleMessage(Message message) {
+                assertThat(message, is(expectedOrder.get(index++)));
+                if (index == expectedOrder.size()) {
+                    mq.stop();
+                }
+            }
+
+            @Override
+            public void onIdle() {
+
+            }
+        });
+    }
+
+    @Test
+    public void cancelKeepsOrder() {
+        final CommandMessage mC1 = new CommandMessage();
+        final CommandMessage mC2 = new CommandMessage();
+        CommandMessage mC3 = new CommandMessage();
+        mq.post(mC1);
+        mq.post(mC2);
+        mq.cancelMessages(new MessagePredicate() {
+            @Override
+            public boolean onMessage(Message message) {
+                return message == mC2;
+            }
+        });
+        mq.post(mC3);
+        final List<Message> expectedOrder = Arrays.<Message>asList(mC1, mC3);
+        mq.consume(new MessageQueueConsumer() {
+            int index;
+            @Override
+            public void handleMessage(Message message) {
+                assertThat(message, is(expectedOrder.get(index++)));
+                if (index == expectedOrder.size()) {
+                    mq.stop();
+                }
+            }
+
+            @Override
+            public void onIdle() {
+
+            }
+        });
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        final int producerCount = 8;
+        final int messagesPerProducer = 5000;
+        final CountDownLatch received = new CountDownLatch(producerCount * messagesPerProducer);
+        final int[] lastSeen = new int[producerCount];
+        Arrays.fill(lastSeen, -1);
+        final Throwable[] error = new Throwable[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mq.consume(new MessageQueueConsumer() {
+                    @Override
+                    public void handleMessage(Message message) {
+                        CommandMessage cm = (CommandMessage) message;
+                        int producer = cm.getWhat() / messagesPerProducer;
+                        int index = cm.getWhat() % messagesPerProducer;
+                        if (lastSeen[producer] + 1 != index && error[0] == null) {
+                            error[0] = new AssertionError("producer " + producer + " expected "
+                                    + (lastSeen[producer] + 1) + " but received " + index);
+                        }
+                        lastSeen[producer] = index;
+                        received.countDown();
+                    }
+
+                    @Override
+                    public void onIdle() {
+
+                    }
+                });
+            }
+        });
+        consumer.start();
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < producerCount; i++) {
+            final int producer = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < messagesPerProducer; j++) {
+                        CommandMessage cm = new CommandMessage();
+                        cm.set(producer * messagesPerProducer + j);
+                        mq.post(cm);
+                    }
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        assertThat(received.await(30, TimeUnit.SECONDS), is(true));
+        mq.stop();
+        consumer.join(5000);
+        assertThat(consumer.isAlive(), is(false));
+        assertThat(error[0], nullValue());
+    }
+
+    @Override
+    LockFreeMessageQueue createMessageQueue(Timer timer, MessageFactory factory) {
+        return new LockFreeMessageQueue(timer, factory);
+    }
+}
@@ -0,0 +1,36 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileStorageTest {
+    private static final byte[] DATA = new byte[]{1, 2, 3};
+
+    @Test
+    public void backgroundTruncateKeepsJobsSavedByAnotherStorage() throws Exception {
+        String id = "truncate_" + System.nanoTime();
+        FileStorage old = new FileStorage(RuntimeEnvironment.application, id);
+        for (int i = 0; i < 500; i++) {
+            old.save("orphan" + i, DATA);
+        }
+        // the file is listed by the truncate but saved again by a newer storage of the folder
+        old.save("saved", DATA);
+        FileStorage newer = new FileStorage(RuntimeEnvironment.application, id);
+        Thread cleanup = old.truncateExceptInBackground(Collections.<String>emptySet(),
+                "truncate-test");
+        newer.save("saved", DATA);
+        cleanup.join();
+        assertThat(newer.load("saved"), notNullValue());
+        assertThat(newer.load("orphan0"), nullValue());
+        newer.destroy();
+    }
+}
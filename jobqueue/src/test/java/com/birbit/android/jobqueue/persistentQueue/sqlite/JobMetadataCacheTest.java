@@ -0,0 +1,188 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import com.birbit.android.jobqueue.FairShare;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that the indexes of {@link JobMetadataCache} give the same results as going through all
+ * jobs while jobs are added, started, returned, cancelled and removed.
+ */
+@RunWith(JUnit4.class)
+public class JobMetadataCacheTest {
+    private static final long SESSION_ID = 1;
+    private static final String[] GROUPS = {null, null, "g1", "g2", "g3"};
+    private static final String[] TAGS = {"a", "b", "c"};
+    private final MockTimer mockTimer = new MockTimer();
+    private long insertionOrder;
+
+    @Test
+    public void indexesMatchScan() {
+        assertIndexesMatchScan(0);
+    }
+
+    @Test
+    public void indexesMatchScanWithPriorityAging() {
+        assertIndexesMatchScan(50 * JobManager.NS_PER_MS);
+    }
+
+    private void assertIndexesMatchScan(long priorityAgingNs) {
+        long seed = System.nanoTime();
+        Random random = new Random(seed);
+        JobMetadataCache expected = new JobMetadataCache(SESSION_ID, priorityAgingNs, false);
+        JobMetadataCache actual = new JobMetadataCache(SESSION_ID, priorityAgingNs, true);
+        FairShare fairShare = TestConstraint.createFairShare(
+                Collections.singletonMap("g1", 2));
+        List<String> ids = new ArrayList<>();
+        List<String> running = new ArrayList<>();
+        for (int step = 0; step < 3000; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int action = random.nextInt(12);
+            if (action < 4) {
+                JobHolder holder = createHolder(random);
+                expected.put(holder);
+                actual.put(holder);
+                ids.add(holder.getId());
+            } else if (action < 6) {
+                TestConstraint constraint = randomConstraint(random, ids);
+                if (random.nextBoolean()) {
+                    constraint.setFairShare(fairShare);
+                }
+                JobMetadataCache.Entry expectedNext = expected.next(constraint);
+                JobMetadataCache.Entry actualNext = actual.next(constraint);
+                assertThat(message, idOf(actualNext), is(idOf(expectedNext)));
+                if (expectedNext != null) {
+                    expected.markRunning(expectedNext.id, expectedNext.runCount + 1);
+                    actual.markRunning(expectedNext.id, expectedNext.runCount + 1);
+                    running.add(expectedNext.id);
+                }
+            } else if (action < 7 && !running.isEmpty()) {
+                String id = running.remove(random.nextInt(running.size()));
+                if (random.nextBoolean()) {
+                    expected.markNotRunning(id, 1);
+                    actual.markNotRunning(id, 1);
+                } else {
+                    expected.remove(id);
+                    actual.remove(id);
+                }
+            } else if (action < 8 && !ids.isEmpty()) {
+                String id = ids.get(random.nextInt(ids.size()));
+                if (random.nextBoolean()) {
+                    expected.markCancelled(id);
+                    actual.markCancelled(id);
+                } else {
+                    expected.remove(id);
+                    actual.remove(id);
+                }
+            } else if (action < 9 && random.nextInt(20) == 0) {
+                assertThat(message, actual.reEnableCancelled(),
+                        is(expected.reEnableCancelled()));
+                long delayUntil = random.nextBoolean() ? JobManager.NOT_DELAYED_JOB_DELAY
+                        : mockTimer.nanoTime() + random.nextInt(50) * JobManager.NS_PER_MS;
+                assertThat(message, actual.resetDelays(delayUntil),
+                        is(expected.resetDelays(delayUntil)));
+            } else {
+                mockTimer.incrementMs(random.nextInt(20));
+            }
+            TestConstraint constraint = randomConstraint(random, ids);
+            assertThat(message, actual.count(), is(expected.count()));
+            assertThat(message, actual.countReady(constraint),
+                    is(expected.countReady(constraint)));
+            assertThat(message, actual.nextDelayUntilNs(constraint),
+                    is(expected.nextDelayUntilNs(constraint)));
+            if (random.nextBoolean()) {
+                constraint.setTagConstraint(random.nextBoolean() ? TagConstraint.ANY
+                        : TagConstraint.ALL);
+                constraint.setTags(new String[]{TAGS[random.nextInt(TAGS.length)],
+                        TAGS[random.nextInt(TAGS.length)]});
+            }
+            assertThat(message, idsOf(actual.find(constraint)),
+                    is(idsOf(expected.find(constraint))));
+        }
+    }
+
+    private JobHolder createHolder(Random random) {
+        Params params = new Params(random.nextInt(4))
+                .groupBy(GROUPS[random.nextInt(GROUPS.length)]);
+        if (random.nextInt(3) == 0) {
+            params.addTags(TAGS[random.nextInt(TAGS.length)]);
+        }
+        DummyJob job = new DummyJob(params);
+        long now = mockTimer.nanoTime();
+        long delayUntil = random.nextInt(3) == 0
+                ? now + random.nextInt(100) * JobManager.NS_PER_MS
+                : JobManager.NOT_DELAYED_JOB_DELAY;
+        long deadline = random.nextInt(4) == 0
+                ? now + random.nextInt(100) * JobManager.NS_PER_MS : Params.FOREVER;
+        //noinspection WrongConstant
+        return new JobHolder.Builder()
+                .insertionOrder(++insertionOrder)
+                .priority(job.getPriority())
+                .groupId(job.getRunGroupId())
+                .job(job)
+                .id(job.getId())
+                .persistent(true)
+                .tags(job.getTags())
+                .createdNs(now)
+                .deadline(deadline, false)
+                .delayUntilNs(delayUntil)
+                .requiredNetworkType(random.nextInt(3))
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+    }
+
+    private TestConstraint randomConstraint(Random random, List<String> ids) {
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(random.nextInt(3));
+        constraint.setExcludeRunning(random.nextInt(4) != 0);
+        if (random.nextInt(4) != 0) {
+            constraint.setTimeLimit(mockTimer.nanoTime());
+        }
+        Set<String> excludeGroups = new HashSet<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            String group = GROUPS[random.nextInt(GROUPS.length)];
+            if (group != null) {
+                excludeGroups.add(group);
+            }
+        }
+        List<String> sortedGroups = new ArrayList<>(excludeGroups);
+        Collections.sort(sortedGroups);
+        constraint.setExcludeGroups(sortedGroups);
+        if (!ids.isEmpty() && random.nextBoolean()) {
+            constraint.setExcludeJobIds(Arrays.asList(ids.get(random.nextInt(ids.size())),
+                    ids.get(random.nextInt(ids.size()))));
+        }
+        return constraint;
+    }
+
+    private static String idOf(JobMetadataCache.Entry entry) {
+        return entry == null ? null : entry.id;
+    }
+
+    private static List<String> idsOf(List<JobMetadataCache.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (JobMetadataCache.Entry entry : entries) {
+            result.add(entry.id);
+        }
+        return result;
+    }
+}
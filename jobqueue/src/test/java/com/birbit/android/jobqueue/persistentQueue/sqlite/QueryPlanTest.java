@@ -0,0 +1,258 @@
+package com.birbit.android.jobqueue.persistentQueue.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for the statements {@link SqliteJobQueue} executes while it is running
+ * and fails if any of them scans a table or sorts into a temporary b-tree.
+ * <p>
+ * Statements that only run at startup load or update every row and are expected to scan, but they
+ * should never sort.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+    private SqliteJobQueue queue;
+    private SQLiteDatabase db;
+    private SqlHelper sqlHelper;
+
+    @Before
+    public void setUp() {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        queue = new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id("query_plan").jobSerializer(serializer).inTestMode().storeJobsInDatabase()
+                .timer(new MockTimer()).build(), 1, serializer);
+        db = queue.getDb();
+        sqlHelper = new SqlHelper(db, DbOpenHelper.JOB_HOLDER_TABLE_NAME,
+                DbOpenHelper.ID_COLUMN.columnName, DbOpenHelper.COLUMN_COUNT,
+                DbOpenHelper.JOB_TAGS_TABLE_NAME, DbOpenHelper.TAGS_COLUMN_COUNT, 1);
+        // some data so that the planner does not take shortcuts for empty tables
+        for (int i = 0; i < 20; i++) {
+            queue.insert(createJobHolder(new Params(i).addTags("tag" + (i % 3), "x")));
+        }
+        db.execSQL("ANALYZE");
+    }
+
+    @Test
+    public void runtimeStatementsUseIndexes() {
+        DbStorage dbStorage = new DbStorage(sqlHelper);
+        List<String> statements = Arrays.asList(
+                sqlHelper.DELETE_QUERY,
+                sqlHelper.DELETE_JOB_TAGS_QUERY,
+                sqlHelper.ON_JOB_FETCHED_FOR_RUNNING_QUERY,
+                sqlHelper.MARK_AS_CANCELLED_QUERY,
+                dbStorage.loadQuery,
+                // a full batch has more arguments than the test table has rows, which makes the
+                // planner prefer a scan
+                DbStorage.createLoadBatchQuery(3),
+                SqlHelper.createInQuery(sqlHelper.DELETE_ALL_QUERY_PREFIX, 3),
+                SqlHelper.createInQuery(sqlHelper.DELETE_ALL_JOB_TAGS_QUERY_PREFIX, 3),
+                SqlHelper.createInQuery(sqlHelper.MARK_ALL_AS_CANCELLED_QUERY_PREFIX, 3),
+                SqlHelper.createInQuery(sqlHelper.DELETE_ALL_BLOBS_QUERY_PREFIX, 3),
+                dbStorage.deleteQuery);
+        for (String sql : statements) {
+            for (String detail : explain(sql)) {
+                assertThat(sql + " -> " + detail, isFullScan(detail), is(false));
+                assertThat(sql + " -> " + detail, usesTempSort(detail), is(false));
+            }
+        }
+    }
+
+    @Test
+    public void startupStatementsDoNotSort() {
+        List<String> statements = Arrays.asList(
+                sqlHelper.LOAD_ALL_JOBS_QUERY,
+                sqlHelper.LOAD_ALL_TAGS_QUERY,
+                sqlHelper.LOAD_ALL_IDS_QUERY,
+                sqlHelper.LOAD_ALL_BLOBS_QUERY,
+                sqlHelper.RE_ENABLE_PENDING_CANCELLATIONS_QUERY);
+        for (String sql : statements) {
+            for (String detail : explain(sql)) {
+                assertThat(sql + " -> " + detail, usesTempSort(detail), is(false));
+            }
+        }
+    }
+
+    @Test
+    public void upgradeAddsTagJobIdIndex() {
+        dropSingleIdColumn();
+        db.execSQL("DROP INDEX " + DbOpenHelper.TAG_JOB_ID_INDEX_NAME);
+        assertThat(hasIndex(DbOpenHelper.TAG_JOB_ID_INDEX_NAME), is(false));
+        new DbOpenHelper(RuntimeEnvironment.application, null).onUpgrade(db, 13, 14);
+        assertThat(hasIndex(DbOpenHelper.TAG_JOB_ID_INDEX_NAME), is(true));
+        assertThat(queue.count(), is(20));
+        for (String detail : explain(sqlHelper.DELETE_JOB_TAGS_QUERY)) {
+            assertThat(detail, isFullScan(detail), is(false));
+        }
+    }
+
+    @Test
+    public void upgradeAddsSingleIdColumn() {
+        JobHolder single = createJobHolder(new Params(0).addTags("tag0").setSingleId("single"));
+        queue.insert(single);
+        dropSingleIdColumn();
+        assertThat(hasIndex(DbOpenHelper.SINGLE_ID_INDEX_NAME), is(false));
+        new DbOpenHelper(RuntimeEnvironment.application, null).onUpgrade(db, 14, 15);
+        assertThat(hasIndex(DbOpenHelper.SINGLE_ID_INDEX_NAME), is(true));
+        Cursor cursor = db.rawQuery("SELECT " + DbOpenHelper.ID_COLUMN.columnName + ", "
+                + DbOpenHelper.SINGLE_ID_COLUMN.columnName + " FROM "
+                + DbOpenHelper.JOB_HOLDER_TABLE_NAME + " WHERE "
+                + DbOpenHelper.SINGLE_ID_COLUMN.columnName + " IS NOT NULL", null);
+        try {
+            assertThat(cursor.getCount(), is(1));
+            cursor.moveToFirst();
+            assertThat(cursor.getString(0), is(single.getId()));
+            assertThat(cursor.getString(1), is(single.getSingleInstanceId()));
+        } finally {
+            cursor.close();
+        }
+        for (String detail : explain("SELECT " + DbOpenHelper.ID_COLUMN.columnName + " FROM "
+                + DbOpenHelper.JOB_HOLDER_TABLE_NAME + " WHERE "
+                + DbOpenHelper.SINGLE_ID_COLUMN.columnName + " = ?")) {
+            assertThat(detail, isFullScan(detail), is(false));
+        }
+    }
+
+    @Test
+    public void upgradeAddsFairnessKeyColumn() {
+        JobHolder grouped = createJobHolder(new Params(0).groupBy("group"));
+        queue.insert(grouped);
+        dropFairnessKeyColumn();
+        new DbOpenHelper(RuntimeEnvironment.application, null).onUpgrade(db, 15, 16);
+        Cursor cursor = db.rawQuery("SELECT " + DbOpenHelper.ID_COLUMN.columnName + ", "
+                + DbOpenHelper.FAIRNESS_KEY_COLUMN.columnName + " FROM "
+                + DbOpenHelper.JOB_HOLDER_TABLE_NAME + " WHERE "
+                + DbOpenHelper.FAIRNESS_KEY_COLUMN.columnName + " IS NOT NULL", null);
+        try {
+            assertThat(cursor.getCount(), is(1));
+            cursor.moveToFirst();
+            assertThat(cursor.getString(0), is(grouped.getId()));
+            assertThat(cursor.getString(1), is("group"));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Recreates the job table the way it was before version 15.
+     */
+    private void dropSingleIdColumn() {
+        recreateJobTable(DbOpenHelper.INSERTION_ORDER_COLUMN,
+                DbOpenHelper.ID_COLUMN, DbOpenHelper.PRIORITY_COLUMN,
+                DbOpenHelper.GROUP_ID_COLUMN, DbOpenHelper.RUN_COUNT_COLUMN,
+                DbOpenHelper.CREATED_NS_COLUMN, DbOpenHelper.DELAY_UNTIL_NS_COLUMN,
+                DbOpenHelper.RUNNING_SESSION_ID_COLUMN, DbOpenHelper.REQUIRED_NETWORK_TYPE_COLUMN,
+                DbOpenHelper.DEADLINE_COLUMN, DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN,
+                DbOpenHelper.CANCELLED_COLUMN);
+    }
+
+    /**
+     * Recreates the job table the way it was before version 16.
+     */
+    private void dropFairnessKeyColumn() {
+        recreateJobTable(DbOpenHelper.INSERTION_ORDER_COLUMN,
+                DbOpenHelper.ID_COLUMN, DbOpenHelper.PRIORITY_COLUMN,
+                DbOpenHelper.GROUP_ID_COLUMN, DbOpenHelper.RUN_COUNT_COLUMN,
+                DbOpenHelper.CREATED_NS_COLUMN, DbOpenHelper.DELAY_UNTIL_NS_COLUMN,
+                DbOpenHelper.RUNNING_SESSION_ID_COLUMN, DbOpenHelper.REQUIRED_NETWORK_TYPE_COLUMN,
+                DbOpenHelper.DEADLINE_COLUMN, DbOpenHelper.CANCEL_ON_DEADLINE_COLUMN,
+                DbOpenHelper.CANCELLED_COLUMN, DbOpenHelper.SINGLE_ID_COLUMN);
+    }
+
+    private void recreateJobTable(SqlHelper.Property... columns) {
+        StringBuilder names = new StringBuilder();
+        for (SqlHelper.Property column : columns) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(column.columnName);
+        }
+        String oldTable = DbOpenHelper.JOB_HOLDER_TABLE_NAME + "_old";
+        db.execSQL(SqlHelper.create(oldTable, columns[0],
+                Arrays.copyOfRange(columns, 1, columns.length)));
+        db.execSQL("INSERT INTO " + oldTable + " SELECT " + names + " FROM "
+                + DbOpenHelper.JOB_HOLDER_TABLE_NAME);
+        db.execSQL(SqlHelper.drop(DbOpenHelper.JOB_HOLDER_TABLE_NAME));
+        db.execSQL("ALTER TABLE " + oldTable + " RENAME TO " + DbOpenHelper.JOB_HOLDER_TABLE_NAME);
+    }
+
+    private List<String> explain(String sql) {
+        int argCount = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                argCount++;
+            }
+        }
+        String[] args = new String[argCount];
+        Arrays.fill(args, "1");
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        List<String> details = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                // id, parent, notused, detail
+                details.add(cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    private static boolean isFullScan(String detail) {
+        // older versions print "SCAN TABLE x", newer ones "SCAN x"
+        return detail.startsWith("SCAN") && !detail.contains("INDEX");
+    }
+
+    private static boolean usesTempSort(String detail) {
+        return detail.contains("TEMP B-TREE");
+    }
+
+    private boolean hasIndex(String name) {
+        Cursor cursor = db.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'index'"
+                + " AND name = ?", new String[]{name});
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0) == 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static JobHolder createJobHolder(Params params) {
+        DummyJob job = new DummyJob(params);
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .id(job.getId())
+                .tags(job.getTags())
+                .persistent(job.isPersistent())
+                .createdNs(0)
+                .runCount(0)
+                .requiredNetworkType(NetworkUtil.DISCONNECTED)
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(Long.MIN_VALUE)
+                .runningSessionId(Long.MIN_VALUE)
+                .build();
+    }
+}
@@ -0,0 +1,238 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.AsyncAddCallback;
+import com.birbit.android.jobqueue.CancelReason;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.QueueFactory;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class AddJobsTest extends JobManagerTestBase {
+    final boolean persistent;
+
+    public AddJobsTest(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "persistent:{0}")
+    public static List<Object[]> getParameters() {
+        return Arrays.asList(
+                new Object[]{false},
+                new Object[]{true}
+        );
+    }
+
+    @Test
+    public void addJobs() throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            jobs.add(new DummyJob(new Params(i % 3).setPersistent(persistent)));
+        }
+        jobManager.addJobs(jobs);
+        assertThat(jobManager.count(), is(50));
+        for (int i = 0; i < 50; i++) {
+            int expectedPriority = i < 16 ? 2 : (i < 33 ? 1 : 0);
+            assertThat(nextJob(jobManager).getPriority(), is(expectedPriority));
+        }
+        assertThat(nextJob(jobManager), is(nullValue()));
+    }
+
+    @Test
+    public void addJobsInBackgroundWithCallback() throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        final AtomicInteger addedCount = new AtomicInteger();
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                addedCount.incrementAndGet();
+            }
+        });
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            jobs.add(new DummyJob(new Params(0).setPersistent(persistent)));
+        }
+        final CountDownLatch callbackLatch = new CountDownLatch(1);
+        final AtomicInteger callbackCount = new AtomicInteger();
+        jobManager.addJobsInBackground(jobs, new AsyncAddCallback() {
+            @Override
+            public void onAdded() {
+                callbackCount.incrementAndGet();
+                callbackLatch.countDown();
+            }
+        });
+        assertThat(callbackLatch.await(10, TimeUnit.SECONDS), is(true));
+        assertThat("callback should be called after all jobs are added", addedCount.get(),
+                is(10));
+        assertThat(jobManager.count(), is(10));
+        assertThat(callbackCount.get(), is(1));
+    }
+
+    @Test
+    public void addJobsWithSingleId() throws Throwable {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        DummyJob queued = new DummyJob(new Params(0).setPersistent(persistent)
+                .setSingleId("queued"));
+        jobManager.addJob(queued);
+
+        final CountDownLatch cancelLatch = new CountDownLatch(2);
+        List<Job> jobs = new ArrayList<>();
+        DummyJob first = new DummyJob(new Params(0).setPersistent(persistent).setSingleId("new"));
+        jobs.add(first);
+        jobs.add(new CancelTrackingJob(new Params(0).setPersistent(persistent)
+                .setSingleId("new"), cancelLatch));
+        jobs.add(new CancelTrackingJob(new Params(0).setPersistent(persistent)
+                .setSingleId("queued"), cancelLatch));
+        DummyJob noSingleId = new DummyJob(new Params(0).setPersistent(persistent));
+        jobs.add(noSingleId);
+        jobManager.addJobs(jobs);
+
+        assertThat(cancelLatch.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(jobManager.count(), is(3));
+        assertThat(nextJob(jobManager).getId(), is(queued.getId()));
+        assertThat(nextJob(jobManager).getId(), is(first.getId()));
+        assertThat(nextJob(jobManager).getId(), is(noSingleId.getId()));
+        assertThat(nextJob(jobManager), is(nullValue()));
+    }
+
+    @Test
+    public void addJobsWhenInsertFails() throws Throwable {
+        JobManager jobManager = createJobManagerWithFailingInserts();
+        jobManager.stop();
+        final AtomicInteger addedCount = new AtomicInteger();
+        final List<Integer> cancelReasons = new CopyOnWriteArrayList<>();
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                addedCount.incrementAndGet();
+            }
+        });
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            jobs.add(new DummyJob(new Params(0).setPersistent(persistent)) {
+                @Override
+                protected void onCancel(@CancelReason int cancelReason,
+                        @Nullable Throwable throwable) {
+                    cancelReasons.add(cancelReason);
+                }
+            });
+        }
+        final AtomicInteger callbackCount = new AtomicInteger();
+        jobManager.addJobsInBackground(jobs.subList(0, 5), new AsyncAddCallback() {
+            @Override
+            public void onAdded() {
+                callbackCount.incrementAndGet();
+            }
+        });
+        // returns once the failed jobs are cancelled
+        jobManager.addJobs(jobs.subList(5, 6));
+        assertThat(addedCount.get(), is(0));
+        assertThat(callbackCount.get(), is(0));
+        assertThat(cancelReasons.size(), is(6));
+        for (int reason : cancelReasons) {
+            assertThat(reason, is(CancelReason.ADD_FAILED));
+        }
+        assertThat(jobManager.count(), is(0));
+    }
+
+    @Test
+    public void addJobsWithSingleIdWhenInsertFails() throws Throwable {
+        JobManager jobManager = createJobManagerWithFailingInserts();
+        jobManager.stop();
+        final List<Integer> cancelReasons = new CopyOnWriteArrayList<>();
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            jobs.add(new DummyJob(new Params(0).setPersistent(persistent).setSingleId("single")) {
+                @Override
+                protected void onCancel(@CancelReason int cancelReason,
+                        @Nullable Throwable throwable) {
+                    cancelReasons.add(cancelReason);
+                }
+            });
+        }
+        jobManager.addJobs(jobs);
+        assertThat(cancelReasons.size(), is(3));
+        for (int reason : cancelReasons) {
+            assertThat("no job with the single id was queued", reason,
+                    is(CancelReason.ADD_FAILED));
+        }
+        assertThat(jobManager.count(), is(0));
+    }
+
+    private JobManager createJobManagerWithFailingInserts() {
+        return createJobManager(new Configuration.Builder(RuntimeEnvironment.application)
+                .timer(mockTimer)
+                .queueFactory(new QueueFactory() {
+                    @Override
+                    public JobQueue createPersistentQueue(Configuration configuration,
+                            long sessionId) {
+                        return new FailingInsertQueue(configuration, sessionId);
+                    }
+
+                    @Override
+                    public JobQueue createNonPersistent(Configuration configuration,
+                            long sessionId) {
+                        return new FailingInsertQueue(configuration, sessionId);
+                    }
+                }));
+    }
+
+    private static class FailingInsertQueue extends SimpleInMemoryPriorityQueue {
+        FailingInsertQueue(Configuration configuration, long sessionId) {
+            super(configuration, sessionId);
+        }
+
+        @Override
+        public boolean insertAll(@NonNull Collection<JobHolder> jobHolders) {
+            return false;
+        }
+    }
+
+    public static class CancelTrackingJob extends DummyJob {
+        final transient CountDownLatch latch;
+
+        public CancelTrackingJob(Params params, CountDownLatch latch) {
+            super(params);
+            this.latch = latch;
+        }
+
+        @Override
+        protected void onCancel(@CancelReason int cancelReason, @Nullable Throwable throwable) {
+            super.onCancel(cancelReason, throwable);
+            if (cancelReason == CancelReason.SINGLE_INSTANCE_ID_QUEUED) {
+                latch.countDown();
+            }
+        }
+    }
+}
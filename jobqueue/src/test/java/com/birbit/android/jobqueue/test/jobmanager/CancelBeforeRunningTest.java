@@ -14,6 +14,8 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -42,6 +44,33 @@ public class CancelBeforeRunningTest extends JobManagerTestBase {
         }
     }
 
+    @Test
+    public void testCancelManyPersistentJobs() {
+        JobManager jobManager = createJobManager();
+        jobManager.stop();
+        // more than a batch of ids in a single statement
+        int cancelCount = 1201;
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < cancelCount; i++) {
+            jobs.add(new DummyJob(new Params(0).addTags("dummyTag").persist()));
+        }
+        for (int i = 0; i < 3; i++) {
+            jobs.add(new DummyJob(new Params(0).addTags("otherTag").persist()));
+        }
+        jobManager.addJobs(jobs);
+        CancelResult result = jobManager.cancelJobs(TagConstraint.ANY, "dummyTag");
+        assertThat(result.getCancelledJobs().size(), is(cancelCount));
+        assertThat(result.getFailedToCancel().size(), is(0));
+        for (Job j : result.getCancelledJobs()) {
+            DummyJob job = (DummyJob) j;
+            assertThat("job is cancelled", job.getOnCancelCnt(), is(1));
+            assertThat("job is NOT run", job.getOnRunCnt(), is(0));
+        }
+        assertThat(jobManager.count(), is(3));
+        assertThat(jobManager.cancelJobs(TagConstraint.ANY, "dummyTag").getCancelledJobs().size(),
+                is(0));
+    }
+
     public static CountDownLatch persistentJobLatch = new CountDownLatch(1);
     CountDownLatch nonPersistentJobLatch = new CountDownLatch(1);
     @Test
@@ -0,0 +1,119 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConsumerExecutorTest extends JobManagerTestBase {
+    private static final String THREAD_PREFIX = "test-executor-";
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            return new Thread(r, THREAD_PREFIX + count.incrementAndGet());
+        }
+    });
+
+    @After
+    public void shutDownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runConcurrentJobsOnExecutor() throws Throwable {
+        final int jobCount = 20;
+        int keepAlive = 3;
+        final JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .consumerExecutor(executor)
+                        .consumerKeepAlive(keepAlive)
+                        .loadFactor(1)
+                        .maxConsumerCount(jobCount));
+        final CountDownLatch allStarted = new CountDownLatch(jobCount);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch allDone = new CountDownLatch(jobCount);
+        final AtomicInteger wrongThread = new AtomicInteger();
+        for (int i = 0; i < jobCount; i++) {
+            jobManager.addJob(new DummyJob(new Params(0)) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    if (!Thread.currentThread().getName().startsWith(THREAD_PREFIX)) {
+                        wrongThread.incrementAndGet();
+                    }
+                    allStarted.countDown();
+                    release.await(30, TimeUnit.SECONDS);
+                    allDone.countDown();
+                }
+            });
+        }
+        assertThat("all jobs should run at the same time", allStarted.await(30, TimeUnit.SECONDS),
+                is(true));
+        assertThat(jobManager.getActiveConsumerCount(), is(jobCount));
+        assertThat(executor.getActiveCount(), is(jobCount));
+        release.countDown();
+        assertThat(allDone.await(30, TimeUnit.SECONDS), is(true));
+        assertThat("jobs should run on the executor's threads", wrongThread.get(), is(0));
+        // sync with the job manager so that the results are handled
+        jobManager.count();
+
+        mockTimer.incrementNs(JobManager.NETWORK_CHECK_INTERVAL
+                + TimeUnit.SECONDS.toNanos(keepAlive) + 1);
+        FutureTask<Void> waitForConsumersFuture = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                jobManager.waitUntilConsumersAreFinished();
+                return null;
+            }
+        });
+        new Thread(waitForConsumersFuture).start();
+        waitForConsumersFuture.get(keepAlive * 10, TimeUnit.SECONDS);
+        assertThat(jobManager.getActiveConsumerCount(), is(0));
+        // consumers return their tasks to the executor after the keep alive timeout
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executor.getActiveCount() > 0 && System.nanoTime() < deadline) {
+            //noinspection SLEEP_IN_CODE
+            Thread.sleep(10);
+        }
+        assertThat(executor.getActiveCount(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotUseWithThreadFactory() {
+        new Configuration.Builder(RuntimeEnvironment.application)
+                .consumerExecutor(executor)
+                .threadFactory(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        return new Thread(r);
+                    }
+                })
+                .build();
+    }
+}
@@ -0,0 +1,88 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class FairShareTest extends JobManagerTestBase {
+    // static so that persistent jobs can be serialized
+    private static List<String> order;
+    private static CountDownLatch allRun;
+
+    @Test
+    public void tenantsTakeTurns() throws Throwable {
+        List<String> order = run(new Configuration.Builder(RuntimeEnvironment.application)
+                .fairShare(), false);
+        assertThat(order, is(Arrays.asList("a", "b", "a", "b", "a", "a", "a", "a")));
+    }
+
+    @Test
+    public void tenantsTakeTurnsPersistent() throws Throwable {
+        List<String> order = run(new Configuration.Builder(RuntimeEnvironment.application)
+                .fairShare(), true);
+        assertThat(order, is(Arrays.asList("a", "b", "a", "b", "a", "a", "a", "a")));
+    }
+
+    @Test
+    public void weightedTenants() throws Throwable {
+        List<String> order = run(new Configuration.Builder(RuntimeEnvironment.application)
+                .fairShareWeight("b", 2), false);
+        assertThat(order, is(Arrays.asList("a", "b", "b", "a", "a", "a", "a", "a")));
+    }
+
+    @Test
+    public void disabledByDefault() throws Throwable {
+        List<String> order = run(new Configuration.Builder(RuntimeEnvironment.application),
+                false);
+        assertThat(order, is(Arrays.asList("a", "a", "a", "a", "a", "a", "b", "b")));
+    }
+
+    private List<String> run(Configuration.Builder builder, boolean persistent) throws Throwable {
+        JobManager jobManager = createJobManager(builder
+                .maxConsumerCount(1)
+                .timer(mockTimer));
+        jobManager.stop();
+        order = Collections.synchronizedList(new ArrayList<String>());
+        allRun = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            Params params = new Params(0).fairnessKey(i < 6 ? "a" : "b");
+            if (persistent) {
+                params.persist();
+            }
+            jobManager.addJob(new OrderJob(params));
+        }
+        jobManager.start();
+        assertThat(allRun.await(30, TimeUnit.SECONDS), is(true));
+        return order;
+    }
+
+    public static class OrderJob extends DummyJob {
+        public OrderJob(Params params) {
+            super(params);
+        }
+
+        @Override
+        public void onRun() throws Throwable {
+            super.onRun();
+            order.add(getFairnessKey());
+            allRun.countDown();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import com.birbit.android.jobqueue.AsyncAddCallback;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.config.Durability;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class GroupCommitTest extends JobManagerTestBase {
+    @Test
+    public void addCallbacksBeforeRun() throws Throwable {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .durability(Durability.GROUP_COMMIT)
+                        .groupCommitLimits(1000, 10));
+        final int jobCount = 50;
+        final Set<String> added = Collections.synchronizedSet(new HashSet<String>());
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final CountDownLatch allAdded = new CountDownLatch(jobCount);
+        final CountDownLatch allDone = new CountDownLatch(jobCount);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                added.add(job.getId());
+            }
+
+            @Override
+            public void onJobRun(@NonNull Job job, int resultCode) {
+                if (!added.contains(job.getId())) {
+                    errors.add(job.getId() + " ran before it was reported as added");
+                }
+            }
+
+            @Override
+            public void onDone(@NonNull Job job) {
+                allDone.countDown();
+            }
+        });
+        for (int i = 0; i < jobCount; i++) {
+            jobManager.addJobInBackground(new DummyJob(new Params(0).persist()),
+                    new AsyncAddCallback() {
+                        @Override
+                        public void onAdded() {
+                            allAdded.countDown();
+                        }
+                    });
+        }
+        assertThat(allAdded.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(allDone.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(errors.toString(), errors.isEmpty(), is(true));
+        assertThat(jobManager.count(), is(0));
+    }
+
+    @Test
+    public void syncAddWaitsForCommit() throws Throwable {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .durability(Durability.GROUP_COMMIT));
+        jobManager.stop();
+        // returns once the group including the job is committed on idle
+        jobManager.addJob(new DummyJob(new Params(0).persist()));
+        jobManager.addJob(new DummyJob(new Params(0).persist()));
+        assertThat(jobManager.count(), is(2));
+    }
+}
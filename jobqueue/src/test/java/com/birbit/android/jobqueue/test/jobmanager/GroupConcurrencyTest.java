@@ -0,0 +1,120 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class GroupConcurrencyTest extends JobManagerTestBase {
+    private static final String ALBUM = "album";
+    private static final String ORDERED = "ordered";
+
+    @Test
+    public void countReadyJobsUpToTheLimit() throws Throwable {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .groupConcurrency(ALBUM, 3)
+                        .timer(mockTimer));
+        jobManager.stop();
+        for (int i = 0; i < 5; i++) {
+            jobManager.addJob(new DummyJob(new Params(0).groupBy(ALBUM)));
+            jobManager.addJob(new DummyJob(new Params(0).persist().groupBy(ALBUM)));
+            jobManager.addJob(new DummyJob(new Params(0).groupBy(ORDERED)));
+        }
+        // 3 non persistent and 3 persistent album jobs, 1 job of the other group
+        assertThat(jobManager.countReadyJobs(), is(7));
+    }
+
+    @Test
+    public void runUpToTheLimitAtOnce() throws Throwable {
+        runUpToTheLimitAtOnce(new Configuration.Builder(RuntimeEnvironment.application));
+    }
+
+    @Test
+    public void runUpToTheLimitAtOnceWithWorkStealing() throws Throwable {
+        runUpToTheLimitAtOnce(new Configuration.Builder(RuntimeEnvironment.application)
+                .workStealing(2));
+    }
+
+    private void runUpToTheLimitAtOnce(Configuration.Builder builder) throws Throwable {
+        final int limit = 3;
+        final int albumJobs = 6;
+        final int orderedJobs = 10;
+        JobManager jobManager = createJobManager(builder
+                .groupConcurrency(ALBUM, limit)
+                .maxConsumerCount(6)
+                .loadFactor(1)
+                .timer(mockTimer));
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch limitReached = new CountDownLatch(limit);
+        final CountDownLatch allRun = new CountDownLatch(albumJobs + orderedJobs);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final AtomicInteger runningOrdered = new AtomicInteger(0);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < albumJobs; i++) {
+            jobManager.addJob(new DummyJob(new Params(0).groupBy(ALBUM)) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    int now = running.incrementAndGet();
+                    int max = maxRunning.get();
+                    while (now > max && !maxRunning.compareAndSet(max, now)) {
+                        max = maxRunning.get();
+                    }
+                    limitReached.countDown();
+                    release.await(30, TimeUnit.SECONDS);
+                    running.decrementAndGet();
+                    allRun.countDown();
+                }
+            });
+        }
+        for (int i = 0; i < orderedJobs; i++) {
+            final int index = i;
+            jobManager.addJob(new DummyJob(new Params(0).groupBy(ORDERED)) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    if (runningOrdered.incrementAndGet() != 1) {
+                        order.add(-1);
+                    }
+                    order.add(index);
+                    runningOrdered.decrementAndGet();
+                    allRun.countDown();
+                }
+            });
+        }
+        try {
+            assertThat(limitReached.await(30, TimeUnit.SECONDS), is(true));
+            //noinspection SLEEP_IN_CODE
+            Thread.sleep(200);
+            assertThat("no more than the limit should run", maxRunning.get(), is(limit));
+        } finally {
+            release.countDown();
+        }
+        assertThat(allRun.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(maxRunning.get(), is(limit));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < orderedJobs; i++) {
+            expected.add(i);
+        }
+        assertThat("groups without a limit should run one job at a time and in order", order,
+                is(expected));
+    }
+}
@@ -0,0 +1,98 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobManagerThreadRunnable;
+import com.birbit.android.jobqueue.JobStatus;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class NetworkStatusCacheTest extends JobManagerTestBase {
+    private static final int JOB_COUNT = 10;
+
+    @Test
+    public void queriedOncePerNetworkChange() throws Throwable {
+        DummyNetworkUtilWithConnectivityEventSupport networkUtil =
+                new DummyNetworkUtilWithConnectivityEventSupport();
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .networkUtil(networkUtil)
+                        .timer(mockTimer));
+        jobManager.stop();
+        networkUtil.setNetworkStatus(NetworkUtil.DISCONNECTED, true);
+        DummyJob dummyJob = null;
+        for (int i = 0; i < JOB_COUNT; i++) {
+            dummyJob = new DummyJob(new Params(0).requireNetwork());
+            jobManager.addJob(dummyJob);
+        }
+        assertThat(nextJob(jobManager), nullValue());
+        long queries = getQueryCount(jobManager);
+        long hits = getHitCount(jobManager);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            assertThat(nextJob(jobManager), nullValue());
+            assertThat(jobManager.countReadyJobs(), is(0));
+            assertThat(jobManager.getJobStatus(dummyJob.getId()),
+                    is(JobStatus.WAITING_NOT_READY));
+        }
+        assertThat(getQueryCount(jobManager), is(queries));
+        assertThat(getHitCount(jobManager) - hits >= 3 * JOB_COUNT, is(true));
+
+        networkUtil.setNetworkStatus(NetworkUtil.METERED, true);
+        for (int i = 0; i < JOB_COUNT; i++) {
+            assertThat(nextJob(jobManager), notNullValue());
+        }
+        assertThat(getQueryCount(jobManager), is(queries + 1));
+    }
+
+    @Test
+    public void changesWithoutEventsAreSeenAfterTtl() throws Throwable {
+        DummyNetworkUtil networkUtil = new DummyNetworkUtil();
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .networkUtil(networkUtil)
+                        .networkStatusTtl(1000)
+                        .timer(mockTimer));
+        jobManager.stop();
+        networkUtil.setNetworkStatus(NetworkUtil.DISCONNECTED);
+        jobManager.addJob(new DummyJob(new Params(0).requireNetwork()));
+        assertThat(nextJob(jobManager), nullValue());
+        long queries = getQueryCount(jobManager);
+        networkUtil.setNetworkStatus(NetworkUtil.METERED);
+        assertThat("the cached status is used until it expires", nextJob(jobManager),
+                nullValue());
+        assertThat(getQueryCount(jobManager), is(queries));
+        mockTimer.incrementMs(1000);
+        assertThat(nextJob(jobManager), notNullValue());
+        assertThat(getQueryCount(jobManager), is(queries + 1));
+    }
+
+    private static long getQueryCount(JobManager jobManager) throws Throwable {
+        return new JobManagerThreadRunnable<Long>(jobManager) {
+            @Override
+            public Long onRun() {
+                return getNetworkStatusQueryCount();
+            }
+        }.run();
+    }
+
+    private static long getHitCount(JobManager jobManager) throws Throwable {
+        return new JobManagerThreadRunnable<Long>(jobManager) {
+            @Override
+            public Long onRun() {
+                return getNetworkStatusHitCount();
+            }
+        }.run();
+    }
+}
@@ -0,0 +1,82 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import androidx.annotation.Nullable;
+
+import com.birbit.android.jobqueue.CancelReason;
+import com.birbit.android.jobqueue.DefaultQueueFactory;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class PersistentQueueOpenFailureTest extends JobManagerTestBase {
+    private final RuntimeException openError = new RuntimeException("cannot open");
+
+    private JobManager createFailingJobManager() {
+        return createJobManager(new Configuration.Builder(RuntimeEnvironment.application)
+                .timer(mockTimer)
+                .queueFactory(new DefaultQueueFactory() {
+                    @Override
+                    public JobQueue createPersistentQueue(Configuration configuration,
+                            long sessionId) {
+                        throw openError;
+                    }
+                }));
+    }
+
+    @Test
+    public void queriesReportFailure() {
+        JobManager jobManager = createFailingJobManager();
+        try {
+            jobManager.count();
+            throw new AssertionError("count should fail if the queue cannot be opened");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause(), sameInstance((Throwable) openError));
+        }
+        try {
+            jobManager.getActiveConsumerCount();
+            throw new AssertionError("consumer count should fail if the queue cannot be opened");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause(), sameInstance((Throwable) openError));
+        }
+    }
+
+    @Test
+    public void addedJobsAreCancelled() {
+        JobManager jobManager = createFailingJobManager();
+        final List<Integer> cancelReasons = new CopyOnWriteArrayList<>();
+        final List<Throwable> cancelErrors = new CopyOnWriteArrayList<>();
+        DummyJob job = new DummyJob(new Params(0).persist()) {
+            @Override
+            protected void onCancel(@CancelReason int cancelReason,
+                    @Nullable Throwable throwable) {
+                cancelReasons.add(cancelReason);
+                cancelErrors.add(throwable);
+            }
+        };
+        try {
+            jobManager.addJob(job);
+            throw new AssertionError("add should fail if the queue cannot be opened");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause(), sameInstance((Throwable) openError));
+        }
+        assertThat(cancelReasons.size(), is(1));
+        assertThat(cancelReasons.get(0), is(CancelReason.ADD_FAILED));
+        assertThat(cancelErrors.get(0), sameInstance((Throwable) openError));
+        assertThat(job.getOnRunCnt(), is(0));
+    }
+}
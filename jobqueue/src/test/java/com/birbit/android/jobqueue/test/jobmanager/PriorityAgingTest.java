@@ -0,0 +1,92 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class PriorityAgingTest extends JobManagerTestBase {
+    // static so that persistent jobs can be serialized
+    private static List<Integer> order;
+    private static CountDownLatch allRun;
+
+    @Test
+    public void oldJobRunsFirst() throws Throwable {
+        List<Integer> result = run(new Configuration.Builder(RuntimeEnvironment.application)
+                .priorityAging(1000), false);
+        assertThat(result, is(Arrays.asList(0, 2, 1, 1)));
+    }
+
+    @Test
+    public void oldJobRunsFirstPersistent() throws Throwable {
+        List<Integer> result = run(new Configuration.Builder(RuntimeEnvironment.application)
+                .priorityAging(1000), true);
+        assertThat(result, is(Arrays.asList(0, 2, 1, 1)));
+    }
+
+    @Test
+    public void disabledByDefault() throws Throwable {
+        List<Integer> result = run(new Configuration.Builder(RuntimeEnvironment.application),
+                false);
+        assertThat(result, is(Arrays.asList(2, 1, 1, 0)));
+    }
+
+    /**
+     * Adds a job with priority 0, then two jobs with priority 1 and one with priority 2 after
+     * 2.5 seconds and returns the priorities in the order they run.
+     */
+    private List<Integer> run(Configuration.Builder builder, boolean persistent)
+            throws Throwable {
+        JobManager jobManager = createJobManager(builder
+                .maxConsumerCount(1)
+                .timer(mockTimer));
+        jobManager.stop();
+        order = Collections.synchronizedList(new ArrayList<Integer>());
+        allRun = new CountDownLatch(4);
+        jobManager.addJob(new OrderJob(createParams(0, persistent)));
+        mockTimer.incrementMs(2500);
+        jobManager.addJob(new OrderJob(createParams(1, persistent)));
+        jobManager.addJob(new OrderJob(createParams(1, persistent)));
+        jobManager.addJob(new OrderJob(createParams(2, persistent)));
+        jobManager.start();
+        assertThat(allRun.await(30, TimeUnit.SECONDS), is(true));
+        return order;
+    }
+
+    private static Params createParams(int priority, boolean persistent) {
+        Params params = new Params(priority);
+        if (persistent) {
+            params.persist();
+        }
+        return params;
+    }
+
+    public static class OrderJob extends DummyJob {
+        public OrderJob(Params params) {
+            super(params);
+        }
+
+        @Override
+        public void onRun() throws Throwable {
+            super.onRun();
+            order.add(getPriority());
+            allRun.countDown();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class RateLimitTest extends JobManagerTestBase {
+    @Test
+    public void throttledGroup() throws Throwable {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .rateLimitGroup("api", 1, 1000, 1)
+                        .timer(mockTimer));
+        throttle(jobManager, new Params(0).groupBy("api"), new Params(0).persist().groupBy("api"),
+                new Params(0).groupBy("other"));
+    }
+
+    @Test
+    public void throttledTag() throws Throwable {
+        JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .rateLimitTag("api", 1, 1000, 1)
+                        .timer(mockTimer));
+        throttle(jobManager, new Params(0).addTags("api"), new Params(0).persist().addTags("api"),
+                new Params(0).addTags("other"));
+    }
+
+    private void throttle(final JobManager jobManager, Params first, Params second,
+            Params unlimited) throws Throwable {
+        final DummyJob firstJob = new DummyJob(first);
+        final DummyJob secondJob = new DummyJob(second);
+        final DummyJob unlimitedJob = new DummyJob(unlimited);
+        waitUntilAJobIsDone(jobManager, new JobWaiter(firstJob) {
+            @Override
+            public void run() {
+                jobManager.addJob(firstJob);
+            }
+        });
+        jobManager.stop();
+        jobManager.addJob(secondJob);
+        assertThat("throttled jobs should not be ready", jobManager.countReadyJobs(), is(0));
+        assertThat(jobManager.count(), is(1));
+        jobManager.start();
+        waitUntilAJobIsDone(jobManager, new JobWaiter(unlimitedJob) {
+            @Override
+            public void run() {
+                jobManager.addJob(unlimitedJob);
+            }
+        });
+        mockTimer.incrementMs(999);
+        assertThat(jobManager.countReadyJobs(), is(0));
+        waitUntilAJobIsDone(jobManager, new JobWaiter(secondJob) {
+            @Override
+            public void run() {
+                mockTimer.incrementMs(1);
+            }
+        });
+        assertThat(jobManager.count(), is(0));
+    }
+
+    private abstract static class JobWaiter implements WaitUntilCallback {
+        final Job expected;
+
+        JobWaiter(Job expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void assertJob(Job job) {
+            assertThat(job.getId(), is(expected.getId()));
+        }
+    }
+}
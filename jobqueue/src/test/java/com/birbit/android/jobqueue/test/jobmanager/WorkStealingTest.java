@@ -0,0 +1,183 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import com.birbit.android.jobqueue.CancelResult;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobStatus;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class WorkStealingTest extends JobManagerTestBase {
+
+    @Test
+    public void runAllJobsKeepingGroupOrder() throws Throwable {
+        final JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .workStealing(3)
+                        .maxConsumerCount(4));
+        final int groupCount = 4;
+        final int jobsPerGroup = 25;
+        final int ungroupedJobs = 50;
+        final CountDownLatch allRun = new CountDownLatch(groupCount * jobsPerGroup + ungroupedJobs);
+        final ConcurrentHashMap<String, AtomicInteger> runningPerGroup = new ConcurrentHashMap<>();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final List<List<Integer>> runOrder = new ArrayList<>();
+        for (int group = 0; group < groupCount; group++) {
+            runningPerGroup.put("g" + group, new AtomicInteger(0));
+            runOrder.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        for (int i = 0; i < jobsPerGroup; i++) {
+            for (int group = 0; group < groupCount; group++) {
+                final String groupId = "g" + group;
+                final List<Integer> order = runOrder.get(group);
+                final int index = i;
+                jobManager.addJob(new DummyJob(new Params(0).groupBy(groupId)) {
+                    @Override
+                    public void onRun() throws Throwable {
+                        super.onRun();
+                        if (runningPerGroup.get(groupId).incrementAndGet() != 1) {
+                            errors.add("two jobs of " + groupId + " ran at the same time");
+                        }
+                        order.add(index);
+                        //noinspection SLEEP_IN_CODE
+                        Thread.sleep(1);
+                        runningPerGroup.get(groupId).decrementAndGet();
+                        allRun.countDown();
+                    }
+                });
+            }
+        }
+        for (int i = 0; i < ungroupedJobs; i++) {
+            jobManager.addJob(new DummyJob(new Params(0)) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    allRun.countDown();
+                }
+            });
+        }
+        assertThat(allRun.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(errors.toString(), errors.isEmpty(), is(true));
+        for (List<Integer> order : runOrder) {
+            List<Integer> sorted = new ArrayList<>(order);
+            Collections.sort(sorted);
+            assertThat("jobs in a group should run in the order they were added", order,
+                    is(sorted));
+        }
+    }
+
+    @Test
+    public void cancelPrefetchedJobs() throws Throwable {
+        final JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .workStealing(5)
+                        .minConsumerCount(1)
+                        .maxConsumerCount(1));
+        final CountDownLatch blockerStarted = new CountDownLatch(1);
+        final CountDownLatch releaseBlocker = new CountDownLatch(1);
+        final CountDownLatch blockerFinished = new CountDownLatch(1);
+        jobManager.addJob(new DummyJob(new Params(10)) {
+            @Override
+            public void onRun() throws Throwable {
+                super.onRun();
+                blockerStarted.countDown();
+                releaseBlocker.await(30, TimeUnit.SECONDS);
+                blockerFinished.countDown();
+            }
+        });
+        assertThat(blockerStarted.await(30, TimeUnit.SECONDS), is(true));
+        final AtomicInteger cancelledRuns = new AtomicInteger(0);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            DummyJob job = new DummyJob(new Params(0).addTags("cancel")) {
+                @Override
+                public void onRun() throws Throwable {
+                    super.onRun();
+                    cancelledRuns.incrementAndGet();
+                }
+            };
+            ids.add(job.getId());
+            jobManager.addJob(job);
+        }
+        for (String id : ids) {
+            assertThat("job should be fetched by the blocked consumer",
+                    jobManager.getJobStatus(id), is(JobStatus.RUNNING));
+        }
+        CancelResult result = jobManager.cancelJobs(TagConstraint.ANY, "cancel");
+        assertThat(result.getCancelledJobs().size(), is(4));
+        assertThat(result.getFailedToCancel().size(), is(0));
+        releaseBlocker.countDown();
+        assertThat(blockerFinished.await(30, TimeUnit.SECONDS), is(true));
+        final CountDownLatch afterRun = new CountDownLatch(1);
+        jobManager.addJob(new DummyJob(new Params(0)) {
+            @Override
+            public void onRun() throws Throwable {
+                super.onRun();
+                afterRun.countDown();
+            }
+        });
+        assertThat(afterRun.await(30, TimeUnit.SECONDS), is(true));
+        assertThat("cancelled jobs should not run", cancelledRuns.get(), is(0));
+        assertThat(jobManager.count(), is(0));
+    }
+
+    @Test
+    public void returnedJobsGiveBackRateLimitTokens() throws Throwable {
+        final JobManager jobManager = createJobManager(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .timer(mockTimer)
+                        .workStealing(5)
+                        .rateLimitTag("api", 1, 1000, 1)
+                        .minConsumerCount(1)
+                        .maxConsumerCount(1));
+        final CountDownLatch blockerStarted = new CountDownLatch(1);
+        final CountDownLatch releaseBlocker = new CountDownLatch(1);
+        jobManager.addJob(new DummyJob(new Params(10)) {
+            @Override
+            public void onRun() throws Throwable {
+                super.onRun();
+                blockerStarted.countDown();
+                releaseBlocker.await(30, TimeUnit.SECONDS);
+            }
+        });
+        assertThat(blockerStarted.await(30, TimeUnit.SECONDS), is(true));
+        final CountDownLatch apiJobRun = new CountDownLatch(1);
+        DummyJob apiJob = new DummyJob(new Params(0).addTags("api")) {
+            @Override
+            public void onRun() throws Throwable {
+                super.onRun();
+                apiJobRun.countDown();
+            }
+        };
+        jobManager.addJob(apiJob);
+        assertThat("job should be fetched by the blocked consumer",
+                jobManager.getJobStatus(apiJob.getId()), is(JobStatus.RUNNING));
+        jobManager.stop();
+        assertThat("returned job should not be throttled by its own token",
+                jobManager.countReadyJobs(), is(1));
+        releaseBlocker.countDown();
+        jobManager.start();
+        assertThat(apiJobRun.await(30, TimeUnit.SECONDS), is(true));
+    }
+}
@@ -0,0 +1,204 @@
+package com.birbit.android.jobqueue.test.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import com.birbit.android.jobqueue.AsyncAddCallback;
+import com.birbit.android.jobqueue.DefaultQueueFactory;
+import com.birbit.android.jobqueue.GroupCommitJobQueue;
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.QueueFactory;
+import com.birbit.android.jobqueue.cachedQueue.CachedJobQueue;
+import com.birbit.android.jobqueue.callback.JobManagerCallbackAdapter;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.config.Durability;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class WriteBehindTest extends JobManagerTestBase {
+    private final AtomicReference<GroupCommitJobQueue> persistentQueue = new AtomicReference<>();
+
+    private Configuration.Builder writeBehindConfiguration() {
+        return writeBehindConfiguration(new DefaultQueueFactory() {
+            @Override
+            public JobQueue createPersistentQueue(Configuration configuration, long sessionId) {
+                JobQueue queue = super.createPersistentQueue(configuration, sessionId);
+                persistentQueue.set((GroupCommitJobQueue) queue);
+                return queue;
+            }
+        });
+    }
+
+    private Configuration.Builder writeBehindConfiguration(QueueFactory queueFactory) {
+        return new Configuration.Builder(RuntimeEnvironment.application)
+                .timer(mockTimer)
+                .durability(Durability.WRITE_BEHIND)
+                .groupCommitLimits(0, 10)
+                .queueFactory(queueFactory);
+    }
+
+    @Test
+    public void addCallbacksAfterCommit() throws Throwable {
+        JobManager jobManager = createJobManager(writeBehindConfiguration());
+        final int jobCount = 50;
+        final Set<String> added = Collections.synchronizedSet(new HashSet<String>());
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final CountDownLatch allAdded = new CountDownLatch(jobCount);
+        final CountDownLatch allDone = new CountDownLatch(jobCount);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                if (!persistentQueue.get().isInsertCommitted(job.getId())) {
+                    errors.add(job.getId() + " was reported as added before it was committed");
+                }
+                added.add(job.getId());
+            }
+
+            @Override
+            public void onJobRun(@NonNull Job job, int resultCode) {
+                if (!added.contains(job.getId())) {
+                    errors.add(job.getId() + " ran before it was reported as added");
+                }
+            }
+
+            @Override
+            public void onDone(@NonNull Job job) {
+                allDone.countDown();
+            }
+        });
+        for (int i = 0; i < jobCount; i++) {
+            jobManager.addJobInBackground(new DummyJob(new Params(0).persist()),
+                    new AsyncAddCallback() {
+                        @Override
+                        public void onAdded() {
+                            allAdded.countDown();
+                        }
+                    });
+        }
+        assertThat(allAdded.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(allDone.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(errors.toString(), errors.isEmpty(), is(true));
+        assertThat(jobManager.count(), is(0));
+    }
+
+    @Test
+    public void addCallbacksWhileStopped() throws Throwable {
+        JobManager jobManager = createJobManager(writeBehindConfiguration());
+        jobManager.stop();
+        final int jobCount = 20;
+        final CountDownLatch allAdded = new CountDownLatch(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            jobManager.addJobInBackground(new DummyJob(new Params(0).persist()),
+                    new AsyncAddCallback() {
+                        @Override
+                        public void onAdded() {
+                            allAdded.countDown();
+                        }
+                    });
+        }
+        // nothing else is sent to JobManager, the commits alone trigger the callbacks
+        assertThat(allAdded.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(jobManager.count(), is(jobCount));
+    }
+
+    @Test
+    public void failedInsertIsCancelled() throws Throwable {
+        JobManager jobManager = createJobManager(writeBehindConfiguration(
+                new DefaultQueueFactory() {
+                    @Override
+                    public JobQueue createPersistentQueue(Configuration configuration,
+                            long sessionId) {
+                        SqliteJobQueue queue = new SqliteJobQueue(configuration, sessionId,
+                                new SqliteJobQueue.JavaSerializer());
+                        // makes the insert of the tag fail after the job row is written
+                        queue.getDb().execSQL("CREATE TEMP TRIGGER fail_tag BEFORE INSERT ON"
+                                + " job_holder_tags WHEN NEW.tag_name = 'fail'"
+                                + " BEGIN SELECT RAISE(ABORT, 'fail'); END");
+                        persistentQueue.set(queue);
+                        return new CachedJobQueue(queue);
+                    }
+                }));
+        jobManager.stop();
+        final List<String> added = new CopyOnWriteArrayList<>();
+        final List<String> cancelled = new CopyOnWriteArrayList<>();
+        final List<String> ran = new CopyOnWriteArrayList<>();
+        final CountDownLatch allDone = new CountDownLatch(3);
+        jobManager.addCallback(new JobManagerCallbackAdapter() {
+            @Override
+            public void onJobAdded(@NonNull Job job) {
+                added.add(job.getId());
+            }
+
+            @Override
+            public void onJobCancelled(@NonNull Job job, boolean byCancelRequest,
+                    Throwable throwable) {
+                cancelled.add(job.getId());
+            }
+
+            @Override
+            public void onJobRun(@NonNull Job job, int resultCode) {
+                ran.add(job.getId());
+            }
+
+            @Override
+            public void onDone(@NonNull Job job) {
+                allDone.countDown();
+            }
+        });
+        DummyJob failedInBackground = new DummyJob(new Params(0).persist().addTags("fail"));
+        final AtomicInteger callbackCount = new AtomicInteger();
+        jobManager.addJobInBackground(failedInBackground, new AsyncAddCallback() {
+            @Override
+            public void onAdded() {
+                callbackCount.incrementAndGet();
+            }
+        });
+        DummyJob kept = new DummyJob(new Params(0).persist().addTags("a"));
+        jobManager.addJob(kept);
+        // returns once the job is cancelled
+        DummyJob failed = new DummyJob(new Params(0).persist().addTags("fail"));
+        jobManager.addJob(failed);
+        assertThat(cancelled.contains(failedInBackground.getId()), is(true));
+        assertThat(cancelled.contains(failed.getId()), is(true));
+        assertThat(added.contains(failedInBackground.getId()), is(false));
+        assertThat(added.contains(failed.getId()), is(false));
+        assertThat(added.contains(kept.getId()), is(true));
+        assertThat(callbackCount.get(), is(0));
+        assertThat(jobManager.count(), is(1));
+
+        jobManager.start();
+        assertThat(allDone.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(ran.toString(), ran, is(Collections.singletonList(kept.getId())));
+    }
+
+    @Test
+    public void syncAddWaitsForCommit() throws Throwable {
+        JobManager jobManager = createJobManager(writeBehindConfiguration());
+        jobManager.stop();
+        DummyJob job = new DummyJob(new Params(0).persist());
+        jobManager.addJob(job);
+        assertThat(persistentQueue.get().isInsertCommitted(job.getId()), is(true));
+        assertThat(jobManager.count(), is(1));
+    }
+}
@@ -0,0 +1,188 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import androidx.annotation.NonNull;
+
+import com.birbit.android.jobqueue.Job;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.BinaryJobSerializer;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.TestBase;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.timer.MockTimer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryJobSerializerTest extends TestBase {
+    MockTimer mockTimer = new MockTimer();
+
+    @Test
+    public void roundTrip() throws Exception {
+        BinaryJobSerializer serializer = createSerializer();
+        BinaryDummyJob job = new BinaryDummyJob(new Params(0), 42, "hello");
+        BinaryDummyJob read = serializer.deserialize(serializer.serialize(job));
+        assertThat(read.number, is(42L));
+        assertThat(read.text, is("hello"));
+    }
+
+    @Test
+    public void smallerThanJavaSerialization() throws Exception {
+        BinaryDummyJob job = new BinaryDummyJob(new Params(0), 42, "hello");
+        // seal the job so that java serialization accepts it
+        JobHolder holder = sealed(job);
+        byte[] binary = createSerializer().serialize(holder.getJob());
+        byte[] java = new SqliteJobQueue.JavaSerializer().serialize(holder.getJob());
+        assertThat("binary: " + binary.length + ", java: " + java.length,
+                binary.length < java.length, is(true));
+    }
+
+    @Test
+    public void unregisteredJobUsesJavaSerialization() throws Exception {
+        BinaryJobSerializer serializer = createSerializer();
+        JobHolder holder = JobQueueTestBase.createNewJobHolder(new Params(0), mockTimer);
+        byte[] bytes = serializer.serialize(holder.getJob());
+        Job read = serializer.deserialize(bytes);
+        assertThat(read, instanceOf(DummyJob.class));
+    }
+
+    @Test
+    public void readJavaSerializerData() throws Exception {
+        JobHolder holder = sealed(new BinaryDummyJob(new Params(0), 3, "from java"));
+        byte[] bytes = new SqliteJobQueue.JavaSerializer().serialize(holder.getJob());
+        BinaryDummyJob read = createSerializer().deserialize(bytes);
+        assertThat(read.number, is(3L));
+        assertThat(read.text, is("from java"));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void unknownClassId() throws Exception {
+        byte[] bytes = createSerializer().serialize(new BinaryDummyJob(new Params(0), 1, "a"));
+        new BinaryJobSerializer().deserialize(bytes);
+    }
+
+    @Test
+    public void invalidRegistrations() {
+        BinaryJobSerializer serializer = createSerializer();
+        try {
+            serializer.register(1, OtherBinaryDummyJob.class, OtherBinaryDummyJob.CREATOR);
+            fail("should not allow re-using a class id");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            serializer.register(2, BinaryDummyJob.class, BinaryDummyJob.CREATOR);
+            fail("should not allow registering a class twice");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            serializer.register(-1, OtherBinaryDummyJob.class, OtherBinaryDummyJob.CREATOR);
+            fail("should not allow negative class ids");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            serializer.register(1 << 16, OtherBinaryDummyJob.class, OtherBinaryDummyJob.CREATOR);
+            fail("should not allow class ids that don't fit into 2 bytes");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void persistInQueue() throws Exception {
+        BinaryJobSerializer serializer = createSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("binary_" + System.nanoTime()).jobSerializer(serializer).inTestMode()
+                        .timer(mockTimer).build(), mockTimer.nanoTime(), serializer);
+        JobHolder holder = sealed(new BinaryDummyJob(new Params(3).groupBy("g").addTags("a", "b"),
+                7, "persisted"));
+        queue.insert(holder);
+        JobHolder loaded = queue.findJobById(holder.getId());
+        assertThat(loaded, notNullValue());
+        BinaryDummyJob job = (BinaryDummyJob) loaded.getJob();
+        assertThat(job.number, is(7L));
+        assertThat(job.text, is("persisted"));
+        assertThat(job.getId(), is(holder.getId()));
+        assertThat(job.getPriority(), is(3));
+        assertThat(job.getRunGroupId(), is("g"));
+        assertThat(job.getTags(), hasItems("a", "b"));
+        queue.clear();
+    }
+
+    private JobHolder sealed(Job job) {
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .job(job)
+                .groupId(job.getRunGroupId())
+                .id(job.getId())
+                .persistent(true)
+                .tags(job.getTags())
+                .requiredNetworkType(0)
+                .createdNs(mockTimer.nanoTime())
+                .deadline(Params.FOREVER, false)
+                .delayUntilNs(Params.NEVER)
+                .runningSessionId(Long.MIN_VALUE)
+                .build();
+    }
+
+    private static BinaryJobSerializer createSerializer() {
+        return new BinaryJobSerializer().register(1, BinaryDummyJob.class, BinaryDummyJob.CREATOR);
+    }
+
+    public static class BinaryDummyJob extends DummyJob implements BinaryJobSerializer.BinaryJob {
+        static final BinaryJobSerializer.Creator<BinaryDummyJob> CREATOR =
+                new BinaryJobSerializer.Creator<BinaryDummyJob>() {
+                    @NonNull
+                    @Override
+                    public BinaryDummyJob createFromInput(@NonNull DataInput in)
+                            throws IOException {
+                        return new BinaryDummyJob(new Params(0), in.readLong(), in.readUTF());
+                    }
+                };
+        final long number;
+        final String text;
+
+        public BinaryDummyJob(Params params, long number, String text) {
+            super(params);
+            this.number = number;
+            this.text = text;
+        }
+
+        @Override
+        public void writeTo(@NonNull DataOutput out) throws IOException {
+            out.writeLong(number);
+            out.writeUTF(text);
+        }
+    }
+
+    public static class OtherBinaryDummyJob extends BinaryDummyJob {
+        static final BinaryJobSerializer.Creator<OtherBinaryDummyJob> CREATOR =
+                new BinaryJobSerializer.Creator<OtherBinaryDummyJob>() {
+                    @NonNull
+                    @Override
+                    public OtherBinaryDummyJob createFromInput(@NonNull DataInput in)
+                            throws IOException {
+                        return new OtherBinaryDummyJob(new Params(0), in.readLong(),
+                                in.readUTF());
+                    }
+                };
+
+        public OtherBinaryDummyJob(Params params, long number, String text) {
+            super(params, number, text);
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.birbit.android.jobqueue.JobQueue;
 import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
 import com.birbit.android.jobqueue.test.util.JobQueueFactory;
-import com.birbit.android.jobqueue.timer.Timer;
 
 import org.junit.runner.RunWith;
 import org.robolectric.*;
@@ -16,12 +15,10 @@ public class CachedPersistentJobQueueTest extends JobQueueTestBase {
     public CachedPersistentJobQueueTest() {
         super(new JobQueueFactory() {
             @Override
-            public JobQueue createNew(long sessionId, String id, Timer timer) {
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
                 SqliteJobQueue.JavaSerializer jobSerializer = new SqliteJobQueue.JavaSerializer();
-                return new SqliteJobQueue(
-                        new Configuration.Builder(RuntimeEnvironment.application)
-                        .id(id).jobSerializer(jobSerializer).inTestMode()
-                        .timer(timer).build(), sessionId, jobSerializer);
+                return new SqliteJobQueue(builder.jobSerializer(jobSerializer).build(), sessionId,
+                        jobSerializer);
             }
         });
     }
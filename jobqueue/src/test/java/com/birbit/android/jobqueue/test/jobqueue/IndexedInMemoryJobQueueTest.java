@@ -0,0 +1,213 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.inMemoryQueue.IndexedInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.test.jobs.DummyJob;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+
+import org.fest.reflect.core.Reflection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class IndexedInMemoryJobQueueTest extends JobQueueTestBase {
+    public IndexedInMemoryJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
+                return new IndexedInMemoryPriorityQueue(builder.build(), sessionId);
+            }
+        });
+    }
+
+    @Test
+    public void testSameResultsAsSimpleQueue() {
+        assertSameResultsAsSimpleQueue(null);
+    }
+
+    @Test
+    public void testSameResultsAsSimpleQueueWithPriorityAging() {
+        assertSameResultsAsSimpleQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .priorityAging(50)
+                .timer(mockTimer)
+                .build());
+    }
+
+    @Test
+    public void testDefaultQueueFactoryIndexesOnlyWhenEnabled() {
+        Configuration.Builder builder = new Configuration.Builder(RuntimeEnvironment.application)
+                .timer(mockTimer);
+        assertThat(nonPersistentQueue(builder.build()) instanceof SimpleInMemoryPriorityQueue,
+                is(true));
+        assertThat(nonPersistentQueue(builder.indexInMemoryJobs().build())
+                instanceof IndexedInMemoryPriorityQueue, is(true));
+    }
+
+    private static JobQueue nonPersistentQueue(Configuration configuration) {
+        JobQueue queue = configuration.getQueueFactory().createNonPersistent(configuration, 1);
+        return Reflection.field("delegate").ofType(JobQueue.class).in(queue).get();
+    }
+
+    private void assertSameResultsAsSimpleQueue(Configuration configuration) {
+        long seed = System.nanoTime();
+        Random random = new Random(seed);
+        SimpleInMemoryPriorityQueue expected = new SimpleInMemoryPriorityQueue(configuration, 1);
+        IndexedInMemoryPriorityQueue actual = new IndexedInMemoryPriorityQueue(configuration, 1);
+        List<JobHolder[]> running = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        String[] groups = {null, null, "g1", "g2", "g3"};
+        String[] tags = {"a", "b", "c"};
+        for (int step = 0; step < 3000; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int action = random.nextInt(10);
+            if (action < 4) {
+                JobHolder[] holders = createTwins(random, groups, tags);
+                expected.insert(holders[0]);
+                actual.insert(holders[1]);
+                ids.add(holders[0].getId());
+            } else if (action < 6) {
+                TestConstraint constraint = randomConstraint(random, groups, ids);
+                JobHolder expectedNext = expected.nextJobAndIncRunCount(constraint);
+                JobHolder actualNext = actual.nextJobAndIncRunCount(constraint);
+                assertThat(message, idOf(actualNext), is(idOf(expectedNext)));
+                if (expectedNext != null) {
+                    running.add(new JobHolder[]{expectedNext, actualNext});
+                }
+            } else if (action < 7 && !running.isEmpty()) {
+                JobHolder[] holders = running.remove(random.nextInt(running.size()));
+                if (random.nextBoolean()) {
+                    long delayUntil = mockTimer.nanoTime() + random.nextInt(50)
+                            * JobManager.NS_PER_MS;
+                    holders[0].setDelayUntilNs(delayUntil);
+                    holders[1].setDelayUntilNs(delayUntil);
+                    expected.insertOrReplace(holders[0]);
+                    actual.insertOrReplace(holders[1]);
+                }
+            } else if (action < 8 && !ids.isEmpty()) {
+                String id = ids.get(random.nextInt(ids.size()));
+                JobHolder holder = expected.findJobById(id);
+                if (holder != null) {
+                    expected.remove(holder);
+                    actual.remove(actual.findJobById(id));
+                }
+            } else {
+                mockTimer.incrementMs(random.nextInt(20));
+            }
+            TestConstraint constraint = randomConstraint(random, groups, ids);
+            assertThat(message, actual.count(), is(expected.count()));
+            assertThat(message, actual.countReadyJobs(constraint),
+                    is(expected.countReadyJobs(constraint)));
+            assertThat(message, actual.getNextJobDelayUntilNs(constraint),
+                    is(expected.getNextJobDelayUntilNs(constraint)));
+            if (random.nextBoolean()) {
+                constraint.setTagConstraint(random.nextBoolean() ? TagConstraint.ANY
+                        : TagConstraint.ALL);
+                constraint.setTags(new String[]{tags[random.nextInt(tags.length)],
+                        tags[random.nextInt(tags.length)]});
+            }
+            assertThat(message, idsOf(actual.findJobs(constraint)),
+                    is(idsOf(expected.findJobs(constraint))));
+        }
+    }
+
+    private JobHolder[] createTwins(Random random, String[] groups, String[] tags) {
+        Params params = new Params(random.nextInt(4))
+                .groupBy(groups[random.nextInt(groups.length)]);
+        int network = random.nextInt(3);
+        if (network == NetworkUtil.METERED) {
+            params.requireNetwork();
+        } else if (network == NetworkUtil.UNMETERED) {
+            params.requireUnmeteredNetwork();
+        }
+        if (random.nextInt(3) == 0) {
+            params.addTags(tags[random.nextInt(tags.length)]);
+        }
+        long now = mockTimer.nanoTime();
+        long delayUntil = random.nextInt(3) == 0
+                ? now + random.nextInt(100) * JobManager.NS_PER_MS
+                : JobManager.NOT_DELAYED_JOB_DELAY;
+        long deadline = random.nextInt(4) == 0
+                ? now + random.nextInt(100) * JobManager.NS_PER_MS : Params.FOREVER;
+        JobHolder first = createHolder(new DummyJob(params), null, delayUntil, deadline);
+        JobHolder second = createHolder(new DummyJob(params), first.getId(), delayUntil,
+                deadline);
+        return new JobHolder[]{first, second};
+    }
+
+    private JobHolder createHolder(DummyJob job, String id, long delayUntil, long deadline) {
+        //noinspection WrongConstant
+        return new JobHolder.Builder()
+                .priority(job.getPriority())
+                .groupId(job.getRunGroupId())
+                .job(job)
+                .id(id == null ? job.getId() : id)
+                .persistent(false)
+                .tags(job.getTags())
+                .createdNs(mockTimer.nanoTime())
+                .deadline(deadline, false)
+                .delayUntilNs(delayUntil)
+                .requiredNetworkType(getNetworkTypeField(job))
+                .runningSessionId(JobManager.NOT_RUNNING_SESSION_ID).build();
+    }
+
+    private TestConstraint randomConstraint(Random random, String[] groups, List<String> ids) {
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(random.nextInt(3));
+        if (random.nextInt(4) != 0) {
+            constraint.setTimeLimit(mockTimer.nanoTime());
+        }
+        Set<String> excludeGroups = new HashSet<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            String group = groups[random.nextInt(groups.length)];
+            if (group != null) {
+                excludeGroups.add(group);
+            }
+        }
+        List<String> sortedGroups = new ArrayList<>(excludeGroups);
+        Collections.sort(sortedGroups);
+        constraint.setExcludeGroups(sortedGroups);
+        if (!ids.isEmpty() && random.nextBoolean()) {
+            constraint.setExcludeJobIds(Arrays.asList(ids.get(random.nextInt(ids.size())),
+                    ids.get(random.nextInt(ids.size()))));
+        }
+        return constraint;
+    }
+
+    private int getNetworkTypeField(DummyJob job) {
+        return Reflection.field("requiredNetworkType").ofType(int.class)
+                .in(job).get();
+    }
+
+    private static String idOf(JobHolder holder) {
+        return holder == null ? null : holder.getId();
+    }
+
+    private static Set<String> idsOf(Set<JobHolder> holders) {
+        Set<String> result = new HashSet<>();
+        for (JobHolder holder : holders) {
+            result.add(holder.getId());
+        }
+        return result;
+    }
+}
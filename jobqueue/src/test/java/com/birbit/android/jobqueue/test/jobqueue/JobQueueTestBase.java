@@ -7,7 +7,9 @@ import com.birbit.android.jobqueue.JobHolder;
 import com.birbit.android.jobqueue.JobQueue;
 import com.birbit.android.jobqueue.Params;
 import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
 import com.birbit.android.jobqueue.test.TestBase;
 import com.birbit.android.jobqueue.test.jobs.DummyJob;
 import com.birbit.android.jobqueue.test.timer.MockTimer;
@@ -23,13 +25,16 @@ import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matcher;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -83,6 +88,42 @@ public abstract class JobQueueTestBase extends TestBase {
         assertThat((int) jobQueue.count(), equalTo(ADD_COUNT - 2));
     }
 
+    @Test
+    public void testInsertAll() throws Exception {
+        final int ADD_COUNT = 10;
+        JobQueue jobQueue = createNewJobQueue();
+        jobQueue.insert(createNewJobHolder());
+        List<JobHolder> holders = new ArrayList<>();
+        for (int i = 0; i < ADD_COUNT; i++) {
+            holders.add(createNewJobHolder(new Params(0).addTags("batch", "tag" + (i % 2))));
+        }
+        assertThat(jobQueue.insertAll(holders), is(true));
+        assertThat(jobQueue.count(), equalTo(ADD_COUNT + 1));
+        for (int i = 0; i < ADD_COUNT; i++) {
+            assertThat(holders.get(i).getInsertionOrder(), equalTo(i + 2L));
+            assertThat(jobQueue.findJobById(holders.get(i).getId()), notNullValue());
+        }
+        assertThat(jobQueue.findJobs(forTags(mockTimer, ANY, Collections.<String>emptyList(),
+                "batch")).size(), is(ADD_COUNT));
+        assertThat(jobQueue.findJobs(forTags(mockTimer, ANY, Collections.<String>emptyList(),
+                "tag1")).size(), is(ADD_COUNT / 2));
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        jobQueue.nextJobAndIncRunCount(constraint);
+        for (int i = 0; i < ADD_COUNT; i++) {
+            assertThat(jobQueue.nextJobAndIncRunCount(constraint).getId(),
+                    is(holders.get(i).getId()));
+        }
+        assertThat(jobQueue.nextJobAndIncRunCount(constraint), nullValue());
+    }
+
+    @Test
+    public void testInsertAllEmpty() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        assertThat(jobQueue.insertAll(Collections.<JobHolder>emptyList()), is(true));
+        assertThat(jobQueue.count(), is(0));
+    }
+
     @Test
     public void testPriority() throws Exception {
         int JOB_LIMIT = 20;
@@ -287,6 +328,198 @@ public abstract class JobQueueTestBase extends TestBase {
                 equalTo(jobHolder7.getId()));
     }
 
+    @Test
+    public void testFairShare() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        List<JobHolder> a = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            a.add(createNewJobHolder(new Params(0).fairnessKey("a")));
+            jobQueue.insert(a.get(i));
+        }
+        JobHolder b1 = createNewJobHolder(new Params(0).fairnessKey("b"));
+        JobHolder b2 = createNewJobHolder(new Params(0).fairnessKey("b"));
+        JobHolder g1 = createNewJobHolder(new Params(0).groupBy("g"));
+        JobHolder aHigh = createNewJobHolder(new Params(1).fairnessKey("a"));
+        jobQueue.insert(b1);
+        jobQueue.insert(b2);
+        jobQueue.insert(g1);
+        jobQueue.insert(aHigh);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setFairShare(TestConstraint.createFairShare(Collections.<String, Integer>emptyMap()));
+        assertNextJobs(jobQueue, constraint, "fairness keys should take turns within a priority",
+                aHigh, b1, g1, a.get(0), b2, a.get(1), a.get(2), a.get(3));
+        assertThat(jobQueue.nextJobAndIncRunCount(constraint), nullValue());
+    }
+
+    @Test
+    public void testFairShareWeights() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        for (int i = 0; i < 9; i++) {
+            jobQueue.insert(createNewJobHolder(new Params(0).fairnessKey("a")));
+        }
+        for (int i = 0; i < 4; i++) {
+            jobQueue.insert(createNewJobHolder(new Params(0).fairnessKey("b")));
+        }
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a", 2);
+        constraint.setFairShare(TestConstraint.createFairShare(weights));
+        int aCount = 0;
+        for (int i = 0; i < 9; i++) {
+            JobHolder holder = jobQueue.nextJobAndIncRunCount(constraint);
+            TestConstraint.onJobStarted(constraint.getFairShare(), holder);
+            if ("a".equals(holder.getJob().getFairnessKey())) {
+                aCount++;
+            }
+        }
+        assertThat("a key with twice the weight should run twice as many jobs", aCount, is(6));
+    }
+
+    @Test
+    public void testFairShareKeyDefaultsToGroupId() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder keyed = createNewJobHolder(new Params(0).fairnessKey("a"));
+        JobHolder grouped = createNewJobHolder(new Params(0).groupBy("a"));
+        JobHolder other = createNewJobHolder(new Params(0).fairnessKey("b"));
+        jobQueue.insert(keyed);
+        jobQueue.insert(grouped);
+        jobQueue.insert(other);
+        JobHolder found = jobQueue.findJobById(keyed.getId());
+        assertThat(found.getFairnessKey(), is("a"));
+        assertThat("the fairness key is not a tag", found.hasTags(), is(false));
+        assertThat(jobQueue.findJobById(grouped.getId()).getFairnessKey(), is("a"));
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setFairShare(TestConstraint.createFairShare(Collections.<String, Integer>emptyMap()));
+        assertNextJobs(jobQueue, constraint, "a group and the same fairness key share a turn",
+                keyed, other, grouped);
+    }
+
+    @Test
+    public void testFairShareWithoutKeys() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder first = createNewJobHolder(new Params(0));
+        JobHolder second = createNewJobHolder(new Params(0));
+        JobHolder high = createNewJobHolder(new Params(2));
+        jobQueue.insert(first);
+        jobQueue.insert(second);
+        jobQueue.insert(high);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setFairShare(TestConstraint.createFairShare(Collections.<String, Integer>emptyMap()));
+        assertNextJobs(jobQueue, constraint, "jobs without a key should keep the usual order",
+                high, first, second);
+    }
+
+    @Test
+    public void testFairShareUsesEffectivePriority() throws Exception {
+        JobQueue jobQueue = createNewJobQueueWithPriorityAging(1000);
+        JobHolder old1 = createNewJobHolder(new Params(0).fairnessKey("a"));
+        JobHolder old2 = createNewJobHolder(new Params(0).fairnessKey("a"));
+        jobQueue.insert(old1);
+        jobQueue.insert(old2);
+        mockTimer.incrementMs(3000);
+        // priority 1 against 3 for the old ones, its key is not the reason to run it first
+        JobHolder young = createNewJobHolder(new Params(1).fairnessKey("b"));
+        jobQueue.insert(young);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setFairShare(TestConstraint.createFairShare(Collections.<String, Integer>emptyMap()));
+        assertNextJobs(jobQueue, constraint, "fair share should only pick between jobs of the"
+                + " same effective priority", old1, old2, young);
+    }
+
+    @Test
+    public void testPriorityAging() throws Exception {
+        JobQueue jobQueue = createNewJobQueueWithPriorityAging(1000);
+        JobHolder low = createNewJobHolder(new Params(0));
+        jobQueue.insert(low);
+        mockTimer.incrementMs(500);
+        JobHolder high = createNewJobHolder(new Params(1));
+        jobQueue.insert(high);
+        mockTimer.incrementMs(1000);
+        JobHolder highAfterAging = createNewJobHolder(new Params(1));
+        jobQueue.insert(highAfterAging);
+        JobHolder higher = createNewJobHolder(new Params(2));
+        jobQueue.insert(higher);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        // high has aged to the priority of higher and is older
+        assertNextJobs(jobQueue, constraint, "priority should grow by 1 every second",
+                high, higher, low, highAfterAging);
+    }
+
+    @Test
+    public void testPriorityAgingBoundsWaitUnderLoad() throws Exception {
+        final long agingMs = 100;
+        final long tickMs = 10;
+        final int highPriority = 10;
+        final int[] lowPriorities = {0, 4, 8};
+        JobQueue jobQueue = createNewJobQueueWithPriorityAging(agingMs);
+        List<JobHolder> lowJobs = new ArrayList<>();
+        for (int priority : lowPriorities) {
+            JobHolder holder = createNewJobHolder(new Params(priority));
+            jobQueue.insert(holder);
+            lowJobs.add(holder);
+        }
+        Map<String, Long> waitMs = runUnderLoad(jobQueue, highPriority, tickMs, 2000 / tickMs);
+        for (int i = 0; i < lowPriorities.length; i++) {
+            Long wait = waitMs.get(lowJobs.get(i).getId());
+            long bound = (highPriority - lowPriorities[i]) * agingMs + tickMs;
+            assertThat("priority " + lowPriorities[i] + " job should run", wait,
+                    notNullValue());
+            assertThat("priority " + lowPriorities[i] + " job waited " + wait + "ms",
+                    wait <= bound, is(true));
+        }
+    }
+
+    @Test
+    public void testWithoutPriorityAgingLowPriorityWaits() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder low = createNewJobHolder(new Params(0));
+        jobQueue.insert(low);
+        Map<String, Long> waitMs = runUnderLoad(jobQueue, 10, 10, 200);
+        assertThat(waitMs.containsKey(low.getId()), is(false));
+    }
+
+    /**
+     * Adds two jobs with the given priority every tick and runs two jobs, until the given number
+     * of ticks pass.
+     *
+     * @return How long each job that ran waited in ms
+     */
+    private Map<String, Long> runUnderLoad(JobQueue jobQueue, int priority, long tickMs,
+            long ticks) {
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        Map<String, Long> waitMs = new HashMap<>();
+        for (int tick = 0; tick < ticks; tick++) {
+            mockTimer.incrementMs(tickMs);
+            jobQueue.insert(createNewJobHolder(new Params(priority)));
+            jobQueue.insert(createNewJobHolder(new Params(priority)));
+            for (int i = 0; i < 2; i++) {
+                JobHolder holder = jobQueue.nextJobAndIncRunCount(constraint);
+                waitMs.put(holder.getId(), (mockTimer.nanoTime() - holder.getCreatedNs())
+                        / JobManager.NS_PER_MS);
+                jobQueue.remove(holder);
+            }
+        }
+        return waitMs;
+    }
+
+    private static void assertNextJobs(JobQueue jobQueue, TestConstraint constraint, String msg,
+            JobHolder... expected) {
+        for (int i = 0; i < expected.length; i++) {
+            JobHolder holder = jobQueue.nextJobAndIncRunCount(constraint);
+            assertThat(msg + " #" + i, holder.getId(), is(expected[i].getId()));
+            if (constraint.getFairShare() != null) {
+                TestConstraint.onJobStarted(constraint.getFairShare(), holder);
+            }
+        }
+    }
+
     @Test
     public void testDueDelayUntilWithPriority() throws Exception {
         JobQueue jobQueue = createNewJobQueue();
@@ -507,6 +740,128 @@ public abstract class JobQueueTestBase extends TestBase {
         assertThat(jobQueue.nextJobAndIncRunCount(constraint), is(nullValue()));
     }
 
+    @Test
+    public void testRemoveAll() throws Exception {
+        // more than a batch of ids in a single statement
+        final int count = 1201;
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder kept = createNewJobHolder(new Params(0).addTags("a"));
+        jobQueue.insert(kept);
+        List<JobHolder> removed = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            removed.add(createNewJobHolder(new Params(0).addTags("a")));
+        }
+        jobQueue.insertAll(removed);
+        jobQueue.removeAll(removed);
+        jobQueue.removeAll(Collections.<JobHolder>emptyList());
+        assertThat(jobQueue.count(), is(1));
+        assertThat(jobQueue.findJobById(removed.get(count - 1).getId()), nullValue());
+        Set<JobHolder> tagged = jobQueue.findJobs(forTags(mockTimer, ANY,
+                Collections.<String>emptyList(), "a"));
+        assertThat(tagged.size(), is(1));
+        assertThat(tagged.iterator().next().getId(), is(kept.getId()));
+    }
+
+    @Test
+    public void testOnJobsCancelled() throws Exception {
+        final int count = 1201;
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder kept = createNewJobHolder(new Params(0).addTags("a"));
+        jobQueue.insert(kept);
+        List<JobHolder> cancelled = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            cancelled.add(createNewJobHolder(new Params(0).addTags("a")));
+        }
+        jobQueue.insertAll(cancelled);
+        jobQueue.onJobsCancelled(cancelled);
+        TestConstraint constraint = forTags(mockTimer, ANY, Collections.<String>emptyList(), "a");
+        Set<JobHolder> tagged = jobQueue.findJobs(constraint);
+        assertThat(tagged.size(), is(1));
+        assertThat(tagged.iterator().next().getId(), is(kept.getId()));
+        TestConstraint next = new TestConstraint(mockTimer);
+        next.setExcludeRunning(true);
+        assertThat(jobQueue.nextJobAndIncRunCount(next).getId(), is(kept.getId()));
+        assertThat(jobQueue.nextJobAndIncRunCount(next), nullValue());
+    }
+
+    @Test
+    public void testOnJobReturned() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder holder = createNewJobHolder(new Params(0).addTags("a"));
+        jobQueue.insert(holder);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        JobHolder next = jobQueue.nextJobAndIncRunCount(constraint);
+        assertThat(next.getRunCount(), is(1));
+        assertThat(jobQueue.count(), is(0));
+        next.setRunCount(0);
+        next.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
+        jobQueue.onJobReturned(next);
+        assertThat(jobQueue.count(), is(1));
+        assertThat(jobQueue.findJobById(holder.getId()).getRunCount(), is(0));
+        next = jobQueue.nextJobAndIncRunCount(constraint);
+        assertThat(next.getId(), is(holder.getId()));
+        assertThat(next.getRunCount(), is(1));
+        assertThat(jobQueue.nextJobAndIncRunCount(constraint), nullValue());
+    }
+
+    @Test
+    public void testHasJobsWithTags() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"a"}), is(false));
+        JobHolder ab = createNewJobHolder(new Params(0).addTags("a", "b"));
+        JobHolder b = createNewJobHolder(new Params(0).addTags("b"));
+        jobQueue.insert(ab);
+        jobQueue.insert(b);
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"a"}), is(true));
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"c", "b"}), is(true));
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"c"}), is(false));
+        assertThat(jobQueue.hasJobsWithTags(ALL, new String[]{"a", "b"}), is(true));
+        assertThat(jobQueue.hasJobsWithTags(ALL, new String[]{"a", "c"}), is(false));
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[0]), is(false));
+
+        jobQueue.remove(ab);
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"a"}), is(false));
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"b"}), is(true));
+        Set<JobHolder> found = jobQueue.findJobs(
+                forTags(mockTimer, ANY, Collections.<String>emptyList(), "a"));
+        assertThat(found.size(), is(0));
+        jobQueue.clear();
+        assertThat(jobQueue.hasJobsWithTags(ANY, new String[]{"b"}), is(false));
+    }
+
+    @Test
+    public void testFindJobBySingleId() throws Exception {
+        JobQueue jobQueue = createNewJobQueue();
+        JobHolder first = createNewJobHolder(new Params(0).setSingleId("a").addTags("x"));
+        JobHolder other = createNewJobHolder(new Params(0).setSingleId("b"));
+        jobQueue.insert(first);
+        jobQueue.insert(other);
+        String singleId = first.getSingleInstanceId();
+        assertThat(jobQueue.findJobBySingleId(singleId).getId(), is(first.getId()));
+        assertThat(jobQueue.findJobBySingleId(other.getSingleInstanceId()).getId(),
+                is(other.getId()));
+        assertThat(jobQueue.findJobBySingleId("x"), nullValue());
+        assertThat(jobQueue.findJobBySingleId(singleId + "c"), nullValue());
+
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setExcludeRunning(true);
+        constraint.setExcludeJobIds(Collections.singletonList(other.getId()));
+        assertThat(jobQueue.nextJobAndIncRunCount(constraint).getId(), is(first.getId()));
+        JobHolder second = createNewJobHolder(new Params(0).setSingleId("a"));
+        jobQueue.insert(second);
+        assertThat("should prefer the job that is not running",
+                jobQueue.findJobBySingleId(singleId).getId(), is(second.getId()));
+
+        jobQueue.onJobCancelled(second);
+        JobHolder found = jobQueue.findJobBySingleId(singleId);
+        assertThat(found == null || found.getId().equals(first.getId()), is(true));
+        jobQueue.remove(first);
+        assertThat(jobQueue.findJobBySingleId(singleId), nullValue());
+        assertThat(jobQueue.findJobBySingleId(other.getSingleInstanceId()).getId(),
+                is(other.getId()));
+    }
+
     @Test
     public void testNetwork() throws Exception {
         JobQueue jobQueue = createNewJobQueue();
@@ -1180,6 +1535,7 @@ public abstract class JobQueueTestBase extends TestBase {
         return new JobHolder.Builder()
                 .priority(params.getPriority())
                 .groupId(params.getGroupId())
+                .fairnessKey(params.getFairnessKey())
                 .job(job)
                 .id(job.getId())
                 .persistent(params.isPersistent())
@@ -1202,6 +1558,34 @@ public abstract class JobQueueTestBase extends TestBase {
     }
 
     private JobQueue createNewJobQueueWithSessionId(Long sessionId) {
-        return currentFactory.createNew(sessionId, "id_" + sessionId, mockTimer);
+        return awaitFileCleanup(currentFactory.createNew(sessionId,
+                createConfigurationBuilder(sessionId)));
+    }
+
+    private JobQueue createNewJobQueueWithPriorityAging(long msPerPriority) {
+        return awaitFileCleanup(currentFactory.createNew(123L,
+                createConfigurationBuilder(123L).priorityAging(msPerPriority)));
+    }
+
+    /**
+     * Waits for the files of the previous queues with the same id to be deleted so that the
+     * cleanup does not race the test.
+     */
+    private static JobQueue awaitFileCleanup(JobQueue jobQueue) {
+        if (jobQueue instanceof SqliteJobQueue) {
+            try {
+                ((SqliteJobQueue) jobQueue).awaitFileCleanup();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return jobQueue;
+    }
+
+    private Configuration.Builder createConfigurationBuilder(long sessionId) {
+        return new Configuration.Builder(RuntimeEnvironment.application)
+                .id("id_" + sessionId)
+                .inTestMode()
+                .timer(mockTimer);
     }
 }
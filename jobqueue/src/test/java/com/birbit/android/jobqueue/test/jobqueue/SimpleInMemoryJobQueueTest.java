@@ -2,8 +2,8 @@ package com.birbit.android.jobqueue.test.jobqueue;
 
 import com.birbit.android.jobqueue.inMemoryQueue.SimpleInMemoryPriorityQueue;
 import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.config.Configuration;
 import com.birbit.android.jobqueue.test.util.JobQueueFactory;
-import com.birbit.android.jobqueue.timer.Timer;
 
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -15,8 +15,8 @@ public class SimpleInMemoryJobQueueTest extends JobQueueTestBase {
     public SimpleInMemoryJobQueueTest() {
         super(new JobQueueFactory() {
             @Override
-            public JobQueue createNew(long sessionId, String id, Timer timer) {
-                return new SimpleInMemoryPriorityQueue(null, sessionId);
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
+                return new SimpleInMemoryPriorityQueue(builder.build(), sessionId);
             }
         });
     }
@@ -0,0 +1,93 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import android.database.Cursor;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SqliteDbStorageJobQueueTest extends JobQueueTestBase {
+    public SqliteDbStorageJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
+                SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+                return new SqliteJobQueue(builder.jobSerializer(serializer)
+                        .storeJobsInDatabase()
+                        .build(), sessionId, serializer);
+            }
+        });
+    }
+
+    @Test
+    public void testDataIsRemovedWithJob() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        JobHolder holder1 = createNewJobHolder(new Params(0).addTags("a"));
+        JobHolder holder2 = createNewJobHolder(new Params(0));
+        queue.insert(holder1);
+        queue.insertAll(Arrays.asList(holder2));
+        assertThat(countBlobs(queue), is(2));
+        assertThat(queue.findJobById(holder1.getId()), notNullValue());
+        queue.remove(holder1);
+        assertThat(countBlobs(queue), is(1));
+        queue.clear();
+        assertThat(countBlobs(queue), is(0));
+    }
+
+    @Test
+    public void testFindJobsLoadsDataInBatches() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        // more than two batches of the storage
+        int jobCount = 1201;
+        Set<String> taggedIds = new HashSet<>();
+        for (int i = 0; i < jobCount; i++) {
+            JobHolder holder = createNewJobHolder(new Params(i).addTags(i % 3 == 0 ? "a" : "b"));
+            queue.insert(holder);
+            if (i % 3 == 0) {
+                taggedIds.add(holder.getId());
+            }
+        }
+        TestConstraint constraint = TestConstraint.forTags(mockTimer, TagConstraint.ANY,
+                Collections.<String>emptyList(), "a");
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        Set<JobHolder> found = queue.findJobs(constraint);
+        assertThat(found.size(), is(taggedIds.size()));
+        for (JobHolder holder : found) {
+            assertThat(taggedIds.contains(holder.getId()), is(true));
+            assertThat(holder.getJob(), notNullValue());
+            assertThat(holder.getJob().getId(), is(holder.getId()));
+        }
+        queue.clear();
+    }
+
+    static int countBlobs(SqliteJobQueue queue) {
+        Cursor cursor = queue.getDb().rawQuery("select count(*) from job_holder_blobs",
+                new String[0]);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import android.database.Cursor;
+
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.config.Durability;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SqliteGroupCommitJobQueueTest extends JobQueueTestBase {
+    private static final long WINDOW_MS = 100;
+    private static final int MAX_WRITES = 5;
+
+    public SqliteGroupCommitJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
+                SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+                return new SqliteJobQueue(builder.jobSerializer(serializer)
+                        .durability(Durability.GROUP_COMMIT)
+                        .groupCommitLimits(WINDOW_MS, MAX_WRITES)
+                        .build(), sessionId, serializer);
+            }
+        });
+    }
+
+    @Test
+    public void writesWaitForCommit() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        assertThat(queue.hasUncommittedWrites(), is(false));
+        JobHolder holder = createNewJobHolder(new Params(0).addTags("a"));
+        queue.insert(holder);
+        assertThat(queue.hasUncommittedWrites(), is(true));
+        assertThat(queue.getDb().inTransaction(), is(true));
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        JobHolder next = queue.nextJobAndIncRunCount(constraint);
+        assertThat(next, notNullValue());
+        queue.remove(next);
+        queue.commit();
+        assertThat(queue.hasUncommittedWrites(), is(false));
+        assertThat(queue.getDb().inTransaction(), is(false));
+        assertThat(countJobs(queue), is(0));
+    }
+
+    @Test
+    public void commitAtMaxWrites() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        for (int i = 0; i < MAX_WRITES - 1; i++) {
+            queue.insert(createNewJobHolder());
+            assertThat(queue.shouldCommit(), is(false));
+        }
+        queue.insert(createNewJobHolder());
+        assertThat(queue.shouldCommit(), is(true));
+        queue.commit();
+        assertThat(queue.shouldCommit(), is(false));
+        assertThat(countJobs(queue), is(MAX_WRITES));
+    }
+
+    @Test
+    public void commitAfterWindow() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        queue.insert(createNewJobHolder());
+        mockTimer.incrementMs(WINDOW_MS - 1);
+        assertThat(queue.shouldCommit(), is(false));
+        mockTimer.incrementMs(1);
+        assertThat(queue.shouldCommit(), is(true));
+    }
+
+    @Test
+    public void relaxedDurability() {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        SqliteJobQueue queue = new SqliteJobQueue(
+                new Configuration.Builder(RuntimeEnvironment.application)
+                        .id("relaxed").jobSerializer(serializer).inTestMode()
+                        .durability(Durability.RELAXED)
+                        .timer(mockTimer).build(), 1, serializer);
+        Cursor cursor = queue.getDb().rawQuery("PRAGMA synchronous", null);
+        try {
+            cursor.moveToFirst();
+            // NORMAL
+            assertThat(cursor.getInt(0), is(1));
+        } finally {
+            cursor.close();
+        }
+        queue.insert(createNewJobHolder());
+        assertThat(queue.hasUncommittedWrites(), is(false));
+        assertThat(countJobs(queue), is(1));
+    }
+
+    @Test
+    public void failedWriteIsRolledBack() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        // makes the insert of the tag fail after the job row is written
+        queue.getDb().execSQL("CREATE TEMP TRIGGER fail_tag BEFORE INSERT ON job_holder_tags"
+                + " WHEN NEW.tag_name = 'fail' BEGIN SELECT RAISE(ABORT, 'fail'); END");
+        JobHolder kept = createNewJobHolder();
+        queue.insert(kept);
+        JobHolder failed = createNewJobHolder(new Params(0).addTags("fail"));
+        assertThat(queue.insert(failed), is(false));
+        JobHolder added = createNewJobHolder(new Params(0).addTags("a"));
+        queue.insert(added);
+        queue.commit();
+        assertThat(countJobs(queue), is(2));
+        assertThat(countRows(queue, "select count(*) from job_holder where _id = ?",
+                failed.getId()), is(0));
+        assertThat(queue.findJobById(failed.getId()), nullValue());
+        assertThat(queue.findJobById(kept.getId()), notNullValue());
+        assertThat(queue.findJobById(added.getId()), notNullValue());
+    }
+
+    @Test
+    public void failedInsertAllIsRolledBack() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        JobHolder existing = createNewJobHolder();
+        queue.insert(existing);
+        JobHolder first = createNewJobHolder(new Params(0).addTags("a"));
+        // the second row has the id of the existing job
+        assertThat(queue.insertAll(Arrays.asList(first, existing)), is(false));
+        queue.commit();
+        assertThat(countJobs(queue), is(1));
+        assertThat(countRows(queue, "select count(*) from job_holder_tags", null), is(0));
+        assertThat(queue.findJobById(first.getId()), nullValue());
+    }
+
+    private static int countJobs(SqliteJobQueue queue) {
+        return countRows(queue, "select count(*) from job_holder", null);
+    }
+
+    private static int countRows(SqliteJobQueue queue, String query, String arg) {
+        Cursor cursor = queue.getDb().rawQuery(query, arg == null ? null : new String[]{arg});
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,18 +1,21 @@
 package com.birbit.android.jobqueue.test.jobqueue;
 
+import android.content.Context;
 import android.database.Cursor;
 import androidx.core.util.Pair;
 
 import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobManager;
 import com.birbit.android.jobqueue.TestConstraint;
 import com.birbit.android.jobqueue.Job;
 import com.birbit.android.jobqueue.JobQueue;
 import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TagConstraint;
 import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.network.NetworkUtil;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.DbOpenHelper;
 import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
 import com.birbit.android.jobqueue.test.util.JobQueueFactory;
-import com.birbit.android.jobqueue.timer.Timer;
 
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
@@ -23,12 +26,16 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.CoreMatchers.*;
 
@@ -38,12 +45,10 @@ public class SqliteJobQueueTest extends JobQueueTestBase {
     public SqliteJobQueueTest() {
         super(new JobQueueFactory() {
             @Override
-            public JobQueue createNew(long sessionId, String id, Timer timer) {
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
                 SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
-                return new SqliteJobQueue(
-                        new Configuration.Builder(RuntimeEnvironment.application)
-                                .id(id).jobSerializer(serializer).inTestMode()
-                                .timer(timer).build(), sessionId, serializer);
+                return new SqliteJobQueue(builder.jobSerializer(serializer).build(), sessionId,
+                        serializer);
             }
         });
     }
@@ -117,6 +122,304 @@ public class SqliteJobQueueTest extends JobQueueTestBase {
         MatcherAssert.assertThat("custom serializer should be called for deserialize", (int) calledForDeserialize.getCount(), CoreMatchers.equalTo(0));
     }
 
+    @Test
+    public void testJobsAreLoadedWhenNeeded() throws Exception {
+        final AtomicInteger deserializeCount = new AtomicInteger(0);
+        SqliteJobQueue.JobSerializer jobSerializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public <T extends Job> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+                deserializeCount.incrementAndGet();
+                return super.deserialize(bytes);
+            }
+        };
+        SqliteJobQueue jobQueue = new SqliteJobQueue(new Configuration.Builder(RuntimeEnvironment.application)
+                .id("__" + mockTimer.nanoTime()).jobSerializer(jobSerializer).inTestMode()
+                .timer(mockTimer).build(), mockTimer.nanoTime(), jobSerializer);
+        JobHolder holder1 = createNewJobHolder(new Params(0).addTags("a"));
+        JobHolder holder2 = createNewJobHolder(new Params(0).addTags("a"));
+        jobQueue.insert(holder1);
+        jobQueue.insert(holder2);
+
+        JobHolder byId = jobQueue.findJobById(holder1.getId());
+        assertThat(byId.isJobLoaded(), is(false));
+        assertThat(byId.getTags(), hasItems("a"));
+        assertThat(deserializeCount.get(), is(0));
+        assertThat(jobQueue.getAvoidedDeserializationCount(), is(1L));
+        byId.markAsCancelled();
+        assertThat(byId.getJob().getId(), is(holder1.getId()));
+        assertThat("job should get the state set before it was loaded",
+                byId.getJob().isCancelled(), is(true));
+        assertThat(deserializeCount.get(), is(1));
+        assertThat(jobQueue.getAvoidedDeserializationCount(), is(0L));
+
+        TestConstraint constraint = TestConstraint.forTags(mockTimer, TagConstraint.ANY,
+                Collections.<String>emptyList(), "a");
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        Set<JobHolder> found = jobQueue.findJobs(constraint);
+        assertThat(found.size(), is(2));
+        assertThat(jobQueue.getAvoidedDeserializationCount(), is(2L));
+        JobHolder first = found.iterator().next();
+        assertThat(first.loadJob(), is(true));
+        assertThat(deserializeCount.get(), is(2));
+        assertThat(jobQueue.getAvoidedDeserializationCount(), is(1L));
+
+        jobQueue.remove(holder2);
+        JobHolder removed = jobQueue.findJobById(holder1.getId());
+        jobQueue.remove(holder1);
+        assertThat("removed job cannot be loaded", removed.loadJob(), is(false));
+    }
+
+    @Test
+    public void testMigrateFilesToDatabase() throws Exception {
+        String id = "migrate_" + System.nanoTime();
+        JobHolder holder = createNewJobHolder(new Params(0).addTags("a"));
+        SqliteJobQueue fileQueue = createMigrationQueue(id, false);
+        fileQueue.insert(holder);
+        assertThat(SqliteDbStorageJobQueueTest.countBlobs(fileQueue), is(0));
+        fileQueue.getDb().close();
+
+        SqliteJobQueue dbQueue = createMigrationQueue(id, true);
+        assertThat(SqliteDbStorageJobQueueTest.countBlobs(dbQueue), is(1));
+        JobHolder loaded = dbQueue.findJobById(holder.getId());
+        assertThat(loaded, notNullValue());
+        assertThat(loaded.getTags(), hasItems("a"));
+        File folder = new File(RuntimeEnvironment.application.getDir("com_birbit_jobqueue_jobs",
+                Context.MODE_PRIVATE), "files_jobs_" + id);
+        assertThat("file storage should be deleted after migration", folder.exists(), is(false));
+        dbQueue.getDb().close();
+
+        SqliteJobQueue fileQueueAgain = createMigrationQueue(id, false);
+        assertThat(SqliteDbStorageJobQueueTest.countBlobs(fileQueueAgain), is(0));
+        assertThat(fileQueueAgain.findJobById(holder.getId()), notNullValue());
+        fileQueueAgain.clear();
+        fileQueueAgain.getDb().close();
+    }
+
+    @Test
+    public void testMetadataLoadedOnStart() throws Exception {
+        String id = "metadata_" + System.nanoTime();
+        SqliteJobQueue queue = createMigrationQueue(id, false);
+        JobHolder grouped = createNewJobHolder(new Params(1).groupBy("g").addTags("a"));
+        JobHolder running = createNewJobHolder(new Params(2).groupBy("g"));
+        JobHolder network = createNewJobHolder(new Params(0).requireNetwork().addTags("a", "b"));
+        queue.insert(grouped);
+        queue.insert(running);
+        queue.insert(network);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        assertThat(queue.nextJobAndIncRunCount(constraint).getId(), is(running.getId()));
+        assertThat(queue.count(), is(2));
+        queue.getDb().close();
+
+        mockTimer.incrementMs(1);
+        SqliteJobQueue restarted = createMigrationQueue(id, false);
+        assertThat("jobs running in the previous session should be counted", restarted.count(),
+                is(3));
+        constraint.setMaxNetworkType(NetworkUtil.DISCONNECTED);
+        assertThat(restarted.countReadyJobs(constraint), is(1));
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        assertThat(restarted.countReadyJobs(constraint), is(2));
+        assertThat(restarted.hasJobsWithTags(TagConstraint.ALL, new String[]{"a", "b"}),
+                is(true));
+        assertThat(restarted.hasJobsWithTags(TagConstraint.ANY, new String[]{"c"}), is(false));
+        TestConstraint tagConstraint = TestConstraint.forTags(mockTimer, TagConstraint.ALL,
+                Collections.<String>emptyList(), "a", "b");
+        tagConstraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        Set<JobHolder> tagged = restarted.findJobs(tagConstraint);
+        assertThat(tagged.size(), is(1));
+        JobHolder loaded = tagged.iterator().next();
+        assertThat(loaded.getId(), is(network.getId()));
+        assertThat(loaded.getTags(), hasItems("a", "b"));
+        assertThat(loaded.getRequiredNetworkType(), is(NetworkUtil.METERED));
+        JobHolder next = restarted.nextJobAndIncRunCount(constraint);
+        assertThat(next.getId(), is(running.getId()));
+        assertThat(next.getRunCount(), is(2));
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    @Test
+    public void testFairnessKeyLoadedOnStart() throws Exception {
+        String id = "fairness_" + System.nanoTime();
+        SqliteJobQueue queue = createMigrationQueue(id, false);
+        JobHolder keyed = createNewJobHolder(new Params(0).groupBy("g").fairnessKey("a"));
+        JobHolder grouped = createNewJobHolder(new Params(0).groupBy("g"));
+        queue.insert(keyed);
+        queue.insert(grouped);
+        queue.getDb().close();
+
+        SqliteJobQueue restarted = createMigrationQueue(id, false);
+        JobHolder loaded = restarted.findJobById(keyed.getId());
+        assertThat(loaded.getFairnessKey(), is("a"));
+        assertThat(loaded.getJob().getFairnessKey(), is("a"));
+        assertThat(restarted.findJobById(grouped.getId()).getFairnessKey(), is("g"));
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    @Test
+    public void testQueriesDoNotReadDatabase() throws Exception {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        queue.insert(createNewJobHolder(new Params(0).groupBy("g")));
+        queue.insert(createNewJobHolder(new Params(0).groupBy("g")));
+        queue.insert(createNewJobHolder(new Params(0).overrideDeadlineToRunInMs(100)));
+        queue.getDb().close();
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        constraint.setMaxNetworkType(NetworkUtil.UNMETERED);
+        assertThat(queue.count(), is(3));
+        assertThat(queue.countReadyJobs(constraint), is(2));
+        assertThat(queue.getNextJobDelayUntilNs(constraint), is(Params.NEVER));
+    }
+
+    @Test
+    public void testPendingCancellationsReEnabledOnStart() throws Exception {
+        String id = "cancel_" + System.nanoTime();
+        SqliteJobQueue queue = createRestartQueue(id, false);
+        JobHolder cancelled = createNewJobHolder(new Params(0).addTags("a"));
+        queue.insert(cancelled);
+        queue.insert(createNewJobHolder());
+        queue.onJobCancelled(cancelled);
+        queue.getDb().close();
+
+        SqliteJobQueue restarted = createRestartQueue(id, false);
+        assertThat(restarted.findJobById(cancelled.getId()).isCancelled(), is(false));
+        assertThat(countRows(restarted, "cancelled = 1"), is(0));
+        TestConstraint constraint = TestConstraint.forTags(mockTimer, TagConstraint.ANY,
+                Collections.<String>emptyList(), "a");
+        assertThat(restarted.findJobs(constraint).size(), is(1));
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    @Test
+    public void testDelaysResetOnStart() throws Exception {
+        String id = "delay_" + System.nanoTime();
+        SqliteJobQueue queue = createRestartQueue(id, true);
+        JobHolder delayed = createNewJobHolder(new Params(0).delayInMs(1000000));
+        queue.insert(delayed);
+        queue.insert(createNewJobHolder());
+        queue.getDb().close();
+
+        SqliteJobQueue restarted = createRestartQueue(id, true);
+        assertThat(restarted.findJobById(delayed.getId()).getDelayUntilNs(),
+                is(JobManager.NOT_DELAYED_JOB_DELAY));
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        assertThat(restarted.countReadyJobs(constraint), is(2));
+        restarted.getDb().close();
+
+        SqliteJobQueue restartedAgain = createRestartQueue(id, false);
+        assertThat(restartedAgain.countReadyJobs(constraint), is(2));
+        restartedAgain.clear();
+        restartedAgain.getDb().close();
+    }
+
+    @Test
+    public void testUnusedFilesDeletedOnStart() throws Exception {
+        String id = "files_" + System.nanoTime();
+        SqliteJobQueue queue = createRestartQueue(id, false);
+        JobHolder kept = createNewJobHolder();
+        JobHolder orphan = createNewJobHolder();
+        queue.insert(kept);
+        queue.insert(orphan);
+        // the row is gone but its file is left behind, like a crash during a delete
+        queue.getDb().execSQL("DELETE FROM job_holder WHERE _id = ?",
+                new Object[]{orphan.getId()});
+        queue.getDb().close();
+        File folder = new File(RuntimeEnvironment.application.getDir("com_birbit_jobqueue_jobs",
+                Context.MODE_PRIVATE), "files_jobs_" + id);
+        assertThat(new File(folder, orphan.getId() + ".jobs").exists(), is(true));
+
+        SqliteJobQueue restarted = createRestartQueue(id, false);
+        JobHolder added = createNewJobHolder();
+        restarted.insert(added);
+        restarted.awaitFileCleanup();
+        assertThat(new File(folder, orphan.getId() + ".jobs").exists(), is(false));
+        assertThat(restarted.findJobById(kept.getId()).getJob(), notNullValue());
+        assertThat(restarted.findJobById(added.getId()).getJob(), notNullValue());
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    @Test
+    public void testFailedInsertAllDeletesFiles() throws Exception {
+        String id = "failed_insert_" + System.nanoTime();
+        SqliteJobQueue queue = createRestartQueue(id, false);
+        JobHolder existing = createNewJobHolder();
+        queue.insert(existing);
+        JobHolder added = createNewJobHolder();
+        // the second row has the id of the existing job and fails the transaction
+        assertThat(queue.insertAll(Arrays.asList(added, existing)), is(false));
+        File folder = new File(RuntimeEnvironment.application.getDir("com_birbit_jobqueue_jobs",
+                Context.MODE_PRIVATE), "files_jobs_" + id);
+        assertThat(new File(folder, added.getId() + ".jobs").exists(), is(false));
+        assertThat(queue.findJobById(added.getId()), nullValue());
+        assertThat(queue.findJobById(existing.getId()).getJob(), notNullValue());
+        queue.clear();
+        queue.getDb().close();
+    }
+
+    @Test
+    public void testReturnedJobIsNotWrittenAgain() throws Exception {
+        String id = "returned_" + System.nanoTime();
+        final AtomicInteger serializeCount = new AtomicInteger();
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer() {
+            @Override
+            public byte[] serialize(Object object) throws IOException {
+                serializeCount.incrementAndGet();
+                return super.serialize(object);
+            }
+        };
+        SqliteJobQueue queue = new SqliteJobQueue(new Configuration.Builder(
+                RuntimeEnvironment.application).id(id).jobSerializer(serializer)
+                .timer(mockTimer).build(), 1, serializer);
+        JobHolder holder = createNewJobHolder();
+        queue.insert(holder);
+        JobHolder next = queue.nextJobAndIncRunCount(new TestConstraint(mockTimer));
+        next.setRunCount(0);
+        next.setRunningSessionId(JobManager.NOT_RUNNING_SESSION_ID);
+        queue.onJobReturned(next);
+        assertThat(serializeCount.get(), is(1));
+        queue.getDb().close();
+
+        SqliteJobQueue restarted = createRestartQueue(id, false);
+        JobHolder loaded = restarted.findJobById(holder.getId());
+        assertThat(loaded.getRunCount(), is(0));
+        assertThat(loaded.getRunningSessionId(), is(JobManager.NOT_RUNNING_SESSION_ID));
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    private SqliteJobQueue createRestartQueue(String id, boolean resetDelaysOnRestart) {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        Configuration.Builder builder = new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(serializer).timer(mockTimer);
+        if (resetDelaysOnRestart) {
+            builder.resetDelaysOnRestart();
+        }
+        return new SqliteJobQueue(builder.build(), mockTimer.nanoTime(), serializer);
+    }
+
+    private static int countRows(SqliteJobQueue queue, String where) {
+        Cursor cursor = queue.getDb().rawQuery("select count(*) from job_holder where " + where,
+                null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SqliteJobQueue createMigrationQueue(String id, boolean storeJobsInDatabase) {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        Configuration.Builder builder = new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(serializer).timer(mockTimer);
+        if (storeJobsInDatabase) {
+            builder.storeJobsInDatabase();
+        }
+        return new SqliteJobQueue(builder.build(), mockTimer.nanoTime(), serializer);
+    }
+
     private static class TagInfo {
         final int tagId;
         final String jobId;
@@ -0,0 +1,289 @@
+package com.birbit.android.jobqueue.test.jobqueue;
+
+import android.database.Cursor;
+
+import com.birbit.android.jobqueue.GroupCommitJobQueue;
+import com.birbit.android.jobqueue.JobHolder;
+import com.birbit.android.jobqueue.JobQueue;
+import com.birbit.android.jobqueue.Params;
+import com.birbit.android.jobqueue.TestConstraint;
+import com.birbit.android.jobqueue.config.Configuration;
+import com.birbit.android.jobqueue.config.Durability;
+import com.birbit.android.jobqueue.persistentQueue.sqlite.SqliteJobQueue;
+import com.birbit.android.jobqueue.test.util.JobQueueFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SqliteWriteBehindJobQueueTest extends JobQueueTestBase {
+    private static final int MAX_WRITES = 5;
+
+    public SqliteWriteBehindJobQueueTest() {
+        super(new JobQueueFactory() {
+            @Override
+            public JobQueue createNew(long sessionId, Configuration.Builder builder) {
+                SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+                return new SqliteJobQueue(builder.jobSerializer(serializer)
+                        .durability(Durability.WRITE_BEHIND)
+                        .groupCommitLimits(0, MAX_WRITES)
+                        .build(), sessionId, serializer);
+            }
+        });
+    }
+
+    @Test
+    public void writesCommitInBackground() throws InterruptedException {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        assertThat(queue.commitsInBackground(), is(true));
+        final CountDownLatch committed = new CountDownLatch(1);
+        queue.setCommitListener(new GroupCommitJobQueue.CommitListener() {
+            @Override
+            public void onCommitted() {
+                committed.countDown();
+            }
+        });
+        JobHolder holder = createNewJobHolder(new Params(0).addTags("a"));
+        queue.insert(holder);
+        // the queue does not wait for the commit
+        assertThat(queue.count(), is(1));
+        assertThat(queue.findJobById(holder.getId()).getJob(), notNullValue());
+        assertThat(committed.await(10, TimeUnit.SECONDS), is(true));
+        queue.commit();
+        assertThat(queue.hasUncommittedWrites(), is(false));
+        assertThat(queue.isInsertCommitted(holder.getId()), is(true));
+        assertThat(queue.shouldCommit(), is(false));
+        assertThat(countJobs(queue), is(1));
+    }
+
+    @Test
+    public void jobsRunBeforeCommit() {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        List<JobHolder> holders = new ArrayList<>();
+        for (int i = 0; i < MAX_WRITES * 3; i++) {
+            holders.add(createNewJobHolder());
+        }
+        queue.insertAll(holders);
+        TestConstraint constraint = new TestConstraint(mockTimer);
+        for (JobHolder holder : holders) {
+            JobHolder next = queue.nextJobAndIncRunCount(constraint);
+            assertThat(next.getId(), is(holder.getId()));
+            assertThat(next.getRunCount(), is(1));
+            queue.remove(next);
+        }
+        queue.commit();
+        assertThat(countJobs(queue), is(0));
+    }
+
+    @Test
+    public void acknowledgedInsertsSurviveRestart() throws Exception {
+        acknowledgedInsertsSurviveRestart(false);
+    }
+
+    @Test
+    public void acknowledgedInsertsSurviveRestartWithDbStorage() throws Exception {
+        acknowledgedInsertsSurviveRestart(true);
+    }
+
+    /**
+     * Opens the database of a queue that is still writing, like a restart after the process is
+     * killed, and checks that every job that was reported as committed can be read from it.
+     */
+    private void acknowledgedInsertsSurviveRestart(boolean storeJobsInDatabase) throws Exception {
+        String id = "write_behind_" + System.nanoTime();
+        final SqliteJobQueue queue = createNamedQueue(id, storeJobsInDatabase);
+        final List<String> inserted = new CopyOnWriteArrayList<>();
+        final Set<String> acknowledged = Collections.synchronizedSet(new HashSet<String>());
+        queue.setCommitListener(new GroupCommitJobQueue.CommitListener() {
+            @Override
+            public void onCommitted() {
+                for (String jobId : inserted) {
+                    if (queue.isInsertCommitted(jobId)) {
+                        acknowledged.add(jobId);
+                    }
+                }
+            }
+        });
+        for (int i = 0; i < 200; i++) {
+            JobHolder holder = createNewJobHolder(new Params(i % 3).addTags("t" + (i % 4)));
+            queue.insert(holder);
+            // the listener must not see the job before the queue tracks its insert
+            inserted.add(holder.getId());
+        }
+        Set<String> acknowledgedBeforeRestart;
+        synchronized (acknowledged) {
+            // the commit listener may still be adding ids
+            acknowledgedBeforeRestart = new HashSet<>(acknowledged);
+        }
+        SqliteJobQueue restarted = createNamedQueue(id, storeJobsInDatabase);
+        for (String jobId : acknowledgedBeforeRestart) {
+            JobHolder holder = restarted.findJobById(jobId);
+            assertThat("acknowledged job " + jobId + " must be committed", holder,
+                    notNullValue());
+            assertThat(holder.getJob(), notNullValue());
+        }
+        restarted.getDb().close();
+
+        queue.commit();
+        for (String jobId : inserted) {
+            assertThat(queue.isInsertCommitted(jobId), is(true));
+        }
+        queue.getDb().close();
+        SqliteJobQueue afterCommit = createNamedQueue(id, storeJobsInDatabase);
+        assertThat(afterCommit.count(), is(inserted.size()));
+        afterCommit.clear();
+        afterCommit.getDb().close();
+    }
+
+    @Test
+    public void failedInsertIsNotAcknowledged() throws Exception {
+        failedInsertIsNotAcknowledged(false);
+    }
+
+    @Test
+    public void failedInsertIsNotAcknowledgedWithDbStorage() throws Exception {
+        failedInsertIsNotAcknowledged(true);
+    }
+
+    /**
+     * Makes the insert of a job fail in the middle of a batch and checks that it is reported as
+     * failed instead of committed, that the rest of the batch is committed and that nothing of the
+     * failed job is found after a restart.
+     */
+    private void failedInsertIsNotAcknowledged(boolean storeJobsInDatabase) throws Exception {
+        String id = "write_behind_" + System.nanoTime();
+        final SqliteJobQueue queue = createNamedQueue(id, storeJobsInDatabase);
+        // makes the insert of the tag fail after the job row is written
+        queue.getDb().execSQL("CREATE TEMP TRIGGER fail_tag BEFORE INSERT ON job_holder_tags"
+                + " WHEN NEW.tag_name = 'fail' BEGIN SELECT RAISE(ABORT, 'fail'); END");
+        final List<String> inserted = new CopyOnWriteArrayList<>();
+        final Set<String> acknowledged = Collections.synchronizedSet(new HashSet<String>());
+        queue.setCommitListener(new GroupCommitJobQueue.CommitListener() {
+            @Override
+            public void onCommitted() {
+                for (String jobId : inserted) {
+                    if (queue.isInsertCommitted(jobId)) {
+                        acknowledged.add(jobId);
+                    }
+                }
+            }
+        });
+        JobHolder failed = null;
+        for (int i = 0; i < MAX_WRITES * 2; i++) {
+            JobHolder holder = createNewJobHolder(new Params(0).addTags(i == 3 ? "fail" : "a"));
+            if (i == 3) {
+                failed = holder;
+            }
+            queue.insert(holder);
+            inserted.add(holder.getId());
+        }
+        //noinspection ConstantConditions
+        final String failedId = failed.getId();
+        queue.commit();
+        assertThat(acknowledged.contains(failedId), is(false));
+        assertThat(queue.isInsertCommitted(failedId), is(false));
+        assertThat(queue.isInsertFailed(failedId), is(true));
+        for (String jobId : inserted) {
+            if (!jobId.equals(failedId)) {
+                assertThat(queue.isInsertCommitted(jobId), is(true));
+                assertThat(queue.isInsertFailed(jobId), is(false));
+            }
+        }
+        assertThat(countJobs(queue, "_id = '" + failedId + "'"), is(0));
+        queue.getDb().close();
+
+        SqliteJobQueue restarted = createNamedQueue(id, storeJobsInDatabase);
+        assertThat(restarted.findJobById(failedId), nullValue());
+        assertThat(restarted.count(), is(inserted.size() - 1));
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    @Test
+    public void removingFailedInsert() throws Exception {
+        SqliteJobQueue queue = (SqliteJobQueue) createNewJobQueue();
+        queue.getDb().execSQL("CREATE TEMP TRIGGER fail_tag BEFORE INSERT ON job_holder_tags"
+                + " WHEN NEW.tag_name = 'fail' BEGIN SELECT RAISE(ABORT, 'fail'); END");
+        JobHolder failed = createNewJobHolder(new Params(0).addTags("fail"));
+        queue.insert(failed);
+        queue.commit();
+        assertThat(queue.isInsertFailed(failed.getId()), is(true));
+        // the job stays in the queue until it is removed
+        assertThat(queue.count(), is(1));
+        queue.remove(failed);
+        queue.commit();
+        assertThat(queue.isInsertFailed(failed.getId()), is(false));
+        assertThat(queue.count(), is(0));
+        assertThat(queue.findJobById(failed.getId()), nullValue());
+    }
+
+    @Test
+    public void removalsSurviveRestart() throws Exception {
+        String id = "write_behind_" + System.nanoTime();
+        SqliteJobQueue queue = createNamedQueue(id, false);
+        JobHolder removed = createNewJobHolder(new Params(0).addTags("a"));
+        JobHolder cancelled = createNewJobHolder();
+        JobHolder replaced = createNewJobHolder(new Params(1));
+        queue.insert(removed);
+        queue.insert(cancelled);
+        queue.insert(replaced);
+        queue.remove(removed);
+        queue.onJobCancelled(cancelled);
+        replaced.setRunCount(3);
+        queue.insertOrReplace(replaced);
+        queue.commit();
+        assertThat(countJobs(queue, "cancelled = 1"), is(1));
+        queue.getDb().close();
+
+        SqliteJobQueue restarted = createNamedQueue(id, false);
+        assertThat(restarted.findJobById(removed.getId()), nullValue());
+        assertThat(restarted.findJobById(cancelled.getId()), notNullValue());
+        assertThat(restarted.findJobById(replaced.getId()).getRunCount(), is(3));
+        assertThat(restarted.count(), is(2));
+        restarted.clear();
+        restarted.getDb().close();
+    }
+
+    private SqliteJobQueue createNamedQueue(String id, boolean storeJobsInDatabase) {
+        SqliteJobQueue.JavaSerializer serializer = new SqliteJobQueue.JavaSerializer();
+        Configuration.Builder builder = new Configuration.Builder(RuntimeEnvironment.application)
+                .id(id).jobSerializer(serializer).timer(mockTimer)
+                .durability(Durability.WRITE_BEHIND)
+                .groupCommitLimits(0, MAX_WRITES);
+        if (storeJobsInDatabase) {
+            builder.storeJobsInDatabase();
+        }
+        return new SqliteJobQueue(builder.build(), mockTimer.nanoTime(), serializer);
+    }
+
+    private static int countJobs(SqliteJobQueue queue) {
+        return countJobs(queue, "1");
+    }
+
+    private static int countJobs(SqliteJobQueue queue, String where) {
+        Cursor cursor = queue.getDb().rawQuery("select count(*) from job_holder where " + where,
+                null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
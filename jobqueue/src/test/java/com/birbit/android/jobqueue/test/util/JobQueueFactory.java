@@ -1,8 +1,12 @@
 package com.birbit.android.jobqueue.test.util;
 
 import com.birbit.android.jobqueue.JobQueue;
-import com.birbit.android.jobqueue.timer.Timer;
+import com.birbit.android.jobqueue.config.Configuration;
 
 public interface JobQueueFactory {
-    public JobQueue createNew(long sessionId, String id, Timer timer);
+    /**
+     * @param sessionId The session id of the queue
+     * @param builder A builder with the id and the timer of the queue and the options of the test
+     */
+    public JobQueue createNew(long sessionId, Configuration.Builder builder);
 }
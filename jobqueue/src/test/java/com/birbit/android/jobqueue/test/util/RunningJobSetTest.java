@@ -15,6 +15,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -53,6 +54,30 @@ public class RunningJobSetTest {
         assertThat(set.getSafe().iterator().hasNext(), is(false));
     }
 
+    @Test
+    public void testConcurrencyLimit() {
+        set = new RunningJobSet(new SystemTimer(), Collections.singletonMap("g1", 2));
+        set.add("g1");
+        assertList();
+        assertThat(set.getSlotsSafe().get("g1"), is(1));
+        set.add("g1");
+        assertList("g1");
+        assertThat(set.getSlotsSafe().containsKey("g1"), is(false));
+        set.remove("g1");
+        assertList();
+        assertThat(set.getSlotsSafe().get("g1"), is(1));
+        set.remove("g1");
+        assertThat(set.getSlotsSafe().get("g1"), is(2));
+    }
+
+    @Test
+    public void testDefaultLimit() {
+        set = new RunningJobSet(new SystemTimer(), Collections.singletonMap("g1", 2));
+        set.add("g2");
+        assertList("g2");
+        assertThat(set.getSlotsSafe().containsKey("g2"), is(false));
+    }
+
     @Test
     public void testOrder() {
         set.add("a");
@@ -82,6 +107,16 @@ public class RunningJobSetTest {
         assertList(); // should've pruned the list
     }
 
+    @Test
+    public void testTimeoutEndsAtItsTime() {
+        MockTimer timer = new MockTimer();
+        set = new RunningJobSet(timer);
+        set.addGroupUntil("g1", 10L);
+        assertList("g1");
+        timer.setNow(10);
+        assertList();
+    }
+
     @Test
     public void testAddSameGroupTwiceWithTimeout() {
         MockTimer timer = new MockTimer();